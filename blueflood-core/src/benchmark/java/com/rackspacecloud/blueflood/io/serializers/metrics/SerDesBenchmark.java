@@ -0,0 +1,229 @@
+/*
+ * Copyright 2017 Rackspace
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.rackspacecloud.blueflood.io.serializers.metrics;
+
+import com.rackspacecloud.blueflood.rollup.Granularity;
+import com.rackspacecloud.blueflood.rollup.SlotKey;
+import com.rackspacecloud.blueflood.service.SlotState;
+import com.rackspacecloud.blueflood.service.UpdateStamp;
+import com.rackspacecloud.blueflood.types.*;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.ByteBuffer;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Serializes and deserializes a typical value with every SerDes of this package.
+ * Values are deserialized from a view of a larger array, the way the drivers
+ * hand them over. Run with {@code -prof gc} to see the allocation rate of each.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SerDesBenchmark {
+
+    private final RawSerDes rawSerDes = new RawSerDes();
+    private final BasicRollupSerDes basicRollupSerDes = new BasicRollupSerDes();
+    private final TimerRollupSerDes timerRollupSerDes = new TimerRollupSerDes();
+    private final CounterSerDes counterSerDes = new CounterSerDes();
+    private final GaugeSerDes gaugeSerDes = new GaugeSerDes();
+    private final SetSerDes setSerDes = new SetSerDes();
+    private final StringMetadataSerDes stringMetadataSerDes = new StringMetadataSerDes();
+    private final FullResBlockSerDes fullResBlockSerDes = new FullResBlockSerDes();
+    private final SlotKeySerDes slotKeySerDes = new SlotKeySerDes();
+    private final SlotStateSerDes slotStateSerDes = new SlotStateSerDes();
+
+    private Double raw;
+    private BasicRollup basicRollup;
+    private BluefloodTimerRollup timerRollup;
+    private BluefloodCounterRollup counterRollup;
+    private BluefloodGaugeRollup gaugeRollup;
+    private BluefloodSetRollup setRollup;
+    private String stringMetadata;
+    private SortedMap<Long, Double> block;
+    private SlotKey slotKey;
+    private SlotState slotState;
+
+    private ByteBuffer serializedRaw;
+    private ByteBuffer serializedBasicRollup;
+    private ByteBuffer serializedTimerRollup;
+    private ByteBuffer serializedCounterRollup;
+    private ByteBuffer serializedGaugeRollup;
+    private ByteBuffer serializedSetRollup;
+    private ByteBuffer serializedStringMetadata;
+    private ByteBuffer serializedBlock;
+    private String serializedSlotKey;
+    private String serializedSlotState;
+
+    @Setup
+    public void setUp() throws Exception {
+        long start = 1500000000000L;
+        Points<SimpleNumber> points = new Points<SimpleNumber>();
+        block = new TreeMap<Long, Double>();
+        for (int i = 0; i < 10; i++) {
+            points.add(new Points.Point<SimpleNumber>(start + i * 30000L, new SimpleNumber(i * 1.5)));
+        }
+        for (int i = 0; i < 240; i++) {
+            block.put(start + i * 30000L, (double) (i % 10));
+        }
+
+        raw = 42.5;
+        basicRollup = BasicRollup.buildRollupFromRawSamples(points);
+        timerRollup = new BluefloodTimerRollup()
+                .withSum(1005.5).withCount(100).withCountPS(3.3).withSampleCount(10)
+                .withAverage(10.05).withMaxValue(20).withMinValue(1).withVariance(2.5);
+        timerRollup.setPercentile("50", 10.5);
+        timerRollup.setPercentile("99", 19.5);
+        counterRollup = BluefloodCounterRollup.buildRollupFromRawSamples(points);
+        gaugeRollup = BluefloodGaugeRollup.buildFromRawSamples(points);
+        setRollup = new BluefloodSetRollup();
+        for (int i = 0; i < 20; i++) {
+            setRollup = setRollup.withObject(i * 7919);
+        }
+        stringMetadata = "milliseconds";
+        slotKey = SlotKey.of(Granularity.MIN_5, 1234, 56);
+        slotState = new SlotState(Granularity.MIN_5, 1234, UpdateStamp.State.Active);
+
+        serializedRaw = view(rawSerDes.serialize(raw));
+        serializedBasicRollup = view(basicRollupSerDes.serialize(basicRollup));
+        serializedTimerRollup = view(timerRollupSerDes.serialize(timerRollup));
+        serializedCounterRollup = view(counterSerDes.serialize(counterRollup));
+        serializedGaugeRollup = view(gaugeSerDes.serialize(gaugeRollup));
+        serializedSetRollup = view(setSerDes.serialize(setRollup));
+        serializedStringMetadata = view(stringMetadataSerDes.serialize(stringMetadata));
+        serializedBlock = view(fullResBlockSerDes.serialize(block));
+        serializedSlotKey = slotKeySerDes.serialize(slotKey);
+        serializedSlotState = slotStateSerDes.serialize(slotState);
+    }
+
+    @Benchmark
+    public ByteBuffer serializeRaw() {
+        return rawSerDes.serialize(raw);
+    }
+
+    @Benchmark
+    public Object deserializeRaw() {
+        return rawSerDes.deserialize(serializedRaw);
+    }
+
+    @Benchmark
+    public ByteBuffer serializeBasicRollup() {
+        return basicRollupSerDes.serialize(basicRollup);
+    }
+
+    @Benchmark
+    public BasicRollup deserializeBasicRollup() {
+        return basicRollupSerDes.deserialize(serializedBasicRollup);
+    }
+
+    @Benchmark
+    public ByteBuffer serializeTimerRollup() {
+        return timerRollupSerDes.serialize(timerRollup);
+    }
+
+    @Benchmark
+    public BluefloodTimerRollup deserializeTimerRollup() {
+        return timerRollupSerDes.deserialize(serializedTimerRollup);
+    }
+
+    @Benchmark
+    public ByteBuffer serializeCounterRollup() {
+        return counterSerDes.serialize(counterRollup);
+    }
+
+    @Benchmark
+    public BluefloodCounterRollup deserializeCounterRollup() {
+        return counterSerDes.deserialize(serializedCounterRollup);
+    }
+
+    @Benchmark
+    public ByteBuffer serializeGaugeRollup() {
+        return gaugeSerDes.serialize(gaugeRollup);
+    }
+
+    @Benchmark
+    public BluefloodGaugeRollup deserializeGaugeRollup() {
+        return gaugeSerDes.deserialize(serializedGaugeRollup);
+    }
+
+    @Benchmark
+    public ByteBuffer serializeSetRollup() {
+        return setSerDes.serialize(setRollup);
+    }
+
+    @Benchmark
+    public BluefloodSetRollup deserializeSetRollup() {
+        return setSerDes.deserialize(serializedSetRollup);
+    }
+
+    @Benchmark
+    public ByteBuffer serializeStringMetadata() {
+        return stringMetadataSerDes.serialize(stringMetadata);
+    }
+
+    @Benchmark
+    public String deserializeStringMetadata() {
+        return stringMetadataSerDes.deserialize(serializedStringMetadata);
+    }
+
+    @Benchmark
+    public ByteBuffer serializeFullResBlock() throws Exception {
+        return fullResBlockSerDes.serialize(block);
+    }
+
+    @Benchmark
+    public SortedMap<Long, Object> deserializeFullResBlock() {
+        return fullResBlockSerDes.deserialize(serializedBlock);
+    }
+
+    @Benchmark
+    public String serializeSlotKey() {
+        return slotKeySerDes.serialize(slotKey);
+    }
+
+    @Benchmark
+    public SlotKey deserializeSlotKey() {
+        return SlotKeySerDes.deserialize(serializedSlotKey);
+    }
+
+    @Benchmark
+    public String serializeSlotState() {
+        return slotStateSerDes.serialize(slotState);
+    }
+
+    @Benchmark
+    public SlotState deserializeSlotState() {
+        return SlotStateSerDes.deserialize(serializedSlotState);
+    }
+
+    /**
+     * @return the bytes of the buffer, in the middle of a larger array
+     */
+    private static ByteBuffer view(ByteBuffer serialized) {
+        ByteBuffer larger = ByteBuffer.allocate(serialized.remaining() + 64);
+        larger.position(32);
+        larger.put(serialized.duplicate());
+        larger.position(32);
+        larger.limit(32 + serialized.remaining());
+        return larger.slice();
+    }
+}
@@ -23,11 +23,15 @@ import com.rackspacecloud.blueflood.io.IntegrationTestBase;
 import com.rackspacecloud.blueflood.service.Configuration;
 import com.rackspacecloud.blueflood.service.CoreConfig;
 import com.rackspacecloud.blueflood.types.Locator;
+import com.rackspacecloud.blueflood.utils.InMemoryMetadataIO;
 import org.junit.After;
 import org.junit.Assert;
 import org.junit.Test;
 
+import java.io.IOException;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 public class MetadataCacheBatchedModeIntegrationTest extends IntegrationTestBase {
 
@@ -58,6 +62,48 @@ public class MetadataCacheBatchedModeIntegrationTest extends IntegrationTestBase
     }
 
 
+    @Test
+    public void testBatchModeWritesSkipPersistedValues() throws Exception {
+        System.setProperty(CoreConfig.META_CACHE_BATCHED_WRITES.name(), "true");
+        Configuration.getInstance().init();
+
+        final List<Table<Locator, String, String>> written = new CopyOnWriteArrayList<Table<Locator, String, String>>();
+        MetadataCache cache = MetadataCache.createLoadingCacheInstance();
+        cache.setIO(new InMemoryMetadataIO() {
+            @Override
+            public void putAll(Table<Locator, String, String> meta) throws IOException {
+                written.add(HashBasedTable.create(meta));
+                super.putAll(meta);
+            }
+        });
+
+        Locator l0 = Locator.createLocatorFromPathComponents("1", "e", "f");
+        cache.put(l0, "type", "gauge");
+        cache.put(l0, "unit", "bytes");
+        Thread.sleep(2000);
+
+        Table<Locator, String, String> all = HashBasedTable.create();
+        for (Table<Locator, String, String> batch : written) {
+            all.putAll(batch);
+        }
+        Assert.assertEquals("gauge", all.get(l0, "type"));
+        Assert.assertEquals("bytes", all.get(l0, "unit"));
+        int writes = written.size();
+
+        // the cache forgets it, but it is already in the db.
+        cache.invalidate(l0, "unit");
+        Assert.assertTrue(cache.put(l0, "unit", "bytes"));
+        Thread.sleep(2000);
+        Assert.assertEquals(writes, written.size());
+
+        // a changed value is written again
+        cache.put(l0, "unit", "seconds");
+        Thread.sleep(2000);
+        Assert.assertEquals(writes + 1, written.size());
+        Assert.assertEquals(1, written.get(writes).size());
+        Assert.assertEquals("seconds", written.get(writes).get(l0, "unit"));
+    }
+
     @Test
     public void testBatchModeReads() throws Exception {
         System.setProperty(CoreConfig.META_CACHE_BATCHED_READS.name(), "true");
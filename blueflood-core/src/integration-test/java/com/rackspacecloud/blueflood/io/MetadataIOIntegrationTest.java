@@ -4,6 +4,8 @@ import com.google.common.collect.HashBasedTable;
 import com.google.common.collect.Table;
 import com.rackspacecloud.blueflood.io.astyanax.AMetadataIO;
 import com.rackspacecloud.blueflood.io.datastax.DMetadataIO;
+import com.rackspacecloud.blueflood.service.Configuration;
+import com.rackspacecloud.blueflood.service.CoreConfig;
 import com.rackspacecloud.blueflood.types.Locator;
 import com.rackspacecloud.blueflood.types.MetricMetadata;
 import com.rackspacecloud.blueflood.types.RollupType;
@@ -126,4 +128,44 @@ public class MetadataIOIntegrationTest extends IntegrationTestBase {
         assertEquals( RollupType.SET.toString(), entry2.getValue() );
 
     }
+
+    @Test
+    public void writeAllDatastaxStreamInListsDatastax() throws Exception {
+
+        System.setProperty( CoreConfig.META_CACHE_BATCHED_READS_IN_LIST_SIZE.name(), "2" );
+        Configuration.getInstance().init();
+        try {
+            DMetadataIO inListMetadataIO = new DMetadataIO();
+
+            Table<Locator, String, String> meta = HashBasedTable.create();
+            Set<Locator> query = new HashSet<Locator>();
+            for ( int i = 0; i < 5; i++ ) {
+                Locator locator = Locator.createLocatorFromPathComponents( getRandomTenantId(), "all.put.datastax.stream.read.l" + i );
+                meta.put( locator, CACHE_KEY, RollupType.COUNTER.toString() );
+                meta.put( locator, "unit", "unit" + i );
+                query.add( locator );
+            }
+            // one without any metadata
+            Locator empty = Locator.createLocatorFromPathComponents( getRandomTenantId(), "all.put.datastax.stream.read.empty" );
+            query.add( empty );
+
+            dMetadataIO.putAll( meta );
+
+            final Table<Locator, String, String> streamed = HashBasedTable.create();
+            inListMetadataIO.getAllValues( query, new MetadataIO.MetadataListener() {
+                @Override
+                public void onMetadata( Locator locator, Map<String, String> values ) {
+                    assertFalse( streamed.containsRow( locator ) );
+                    streamed.row( locator ).putAll( values );
+                }
+            } );
+
+            assertEquals( meta, streamed );
+            assertFalse( streamed.containsRow( empty ) );
+        }
+        finally {
+            System.clearProperty( CoreConfig.META_CACHE_BATCHED_READS_IN_LIST_SIZE.name() );
+            Configuration.getInstance().init();
+        }
+    }
 }
@@ -0,0 +1,136 @@
+/*
+ * Copyright 2017 Rackspace
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.rackspacecloud.blueflood.cache;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.rackspacecloud.blueflood.service.Configuration;
+import com.rackspacecloud.blueflood.service.CoreConfig;
+import com.rackspacecloud.blueflood.types.BluefloodGaugeRollup;
+import com.rackspacecloud.blueflood.types.IMetric;
+import com.rackspacecloud.blueflood.types.Locator;
+import com.rackspacecloud.blueflood.types.Points;
+import com.rackspacecloud.blueflood.types.SimpleNumber;
+import com.rackspacecloud.blueflood.utils.Metrics;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the latest point of metrics in memory, for queries that only want the
+ * current value of many metrics.
+ * <p>
+ *
+ * Ingestion updates the cache as metrics are written, if
+ * {@code LATEST_VALUE_CACHE_UPDATE_ON_INGEST} is set and it runs in the same
+ * process as the queries. Otherwise, query nodes fill it with what they read on
+ * a miss. Either way, a value is dropped {@code LATEST_VALUE_CACHE_EXPIRE_SECONDS}
+ * after it was last updated, so that values of query nodes don't get stale.
+ * <p>
+ *
+ * The cache is split into segments by the hash of the locator, each with its
+ * own lock and its own share of {@code LATEST_VALUE_CACHE_MAX_SIZE}, so writers
+ * of different metrics don't wait for each other. Only numbers and the latest
+ * values of gauges are kept; other pre-aggregated metrics are left out.
+ */
+public class LatestValueCache {
+
+    private static final LatestValueCache instance = new LatestValueCache(
+            Configuration.getInstance().getLongProperty(CoreConfig.LATEST_VALUE_CACHE_MAX_SIZE),
+            Configuration.getInstance().getLongProperty(CoreConfig.LATEST_VALUE_CACHE_EXPIRE_SECONDS));
+
+    static {
+        Metrics.getRegistry().register(MetricRegistry.name(LatestValueCache.class, "Cached Values Count"),
+                new Gauge<Long>() {
+                    @Override
+                    public Long getValue() {
+                        return instance.size();
+                    }
+                });
+    }
+
+    private final Cache<Locator, Points.Point<SimpleNumber>> values;
+
+    public static LatestValueCache getInstance() {
+        return instance;
+    }
+
+    /**
+     * @param maxSize number of metrics to keep the latest value of
+     * @param expireAfterSeconds how long a value is kept after it was last updated
+     */
+    @VisibleForTesting
+    public LatestValueCache(long maxSize, long expireAfterSeconds) {
+        this.values = CacheBuilder.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(expireAfterSeconds, TimeUnit.SECONDS)
+                .concurrencyLevel(16)
+                .build();
+    }
+
+    /**
+     * Keeps the values of ingested metrics that are newer than the cached ones.
+     */
+    public void update(Collection<IMetric> metrics) {
+        for (IMetric metric : metrics) {
+            Object value = metric.getMetricValue();
+            if (value instanceof Number) {
+                put(metric.getLocator(),
+                        new Points.Point<SimpleNumber>(metric.getCollectionTime(), new SimpleNumber(value)));
+            } else if (value instanceof BluefloodGaugeRollup && ((BluefloodGaugeRollup) value).getLatestValue() != null) {
+                BluefloodGaugeRollup gauge = (BluefloodGaugeRollup) value;
+                put(metric.getLocator(),
+                        new Points.Point<SimpleNumber>(gauge.getTimestamp(), gauge.getLatestValue()));
+            }
+        }
+    }
+
+    /**
+     * Keeps the point as the latest of a locator, unless a newer one is cached.
+     */
+    public void put(Locator locator, Points.Point<SimpleNumber> point) {
+        ConcurrentMap<Locator, Points.Point<SimpleNumber>> map = values.asMap();
+        while (true) {
+            Points.Point<SimpleNumber> cached = map.putIfAbsent(locator, point);
+            if (cached == null) {
+                return;
+            }
+            if (cached.getTimestamp() > point.getTimestamp()) {
+                return;
+            }
+            if (map.replace(locator, cached, point)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * @return the cached latest points of the locators that have one
+     */
+    public Map<Locator, Points.Point<SimpleNumber>> getAll(Collection<Locator> locators) {
+        return values.getAllPresent(locators);
+    }
+
+    public long size() {
+        return values.size();
+    }
+}
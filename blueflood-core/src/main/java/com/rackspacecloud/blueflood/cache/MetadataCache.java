@@ -98,9 +98,13 @@ public class MetadataCache extends AbstractJmxCache implements MetadataCacheMBea
 
     private final java.util.Timer batchedWritesTimer = new java.util.Timer("MetadataBatchedWrites");
     private final ThreadPoolExecutor writeThreadPoolExecutor;
-    private final Set<CacheKey> outstandingMetaWrites;
-    private final Queue<CacheKey> metaWrites; // Guarantees FIFO writes
+    // the keys of every locator waiting to be written, so that they are written together. guarded by itself.
+    private final Map<Locator, Set<String>> outstandingMetaWrites;
+    private final Queue<Locator> metaWrites; // Guarantees FIFO writes
+    // the values last read from or written to the db, that don't have to be written again
+    private final com.google.common.cache.Cache<CacheKey, String> persisted;
     private static final Timer batchedWritesTimerMetric = Metrics.timer(MetadataCache.class, "Metadata batched writes timer");
+    private static final Meter skippedWritesMeter = Metrics.meter(MetadataCache.class, "Metadata writes already persisted");
 
     private static final MetadataCache INSTANCE = new MetadataCache(defaultExpiration, defaultConcurrency);
     private MetadataIO io = IOContainer.fromConfig().getMetadataIO();
@@ -141,6 +145,10 @@ public class MetadataCache extends AbstractJmxCache implements MetadataCacheMBea
                 .concurrencyLevel(concurrency)
                 .recordStats()
                 .build(loader);
+        persisted = CacheBuilder.newBuilder()
+                .expireAfterWrite(expiration.getValue(), expiration.getUnit())
+                .concurrencyLevel(concurrency)
+                .build();
         try {
             Metrics.getRegistry().register(MetricRegistry.name(MetadataCache.class, "Cache Size"), this.cacheSizeGauge);
         } catch (Exception e) {
@@ -166,13 +174,13 @@ public class MetadataCache extends AbstractJmxCache implements MetadataCacheMBea
                 }
             }, 0, this.batchedReadsInterval.toMillis());
         }
-        this.outstandingMetaWrites = new ConcurrentSkipListSet<CacheKey>();
+        this.outstandingMetaWrites = new HashMap<Locator, Set<String>>();
         this.writeThreadPoolExecutor = new ThreadPoolBuilder().withCorePoolSize(batchedWritesPipelineLimit)
                 .withMaxPoolSize(batchedWritesPipelineLimit)
                 .withBoundedQueue(Configuration.getInstance()
                         .getIntegerProperty(CoreConfig.META_CACHE_BATCHED_WRITES_QUEUE_SIZE))
                 .withName("MetaBatchedWritesThreadPool").build();
-        this.metaWrites = new ConcurrentLinkedQueue<CacheKey>();
+        this.metaWrites = new ConcurrentLinkedQueue<Locator>();
 
         if (batchedWrites) {
             this.batchedWritesTimer.schedule(new TimerTask() {
@@ -187,6 +195,7 @@ public class MetadataCache extends AbstractJmxCache implements MetadataCacheMBea
     public void setIO(MetadataIO io) {
         this.io = io;
         cache.invalidateAll();
+        persisted.invalidateAll();
     }
 
     public static MetadataCache getInstance() {
@@ -368,6 +377,7 @@ public class MetadataCache extends AbstractJmxCache implements MetadataCacheMBea
     private void databasePut(Locator locator, String key, String value) throws CacheException {
         try {
             io.put(locator, key, value);
+            persisted.put(new CacheKey(locator, key), value);
         } catch (IOException ex) {
             throw new CacheException(ex);
         }
@@ -387,8 +397,10 @@ public class MetadataCache extends AbstractJmxCache implements MetadataCacheMBea
             // prepopulate all other metadata other than the key we called the method with
             for (Map.Entry<String, String> meta : metadata.entrySet()) {
                 metadataRowSize += meta.getKey().getBytes().length + locator.toString().getBytes().length;
-                if (meta.getValue() != null)
+                if (meta.getValue() != null) {
                     metadataRowSize += meta.getValue().getBytes().length;
+                    persisted.put(new CacheKey(locator, meta.getKey()), meta.getValue());
+                }
                 if (meta.getKey().equals(key)) continue;
                 CacheKey metaKey = new CacheKey(locator, meta.getKey());
                 cache.put(metaKey, meta.getValue());
@@ -423,19 +435,23 @@ public class MetadataCache extends AbstractJmxCache implements MetadataCacheMBea
     }
 
     private void databaseLazyWrite(Locator locator, String metaKey) {
-        CacheKey compoundKey = new CacheKey(locator, metaKey);
-        if (outstandingMetaWrites.contains(compoundKey)) {
-            return; // already queued up to write.
-        }
-
-        outstandingMetaWrites.add(compoundKey);
-        metaWrites.add(compoundKey);
+        queueMetaWrite(locator, metaKey);
 
         if (metaWrites.size() > batchedWritesThreshold) {
             flushMeta(false);
         }
+    }
 
-        return;
+    private void queueMetaWrite(Locator locator, String metaKey) {
+        synchronized (outstandingMetaWrites) {
+            Set<String> keys = outstandingMetaWrites.get(locator);
+            if (keys == null) {
+                keys = new HashSet<String>();
+                outstandingMetaWrites.put(locator, keys);
+                metaWrites.add(locator);
+            }
+            keys.add(metaKey); // no-op if it is already queued up to write.
+        }
     }
 
     private void fetchMeta(boolean forced) { // Only one thread should ever call into this.
@@ -451,7 +467,13 @@ public class MetadataCache extends AbstractJmxCache implements MetadataCacheMBea
                     batch.add(metaReads.poll()); // poll() is a destructive read (removes the head from the queue).
                 }
 
-                readThreadPoolExecutor.submit(new BatchedMetaReadsRunnable(batch));
+                try {
+                    readThreadPoolExecutor.submit(new BatchedMetaReadsRunnable(batch));
+                } catch (RejectedExecutionException ex) {
+                    // the pipeline is full. try again on the next timer run.
+                    metaReads.addAll(batch);
+                    break;
+                }
             }
         }
     }
@@ -463,23 +485,55 @@ public class MetadataCache extends AbstractJmxCache implements MetadataCacheMBea
             }
 
             while (!metaWrites.isEmpty()) {
+                // all the keys of a locator go into the same batch, to be written as one partition.
                 Table<Locator, String, String> metaBatch = HashBasedTable.create();
 
-                for (int i = 0; !metaWrites.isEmpty() && i < batchedWritesThreshold; i++) {
-                    CacheKey compoundKey = metaWrites.poll(); // destructive read.
-                    Locator locator = compoundKey.locator();
-                    String metaKey = compoundKey.keyString();
-                    String metaVal = cache.getIfPresent(compoundKey);
-                    if (metaVal != null) {
+                while (!metaWrites.isEmpty() && metaBatch.size() < batchedWritesThreshold) {
+                    Locator locator = metaWrites.poll(); // destructive read.
+                    Set<String> metaKeys;
+                    synchronized (outstandingMetaWrites) {
+                        // a put from here on queues the locator up again.
+                        metaKeys = outstandingMetaWrites.remove(locator);
+                    }
+                    if (metaKeys == null) {
+                        continue;
+                    }
+                    for (String metaKey : metaKeys) {
+                        CacheKey compoundKey = new CacheKey(locator, metaKey);
+                        String metaVal = cache.getIfPresent(compoundKey);
+                        if (metaVal == null) {
+                            continue;
+                        }
+                        if (metaVal.equals(persisted.getIfPresent(compoundKey))) {
+                            skippedWritesMeter.mark();
+                            continue;
+                        }
                         metaBatch.put(locator, metaKey, metaVal);
                     }
                 }
 
-                writeThreadPoolExecutor.submit(new BatchedMetaWritesRunnable(metaBatch));
+                if (metaBatch.isEmpty()) {
+                    continue;
+                }
+                try {
+                    writeThreadPoolExecutor.submit(new BatchedMetaWritesRunnable(metaBatch));
+                } catch (RejectedExecutionException ex) {
+                    // the pipeline is full. try again on the next timer run.
+                    requeueMetaWrites(metaBatch);
+                    break;
+                }
             }
         }
     }
 
+    private void requeueMetaWrites(Table<Locator, String, String> metaBatch) {
+        for (Table.Cell<Locator, String, String> cell : metaBatch.cellSet()) {
+            // This is fine. We always read the latest value from the real cache. So we'll pull the latest
+            // value to write.
+            queueMetaWrite(cell.getRowKey(), cell.getColumnKey());
+        }
+    }
+
     private final class CacheKey implements Comparable<CacheKey> {
         private final Locator locator;
         private final String keyString;
@@ -538,52 +592,62 @@ public class MetadataCache extends AbstractJmxCache implements MetadataCacheMBea
         @Override
         public void run() {
             Timer.Context ctx = batchedReadsTimerMetric.time();
+            // the io hands the locators over on this thread, as their metadata arrives
+            final Set<Locator> read = new HashSet<Locator>();
             try {
-                Table<Locator, String, String> metaTable = io.getAllValues(locators);
-                int metadataRowSize = 0;
-
-                for (Locator locator : metaTable.rowKeySet()) {
-                    Map<String, String> metaMapForLocator = metaTable.row(locator);
-
-                    for (Map.Entry<String, String> meta : metaMapForLocator.entrySet()) {
-                        CacheKey metaKey = new CacheKey(locator, meta.getKey());
-                        String existing = cache.getIfPresent(metaKey);
-
-                        if (existing == null) {
-                            cache.put(metaKey, meta.getValue());
-                        }
-
-                        boolean differs = existing != null && !existing.equals(meta.getValue());
-                        if (differs) {
-                            log.warn("Meta " + meta.getKey() + " changed from " + existing + " to " + meta.getValue()
-                                    + " for locator " + locator); // delayed audit log.
-                            // In this case, do not update the cache. DB has stale data.
-                            continue;
-                        }
-
-                        metadataRowSize += meta.getKey().getBytes().length + locator.toString().getBytes().length;
-                        metadataRowSize += meta.getValue().getBytes().length;
+                io.getAllValues(locators, new MetadataIO.MetadataListener() {
+                    @Override
+                    public void onMetadata(Locator locator, Map<String, String> metaMapForLocator) {
+                        cacheMetadata(locator, metaMapForLocator);
+                        read.add(locator);
                     }
+                });
 
-                    // Got the meta for locator. Remove this from the place holder.
-                    outstandingMetaReads.remove(locator);
-                }
-
-                totalMetadataSize.update(metadataRowSize);
                 // Kickoff fetch meta if necessary
                 if (metaReads.size() > batchedReadsThreshold) {
                     fetchMeta(false);
                 }
             } catch (Exception ex) {
-                // Queue up the locators again (at the end)!
+                // Queue up the locators that weren't read again (at the end)!
                 for (Locator locator : locators) {
-                    metaReads.add(locator);
+                    if (!read.contains(locator)) {
+                        metaReads.add(locator);
+                    }
                 }
                 log.error("Exception reading metadata from db (batched reads)", ex);
             } finally {
                 ctx.stop();
             }
         }
+
+        private void cacheMetadata(Locator locator, Map<String, String> metaMapForLocator) {
+            int metadataRowSize = 0;
+
+            for (Map.Entry<String, String> meta : metaMapForLocator.entrySet()) {
+                CacheKey metaKey = new CacheKey(locator, meta.getKey());
+                persisted.put(metaKey, meta.getValue());
+                String existing = cache.getIfPresent(metaKey);
+
+                if (existing == null) {
+                    cache.put(metaKey, meta.getValue());
+                }
+
+                boolean differs = existing != null && !existing.equals(meta.getValue());
+                if (differs) {
+                    log.warn("Meta " + meta.getKey() + " changed from " + existing + " to " + meta.getValue()
+                            + " for locator " + locator); // delayed audit log.
+                    // In this case, do not update the cache. DB has stale data.
+                    continue;
+                }
+
+                metadataRowSize += meta.getKey().getBytes().length + locator.toString().getBytes().length;
+                metadataRowSize += meta.getValue().getBytes().length;
+            }
+
+            totalMetadataSize.update(metadataRowSize);
+            // Got the meta for locator. Remove this from the place holder.
+            outstandingMetaReads.remove(locator);
+        }
     }
 
     private class BatchedMetaWritesRunnable implements Runnable {
@@ -598,19 +662,13 @@ public class MetadataCache extends AbstractJmxCache implements MetadataCacheMBea
             Timer.Context ctx = batchedWritesTimerMetric.time();
             try {
                 io.putAll(metaToWrite);
+                for (Table.Cell<Locator, String, String> cell : metaToWrite.cellSet()) {
+                    persisted.put(new CacheKey(cell.getRowKey(), cell.getColumnKey()), cell.getValue());
+                }
             } catch (Exception ex) {
                 log.error("Exception writing metadata to db (batched writes)", ex);
                 // Queue up writes at the end.
-                for (Locator locator : metaToWrite.rowKeySet()) {
-                    Map<String, String> metaMapForLocator = metaToWrite.row(locator);
-
-                    for (Map.Entry<String, String> meta : metaMapForLocator.entrySet()) {
-                        CacheKey compoundKey = new CacheKey(locator, meta.getKey());
-                        metaWrites.add(compoundKey);
-                        // This is fine. We always read the latest value from the real cache. So we'll pull the latest
-                        // value to write.
-                    }
-                }
+                requeueMetaWrites(metaToWrite);
             } finally {
                 ctx.stop();
             }
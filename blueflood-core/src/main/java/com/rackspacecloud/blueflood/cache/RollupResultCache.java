@@ -0,0 +1,317 @@
+/*
+ * Copyright 2017 Rackspace
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.rackspacecloud.blueflood.cache;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.Weigher;
+import com.rackspacecloud.blueflood.io.MetricsRWDelegator;
+import com.rackspacecloud.blueflood.outputs.formats.MetricData;
+import com.rackspacecloud.blueflood.rollup.Granularity;
+import com.rackspacecloud.blueflood.service.Configuration;
+import com.rackspacecloud.blueflood.service.CoreConfig;
+import com.rackspacecloud.blueflood.service.ScheduleContext;
+import com.rackspacecloud.blueflood.service.UpdateStamp;
+import com.rackspacecloud.blueflood.types.Locator;
+import com.rackspacecloud.blueflood.types.Points;
+import com.rackspacecloud.blueflood.types.Range;
+import com.rackspacecloud.blueflood.utils.Clock;
+import com.rackspacecloud.blueflood.utils.DefaultClockImpl;
+import com.rackspacecloud.blueflood.utils.Metrics;
+import com.rackspacecloud.blueflood.utils.Util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Caches rollups read on the query path for time ranges that can no longer change.
+ * <p>
+ *
+ * Rollups of a granularity are cached in blocks of {@code ROLLUP_RESULT_CACHE_BLOCK_SLOTS}
+ * consecutive slots, keyed by locator, granularity and block start. A block is
+ * only cached once it is final: we don't accept metrics older than
+ * {@code BEFORE_CURRENT_COLLECTIONTIME_MS}, and the last re-roll of a slot
+ * happens at most {@code LONG_DELAY_METRICS_ROLLUP_WAIT_MILLIS} after its
+ * last ingest, so nothing written after that can change the block. Since a
+ * re-roll can still be late, a block is also only cached when the shard state
+ * of the {@link ScheduleContext} has every one of its slots rolled up and clean;
+ * without a schedule context nothing is cached.
+ * <p>
+ *
+ * A query is answered with the cached blocks in the middle of its range, and
+ * reads only the parts before the first and after the last block from
+ * Cassandra. If any block of a locator is missing, the whole range of that
+ * locator is read, and its finalized blocks are offered to the cache.
+ * <p>
+ *
+ * The cache is bounded by the estimated size of the cached points. Since
+ * least-recently-used eviction on its own lets a single long query flush the
+ * blocks that dashboards ask for every minute, a block is only admitted on its
+ * second miss within a while; blocks that are read once are never cached.
+ */
+public class RollupResultCache {
+
+    // rough size of a rollup point and its map entry on the heap
+    private static final int BYTES_PER_POINT = 256;
+    private static final int BYTES_PER_BLOCK = 128;
+
+    // how many missed blocks are remembered for admission, and for how long
+    private static final int DOORKEEPER_SIZE = 100000;
+    private static final long DOORKEEPER_MINUTES = 60;
+
+    // cached blocks are dropped eventually, so that rollups that expired in Cassandra are not served forever
+    private static final long EXPIRE_AFTER_WRITE_HOURS = 6;
+
+    private static final Meter blocksHit = Metrics.meter(RollupResultCache.class, "Blocks Served From Cache");
+    private static final Meter blocksMissed = Metrics.meter(RollupResultCache.class, "Blocks Read From Cassandra");
+    private static final Meter blocksAdmitted = Metrics.meter(RollupResultCache.class, "Blocks Admitted");
+    private static final Meter blocksNotRolled = Metrics.meter(RollupResultCache.class, "Blocks Not Admitted Before Rollup");
+
+    private static final RollupResultCache instance = new RollupResultCache(
+            Configuration.getInstance().getLongProperty(CoreConfig.ROLLUP_RESULT_CACHE_MAX_SIZE_MB) * 1024 * 1024,
+            Configuration.getInstance().getIntegerProperty(CoreConfig.ROLLUP_RESULT_CACHE_BLOCK_SLOTS),
+            Configuration.getInstance().getLongProperty(CoreConfig.BEFORE_CURRENT_COLLECTIONTIME_MS) +
+                    Configuration.getInstance().getLongProperty(CoreConfig.LONG_DELAY_METRICS_ROLLUP_WAIT_MILLIS),
+            new DefaultClockImpl());
+
+    static {
+        Metrics.getRegistry().register(MetricRegistry.name(RollupResultCache.class, "Cached Blocks Count"),
+                new Gauge<Long>() {
+                    @Override
+                    public Long getValue() {
+                        return instance.getBlockCount();
+                    }
+                });
+    }
+
+    private final Cache<String, List<Points.Point>> blocks;
+    private final Cache<String, Boolean> missedOnce;
+    private final int blockSlots;
+    private final long finalizedAfterMillis;
+    private final Clock clock;
+    private volatile ScheduleContext scheduleContext;
+
+    public static RollupResultCache getInstance() {
+        return instance;
+    }
+
+    /**
+     * @param scheduleContext whose shard state tells which slots are rolled up
+     */
+    public void setScheduleContext(ScheduleContext scheduleContext) {
+        this.scheduleContext = scheduleContext;
+    }
+
+    /**
+     * @param maxBytes estimated size of all cached blocks
+     * @param blockSlots number of slots of a granularity in a block
+     * @param finalizedAfterMillis how long after its end a slot can no longer change
+     * @param clock provides the current time
+     */
+    @VisibleForTesting
+    public RollupResultCache(long maxBytes, int blockSlots, long finalizedAfterMillis, Clock clock) {
+        this.blockSlots = blockSlots;
+        this.finalizedAfterMillis = finalizedAfterMillis;
+        this.clock = clock;
+        this.blocks = CacheBuilder.newBuilder()
+                .maximumWeight(maxBytes)
+                .weigher(new Weigher<String, List<Points.Point>>() {
+                    @Override
+                    public int weigh(String key, List<Points.Point> points) {
+                        return BYTES_PER_BLOCK + 2 * key.length() + BYTES_PER_POINT * points.size();
+                    }
+                })
+                .expireAfterWrite(EXPIRE_AFTER_WRITE_HOURS, TimeUnit.HOURS)
+                .concurrencyLevel(16)
+                .build();
+        this.missedOnce = CacheBuilder.newBuilder()
+                .maximumSize(DOORKEEPER_SIZE)
+                .expireAfterWrite(DOORKEEPER_MINUTES, TimeUnit.MINUTES)
+                .concurrencyLevel(16)
+                .build();
+    }
+
+    public long getBlockCount() {
+        return blocks.size();
+    }
+
+    /**
+     * Same as {@link MetricsRWDelegator#getDatapointsForRange(List, Range, Granularity)},
+     * but serves finalized blocks of the range from the cache.
+     *
+     * @param delegator reads what is not cached
+     */
+    public Map<Locator, MetricData> getDatapointsForRange(MetricsRWDelegator delegator, List<Locator> locators,
+                                                         Range range, Granularity gran) {
+        if (gran == Granularity.FULL) {
+            return delegator.getDatapointsForRange(locators, range, gran);
+        }
+
+        long blockMillis = gran.milliseconds() * blockSlots;
+        long finalizedBefore = clock.now().getMillis() - finalizedAfterMillis;
+
+        // the blocks that lie completely within the range and are final. The part after
+        // them is never empty, since it always holds the slot at the end of the range.
+        long firstBlock = ceil(range.getStart(), blockMillis);
+        long blocksEnd = Math.min(floor(range.getStop() - 1, blockMillis), floor(finalizedBefore, blockMillis));
+        if (blocksEnd <= firstBlock) {
+            return delegator.getDatapointsForRange(locators, range, gran);
+        }
+
+        Map<Locator, List<List<Points.Point>>> cached = new HashMap<Locator, List<List<Points.Point>>>();
+        List<Locator> missed = new ArrayList<Locator>();
+        for (Locator locator : locators) {
+            List<List<Points.Point>> locatorBlocks = new ArrayList<List<Points.Point>>();
+            for (long block = firstBlock; block < blocksEnd; block += blockMillis) {
+                List<Points.Point> points = blocks.getIfPresent(keyFor(locator, gran, block));
+                if (points == null) {
+                    locatorBlocks = null;
+                    break;
+                }
+                locatorBlocks.add(points);
+            }
+            if (locatorBlocks == null) {
+                missed.add(locator);
+            } else {
+                cached.put(locator, locatorBlocks);
+            }
+        }
+
+        Map<Locator, MetricData> result = new HashMap<Locator, MetricData>();
+
+        if (!missed.isEmpty()) {
+            Map<Locator, MetricData> read = delegator.getDatapointsForRange(missed, range, gran);
+            for (Map.Entry<Locator, MetricData> entry : read.entrySet()) {
+                offer(entry.getKey(), gran, entry.getValue().getData(), firstBlock, blocksEnd, blockMillis);
+            }
+            result.putAll(read);
+        }
+
+        if (!cached.isEmpty()) {
+            List<Locator> hits = new ArrayList<Locator>(cached.keySet());
+            Map<Locator, MetricData> head = Collections.emptyMap();
+            if (range.getStart() < firstBlock - 1) {
+                head = delegator.getDatapointsForRange(hits, new Range(range.getStart(), firstBlock - 1), gran);
+            }
+            Map<Locator, MetricData> tail = delegator.getDatapointsForRange(hits, new Range(blocksEnd, range.getStop()), gran);
+
+            for (Map.Entry<Locator, List<List<Points.Point>>> entry : cached.entrySet()) {
+                Locator locator = entry.getKey();
+                MetricData tailData = tail.get(locator);
+                if (tailData == null) {
+                    // the delegator leaves out locators it can't read at all
+                    continue;
+                }
+                Points points = new Points();
+                if (head.containsKey(locator)) {
+                    addAll(points, head.get(locator).getData());
+                }
+                for (List<Points.Point> block : entry.getValue()) {
+                    for (Points.Point point : block) {
+                        points.add(point);
+                    }
+                }
+                addAll(points, tailData.getData());
+                result.put(locator, new MetricData(points, tailData.getUnit()));
+                blocksHit.mark(entry.getValue().size());
+            }
+        }
+
+        return result;
+    }
+
+    private void offer(Locator locator, Granularity gran, Points<?> points,
+                       long firstBlock, long blocksEnd, long blockMillis) {
+        for (long block = firstBlock; block < blocksEnd; block += blockMillis) {
+            String key = keyFor(locator, gran, block);
+            if (blocks.getIfPresent(key) != null) {
+                continue;
+            }
+            blocksMissed.mark();
+            if (missedOnce.asMap().putIfAbsent(key, Boolean.TRUE) == null) {
+                // first miss, only remember it
+                continue;
+            }
+            if (!isRolled(locator, gran, block, blockMillis)) {
+                blocksNotRolled.mark();
+                continue;
+            }
+            List<Points.Point> blockPoints = new ArrayList<Points.Point>();
+            for (Points.Point point : points.getPoints().values()) {
+                if (point.getTimestamp() >= block && point.getTimestamp() < block + blockMillis) {
+                    blockPoints.add(point);
+                }
+            }
+            blocks.put(key, Collections.unmodifiableList(blockPoints));
+            missedOnce.invalidate(key);
+            blocksAdmitted.mark();
+        }
+    }
+
+    /**
+     * @return whether every slot of the block is rolled up, and has no changes
+     *         that are yet to be written to the shard state
+     */
+    private boolean isRolled(Locator locator, Granularity gran, long block, long blockMillis) {
+        ScheduleContext context = scheduleContext;
+        if (context == null) {
+            return false;
+        }
+        Map<Integer, UpdateStamp> stamps = context.getSlotStamps(gran, Util.getShard(locator.toString()));
+        for (long slotStart = block; slotStart < block + blockMillis; slotStart += gran.milliseconds()) {
+            UpdateStamp stamp = stamps.get(gran.slot(slotStart));
+            if (stamp == null || stamp.getState() != UpdateStamp.State.Rolled || stamp.isDirty()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void addAll(Points to, Points<?> from) {
+        for (Points.Point point : from.getPoints().values()) {
+            to.add(point);
+        }
+    }
+
+    private static long floor(long millis, long blockMillis) {
+        return millis - (millis % blockMillis);
+    }
+
+    private static long ceil(long millis, long blockMillis) {
+        long floor = floor(millis, blockMillis);
+        return floor == millis ? millis : floor + blockMillis;
+    }
+
+    private static String keyFor(Locator locator, Granularity gran, long blockStart) {
+        return locator.toString() + "," + gran.name() + "," + blockStart;
+    }
+
+    @VisibleForTesting
+    public void resetCache() {
+        blocks.invalidateAll();
+        missedOnce.invalidateAll();
+    }
+}
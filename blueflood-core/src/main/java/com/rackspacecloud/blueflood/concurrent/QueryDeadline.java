@@ -0,0 +1,351 @@
+/*
+ * Copyright 2017 Rackspace
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.rackspacecloud.blueflood.concurrent;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Ticker;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.rackspacecloud.blueflood.exceptions.QueryDeadlineExceededException;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * The time a query has left, which goes with it through every stage that works
+ * on it: metadata lookups, the unit lookup, the database reads and rollups on read.
+ * <p>
+ *
+ * The deadline of the query a thread works on is {@link #current()}. Work that is
+ * handed to another pool is wrapped with {@link #wrap(Callable)}, so that the pool
+ * thread has the deadline while it runs. Stages {@link #check()} it before they
+ * start more work, and wait no longer than {@link #remainingMillis()} for their
+ * futures. The futures of database reads are {@link #register(Future) registered},
+ * and cancelled when the deadline passes or the query is {@link #cancel() cancelled},
+ * e.g. because the client went away.
+ * <p>
+ *
+ * Whoever starts a query {@link #finish() finishes} it when it is done, which runs
+ * what was registered with {@link #onFinish(Runnable)}. A handler that goes on with
+ * the query after it returns calls {@link #finishLater()}, and finishes it itself.
+ * <p>
+ *
+ * Work that is not part of a query, like rollups, has the deadline {@link #NONE},
+ * which never passes.
+ */
+public class QueryDeadline {
+
+    private static final int MIN_REMOVE_DONE_AT = 16;
+    private static final ThreadLocal<QueryDeadline> current = new ThreadLocal<QueryDeadline>();
+
+    /**
+     * The deadline of work that is not part of a query. It never passes, and
+     * cancelling it does nothing.
+     */
+    public static final QueryDeadline NONE = new QueryDeadline(0, Ticker.systemTicker());
+
+    private final Ticker ticker;
+    private final long expiresAtNanos;
+    private volatile boolean cancelled = false;
+    private final Set<Future<?>> futures = new HashSet<Future<?>>();   // guarded by this
+    private int removeDoneAt = MIN_REMOVE_DONE_AT;   // guarded by this
+    private final List<Runnable> finishListeners = new ArrayList<Runnable>();   // guarded by this
+    private boolean finished = false;   // guarded by this
+    private volatile boolean finishLater = false;
+
+    /**
+     * @param timeoutMillis how long the query may run from now, or 0 for no limit. A query
+     *                      without a limit still stops when it is cancelled.
+     * @param ticker provides the time
+     */
+    public QueryDeadline(long timeoutMillis, Ticker ticker) {
+        this.ticker = ticker;
+        this.expiresAtNanos = timeoutMillis > 0
+                ? ticker.read() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis)
+                : Long.MAX_VALUE;
+    }
+
+    public static QueryDeadline after(long timeoutMillis) {
+        return new QueryDeadline(timeoutMillis, Ticker.systemTicker());
+    }
+
+    /**
+     * @return the deadline of the query this thread works on, or {@link #NONE}
+     */
+    public static QueryDeadline current() {
+        QueryDeadline deadline = current.get();
+        return deadline == null ? NONE : deadline;
+    }
+
+    /**
+     * Makes this the deadline of the work this thread does until {@link #restore} is called.
+     *
+     * @return the deadline the thread had before, to be restored
+     */
+    public QueryDeadline attach() {
+        QueryDeadline previous = current.get();
+        current.set(this);
+        return previous;
+    }
+
+    public static void restore(QueryDeadline previous) {
+        if (previous == null) {
+            current.remove();
+        } else {
+            current.set(previous);
+        }
+    }
+
+    /**
+     * @return the milliseconds left, 0 if the deadline has passed or the query was cancelled,
+     *         or {@link Long#MAX_VALUE} if there is no limit
+     */
+    public long remainingMillis() {
+        if (cancelled) {
+            return 0;
+        }
+        if (expiresAtNanos == Long.MAX_VALUE) {
+            return Long.MAX_VALUE;
+        }
+        long remainingNanos = expiresAtNanos - ticker.read();
+        // rounded up, so that a wait for the remaining time does not end before the deadline
+        return remainingNanos <= 0 ? 0 : (remainingNanos + 999999) / 1000000;
+    }
+
+    /**
+     * @return the shorter of the time left and a stage's own timeout
+     */
+    public long remainingMillis(long timeoutMillis) {
+        return Math.min(remainingMillis(), timeoutMillis);
+    }
+
+    public boolean isExpired() {
+        return remainingMillis() == 0;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * Cancels the query: stages that check the deadline stop, and the registered
+     * futures are cancelled.
+     */
+    public void cancel() {
+        if (this == NONE) {
+            return;
+        }
+        cancelled = true;
+        List<Future<?>> toCancel;
+        synchronized (this) {
+            toCancel = new ArrayList<Future<?>>(futures);
+            futures.clear();
+        }
+        for (Future<?> future : toCancel) {
+            future.cancel(true);
+        }
+    }
+
+    /**
+     * @throws QueryDeadlineExceededException if the deadline has passed or the query was
+     *         cancelled, after cancelling the registered futures
+     */
+    public void check() {
+        if (isExpired()) {
+            throw exceeded();
+        }
+    }
+
+    /**
+     * Has the future cancelled along with the query. A future registered after
+     * the query was cancelled is cancelled right away. Only futures that are not
+     * done yet are held on to: a {@link ListenableFuture} is let go of as soon as
+     * it completes, any other future once enough have been registered after it.
+     */
+    public <F extends Future<?>> F register(final F future) {
+        if (this == NONE) {
+            return future;
+        }
+        synchronized (this) {
+            if (!cancelled) {
+                if (finished || future.isDone()) {
+                    return future;
+                }
+                if (futures.size() >= removeDoneAt) {
+                    removeDone();
+                }
+                futures.add(future);
+            }
+        }
+        if (cancelled) {
+            future.cancel(true);
+            return future;
+        }
+        if (future instanceof ListenableFuture) {
+            // added outside the lock, so that the thread that completes the future never waits for it
+            ((ListenableFuture<?>) future).addListener(new Runnable() {
+                @Override
+                public void run() {
+                    synchronized (QueryDeadline.this) {
+                        futures.remove(future);
+                    }
+                }
+            }, MoreExecutors.directExecutor());
+        }
+        return future;
+    }
+
+    /**
+     * @return the number of registered futures that are held on to
+     */
+    @VisibleForTesting
+    synchronized int getRegisteredCount() {
+        return futures.size();
+    }
+
+    /** must be called with this held. */
+    private void removeDone() {
+        Iterator<Future<?>> it = futures.iterator();
+        while (it.hasNext()) {
+            if (it.next().isDone()) {
+                it.remove();
+            }
+        }
+        // the futures are looked at again only once as many have been registered, whatever their number
+        removeDoneAt = Math.max(MIN_REMOVE_DONE_AT, futures.size() * 2);
+    }
+
+    /**
+     * Runs the listener when the query is finished, or right away if it is.
+     * Work that is not part of a query is never finished.
+     */
+    public void onFinish(Runnable listener) {
+        if (this == NONE) {
+            return;
+        }
+        synchronized (this) {
+            if (!finished) {
+                finishListeners.add(listener);
+                return;
+            }
+        }
+        listener.run();
+    }
+
+    /**
+     * Marks the query as done, and runs the finish listeners. Only the first call does anything.
+     */
+    public void finish() {
+        if (this == NONE) {
+            return;
+        }
+        List<Runnable> listeners;
+        synchronized (this) {
+            if (finished) {
+                return;
+            }
+            finished = true;
+            listeners = new ArrayList<Runnable>(finishListeners);
+            finishListeners.clear();
+            futures.clear();
+        }
+        for (Runnable listener : listeners) {
+            listener.run();
+        }
+    }
+
+    /**
+     * Tells whoever started the query that it goes on after the handler returns,
+     * and that the caller will {@link #finish()} it.
+     */
+    public QueryDeadline finishLater() {
+        if (this != NONE) {
+            finishLater = true;
+        }
+        return this;
+    }
+
+    public boolean isFinishedLater() {
+        return finishLater;
+    }
+
+    /**
+     * Waits for the result of a stage no longer than the time left.
+     *
+     * @throws QueryDeadlineExceededException if the deadline passes first, after
+     *         cancelling the future and the registered ones
+     */
+    public <T> T await(Future<T> future) throws InterruptedException, ExecutionException {
+        try {
+            return future.get(remainingMillis(), TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            future.cancel(true);
+            throw exceeded();
+        }
+    }
+
+    /**
+     * @return a callable that runs with this deadline on the thread of whichever pool
+     *         it is submitted to, and that doesn't start if the deadline has passed
+     */
+    public <T> Callable<T> wrap(final Callable<T> callable) {
+        return new Callable<T>() {
+            @Override
+            public T call() throws Exception {
+                QueryDeadline previous = attach();
+                try {
+                    check();
+                    return callable.call();
+                } finally {
+                    restore(previous);
+                }
+            }
+        };
+    }
+
+    /**
+     * @return a runnable that runs with this deadline on the thread of whichever pool
+     *         it is submitted to
+     */
+    public Runnable wrap(final Runnable runnable) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                QueryDeadline previous = attach();
+                try {
+                    runnable.run();
+                } finally {
+                    restore(previous);
+                }
+            }
+        };
+    }
+
+    private QueryDeadlineExceededException exceeded() {
+        boolean wasCancelled = cancelled;
+        cancel();
+        return new QueryDeadlineExceededException(wasCancelled ? "Query was cancelled" : "Query deadline exceeded");
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright 2017 Rackspace
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.rackspacecloud.blueflood.concurrent;
+
+import com.codahale.metrics.Meter;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.Uninterruptibles;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Lets identical requests that are made at the same time share one execution.
+ * <p>
+ *
+ * The first caller for a key runs the request on its own thread. Callers that
+ * ask for the same key while it runs wait for it, and get the same result, or
+ * the same exception. A waiting caller gives up when the deadline of its own
+ * query passes or the query is cancelled, without stopping the shared request.
+ * Nothing is cached: once the request is done, the next caller for the key
+ * runs it again. Since the result is shared, callers must not modify it.
+ */
+public class RequestCoalescer<K, V> {
+
+    private final ConcurrentMap<K, SettableFuture<V>> inFlight = new ConcurrentHashMap<K, SettableFuture<V>>();
+    private final Meter coalesced;
+
+    /**
+     * @param coalesced marked for every request that is answered by another one
+     */
+    public RequestCoalescer(Meter coalesced) {
+        this.coalesced = coalesced;
+    }
+
+    public V execute(K key, Callable<V> request) {
+        SettableFuture<V> future = SettableFuture.create();
+        SettableFuture<V> running = inFlight.putIfAbsent(key, future);
+        if (running != null) {
+            coalesced.mark();
+            return await(running);
+        }
+
+        try {
+            V result = request.call();
+            future.set(result);
+            return result;
+        } catch (Throwable t) {
+            future.setException(t);
+            if (t instanceof RuntimeException) {
+                throw (RuntimeException) t;
+            } else if (t instanceof Error) {
+                throw (Error) t;
+            }
+            throw new RuntimeException(t);
+        } finally {
+            inFlight.remove(key, future);
+        }
+    }
+
+    /**
+     * @return the number of requests that are running
+     */
+    public int getInFlightCount() {
+        return inFlight.size();
+    }
+
+    /**
+     * @throws com.rackspacecloud.blueflood.exceptions.QueryDeadlineExceededException if
+     *         the caller's deadline passes, or its query is cancelled, before the request is done
+     */
+    private V await(SettableFuture<V> running) {
+        QueryDeadline deadline = QueryDeadline.current();
+        // cancelling the caller's view of the request, along with its query, leaves the request running
+        ListenableFuture<V> waiting = deadline.register(Futures.nonCancellationPropagating(running));
+        try {
+            while (true) {
+                try {
+                    return Uninterruptibles.getUninterruptibly(waiting, deadline.remainingMillis(), TimeUnit.MILLISECONDS);
+                } catch (TimeoutException e) {
+                    deadline.check();
+                } catch (CancellationException e) {
+                    deadline.check();
+                    throw e;
+                }
+            }
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new RuntimeException(cause);
+        }
+    }
+}
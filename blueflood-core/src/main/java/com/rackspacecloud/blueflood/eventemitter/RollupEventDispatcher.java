@@ -0,0 +1,372 @@
+/*
+ * Copyright 2017 Rackspace
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.rackspacecloud.blueflood.eventemitter;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Function;
+import com.google.common.base.Functions;
+import com.rackspacecloud.blueflood.utils.Metrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A bounded dispatcher for {@link RollupEvent}s.
+ * <p>
+ *
+ * Events are published into a ring buffer that is allocated once, up front.
+ * Every subscribed listener has its own consumer thread and read position in
+ * the ring, and receives the events in batches of up to {@code maxBatchSize}
+ * through a single {@link Emitter.Listener#call(Object[])}. A slow listener
+ * therefore never holds up another listener, and the memory used by pending
+ * events is bounded by the size of the ring.
+ * <p>
+ *
+ * When the slowest listener is a full ring behind, the {@link OverflowPolicy}
+ * decides whether the publisher waits for it, whether the oldest pending
+ * events are dropped for the listeners that are behind, or whether incoming
+ * events are sampled. A blocked publisher never waits longer than
+ * {@code blockTimeoutMillis}; after that the event is dropped.
+ */
+public class RollupEventDispatcher {
+    private static final Logger log = LoggerFactory.getLogger(RollupEventDispatcher.class);
+    private static final AtomicInteger consumerIds = new AtomicInteger(0);
+    private static final long DEFAULT_BLOCK_TIMEOUT_MILLIS = 1000;
+
+    public enum OverflowPolicy {
+        /** the publisher waits, up to the block timeout, until the slowest listener catches up. */
+        BLOCK,
+        /** the oldest pending events are dropped for the listeners that are behind. */
+        DROP_OLDEST,
+        /** while the ring is full, only one in every {@code sampleRate} incoming events is kept. */
+        SAMPLE
+    }
+
+    private final String[] eventNames;
+    private final RollupEvent[] events;
+    private final int mask;
+    private final int maxBatchSize;
+    private final OverflowPolicy overflowPolicy;
+    private final int sampleRate;
+    private final long blockTimeoutNanos;
+    private final Function<RollupEvent[], RollupEvent[]> batchTransform;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notFull = lock.newCondition();
+    private final Condition notEmpty = lock.newCondition();
+    /** sequence of the next event to be published. guarded by {@link #lock}. */
+    private long cursor = 0;
+    /** number of events that arrived while the ring was full, used for sampling. guarded by {@link #lock}. */
+    private long overflowCount = 0;
+    private volatile boolean running = true;
+
+    private final List<Consumer> consumers = new CopyOnWriteArrayList<Consumer>();
+
+    private final Meter published = Metrics.meter(RollupEventDispatcher.class, "Published");
+    private final Meter dropped = Metrics.meter(RollupEventDispatcher.class, "Dropped");
+    private final Meter blocked = Metrics.meter(RollupEventDispatcher.class, "Publisher Blocked");
+    private final Meter blockTimedOut = Metrics.meter(RollupEventDispatcher.class, "Publisher Block Timed Out");
+
+    public RollupEventDispatcher(int capacity, int maxBatchSize, OverflowPolicy overflowPolicy, int sampleRate) {
+        this(capacity, maxBatchSize, overflowPolicy, sampleRate, DEFAULT_BLOCK_TIMEOUT_MILLIS,
+                Functions.<RollupEvent[]>identity());
+    }
+
+    /**
+     * @param capacity number of events the ring can hold; rounded up to a power of two.
+     * @param maxBatchSize maximum number of events handed to a listener at once.
+     * @param overflowPolicy what to do when the slowest listener is a full ring behind.
+     * @param sampleRate with {@link OverflowPolicy#SAMPLE}, keep one in this many events while full.
+     * @param blockTimeoutMillis with {@link OverflowPolicy#BLOCK}, the longest a publisher waits before dropping.
+     * @param batchTransform applied on the consumer thread to each batch before it is delivered.
+     */
+    public RollupEventDispatcher(int capacity, int maxBatchSize, OverflowPolicy overflowPolicy, int sampleRate,
+                                 long blockTimeoutMillis, Function<RollupEvent[], RollupEvent[]> batchTransform) {
+        if (capacity < 1 || maxBatchSize < 1) {
+            throw new IllegalArgumentException("capacity and maxBatchSize must be positive");
+        }
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) {
+            size <<= 1;
+        }
+        this.eventNames = new String[size];
+        this.events = new RollupEvent[size];
+        this.mask = size - 1;
+        this.maxBatchSize = maxBatchSize;
+        this.overflowPolicy = overflowPolicy;
+        this.sampleRate = Math.max(1, sampleRate);
+        this.blockTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, blockTimeoutMillis));
+        this.batchTransform = batchTransform;
+    }
+
+    /**
+     * Adds an event to the ring.
+     *
+     * @return true if the event was accepted, false if it was dropped.
+     */
+    public boolean publish(String eventName, RollupEvent event) {
+        lock.lock();
+        try {
+            if (!running || consumers.isEmpty()) {
+                return false;
+            }
+            long remainingNanos = blockTimeoutNanos;
+            while (cursor - minSequence() >= events.length) {
+                switch (overflowPolicy) {
+                    case BLOCK:
+                        if (remainingNanos <= 0) {
+                            blockTimedOut.mark();
+                            dropped.mark();
+                            return false;
+                        }
+                        blocked.mark();
+                        try {
+                            remainingNanos = notFull.awaitNanos(remainingNanos);
+                        } catch (InterruptedException ex) {
+                            Thread.currentThread().interrupt();
+                            dropped.mark();
+                            return false;
+                        }
+                        if (!running) {
+                            return false;
+                        }
+                        break;
+                    case SAMPLE:
+                        if (++overflowCount % sampleRate != 0) {
+                            dropped.mark();
+                            return false;
+                        }
+                        dropOldest();
+                        break;
+                    default:
+                        dropOldest();
+                        break;
+                }
+            }
+            int index = (int) (cursor & mask);
+            eventNames[index] = eventName;
+            events[index] = event;
+            cursor++;
+            published.mark();
+            notEmpty.signalAll();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Starts delivering events with the given name to the listener. Only events
+     * published after this call are delivered.
+     */
+    public void subscribe(String eventName, Emitter.Listener<RollupEvent> listener) {
+        Consumer consumer;
+        lock.lock();
+        try {
+            consumer = new Consumer(eventName, listener, cursor);
+            consumers.add(consumer);
+        } finally {
+            lock.unlock();
+        }
+        consumer.start();
+    }
+
+    /**
+     * Stops delivering events with the given name to the listener. Events the
+     * listener has not consumed yet are discarded.
+     */
+    public void unsubscribe(String eventName, Emitter.Listener<RollupEvent> listener) {
+        List<Consumer> removed = new ArrayList<Consumer>();
+        for (Consumer consumer : consumers) {
+            if (consumer.eventName.equals(eventName) && consumer.listener == listener) {
+                removed.add(consumer);
+            }
+        }
+        stop(removed);
+    }
+
+    /**
+     * Stops delivering events with the given name to all of its listeners.
+     */
+    public void unsubscribe(String eventName) {
+        List<Consumer> removed = new ArrayList<Consumer>();
+        for (Consumer consumer : consumers) {
+            if (consumer.eventName.equals(eventName)) {
+                removed.add(consumer);
+            }
+        }
+        stop(removed);
+    }
+
+    public void unsubscribeAll() {
+        stop(new ArrayList<Consumer>(consumers));
+    }
+
+    public void shutdown() {
+        running = false;
+        unsubscribeAll();
+    }
+
+    /**
+     * @return how many events the given listener is behind, or -1 if it is not subscribed.
+     */
+    @VisibleForTesting
+    long getLag(Emitter.Listener<RollupEvent> listener) {
+        lock.lock();
+        try {
+            for (Consumer consumer : consumers) {
+                if (consumer.listener == listener) {
+                    return cursor - consumer.sequence;
+                }
+            }
+            return -1;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @VisibleForTesting
+    int getCapacity() {
+        return events.length;
+    }
+
+    private void stop(List<Consumer> toStop) {
+        if (toStop.isEmpty()) {
+            return;
+        }
+        lock.lock();
+        try {
+            consumers.removeAll(toStop);
+            for (Consumer consumer : toStop) {
+                consumer.stopped = true;
+            }
+            notEmpty.signalAll();
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        for (Consumer consumer : toStop) {
+            Metrics.getRegistry().remove(consumer.lagGaugeName);
+        }
+    }
+
+    /** must be called with {@link #lock} held. */
+    private long minSequence() {
+        long min = cursor;
+        for (Consumer consumer : consumers) {
+            min = Math.min(min, consumer.sequence);
+        }
+        return min;
+    }
+
+    /** must be called with {@link #lock} held. */
+    private void dropOldest() {
+        for (Consumer consumer : consumers) {
+            if (cursor - consumer.sequence >= events.length) {
+                consumer.sequence++;
+                consumer.dropped.mark();
+                dropped.mark();
+            }
+        }
+    }
+
+    private class Consumer implements Runnable {
+        private final String eventName;
+        private final Emitter.Listener<RollupEvent> listener;
+        private final Thread thread;
+        private final String lagGaugeName;
+        private final Meter dropped;
+        private final Meter delivered;
+        /** sequence of the next event to read. guarded by {@link #lock}. */
+        private long sequence;
+        private volatile boolean stopped = false;
+
+        Consumer(String eventName, Emitter.Listener<RollupEvent> listener, long sequence) {
+            this.eventName = eventName;
+            this.listener = listener;
+            this.sequence = sequence;
+            String name = listener.getClass().getSimpleName() + "-" + consumerIds.getAndIncrement();
+            this.thread = new Thread(this, "RollupEventDispatcher " + name);
+            this.thread.setDaemon(true);
+            this.dropped = Metrics.meter(RollupEventDispatcher.class, name, "Dropped");
+            this.delivered = Metrics.meter(RollupEventDispatcher.class, name, "Delivered");
+            this.lagGaugeName = MetricRegistry.name(RollupEventDispatcher.class, name, "Lag");
+            Metrics.getRegistry().register(lagGaugeName, new Gauge<Long>() {
+                @Override
+                public Long getValue() {
+                    return getLag(Consumer.this.listener);
+                }
+            });
+        }
+
+        void start() {
+            thread.start();
+        }
+
+        @Override
+        public void run() {
+            final List<RollupEvent> batch = new ArrayList<RollupEvent>(maxBatchSize);
+            while (!stopped) {
+                lock.lock();
+                try {
+                    while (sequence == cursor && !stopped) {
+                        notEmpty.await();
+                    }
+                    if (stopped) {
+                        break;
+                    }
+                    long end = Math.min(cursor, sequence + maxBatchSize);
+                    for (; sequence < end; sequence++) {
+                        int index = (int) (sequence & mask);
+                        if (eventName.equals(eventNames[index])) {
+                            batch.add(events[index]);
+                        }
+                    }
+                    notFull.signalAll();
+                } catch (InterruptedException ex) {
+                    break;
+                } finally {
+                    lock.unlock();
+                }
+
+                if (!batch.isEmpty()) {
+                    deliver(batch.toArray(new RollupEvent[batch.size()]));
+                    batch.clear();
+                }
+            }
+        }
+
+        private void deliver(RollupEvent[] batch) {
+            try {
+                listener.call(batchTransform.apply(batch));
+                delivered.mark(batch.length);
+            } catch (Exception ex) {
+                log.error("Listener " + listener + " failed to handle " + batch.length + " rollup events", ex);
+            }
+        }
+    }
+}
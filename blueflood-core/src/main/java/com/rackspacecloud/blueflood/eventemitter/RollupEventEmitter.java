@@ -21,6 +21,7 @@ import com.google.common.base.Function;
 import com.google.common.collect.Lists;
 import com.rackspacecloud.blueflood.concurrent.ThreadPoolBuilder;
 import com.rackspacecloud.blueflood.io.DiscoveryIO;
+import com.rackspacecloud.blueflood.service.Configuration;
 import com.rackspacecloud.blueflood.service.CoreConfig;
 import com.rackspacecloud.blueflood.types.BasicRollup;
 import com.rackspacecloud.blueflood.utils.ModuleLoader;
@@ -29,6 +30,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.Arrays;
+import java.util.List;
 import java.util.concurrent.*;
 
 /**
@@ -63,53 +65,148 @@ public class RollupEventEmitter extends Emitter<RollupEvent> {
     private static final int numberOfWorkers = 5;
     public static final String ROLLUP_EVENT_NAME = "rollup".intern();
     private final ExecutorService eventExecutors;
+    private final RollupEventDispatcher dispatcher;
     private static final RollupEventEmitter instance = new RollupEventEmitter();
 
     public RollupEventEmitter() {
-        this(new ThreadPoolBuilder()
-                .withName("RollupEventEmitter ThreadPool")
-                .withCorePoolSize(numberOfWorkers)
-                .withMaxPoolSize(numberOfWorkers)
-                .withUnboundedQueue()
-                .build());
+        this(isDispatcherEnabled() ? null : buildThreadPool(),
+             isDispatcherEnabled() ? buildDispatcher() : null);
     }
+
     @VisibleForTesting
     public RollupEventEmitter(ExecutorService executor) {
+        this(executor, null);
+    }
+
+    @VisibleForTesting
+    public RollupEventEmitter(RollupEventDispatcher dispatcher) {
+        this(null, dispatcher);
+    }
+
+    private RollupEventEmitter(ExecutorService executor, RollupEventDispatcher dispatcher) {
         eventExecutors = executor;
+        this.dispatcher = dispatcher;
     }
 
     public static RollupEventEmitter getInstance() { return instance; }
 
+    private static boolean isDispatcherEnabled() {
+        return Configuration.getInstance().getBooleanProperty(CoreConfig.ROLLUP_EVENT_DISPATCHER_ENABLED);
+    }
+
+    private static ExecutorService buildThreadPool() {
+        return new ThreadPoolBuilder()
+                .withName("RollupEventEmitter ThreadPool")
+                .withCorePoolSize(numberOfWorkers)
+                .withMaxPoolSize(numberOfWorkers)
+                .withUnboundedQueue()
+                .build();
+    }
+
+    private static RollupEventDispatcher buildDispatcher() {
+        Configuration config = Configuration.getInstance();
+        return new RollupEventDispatcher(
+                config.getIntegerProperty(CoreConfig.ROLLUP_EVENT_RING_BUFFER_SIZE),
+                config.getIntegerProperty(CoreConfig.ROLLUP_EVENT_MAX_BATCH_SIZE),
+                RollupEventDispatcher.OverflowPolicy.valueOf(config.getStringProperty(CoreConfig.ROLLUP_EVENT_OVERFLOW_POLICY).toUpperCase()),
+                config.getIntegerProperty(CoreConfig.ROLLUP_EVENT_SAMPLE_RATE),
+                config.getLongProperty(CoreConfig.ROLLUP_EVENT_BLOCK_TIMEOUT_MS),
+                new Function<RollupEvent[], RollupEvent[]>() {
+                    @Override
+                    public RollupEvent[] apply(RollupEvent[] events) {
+                        resolveUnits(events);
+                        return events;
+                    }
+                });
+    }
+
+    @Override
+    public Emitter on(String event, Listener fn) {
+        super.on(event, fn);
+        if (dispatcher != null) {
+            dispatcher.subscribe(event, fn);
+        }
+        return this;
+    }
+
+    @Override
+    public Emitter off() {
+        super.off();
+        if (dispatcher != null) {
+            dispatcher.unsubscribeAll();
+        }
+        return this;
+    }
+
+    @Override
+    public Emitter off(String event) {
+        super.off(event);
+        if (dispatcher != null) {
+            dispatcher.unsubscribe(event);
+        }
+        return this;
+    }
+
+    @Override
+    public Emitter off(String event, Listener fn) {
+        // once() registers a wrapper for fn, which super.off() resolves.
+        List<Listener> before = super.listeners(event);
+        super.off(event, fn);
+        if (dispatcher != null) {
+            before.removeAll(super.listeners(event));
+            for (Listener removed : before) {
+                dispatcher.unsubscribe(event, removed);
+            }
+        }
+        return this;
+    }
+
+    /**
+     * With the dispatcher enabled, events are queued into its bounded ring and
+     * delivered to each listener in batches on that listener's own thread; the
+     * returned future is always null. Otherwise, events are handed to a thread
+     * pool which calls all the listeners.
+     */
     @Override
     public Future emit(final String event, final RollupEvent... eventPayload) {
         //TODO: This hack will go away after Kafka Serializer is made generic
         Future emitFuture = null;
         if(eventPayload[0].getRollup() instanceof BasicRollup && super.hasListeners(ROLLUP_EVENT_NAME)) {
+            if (dispatcher != null) {
+                for (RollupEvent payload : eventPayload) {
+                    dispatcher.publish(event, payload);
+                }
+                return null;
+            }
             emitFuture = eventExecutors.submit(new Callable() {
                 @Override
                 public Future call() {
-                    if (Util.shouldUseESForUnits()) {
-                        final DiscoveryIO discoveryIO = (DiscoveryIO) ModuleLoader.getInstance(DiscoveryIO.class, CoreConfig.DISCOVERY_MODULES);
-                        // TODO: Sync for now, but we will have to make it async eventually
-                        Lists.transform(Arrays.asList(eventPayload), new Function<RollupEvent, RollupEvent>() {
-                            @Override
-                            public RollupEvent apply(RollupEvent event) {
-                                String unit;
-                                try {
-                                    unit = discoveryIO.search(event.getLocator().getTenantId(), event.getLocator().getMetricName()).get(0).getUnit();
-                                } catch (Exception e) {
-                                    log.warn("Exception encountered while getting units out of ES : %s", e.getMessage());
-                                    unit = Util.UNKNOWN;
-                                }
-                                event.setUnit(unit);
-                                return event;
-                            }
-                        });
-                    }
+                    resolveUnits(eventPayload);
                     return RollupEventEmitter.super.emit(event, eventPayload);
                 }
             });
         }
         return emitFuture;
     }
+
+    private static void resolveUnits(RollupEvent[] eventPayload) {
+        if (Util.shouldUseESForUnits()) {
+            final DiscoveryIO discoveryIO = (DiscoveryIO) ModuleLoader.getInstance(DiscoveryIO.class, CoreConfig.DISCOVERY_MODULES);
+            // TODO: Sync for now, but we will have to make it async eventually
+            Lists.transform(Arrays.asList(eventPayload), new Function<RollupEvent, RollupEvent>() {
+                @Override
+                public RollupEvent apply(RollupEvent event) {
+                    String unit;
+                    try {
+                        unit = discoveryIO.search(event.getLocator().getTenantId(), event.getLocator().getMetricName()).get(0).getUnit();
+                    } catch (Exception e) {
+                        log.warn("Exception encountered while getting units out of ES : %s", e.getMessage());
+                        unit = Util.UNKNOWN;
+                    }
+                    event.setUnit(unit);
+                    return event;
+                }
+            });
+        }
+    }
 }
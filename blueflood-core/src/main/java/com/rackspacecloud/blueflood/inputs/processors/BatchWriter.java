@@ -23,9 +23,12 @@ import com.google.common.annotations.VisibleForTesting;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.MoreExecutors;
+import com.rackspacecloud.blueflood.cache.LatestValueCache;
 import com.rackspacecloud.blueflood.concurrent.FunctionWithThreadPool;
 import com.rackspacecloud.blueflood.io.IOContainer;
 import com.rackspacecloud.blueflood.io.MetricsRWDelegator;
+import com.rackspacecloud.blueflood.service.Configuration;
+import com.rackspacecloud.blueflood.service.CoreConfig;
 import com.rackspacecloud.blueflood.service.IngestionContext;
 import com.rackspacecloud.blueflood.types.IMetric;
 import com.rackspacecloud.blueflood.types.Locator;
@@ -40,7 +43,9 @@ import java.util.concurrent.Callable;
 import java.util.concurrent.ThreadPoolExecutor;
 
 public class BatchWriter extends FunctionWithThreadPool<List<List<IMetric>>, ListenableFuture<List<Boolean>>> {
-        
+
+    private static final boolean UPDATE_LATEST_VALUES = Configuration.getInstance().getBooleanProperty(CoreConfig.LATEST_VALUE_CACHE_UPDATE_ON_INGEST);
+
     private final BatchIdGenerator batchIdGenerator = new BatchIdGenerator();
     // todo: CM_SPECIFIC verify changing metric class name doesn't break things.
     private final Timer writeDurationTimer = Metrics.timer(BatchWriter.class, "Write Duration");
@@ -95,6 +100,10 @@ public class BatchWriter extends FunctionWithThreadPool<List<List<IMetric>>, Lis
 
                         metricsRWDelegator.insertMetrics(batch);
 
+                        if (UPDATE_LATEST_VALUES) {
+                            LatestValueCache.getInstance().update(batch);
+                        }
+
                         final Timer.Context dirtyTimerCtx = slotUpdateTimer.time();
                         try {
                             // marks this shard dirty, so rollup nodes know to pick up the work.
@@ -36,6 +36,11 @@ public class CassandraModel {
     public static final String CF_METRICS_60M_NAME = "metrics_60m";
     public static final String CF_METRICS_240M_NAME = "metrics_240m";
     public static final String CF_METRICS_1440M_NAME = "metrics_1440m";
+    // full resolution points packed into blocks, see FullResBlockSerDes
+    public static final String CF_METRICS_FULL_BLOCKS_NAME = "metrics_full_blocks";
+
+    // suffix of the time bucketed versions of the metrics_* and metrics_preaggregated_* Column Families
+    public static final String TIME_BUCKETS_SUFFIX = "_buckets";
 
     public static final String CF_METRICS_PREAGGREGATED_FULL_NAME = "metrics_preaggregated_full";
     public static final String CF_METRICS_PREAGGREGATED_5M_NAME = "metrics_preaggregated_5m";
@@ -190,6 +195,10 @@ public class CassandraModel {
         return METRICS_GRAN_TO_CF.get(gran).getName();
     }
 
+    public static String getTimeBucketedColumnFamilyName(String columnFamilyName) {
+        return columnFamilyName + TIME_BUCKETS_SUFFIX;
+    }
+
     public static ColumnFamily getColumnFamily(String columnFamilyName) {
         return CF_NAME_TO_CF.get(columnFamilyName);
     }
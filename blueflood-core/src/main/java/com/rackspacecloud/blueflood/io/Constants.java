@@ -28,6 +28,7 @@ public class Constants {
     public static final int VERSION_FIELD_OFFSET = 0;
 
     public static final byte VERSION_1_FULL_RES = 0;
+    public static final byte VERSION_1_FULL_RES_BLOCK = 0;
     public static final byte VERSION_1_ROLLUP = 0;
     public static final byte VERSION_2_ROLLUP = 1;
     public static final byte VERSION_1_TIMER = 0;
@@ -130,6 +130,50 @@ public class IOConfig {
 
     public int getUnavailableMaxRetries() { return config.getIntegerProperty(CoreConfig.DATASTAX_UNAVAILABLE_MAX_RETRIES); }
 
+    public int getDatastaxMaxQueueSize() {
+        return config.getIntegerProperty(CoreConfig.DATASTAX_MAX_QUEUE_SIZE);
+    }
+
+    public int getMetadataReadsMaxInFlight() {
+        return config.getIntegerProperty(CoreConfig.META_CACHE_BATCHED_READS_MAX_IN_FLIGHT);
+    }
+
+    public int getMetadataReadsInListSize() {
+        return Math.max(1, config.getIntegerProperty(CoreConfig.META_CACHE_BATCHED_READS_IN_LIST_SIZE));
+    }
+
+    public int getMetadataWritesMaxInFlight() {
+        return config.getIntegerProperty(CoreConfig.META_CACHE_BATCHED_WRITES_MAX_IN_FLIGHT);
+    }
+
+    public boolean isLatencyAwareEnabled() {
+        return config.getBooleanProperty(CoreConfig.DATASTAX_LATENCY_AWARE_ENABLED);
+    }
+
+    public double getLatencyAwareExclusionThreshold() {
+        return config.getFloatProperty(CoreConfig.DATASTAX_LATENCY_AWARE_EXCLUSION_THRESHOLD);
+    }
+
+    public long getLatencyAwareScaleMillis() {
+        return config.getLongProperty(CoreConfig.DATASTAX_LATENCY_AWARE_SCALE_MILLIS);
+    }
+
+    public long getLatencyAwareRetryPeriodSeconds() {
+        return config.getLongProperty(CoreConfig.DATASTAX_LATENCY_AWARE_RETRY_PERIOD_SECONDS);
+    }
+
+    public int getLatencyAwareMinMeasurements() {
+        return config.getIntegerProperty(CoreConfig.DATASTAX_LATENCY_AWARE_MIN_MEASUREMENTS);
+    }
+
+    public long getSpeculativeExecutionDelayMillis() {
+        return config.getLongProperty(CoreConfig.DATASTAX_SPECULATIVE_EXECUTION_DELAY_MILLIS);
+    }
+
+    public int getSpeculativeExecutionMax() {
+        return config.getIntegerProperty(CoreConfig.DATASTAX_SPECULATIVE_EXECUTION_MAX);
+    }
+
 
     // prevent people from instantiating directly
     private IOConfig() {
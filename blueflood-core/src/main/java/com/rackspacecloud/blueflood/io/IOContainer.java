@@ -19,6 +19,7 @@ import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Strings;
 import com.rackspacecloud.blueflood.io.astyanax.*;
 import com.rackspacecloud.blueflood.io.datastax.*;
+import com.rackspacecloud.blueflood.io.memory.*;
 import com.rackspacecloud.blueflood.service.Configuration;
 import com.rackspacecloud.blueflood.service.CoreConfig;
 import com.rackspacecloud.blueflood.utils.DefaultClockImpl;
@@ -101,6 +102,21 @@ public class IOContainer {
             preAggregatedMetricsRW = new DPreaggregatedMetricsRW((DLocatorIO)locatorIO, (DDelayedLocatorIO) delayedLocatorIO,
                     isRecordingDelayedMetrics, isDtxIngestBatchEnabled, new DefaultClockImpl());
 
+        } else if ( driver == DriverType.MEMORY ) {
+
+            MemoryStorage storage = new MemoryStorage(new DefaultClockImpl(),
+                    configuration.getLongProperty(CoreConfig.MEMORY_DRIVER_READ_LATENCY_MILLIS),
+                    configuration.getLongProperty(CoreConfig.MEMORY_DRIVER_WRITE_LATENCY_MILLIS),
+                    configuration.getLongProperty(CoreConfig.MEMORY_DRIVER_EXPIRY_SWEEP_MILLIS));
+            metadataIO = new MMetadataIO(storage);
+            shardStateIO = new MShardStateIO(storage);
+            locatorIO = new MLocatorIO(storage);
+            delayedLocatorIO = new MDelayedLocatorIO(storage);
+            basicMetricsRW = new MBasicMetricsRW(storage, locatorIO, delayedLocatorIO,
+                    isRecordingDelayedMetrics, new DefaultClockImpl());
+            preAggregatedMetricsRW = new MPreaggregatedMetricsRW(storage, locatorIO, delayedLocatorIO,
+                    isRecordingDelayedMetrics, new DefaultClockImpl());
+
         } else {
 
             metadataIO = new AMetadataIO();
@@ -176,7 +192,8 @@ public class IOContainer {
      */
     public static enum DriverType {
         ASTYANAX("astyanax"),
-        DATASTAX("datastax");
+        DATASTAX("datastax"),
+        MEMORY("memory");
 
         private DriverType(String driver) {
             name = driver;
@@ -198,10 +215,13 @@ public class IOContainer {
          * @return
          */
         public static DriverType getDriverType(String driver) {
-            // if driver is explicitly datastax, then return DATASTAX
+            // if driver is explicitly datastax or memory, then return DATASTAX or MEMORY
             // anything else, return ASTYANAX
-            if ( ! Strings.isNullOrEmpty(driver) && DriverType.valueOf(driver.toUpperCase()) == DATASTAX ) {
-                return DATASTAX;
+            if ( ! Strings.isNullOrEmpty(driver) ) {
+                DriverType type = DriverType.valueOf(driver.toUpperCase());
+                if ( type == DATASTAX || type == MEMORY ) {
+                    return type;
+                }
             }
             return ASTYANAX;
         }
@@ -0,0 +1,107 @@
+/*
+ * Copyright 2017 Rackspace
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.rackspacecloud.blueflood.io;
+
+import com.rackspacecloud.blueflood.service.Configuration;
+import com.rackspacecloud.blueflood.service.CoreConfig;
+import com.rackspacecloud.blueflood.types.Locator;
+import com.rackspacecloud.blueflood.utils.Util;
+import org.apache.commons.codec.digest.DigestUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Works out the metrics_locator partitions that the locators of a shard are
+ * written to and read from.
+ * <p>
+ *
+ * With a single bucket, all the locators of a shard are in the partition whose
+ * key is the shard number. With more buckets, a locator goes to the partition
+ * of its bucket, whose key is {@code shard + NUMBER_OF_SHARDS * (bucket + 1)},
+ * so that it can't be mistaken for a shard. The bucket comes from other bits of
+ * the same hash as the shard, so that the locators of a shard are spread evenly.
+ */
+public class LocatorPartitions {
+
+    private static final LocatorPartitions INSTANCE = new LocatorPartitions(
+            Configuration.getInstance().getIntegerProperty(CoreConfig.LOCATOR_BUCKETS),
+            Configuration.getInstance().getBooleanProperty(CoreConfig.LOCATOR_BUCKETS_READ_UNBUCKETED));
+
+    private final int buckets;
+    private final boolean readUnbucketed;
+
+    public static LocatorPartitions getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * @param buckets the number of partitions of every shard
+     * @param readUnbucketed whether to also read the partition of the shard
+     *                       itself, where locators are written with a single bucket
+     */
+    public LocatorPartitions(int buckets, boolean readUnbucketed) {
+        if (buckets < 1) {
+            throw new IllegalArgumentException("LOCATOR_BUCKETS must be at least 1, was " + buckets);
+        }
+        this.buckets = buckets;
+        this.readUnbucketed = readUnbucketed;
+    }
+
+    public int getBuckets() {
+        return buckets;
+    }
+
+    /**
+     * @return the key of the partition the locator is written to
+     */
+    public long getPartitionKey(Locator locator) {
+        String key = locator.toString();
+        int shard = Util.getShard(key);
+        if (buckets == 1) {
+            return shard;
+        }
+        return getPartitionKey(shard, getBucket(key));
+    }
+
+    /**
+     * @return the keys of all the partitions the locators of the shard can be in
+     */
+    public List<Long> getPartitionKeys(long shard) {
+        List<Long> keys = new ArrayList<Long>();
+        if (buckets == 1) {
+            keys.add(shard);
+            return keys;
+        }
+        for (int bucket = 0; bucket < buckets; bucket++) {
+            keys.add(getPartitionKey(shard, bucket));
+        }
+        if (readUnbucketed) {
+            keys.add(shard);
+        }
+        return keys;
+    }
+
+    int getBucket(String locator) {
+        // the shard is worked out from the last two hex digits of the same hash
+        return (int) (Long.parseLong(DigestUtils.md5Hex(locator).substring(22, 30), 16) % buckets);
+    }
+
+    private static long getPartitionKey(long shard, int bucket) {
+        return shard + (long) Constants.NUMBER_OF_SHARDS * (bucket + 1);
+    }
+}
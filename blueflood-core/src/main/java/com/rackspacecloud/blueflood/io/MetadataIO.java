@@ -12,7 +12,19 @@ public interface MetadataIO {
     public void put(Locator locator, String key, String value) throws IOException;
     public Map<String, String> getAllValues(Locator locator) throws IOException;
     public Table<Locator, String, String> getAllValues(Set<Locator> locators) throws IOException;
+
+    /**
+     * Reads the metadata of many locators, and hands the metadata of every locator that has any to
+     * the listener as soon as it has been read, on the calling thread. Returns when all have been read.
+     *
+     * @throws IOException if the metadata of some of the locators could not be read
+     */
+    public void getAllValues(Set<Locator> locators, MetadataListener listener) throws IOException;
     public void putAll(Table<Locator, String, String> meta) throws IOException;
 
     // todo: consider the utility of a method: public String get(Locator locator, String key) throws IOException
+
+    public interface MetadataListener {
+        public void onMetadata(Locator locator, Map<String, String> values);
+    }
 }
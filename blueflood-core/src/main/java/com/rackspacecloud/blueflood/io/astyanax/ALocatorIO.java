@@ -23,6 +23,7 @@ import com.netflix.astyanax.query.RowQuery;
 import com.rackspacecloud.blueflood.io.CassandraModel;
 import com.rackspacecloud.blueflood.io.Instrumentation;
 import com.rackspacecloud.blueflood.io.LocatorIO;
+import com.rackspacecloud.blueflood.io.LocatorPartitions;
 import com.rackspacecloud.blueflood.types.Locator;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -30,6 +31,8 @@ import org.slf4j.LoggerFactory;
 import java.io.IOException;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
 
 /**
  * This class uses the Astyanax driver to read/write locators from
@@ -40,7 +43,8 @@ public class ALocatorIO implements LocatorIO {
     private static final Logger LOG = LoggerFactory.getLogger(ALocatorIO.class);
 
     /**
-     * Insert a locator with key = shard long value calculated using Util.getShard()
+     * Insert a locator with key = the metrics_locator partition of its shard,
+     * see {@link LocatorPartitions}
      * @param locator
      * @throws IOException
      */
@@ -72,12 +76,23 @@ public class ALocatorIO implements LocatorIO {
     public Collection<Locator> getLocators(long shard) throws IOException {
         Timer.Context ctx = Instrumentation.getReadTimerContext(CassandraModel.CF_METRICS_LOCATOR_NAME);
         try {
-            RowQuery<Long, Locator> query = AstyanaxIO.getKeyspace()
-                    .prepareQuery(CassandraModel.CF_METRICS_LOCATOR)
-                    .getKey(shard);
-            if (LOG.isTraceEnabled())
-                LOG.trace("ALocatorIO.getLocators() executing: select * from \"" + CassandraModel.KEYSPACE + "\"." + CassandraModel.CF_METRICS_LOCATOR_NAME + " where key=" + Long.toString(shard));
-            return query.execute().getResult().getColumnNames();
+            List<Long> keys = LocatorPartitions.getInstance().getPartitionKeys(shard);
+            if (keys.size() == 1) {
+                return getLocatorsOfPartition(keys.get(0));
+            }
+            Collection<Locator> locators = new HashSet<Locator>();
+            for (long key : keys) {
+                try {
+                    locators.addAll(getLocatorsOfPartition(key));
+                } catch (NotFoundException e) {
+                    // the other partitions of the shard can still have locators
+                }
+            }
+            if (locators.isEmpty()) {
+                Instrumentation.markNotFound(CassandraModel.CF_METRICS_LOCATOR_NAME);
+                return Collections.emptySet();
+            }
+            return locators;
         } catch (NotFoundException e) {
             Instrumentation.markNotFound(CassandraModel.CF_METRICS_LOCATOR_NAME);
             return Collections.emptySet();
@@ -90,4 +105,12 @@ public class ALocatorIO implements LocatorIO {
         }
     }
 
+    private Collection<Locator> getLocatorsOfPartition(long key) throws ConnectionException {
+        RowQuery<Long, Locator> query = AstyanaxIO.getKeyspace()
+                .prepareQuery(CassandraModel.CF_METRICS_LOCATOR)
+                .getKey(key);
+        if (LOG.isTraceEnabled())
+            LOG.trace("ALocatorIO.getLocators() executing: select * from \"" + CassandraModel.KEYSPACE + "\"." + CassandraModel.CF_METRICS_LOCATOR_NAME + " where key=" + Long.toString(key));
+        return query.execute().getResult().getColumnNames();
+    }
 }
@@ -40,6 +40,14 @@ public class AMetadataIO implements MetadataIO {
         return AstyanaxReader.getInstance().getMetadataValues(locators);
     }
 
+    @Override
+    public void getAllValues(Set<Locator> locators, MetadataListener listener) throws IOException {
+        Table<Locator, String, String> metaTable = getAllValues(locators);
+        for (Locator locator : metaTable.rowKeySet()) {
+            listener.onMetadata(locator, metaTable.row(locator));
+        }
+    }
+
     @Override
     public void putAll(Table<Locator, String, String> meta) throws IOException {
         try{
@@ -31,6 +31,7 @@ import com.rackspacecloud.blueflood.cache.LocatorCache;
 import com.rackspacecloud.blueflood.cache.TenantTtlProvider;
 import com.rackspacecloud.blueflood.io.CassandraModel;
 import com.rackspacecloud.blueflood.io.Instrumentation;
+import com.rackspacecloud.blueflood.io.LocatorPartitions;
 import com.rackspacecloud.blueflood.io.serializers.Serializers;
 import com.rackspacecloud.blueflood.io.serializers.astyanax.StringMetadataSerializer;
 import com.rackspacecloud.blueflood.rollup.Granularity;
@@ -130,7 +131,7 @@ public class AstyanaxWriter extends AstyanaxIO {
 
     // numeric only!
     public final void insertLocator(Locator locator, MutationBatch mutationBatch) {
-        mutationBatch.withRow(CassandraModel.CF_METRICS_LOCATOR, (long) Util.getShard(locator.toString()))
+        mutationBatch.withRow(CassandraModel.CF_METRICS_LOCATOR, LocatorPartitions.getInstance().getPartitionKey(locator))
                 .putEmptyColumn(locator, TenantTtlProvider.LOCATOR_TTL);
     }
 
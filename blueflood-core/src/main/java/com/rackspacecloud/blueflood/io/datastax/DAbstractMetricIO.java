@@ -19,6 +19,7 @@ package com.rackspacecloud.blueflood.io.datastax;
 import com.datastax.driver.core.*;
 import com.google.common.collect.HashBasedTable;
 import com.google.common.collect.Table;
+import com.rackspacecloud.blueflood.concurrent.QueryDeadline;
 import com.rackspacecloud.blueflood.io.CassandraModel;
 import com.rackspacecloud.blueflood.io.Instrumentation;
 import com.rackspacecloud.blueflood.rollup.Granularity;
@@ -30,6 +31,7 @@ import org.slf4j.LoggerFactory;
 import java.lang.Long;
 import java.nio.ByteBuffer;
 import java.util.*;
+import java.util.concurrent.TimeUnit;
 
 /**
  * This is an abstract class that collects the common behavior of
@@ -43,9 +45,17 @@ public abstract class DAbstractMetricIO {
 
     protected final DMetricsCFPreparedStatements metricsCFPreparedStatements;
 
+    // null unless values are written to time buckets
+    protected final DTimeBucketIO timeBucketIO;
+
     protected DAbstractMetricIO() {
+        this(DTimeBucketIO.isEnabled() ? DTimeBucketIO.getInstance() : null);
+    }
+
+    protected DAbstractMetricIO(DTimeBucketIO timeBucketIO) {
         metricsCFPreparedStatements = DMetricsCFPreparedStatements.getInstance();
         session = DatastaxIO.getSession();
+        this.timeBucketIO = timeBucketIO;
     }
 
     /**
@@ -92,7 +102,7 @@ public abstract class DAbstractMetricIO {
             statement = metricsCFPreparedStatements.preaggrGranToInsertStatement.get(granularity);
         }
 
-        BoundStatement bound = statement.bind(locator.toString(),
+        BoundStatement bound = bindInsert(statement, locator,
                 collectionTime,
                 toByteBuffer(rollup),
                 ttl);
@@ -100,6 +110,26 @@ public abstract class DAbstractMetricIO {
         return bound;
     }
 
+    /**
+     * Binds an insert statement of a metrics_* or metrics_preaggregated_*
+     * Column Family, or of its time bucketed version if the value goes
+     * to a time bucket.
+     *
+     * @param statement the insert statement of the Column Family
+     * @param locator
+     * @param collectionTime
+     * @param value
+     * @param ttl
+     * @return
+     */
+    protected BoundStatement bindInsert(PreparedStatement statement, Locator locator, long collectionTime,
+                                        ByteBuffer value, int ttl) {
+        if ( timeBucketIO != null && timeBucketIO.isBucketed(collectionTime) ) {
+            return timeBucketIO.bindInsert(statement, locator, collectionTime, value, ttl);
+        }
+        return statement.bind(locator.toString(), collectionTime, value, ttl);
+    }
+
     /**
      * Fetch rollup objects for a {@link com.rackspacecloud.blueflood.types.Locator}
      * from the specified column family and range.
@@ -226,8 +256,18 @@ public abstract class DAbstractMetricIO {
     protected List<ResultSetFuture> selectForLocatorAndRange(String columnFamily, Locator locator, Range range) {
         List<ResultSetFuture> resultsFutures = new ArrayList<ResultSetFuture>();
         PreparedStatement statement = metricsCFPreparedStatements.cfNameToSelectStatement.get(columnFamily);
-        resultsFutures.add(
-                session.executeAsync(statement.bind(locator.toString(), range.getStart(), range.getStop())));
+        if ( timeBucketIO == null || range.getStop() < timeBucketIO.getSince() ) {
+            resultsFutures.add(
+                    session.executeAsync(statement.bind(locator.toString(), range.getStart(), range.getStop())));
+            return resultsFutures;
+        }
+
+        // values from before the buckets are still where they were written
+        if ( range.getStart() < timeBucketIO.getSince() ) {
+            resultsFutures.add(
+                    session.executeAsync(statement.bind(locator.toString(), range.getStart(), timeBucketIO.getSince() - 1)));
+        }
+        resultsFutures.addAll(timeBucketIO.selectForLocatorAndRange(columnFamily, locator, range));
         return resultsFutures;
     }
 
@@ -241,9 +281,12 @@ public abstract class DAbstractMetricIO {
                                                                                String columnFamily,
                                                                                Range range) {
         Table<Locator, Long, T> locatorTimestampRollup = HashBasedTable.create();
+        QueryDeadline deadline = QueryDeadline.current();
         for ( ResultSetFuture future : futures ) {
             try {
-                List<Row> rows = future.getUninterruptibly().all();
+                ResultSet resultSet = deadline == QueryDeadline.NONE ? future.getUninterruptibly()
+                        : future.getUninterruptibly(deadline.remainingMillis(), TimeUnit.MILLISECONDS);
+                List<Row> rows = SpeculativeExecutionMetrics.record(resultSet).all();
 
                 // we only want to count the number of points we
                 // get when we're querying the metrics_full
@@ -252,12 +295,11 @@ public abstract class DAbstractMetricIO {
                 }
 
                 for (Row row : rows) {
-                    String key = row.getString(DMetricsCFPreparedStatements.KEY);
-                    Locator loc = Locator.createLocatorFromDbKey(key);
-                    Long hash = row.getLong(DMetricsCFPreparedStatements.COLUMN1);
-                    locatorTimestampRollup.put(loc, hash, (T)fromByteBuffer(row.getBytes(DMetricsCFPreparedStatements.VALUE)));
+                    putRow(locatorTimestampRollup, row, range);
                 }
             } catch (Exception ex) {
+                // a read that timed out or was cancelled along with its query is not a read error
+                deadline.check();
                 Instrumentation.markReadError();
                 LOG.error(String.format("error reading metric for locator %s, column family '%s', range %s",
                         locator, columnFamily, range.toString()), ex);
@@ -266,6 +308,22 @@ public abstract class DAbstractMetricIO {
         return locatorTimestampRollup;
     }
 
+    /**
+     * Adds the value of a row that was read to the Table of locator, long
+     * and rollup. IO subclasses that read rows holding more than one value
+     * can override this.
+     *
+     * @param locatorTimestampRollup
+     * @param row
+     * @param range the range that was read
+     */
+    protected <T extends Object> void putRow(Table<Locator, Long, T> locatorTimestampRollup, Row row, Range range) {
+        String key = row.getString(DMetricsCFPreparedStatements.KEY);
+        Locator loc = Locator.createLocatorFromDbKey(key);
+        Long hash = row.getLong(DMetricsCFPreparedStatements.COLUMN1);
+        locatorTimestampRollup.put(loc, hash, (T)fromByteBuffer(row.getBytes(DMetricsCFPreparedStatements.VALUE)));
+    }
+
     /**
      * Retrieves the {@link BoundStatement} for a particular metric and granularity.
      * Subclasses will implement this.
@@ -11,6 +11,7 @@ import com.google.common.annotations.VisibleForTesting;
 import com.google.common.collect.Table;
 import com.rackspacecloud.blueflood.cache.LocatorCache;
 import com.rackspacecloud.blueflood.cache.MetadataCache;
+import com.rackspacecloud.blueflood.concurrent.QueryDeadline;
 import com.rackspacecloud.blueflood.exceptions.CacheException;
 import com.rackspacecloud.blueflood.io.*;
 import com.rackspacecloud.blueflood.outputs.formats.MetricData;
@@ -178,6 +179,7 @@ public abstract class DAbstractMetricsRW extends AbstractMetricsRW {
         try {
 
             MetadataCache metadataCache = MetadataCache.getInstance();
+            QueryDeadline deadline = QueryDeadline.current();
 
             // in this loop, we will fire all the executeAsync() of
             // various select statements, the collect all of the
@@ -186,6 +188,8 @@ public abstract class DAbstractMetricsRW extends AbstractMetricsRW {
             Map<Locator, DAbstractMetricIO> locatorIOMap = new HashMap<Locator, DAbstractMetricIO>();
 
             for (Locator locator : locators) {
+                // metadata lookups may go to the database too, so none are started once the query has run out of time
+                deadline.check();
                 try {
 
                     String rType = metadataCache.get(locator, MetricMetadata.ROLLUP_TYPE.name().toLowerCase());
@@ -198,6 +202,9 @@ public abstract class DAbstractMetricsRW extends AbstractMetricsRW {
 
                     // do the query
                     List<ResultSetFuture> selectFutures = io.selectForLocatorAndRange( columnFamily, locator, range );
+                    for (ResultSetFuture selectFuture : selectFutures) {
+                        deadline.register(selectFuture);
+                    }
 
                     // add all ResultSetFutures for a particular locator together
                     List<ResultSetFuture> existing = locatorToFuturesMap.get(locator);
@@ -53,8 +53,8 @@ public class DBasicNumericIO extends DAbstractMetricIO {
             );
         }
         PreparedStatement statement = metricsCFPreparedStatements.basicGranToInsertStatement.get(granularity);
-        return statement.bind(
-                metric.getLocator().toString(),
+        return bindInsert(statement,
+                metric.getLocator(),
                 metric.getCollectionTime(),
                 serDes.serialize( (BasicRollup) metric.getMetricValue() ),
                 metric.getTtlInSeconds() );
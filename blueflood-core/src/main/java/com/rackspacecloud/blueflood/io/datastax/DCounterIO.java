@@ -77,8 +77,8 @@ public class DCounterIO extends DAbstractMetricIO {
             );
         }
         PreparedStatement statement = metricsCFPreparedStatements.preaggrGranToInsertStatement.get(granularity);
-        return statement.bind(
-                metric.getLocator().toString(),
+        return bindInsert(statement,
+                metric.getLocator(),
                 metric.getCollectionTime(),
                 serDes.serialize( (BluefloodCounterRollup) metricValue ),
                 metric.getTtlInSeconds() );
@@ -43,7 +43,7 @@ public class DDelayedLocatorIO implements DelayedLocatorIO {
                 .all()
                 .from( CassandraModel.CF_METRICS_DELAYED_LOCATOR_NAME )
                 .where( eq ( KEY, bindMarker() ));
-        getValue = DatastaxIO.getSession().prepare( select );
+        getValue = DatastaxIO.getSession().prepare( select ).setIdempotent( true );
 
         // create a generic insert statement for inserting into metrics_delayed_locator
         Insert insert = QueryBuilder.insertInto( CassandraModel.CF_METRICS_DELAYED_LOCATOR_NAME)
@@ -88,7 +88,7 @@ public class DDelayedLocatorIO implements DelayedLocatorIO {
         try {
             // bind value
             BoundStatement bs = getValue.bind(slotKey.toString());
-            List<Row> results = session.execute(bs).all();
+            List<Row> results = SpeculativeExecutionMetrics.record(session.execute(bs)).all();
             for ( Row row : results ) {
                 locators.add(Locator.createLocatorFromDbKey(row.getString(COLUMN1)));
             }
@@ -0,0 +1,247 @@
+/*
+ * Copyright 2017 Rackspace
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.rackspacecloud.blueflood.io.datastax;
+
+import com.codahale.metrics.Meter;
+import com.datastax.driver.core.*;
+import com.rackspacecloud.blueflood.io.CassandraModel;
+import com.rackspacecloud.blueflood.io.IOContainer;
+import com.rackspacecloud.blueflood.io.serializers.metrics.FullResBlockSerDes;
+import com.rackspacecloud.blueflood.io.serializers.metrics.RawSerDes;
+import com.rackspacecloud.blueflood.service.Configuration;
+import com.rackspacecloud.blueflood.service.CoreConfig;
+import com.rackspacecloud.blueflood.types.Locator;
+import com.rackspacecloud.blueflood.types.Range;
+import com.rackspacecloud.blueflood.utils.Metrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class uses the Datastax driver to read/write the blocks of the
+ * metrics_full_blocks Column Family, which hold the full resolution points of
+ * a locator for {@link CoreConfig#FULL_RES_BLOCK_MINUTES} each, serialized by
+ * {@link FullResBlockSerDes}. A block is keyed by the start of its time span.
+ * <p>
+ *
+ * Points are only ever ingested to metrics_full. Compacting a block moves the
+ * points of its time span from there into the block, and reads of metrics_full
+ * merge the points of both (see {@link DSimpleNumberIO}), so points that come
+ * in after their block has been compacted are not lost; compacting the block
+ * again moves them in as well.
+ * <p>
+ *
+ * Only the datastax driver reads blocks, so nothing is compacted unless
+ * {@link #isReadable()}: the compacted points would be gone from every query
+ * and every rollup otherwise.
+ */
+public class DFullResBlockIO {
+
+    private static final Logger LOG = LoggerFactory.getLogger(DFullResBlockIO.class);
+
+    private static final Meter blocksWritten = Metrics.meter(DFullResBlockIO.class, "Blocks Written");
+    private static final Meter blocksSkipped = Metrics.meter(DFullResBlockIO.class, "Blocks Skipped");
+    private static final Meter pointsCompacted = Metrics.meter(DFullResBlockIO.class, "Points Compacted");
+
+    private static final String SELECT_BLOCKS_FOR_RANGE = "SELECT * FROM %s WHERE key = ? AND column1 >= ? AND column1 <= ?";
+    private static final String SELECT_BLOCK = "SELECT value, TTL(value) FROM %s WHERE key = ? AND column1 = ?";
+    private static final String INSERT_BLOCK = "INSERT INTO %s (key, column1, value) VALUES (?, ?, ?) USING TTL ?";
+    private static final String SELECT_RAW_FOR_RANGE = "SELECT column1, value, TTL(value), WRITETIME(value) FROM %s WHERE key = ? AND column1 >= ? AND column1 <= ?";
+    private static final String DELETE_RAW = "DELETE FROM %s USING TIMESTAMP ? WHERE key = ? AND column1 = ?";
+
+    // keeps the batches that delete the compacted points well below Cassandra's batch size limit
+    private static final int DELETE_BATCH_SIZE = 100;
+
+    private final long blockMillis;
+    private final Session session;
+    private final RawSerDes rawSerDes = new RawSerDes();
+    private final FullResBlockSerDes blockSerDes = new FullResBlockSerDes();
+
+    private final PreparedStatement selectBlocksForRange;
+    private final PreparedStatement selectBlock;
+    private final PreparedStatement insertBlock;
+    private final PreparedStatement selectRawForRange;
+    private final PreparedStatement deleteRaw;
+
+    public DFullResBlockIO() {
+        this(Configuration.getInstance().getIntegerProperty(CoreConfig.FULL_RES_BLOCK_MINUTES));
+    }
+
+    public DFullResBlockIO(int blockMinutes) {
+        blockMillis = TimeUnit.MINUTES.toMillis(blockMinutes);
+        session = DatastaxIO.getSession();
+
+        selectBlocksForRange = session.prepare(String.format(SELECT_BLOCKS_FOR_RANGE, CassandraModel.CF_METRICS_FULL_BLOCKS_NAME))
+                .setIdempotent(true);
+        selectBlock = session.prepare(String.format(SELECT_BLOCK, CassandraModel.CF_METRICS_FULL_BLOCKS_NAME));
+        insertBlock = session.prepare(String.format(INSERT_BLOCK, CassandraModel.CF_METRICS_FULL_BLOCKS_NAME))
+                .setConsistencyLevel(ConsistencyLevel.LOCAL_ONE);
+        selectRawForRange = session.prepare(String.format(SELECT_RAW_FOR_RANGE, CassandraModel.CF_METRICS_FULL_NAME));
+        deleteRaw = session.prepare(String.format(DELETE_RAW, CassandraModel.CF_METRICS_FULL_NAME))
+                .setConsistencyLevel(ConsistencyLevel.LOCAL_ONE);
+    }
+
+    /**
+     * @return true if reads of metrics_full should include the blocks
+     */
+    public static boolean isEnabled() {
+        return Configuration.getInstance().getBooleanProperty(CoreConfig.FULL_RES_BLOCKS_ENABLED);
+    }
+
+    /**
+     * @return true if queries and rollups read the blocks, which they only do
+     * through the datastax driver with {@link CoreConfig#FULL_RES_BLOCKS_ENABLED}
+     */
+    public static boolean isReadable() {
+        return isEnabled() && IOContainer.DriverType.getDriverType(
+                Configuration.getInstance().getStringProperty(CoreConfig.CASSANDRA_DRIVER)) == IOContainer.DriverType.DATASTAX;
+    }
+
+    /**
+     * @return the start of the block the timestamp is in
+     */
+    public long getBlockStart(long timestamp) {
+        return timestamp - timestamp % blockMillis;
+    }
+
+    /**
+     * Asynchronously select the blocks that have points within the range.
+     */
+    public ResultSetFuture selectForLocatorAndRange(Locator locator, Range range) {
+        // the block the range starts in is keyed by a time before the range
+        return session.executeAsync(selectBlocksForRange.bind(locator.toString(),
+                getBlockStart(range.getStart()), range.getStop()));
+    }
+
+    /**
+     * @return true if the row was read from metrics_full_blocks
+     */
+    public boolean isBlock(Row row) {
+        return CassandraModel.CF_METRICS_FULL_BLOCKS_NAME.equals(row.getColumnDefinitions().getTable(0));
+    }
+
+    /**
+     * @return the points of a block row that are within the range
+     */
+    public SortedMap<Long, Object> getPoints(Row row, Range range) {
+        SortedMap<Long, Object> points = blockSerDes.deserialize(row.getBytes(DMetricsCFPreparedStatements.VALUE));
+        SortedMap<Long, Object> inRange = new TreeMap<Long, Object>();
+        for (Map.Entry<Long, Object> point : points.tailMap(range.getStart()).entrySet()) {
+            if (point.getKey() > range.getStop()) {
+                break;
+            }
+            inRange.put(point.getKey(), point.getValue());
+        }
+        return inRange;
+    }
+
+    /**
+     * Compacts every block of the locator that starts within the range.
+     *
+     * @return the number of points moved into blocks
+     */
+    public int compact(Locator locator, Range range) throws IOException {
+        int compacted = 0;
+        for (long blockStart = getBlockStart(range.getStart()); blockStart <= range.getStop(); blockStart += blockMillis) {
+            compacted += compactBlock(locator, blockStart);
+        }
+        return compacted;
+    }
+
+    /**
+     * Moves the points of metrics_full within the block's time span into the
+     * block, together with the points the block already has. The block lives as
+     * long as the shortest lived of its points, so that none is read after it
+     * has expired.
+     * <p>
+     *
+     * Blocks can't mix integer and floating point values, so if the points do,
+     * they are left where they are.
+     *
+     * @return the number of points moved into the block
+     * @throws IllegalStateException if the blocks aren't {@link #isReadable()}
+     */
+    public int compactBlock(Locator locator, long blockStart) throws IOException {
+        if (!isReadable()) {
+            throw new IllegalStateException("Full resolution blocks are only read with FULL_RES_BLOCKS_ENABLED " +
+                    "and the datastax CASSANDRA_DRIVER, not compacting block " + blockStart + " of " + locator);
+        }
+        String key = locator.toString();
+        List<Row> rawRows = session.execute(selectRawForRange.bind(key, blockStart, blockStart + blockMillis - 1)).all();
+        if (rawRows.isEmpty()) {
+            return 0;
+        }
+
+        SortedMap<Long, Object> points = new TreeMap<Long, Object>();
+        // a missing TTL means the cell never expires
+        int ttl = Integer.MAX_VALUE;
+        Row block = session.execute(selectBlock.bind(key, blockStart)).one();
+        if (block != null) {
+            points.putAll(blockSerDes.deserialize(block.getBytes(0)));
+            if (!block.isNull(1)) {
+                ttl = block.getInt(1);
+            }
+        }
+        for (Row row : rawRows) {
+            points.put(row.getLong(0), rawSerDes.deserialize(row.getBytes(1)));
+            if (!row.isNull(2)) {
+                ttl = Math.min(ttl, row.getInt(2));
+            }
+        }
+
+        if (!FullResBlockSerDes.canSerialize(points.values())) {
+            blocksSkipped.mark();
+            LOG.warn(String.format("Not compacting block %d of %s, it has both integer and floating point values",
+                    blockStart, locator));
+            return 0;
+        }
+
+        session.execute(insertBlock.bind(key, blockStart, blockSerDes.serialize(toNumbers(points)),
+                ttl == Integer.MAX_VALUE ? 0 : ttl));
+        blocksWritten.mark();
+
+        // deleted as of the time they were written, so points written again since are kept
+        BatchStatement batch = new BatchStatement(BatchStatement.Type.UNLOGGED);
+        for (Row row : rawRows) {
+            batch.add(deleteRaw.bind(row.getLong(3), key, row.getLong(0)));
+            if (batch.size() == DELETE_BATCH_SIZE) {
+                session.execute(batch);
+                batch = new BatchStatement(BatchStatement.Type.UNLOGGED);
+            }
+        }
+        if (batch.size() > 0) {
+            session.execute(batch);
+        }
+
+        pointsCompacted.mark(rawRows.size());
+        return rawRows.size();
+    }
+
+    private static SortedMap<Long, Number> toNumbers(SortedMap<Long, Object> points) {
+        SortedMap<Long, Number> numbers = new TreeMap<Long, Number>();
+        for (Map.Entry<Long, Object> point : points.entrySet()) {
+            numbers.put(point.getKey(), (Number) point.getValue());
+        }
+        return numbers;
+    }
+}
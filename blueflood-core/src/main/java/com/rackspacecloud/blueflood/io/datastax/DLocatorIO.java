@@ -24,6 +24,7 @@ import com.rackspacecloud.blueflood.cache.TenantTtlProvider;
 import com.rackspacecloud.blueflood.io.CassandraModel;
 import com.rackspacecloud.blueflood.io.Instrumentation;
 import com.rackspacecloud.blueflood.io.LocatorIO;
+import com.rackspacecloud.blueflood.io.LocatorPartitions;
 import com.rackspacecloud.blueflood.rollup.Granularity;
 import com.rackspacecloud.blueflood.rollup.SlotKey;
 import com.rackspacecloud.blueflood.types.Locator;
@@ -35,7 +36,10 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
 
 import static com.datastax.driver.core.querybuilder.QueryBuilder.bindMarker;
 import static com.datastax.driver.core.querybuilder.QueryBuilder.eq;
@@ -55,11 +59,19 @@ public class DLocatorIO implements LocatorIO {
 
     private PreparedStatement getValue;
     private PreparedStatement putValue;
+    private PreparedStatement scanValue;
+
+    private final LocatorPartitions partitions;
 
     /**
      * Constructor
      */
     public DLocatorIO() {
+        this(LocatorPartitions.getInstance());
+    }
+
+    public DLocatorIO(LocatorPartitions partitions) {
+        this.partitions = partitions;
         createPreparedStatements();
     }
 
@@ -74,7 +86,14 @@ public class DLocatorIO implements LocatorIO {
                 .all()
                 .from( CassandraModel.CF_METRICS_LOCATOR_NAME )
                 .where( eq ( KEY, bindMarker() ));
-        getValue = DatastaxIO.getSession().prepare( select );
+        getValue = DatastaxIO.getSession().prepare( select ).setIdempotent( true );
+
+        // only the locator names, for paging through a whole shard
+        Select.Where scan = QueryBuilder
+                .select( COLUMN1 )
+                .from( CassandraModel.CF_METRICS_LOCATOR_NAME )
+                .where( eq ( KEY, bindMarker() ));
+        scanValue = DatastaxIO.getSession().prepare( scan ).setIdempotent( true );
 
         // create a generic insert statement for inserting into metrics_locator
         Insert insert = QueryBuilder.insertInto( CassandraModel.CF_METRICS_LOCATOR_NAME)
@@ -88,7 +107,8 @@ public class DLocatorIO implements LocatorIO {
     }
 
     /**
-     * Insert a locator with key = shard long value calculated using Util.getShard()
+     * Insert a locator with key = the metrics_locator partition of its shard,
+     * see {@link LocatorPartitions}
      * @param locator
      * @throws IOException
      */
@@ -108,9 +128,8 @@ public class DLocatorIO implements LocatorIO {
 
     // package protect so other classes in this package can call it
     BoundStatement getBoundStatementForLocator(Locator locator) {
-        // get shard this locator would belong to
-        long shard = (long) Util.getShard(locator.toString());
-        return putValue.bind(shard, locator.toString(), "");
+        // get the partition of the shard this locator would belong to
+        return putValue.bind(partitions.getPartitionKey(locator), locator.toString(), "");
     }
 
     /**
@@ -119,6 +138,8 @@ public class DLocatorIO implements LocatorIO {
      *  1) A locator is capable of rollup.
      *  2) A locator has had new data in the past LOCATOR_TTL seconds.
      *
+     * The partitions of the shard are read in parallel.
+     *
      * @param shard Number of the shard you want the locators for. 0-127 inclusive.
      * @return Collection of locators
      * @throws IOException
@@ -129,19 +150,26 @@ public class DLocatorIO implements LocatorIO {
         Timer.Context ctx = Instrumentation.getReadTimerContext(CassandraModel.CF_METRICS_LOCATOR_NAME);
         Session session = DatastaxIO.getSession();
 
-        Collection<Locator> locators = new ArrayList<Locator>();
+        // the same locator can be in a bucket and in the shard partition while moving to buckets
+        Collection<Locator> locators = new HashSet<Locator>();
 
         try {
-            // bind value
-            BoundStatement bs = getValue.bind(shard);
-            List<Row> results = session.execute(bs).all();
-            for ( Row row : results ) {
-                if ( LOG.isTraceEnabled() ) {
-                    LOG.trace( "Read metrics_locators with shard " + shard + ": " +
-                            row.getString( KEY ) +
-                            row.getString( COLUMN1 ));
+            List<ResultSetFuture> futures = new ArrayList<ResultSetFuture>();
+            for ( long key : partitions.getPartitionKeys(shard) ) {
+                // bind value
+                futures.add(session.executeAsync(getValue.bind(key)));
+            }
+
+            for ( ResultSetFuture future : futures ) {
+                // rows are fetched a page at a time while iterating
+                for ( Row row : SpeculativeExecutionMetrics.record(future.getUninterruptibly()) ) {
+                    if ( LOG.isTraceEnabled() ) {
+                        LOG.trace( "Read metrics_locators with shard " + shard + ": " +
+                                row.getLong( KEY ) +
+                                row.getString( COLUMN1 ));
+                    }
+                    locators.add(Locator.createLocatorFromDbKey(row.getString(COLUMN1)));
                 }
-                locators.add(Locator.createLocatorFromDbKey(row.getString(COLUMN1)));
             }
 
             // return results
@@ -157,4 +185,52 @@ public class DLocatorIO implements LocatorIO {
         }
     }
 
+    /**
+     * Returns the locators of a shard as they are read. Unlike {@link #getLocators(long)},
+     * the partitions of the shard are read one after the other, a page at a time while
+     * the result is iterated, so that very wide shards don't have to fit in memory.
+     * While moving to more than one bucket, a locator that is both in its bucket and in
+     * the partition of the shard is returned twice.
+     *
+     * @param shard Number of the shard you want the locators for. 0-127 inclusive.
+     * @param fetchSize number of locators read per page
+     * @return an Iterable that reads the shard again every time it is iterated
+     */
+    public Iterable<Locator> scanLocators(long shard, final int fetchSize) {
+        final List<Long> keys = partitions.getPartitionKeys(shard);
+
+        return new Iterable<Locator>() {
+            @Override
+            public Iterator<Locator> iterator() {
+                return new Iterator<Locator>() {
+                    private int nextKey = 0;
+                    private Iterator<Row> rows = Collections.<Row>emptyList().iterator();
+
+                    @Override
+                    public boolean hasNext() {
+                        while ( !rows.hasNext() && nextKey < keys.size() ) {
+                            BoundStatement bs = scanValue.bind(keys.get(nextKey++));
+                            bs.setFetchSize(fetchSize);
+                            rows = DatastaxIO.getSession().execute(bs).iterator();
+                        }
+                        return rows.hasNext();
+                    }
+
+                    @Override
+                    public Locator next() {
+                        if ( !hasNext() ) {
+                            throw new NoSuchElementException();
+                        }
+                        return Locator.createLocatorFromDbKey(rows.next().getString(COLUMN1));
+                    }
+
+                    @Override
+                    public void remove() {
+                        throw new UnsupportedOperationException();
+                    }
+                };
+            }
+        };
+    }
+
 }
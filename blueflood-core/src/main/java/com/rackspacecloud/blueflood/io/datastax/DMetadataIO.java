@@ -5,8 +5,12 @@ import com.datastax.driver.core.*;
 import com.datastax.driver.core.querybuilder.Insert;
 import com.datastax.driver.core.querybuilder.Select;
 import com.google.common.collect.HashBasedTable;
+import com.google.common.collect.Iterables;
 import com.google.common.collect.Table;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.Uninterruptibles;
 import com.rackspacecloud.blueflood.io.CassandraModel;
+import com.rackspacecloud.blueflood.io.IOConfig;
 import com.rackspacecloud.blueflood.io.Instrumentation;
 import com.rackspacecloud.blueflood.io.MetadataIO;
 import com.rackspacecloud.blueflood.io.serializers.metrics.StringMetadataSerDes;
@@ -16,6 +20,9 @@ import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
 
 import static com.datastax.driver.core.querybuilder.QueryBuilder.*;
 
@@ -33,8 +40,22 @@ public class DMetadataIO implements MetadataIO {
     private final StringMetadataSerDes serDes = new StringMetadataSerDes();
 
     private PreparedStatement getValue;
+    private PreparedStatement getValues;
     private PreparedStatement putValue;
 
+    private final int inListSize = IOConfig.singleton().getMetadataReadsInListSize();
+    // shared by every batched read, like the writes below
+    private final Semaphore readsInFlight = new Semaphore( IOConfig.singleton().getMetadataReadsMaxInFlight() );
+
+    // shared by every batched write, so that the pipeline of MetadataCache doesn't multiply it
+    private final Semaphore writesInFlight = new Semaphore( IOConfig.singleton().getMetadataWritesMaxInFlight() );
+    private final Runnable releaseWrite = new Runnable() {
+        @Override
+        public void run() {
+            writesInFlight.release();
+        }
+    };
+
     public DMetadataIO() {
 
         createPreparedStatements();
@@ -47,7 +68,14 @@ public class DMetadataIO implements MetadataIO {
                 .from( CassandraModel.CF_METRICS_METADATA_NAME )
                 .where( eq( KEY, bindMarker() ));
 
-        getValue = DatastaxIO.getSession().prepare( select );
+        getValue = DatastaxIO.getSession().prepare( select ).setIdempotent( true );
+
+        Select.Where selectIn = select()
+                .all()
+                .from( CassandraModel.CF_METRICS_METADATA_NAME )
+                .where( in( KEY, bindMarker() ));
+
+        getValues = DatastaxIO.getSession().prepare( selectIn ).setIdempotent( true );
 
         Insert insert = insertInto( CassandraModel.CF_METRICS_METADATA_NAME )
                 .value( KEY, bindMarker() )
@@ -69,7 +97,7 @@ public class DMetadataIO implements MetadataIO {
 
             BoundStatement bound = getValue.bind( locator.toString() );
 
-            List<Row> results = session.execute( bound ).all();
+            List<Row> results = SpeculativeExecutionMetrics.record( session.execute( bound ) ).all();
 
             Map<String, String> values = new HashMap<String, String>();
 
@@ -94,51 +122,144 @@ public class DMetadataIO implements MetadataIO {
     @Override
     public Table<Locator, String, String> getAllValues( Set<Locator> locators ) throws IOException {
 
+        final Table<Locator, String, String> metaTable = HashBasedTable.create();
+
+        getAllValues( locators, new MetadataListener() {
+            @Override
+            public void onMetadata( Locator locator, Map<String, String> values ) {
+                metaTable.row( locator ).putAll( values );
+            }
+        } );
+
+        return metaTable;
+    }
+
+    /**
+     * Reads the locators META_CACHE_BATCHED_READS_IN_LIST_SIZE at a time, with at
+     * most META_CACHE_BATCHED_READS_MAX_IN_FLIGHT reads outstanding across all
+     * callers. The results are handed to the listener in the order they arrive,
+     * while more reads are still being sent.
+     */
+    @Override
+    public void getAllValues( Set<Locator> locators, MetadataListener listener ) throws IOException {
+
         Timer.Context ctx = Instrumentation.getReadTimerContext( CassandraModel.CF_METRICS_METADATA_NAME );
 
         Session session = DatastaxIO.getSession();
 
+        final BlockingQueue<Read> completed = new LinkedBlockingQueue<Read>();
+        int outstanding = 0;
+        int failures = 0;
+
         try {
+            for( List<Locator> group : Iterables.partition( locators, inListSize ) ) {
 
-            Map<Locator, ResultSetFuture> futures = new HashMap<Locator, ResultSetFuture>();
+                readsInFlight.acquireUninterruptibly();
+                final Read read;
+                try {
+                    read = new Read( group, session.executeAsync( getStatement( group ) ) );
+                }
+                catch ( RuntimeException e ) {
+                    readsInFlight.release();
+                    throw e;
+                }
+                read.future.addListener( new Runnable() {
+                    @Override
+                    public void run() {
+                        readsInFlight.release();
+                        completed.add( read );
+                    }
+                }, MoreExecutors.directExecutor() );
+                outstanding++;
 
-            for( Locator l : locators) {
+                // hand over whatever has arrived in the meantime
+                for( Read done = completed.poll(); done != null; done = completed.poll() ) {
+                    outstanding--;
+                    failures += handle( done, listener );
+                }
+            }
 
-                BoundStatement bound = getValue.bind( l.toString() );
+            while ( outstanding > 0 ) {
+                outstanding--;
+                failures += handle( Uninterruptibles.takeUninterruptibly( completed ), listener );
+            }
 
-                futures.put( l, session.executeAsync( bound ) );
+            if ( failures > 0 ) {
+                throw new IOException( String.format( "the metadata of %d of %d locators could not be read",
+                        failures, locators.size() ) );
             }
+        }
+        finally {
+            ctx.stop();
+        }
+    }
 
-            Table<Locator, String, String> metaTable = HashBasedTable.create();
+    private Statement getStatement( List<Locator> locators ) {
 
-            for( Map.Entry<Locator, ResultSetFuture> future : futures.entrySet() ) {
+        if ( locators.size() == 1 ) {
+            return getValue.bind( locators.get( 0 ).toString() );
+        }
 
-                try {
-                    ResultSet result = future.getValue().getUninterruptibly();
+        List<String> keys = new ArrayList<String>( locators.size() );
+        for ( Locator locator : locators ) {
+            keys.add( locator.toString() );
+        }
+        return getValues.bind( keys );
+    }
 
+    /**
+     * @return the number of locators that could not be read
+     */
+    private int handle( Read read, MetadataListener listener ) {
 
-                    for ( Row row : result ) {
-                        if ( LOG.isTraceEnabled() ) {
-                            LOG.trace( "Read metrics_metadata: " +
-                                    row.getString( KEY ) +
-                                    row.getString( COLUMN1 ) +
-                                    serDes.deserialize( row.getBytes( VALUE ) ) );
-                        }
+        ResultSet result;
+        try {
+            result = SpeculativeExecutionMetrics.record( read.future.getUninterruptibly() );
+        }
+        catch (Exception e ) {
 
-                        metaTable.put( Locator.createLocatorFromDbKey( row.getString( KEY ) ), row.getString( COLUMN1 ), serDes.deserialize( row.getBytes( VALUE ) ) );
-                    }
-                }
-                catch (Exception e ) {
+            Instrumentation.markReadError();
+            LOG.error( String.format( "error accessing metadata for %s", read.locators ), e );
+            return read.locators.size();
+        }
 
-                    Instrumentation.markReadError();
-                    LOG.error( String.format( "error accessing metadatat for %s", future.getKey() ), e );
-                }
+        Map<String, Map<String, String>> values = new HashMap<String, Map<String, String>>();
+
+        for ( Row row : result ) {
+            if ( LOG.isTraceEnabled() ) {
+                LOG.trace( "Read metrics_metadata: " +
+                        row.getString( KEY ) +
+                        row.getString( COLUMN1 ) +
+                        serDes.deserialize( row.getBytes( VALUE ) ) );
             }
 
-            return metaTable;
+            Map<String, String> locatorValues = values.get( row.getString( KEY ) );
+            if ( locatorValues == null ) {
+                locatorValues = new HashMap<String, String>();
+                values.put( row.getString( KEY ), locatorValues );
+            }
+            locatorValues.put( row.getString( COLUMN1 ), serDes.deserialize( row.getBytes( VALUE ) ) );
         }
-        finally {
-            ctx.stop();
+
+        for ( Locator locator : read.locators ) {
+            Map<String, String> locatorValues = values.get( locator.toString() );
+            if ( locatorValues != null ) {
+                listener.onMetadata( locator, locatorValues );
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * A read of the metadata of some locators.
+     */
+    private static class Read {
+        private final List<Locator> locators;
+        private final ResultSetFuture future;
+
+        Read( List<Locator> locators, ResultSetFuture future ) {
+            this.locators = locators;
+            this.future = future;
         }
     }
 
@@ -161,6 +282,13 @@ public class DMetadataIO implements MetadataIO {
         }
     }
 
+    /**
+     * Writes all the columns of a locator as one single partition batch, with
+     * at most META_CACHE_BATCHED_WRITES_MAX_IN_FLIGHT batches outstanding across
+     * all callers, and waits for them.
+     *
+     * @throws IOException if any of the locators could not be written
+     */
     @Override
     public void putAll( Table<Locator, String, String> meta ) throws IOException {
 
@@ -171,28 +299,60 @@ public class DMetadataIO implements MetadataIO {
         Map<Locator, ResultSetFuture> futures = new HashMap<Locator, ResultSetFuture>();
 
         try {
-            for( Table.Cell<Locator, String, String> cell : meta.cellSet() ) {
+            for( Locator locator : meta.rowKeySet() ) {
 
-                BoundStatement bound = putValue.bind( cell.getRowKey().toString(), cell.getColumnKey(), serDes.serialize( cell.getValue() ) );
+                Statement statement = putStatement( locator, meta.row( locator ) );
 
-                futures.put( cell.getRowKey(), session.executeAsync( bound ) );
+                writesInFlight.acquireUninterruptibly();
+                try {
+                    ResultSetFuture future = session.executeAsync( statement );
+                    future.addListener( releaseWrite, MoreExecutors.directExecutor() );
+                    futures.put( locator, future );
+                }
+                catch ( RuntimeException e ) {
+                    writesInFlight.release();
+                    throw e;
+                }
             }
 
+            int failures = 0;
             for( Map.Entry<Locator, ResultSetFuture> future : futures.entrySet() ) {
 
                 try {
-                    ResultSet result = future.getValue().getUninterruptibly();
-                    LOG.trace( "result.size=" + result.all().size() );
+                    future.getValue().getUninterruptibly();
                 }
                 catch (Exception e ){
 
+                    failures++;
                     Instrumentation.markWriteError();
                     LOG.error( String.format( "error writing to metrics_metadata for %s", future.getKey()), e );
                 }
             }
+
+            if ( failures > 0 ) {
+                throw new IOException( String.format( "%d of %d locators could not be written to metrics_metadata",
+                        failures, futures.size() ) );
+            }
         }
         finally {
             ctx.stop();
         }
     }
+
+    private Statement putStatement( Locator locator, Map<String, String> columns ) {
+
+        BatchStatement batch = new BatchStatement( BatchStatement.Type.UNLOGGED );
+
+        for( Map.Entry<String, String> column : columns.entrySet() ) {
+
+            batch.add( putValue.bind( locator.toString(), column.getKey(), serDes.serialize( column.getValue() ) ) );
+        }
+
+        if ( batch.size() == 1 ) {
+            return batch.getStatements().iterator().next();
+        }
+
+        batch.setConsistencyLevel( ConsistencyLevel.LOCAL_ONE );
+        return batch;
+    }
 }
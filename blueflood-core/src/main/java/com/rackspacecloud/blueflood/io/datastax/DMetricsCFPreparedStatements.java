@@ -120,26 +120,33 @@ public class DMetricsCFPreparedStatements {
                 .setConsistencyLevel(ConsistencyLevel.LOCAL_ONE);
 
         //
-        // Preaggr select statements
+        // Preaggr select statements, which are idempotent so that
+        // they can be executed speculatively
         //
         selectFromMetricsPreaggrFullForRangeStatement = session.prepare(
                 String.format(SELECT_FOR_KEY_RANGE_FORMAT,
-                        CassandraModel.CF_METRICS_PREAGGREGATED_FULL_NAME));
+                        CassandraModel.CF_METRICS_PREAGGREGATED_FULL_NAME))
+                .setIdempotent(true);
         selectFromMetricsPreaggr5MForRangeStatement = session.prepare(
                 String.format(SELECT_FOR_KEY_RANGE_FORMAT,
-                        CassandraModel.CF_METRICS_PREAGGREGATED_5M_NAME));
+                        CassandraModel.CF_METRICS_PREAGGREGATED_5M_NAME))
+                .setIdempotent(true);
         selectFromMetricsPreaggr20MForRangeStatement = session.prepare(
                 String.format(SELECT_FOR_KEY_RANGE_FORMAT,
-                        CassandraModel.CF_METRICS_PREAGGREGATED_20M_NAME));
+                        CassandraModel.CF_METRICS_PREAGGREGATED_20M_NAME))
+                .setIdempotent(true);
         selectFromMetricsPreaggr60MForRangeStatement = session.prepare(
                 String.format(SELECT_FOR_KEY_RANGE_FORMAT,
-                        CassandraModel.CF_METRICS_PREAGGREGATED_60M_NAME));
+                        CassandraModel.CF_METRICS_PREAGGREGATED_60M_NAME))
+                .setIdempotent(true);
         selectFromMetricsPreaggr240MForRangeStatement = session.prepare(
                 String.format(SELECT_FOR_KEY_RANGE_FORMAT,
-                        CassandraModel.CF_METRICS_PREAGGREGATED_240M_NAME));
+                        CassandraModel.CF_METRICS_PREAGGREGATED_240M_NAME))
+                .setIdempotent(true);
         selectFromMetricsPreaggr1440MForRangeStatement = session.prepare(
                 String.format(SELECT_FOR_KEY_RANGE_FORMAT,
-                        CassandraModel.CF_METRICS_PREAGGREGATED_1440M_NAME));
+                        CassandraModel.CF_METRICS_PREAGGREGATED_1440M_NAME))
+                .setIdempotent(true);
 
         cfNameToSelectStatement = new HashMap<String, PreparedStatement>() {{
             put(CassandraModel.CF_METRICS_PREAGGREGATED_FULL_NAME, selectFromMetricsPreaggrFullForRangeStatement);
@@ -192,22 +199,28 @@ public class DMetricsCFPreparedStatements {
         //
         selectFromMetricsBasicFullForRangeStatement = session.prepare(
                 String.format(SELECT_FOR_KEY_RANGE_FORMAT,
-                        CassandraModel.CF_METRICS_FULL_NAME));
+                        CassandraModel.CF_METRICS_FULL_NAME))
+                .setIdempotent(true);
         selectFromMetricsBasic5MForRangeStatement = session.prepare(
                 String.format(SELECT_FOR_KEY_RANGE_FORMAT,
-                        CassandraModel.CF_METRICS_5M_NAME));
+                        CassandraModel.CF_METRICS_5M_NAME))
+                .setIdempotent(true);
         selectFromMetricsBasic20MForRangeStatement = session.prepare(
                 String.format(SELECT_FOR_KEY_RANGE_FORMAT,
-                        CassandraModel.CF_METRICS_20M_NAME));
+                        CassandraModel.CF_METRICS_20M_NAME))
+                .setIdempotent(true);
         selectFromMetricsBasic60MForRangeStatement = session.prepare(
                 String.format(SELECT_FOR_KEY_RANGE_FORMAT,
-                        CassandraModel.CF_METRICS_60M_NAME));
+                        CassandraModel.CF_METRICS_60M_NAME))
+                .setIdempotent(true);
         selectFromMetricsBasic240MForRangeStatement = session.prepare(
                 String.format(SELECT_FOR_KEY_RANGE_FORMAT,
-                        CassandraModel.CF_METRICS_240M_NAME));
+                        CassandraModel.CF_METRICS_240M_NAME))
+                .setIdempotent(true);
         selectFromMetricsBasic1440MForRangeStatement = session.prepare(
                 String.format(SELECT_FOR_KEY_RANGE_FORMAT,
-                        CassandraModel.CF_METRICS_1440M_NAME));
+                        CassandraModel.CF_METRICS_1440M_NAME))
+                .setIdempotent(true);
 
         cfNameToSelectStatement.put( CassandraModel.CF_METRICS_FULL_NAME, selectFromMetricsBasicFullForRangeStatement );
         cfNameToSelectStatement.put( CassandraModel.CF_METRICS_5M_NAME, selectFromMetricsBasic5MForRangeStatement );
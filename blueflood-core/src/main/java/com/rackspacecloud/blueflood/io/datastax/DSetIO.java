@@ -80,8 +80,8 @@ public class DSetIO extends DAbstractMetricIO {
             );
         }
         PreparedStatement statement = metricsCFPreparedStatements.preaggrGranToInsertStatement.get(granularity);
-        return statement.bind(
-                metric.getLocator().toString(),
+        return bindInsert(statement,
+                metric.getLocator(),
                 metric.getCollectionTime(),
                 serDes.serialize( (BluefloodSetRollup) metricValue ),
                 metric.getTtlInSeconds() );
@@ -2,21 +2,46 @@ package com.rackspacecloud.blueflood.io.datastax;
 
 import com.datastax.driver.core.BoundStatement;
 import com.datastax.driver.core.ResultSetFuture;
+import com.datastax.driver.core.Row;
+import com.google.common.collect.Table;
+import com.rackspacecloud.blueflood.io.CassandraModel;
 import com.rackspacecloud.blueflood.io.serializers.metrics.RawSerDes;
 import com.rackspacecloud.blueflood.rollup.Granularity;
 import com.rackspacecloud.blueflood.types.IMetric;
+import com.rackspacecloud.blueflood.types.Locator;
+import com.rackspacecloud.blueflood.types.Range;
 
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
 
 /**
  * This class holds the utility methods to read/write simple numbers
  * using Datastax driver. This is mostly used during Ingest and metrics
- * are inserted to the metrics_full Column Family
+ * are inserted to the metrics_full Column Family.
+ *
+ * With {@link com.rackspacecloud.blueflood.service.CoreConfig#FULL_RES_BLOCKS_ENABLED},
+ * reads of metrics_full also return the points that have been compacted
+ * into metrics_full_blocks by {@link DFullResBlockIO}.
  */
 public class DSimpleNumberIO extends DAbstractMetricIO {
 
     private RawSerDes serDes = new RawSerDes();
 
+    private final DFullResBlockIO blockIO;
+
+    public DSimpleNumberIO() {
+        this(DFullResBlockIO.isEnabled() ? new DFullResBlockIO() : null);
+    }
+
+    /**
+     * @param blockIO reads the blocks of full resolution points, or null to not read them
+     */
+    public DSimpleNumberIO(DFullResBlockIO blockIO) {
+        this.blockIO = blockIO;
+    }
+
     @Override
     protected ByteBuffer toByteBuffer( Object value ) {
 
@@ -29,6 +54,31 @@ public class DSimpleNumberIO extends DAbstractMetricIO {
         return serDes.deserialize( byteBuffer );
     }
 
+    @Override
+    protected List<ResultSetFuture> selectForLocatorAndRange(String columnFamily, Locator locator, Range range) {
+        if (blockIO == null || !CassandraModel.CF_METRICS_FULL_NAME.equals(columnFamily)) {
+            return super.selectForLocatorAndRange(columnFamily, locator, range);
+        }
+        // the blocks come first, so that a point of metrics_full written
+        // after its block was compacted takes the place of the older one
+        List<ResultSetFuture> futures = new ArrayList<ResultSetFuture>();
+        futures.add(blockIO.selectForLocatorAndRange(locator, range));
+        futures.addAll(super.selectForLocatorAndRange(columnFamily, locator, range));
+        return futures;
+    }
+
+    @Override
+    protected <T extends Object> void putRow(Table<Locator, Long, T> locatorTimestampRollup, Row row, Range range) {
+        if (blockIO == null || !blockIO.isBlock(row)) {
+            super.putRow(locatorTimestampRollup, row, range);
+            return;
+        }
+        Locator locator = Locator.createLocatorFromDbKey(row.getString(DMetricsCFPreparedStatements.KEY));
+        for (Map.Entry<Long, Object> point : blockIO.getPoints(row, range).entrySet()) {
+            locatorTimestampRollup.put(locator, point.getKey(), (T) point.getValue());
+        }
+    }
+
     /**
      * Inserts a raw metric (not its rolled up value) to the proper
      * column family
@@ -52,8 +102,8 @@ public class DSimpleNumberIO extends DAbstractMetricIO {
      * @return
      */
     public BoundStatement getBoundStatementForMetric(IMetric metric) {
-        return metricsCFPreparedStatements.insertToMetricsBasicFullStatement.bind(
-                metric.getLocator().toString(),
+        return bindInsert(metricsCFPreparedStatements.insertToMetricsBasicFullStatement,
+                metric.getLocator(),
                 metric.getCollectionTime(),
                 serDes.serialize( metric.getMetricValue() ),
                 metric.getTtlInSeconds() );
@@ -0,0 +1,213 @@
+/*
+ * Copyright 2017 Rackspace
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.rackspacecloud.blueflood.io.datastax;
+
+import com.codahale.metrics.Meter;
+import com.datastax.driver.core.*;
+import com.rackspacecloud.blueflood.io.CassandraModel;
+import com.rackspacecloud.blueflood.rollup.Granularity;
+import com.rackspacecloud.blueflood.service.Configuration;
+import com.rackspacecloud.blueflood.service.CoreConfig;
+import com.rackspacecloud.blueflood.types.Locator;
+import com.rackspacecloud.blueflood.types.Range;
+import com.rackspacecloud.blueflood.utils.Clock;
+import com.rackspacecloud.blueflood.utils.DefaultClockImpl;
+import com.rackspacecloud.blueflood.utils.Metrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * This class uses the Datastax driver to read/write the time bucketed versions
+ * of the metrics_* and metrics_preaggregated_* Column Families, named with
+ * {@link CassandraModel#TIME_BUCKETS_SUFFIX}. Their partitions are keyed by the
+ * locator and the start of a time bucket, so that they stay bounded however long
+ * a metric lives, and expire as a whole.
+ * <p>
+ *
+ * A bucket spans {@link CoreConfig#METRICS_TIME_BUCKET_SLOTS} slots of the
+ * granularity of its Column Family, e.g. a day of metrics_5m by default. Only the
+ * values from {@link CoreConfig#METRICS_TIME_BUCKETS_SINCE} on are in buckets, the
+ * older ones stay where they were written.
+ * <p>
+ * A read never goes past the latest collection time that is accepted,
+ * {@link CoreConfig#AFTER_CURRENT_COLLECTIONTIME_MS} from now, and reads at most
+ * {@link CoreConfig#METRICS_TIME_BUCKETS_MAX_PER_READ} buckets, the newest ones.
+ */
+public class DTimeBucketIO {
+    private static final Logger log = LoggerFactory.getLogger(DTimeBucketIO.class);
+    private static final Meter readsTruncated = Metrics.meter(DTimeBucketIO.class, "Reads Truncated To Max Buckets");
+
+    private static final String INSERT_FORMAT = "INSERT INTO %s (key, bucket, column1, value) VALUES (?, ?, ?, ?) USING TTL ?";
+    private static final String SELECT_FOR_KEY_BUCKET_RANGE_FORMAT = "SELECT key, column1, value FROM %s WHERE key = ? AND bucket = ? AND column1 >= ? AND column1 <= ?";
+
+    private final Session session;
+    private final long since;
+    private final int maxBucketsPerRead;
+    private final long maxFutureMillis;
+    private final Clock clock;
+
+    // by the name of the Column Family that isn't bucketed
+    private final Map<String, Long> bucketMillis = new HashMap<String, Long>();
+    private final Map<String, PreparedStatement> insertStatements = new HashMap<String, PreparedStatement>();
+    private final Map<String, PreparedStatement> selectStatements = new HashMap<String, PreparedStatement>();
+
+    /**
+     * The statements are only prepared when buckets are enabled, so that
+     * clusters without the bucketed Column Families still start.
+     */
+    private static class Holder {
+        private static final DTimeBucketIO INSTANCE = new DTimeBucketIO(DatastaxIO.getSession(),
+                Configuration.getInstance().getLongProperty(CoreConfig.METRICS_TIME_BUCKETS_SINCE),
+                Configuration.getInstance().getIntegerProperty(CoreConfig.METRICS_TIME_BUCKET_SLOTS),
+                Configuration.getInstance().getIntegerProperty(CoreConfig.METRICS_TIME_BUCKETS_MAX_PER_READ),
+                Configuration.getInstance().getLongProperty(CoreConfig.AFTER_CURRENT_COLLECTIONTIME_MS),
+                new DefaultClockImpl());
+    }
+
+    /**
+     * @return true if values from {@link CoreConfig#METRICS_TIME_BUCKETS_SINCE} on are in buckets
+     */
+    public static boolean isEnabled() {
+        return Configuration.getInstance().getLongProperty(CoreConfig.METRICS_TIME_BUCKETS_SINCE) > 0;
+    }
+
+    public static DTimeBucketIO getInstance() {
+        return Holder.INSTANCE;
+    }
+
+    /**
+     * @param since the collection time from which values are in buckets
+     * @param slotsPerBucket the number of slots of its granularity a bucket spans
+     * @param maxBucketsPerRead the number of buckets a read of a range reads at most
+     * @param maxFutureMillis how far ahead of now collection times are accepted
+     * @param clock provides the current time
+     */
+    public DTimeBucketIO(Session session, long since, int slotsPerBucket, int maxBucketsPerRead,
+                         long maxFutureMillis, Clock clock) {
+        if (slotsPerBucket < 1) {
+            throw new IllegalArgumentException("METRICS_TIME_BUCKET_SLOTS must be at least 1, was " + slotsPerBucket);
+        }
+        if (maxBucketsPerRead < 1) {
+            throw new IllegalArgumentException("METRICS_TIME_BUCKETS_MAX_PER_READ must be at least 1, was " + maxBucketsPerRead);
+        }
+        this.session = session;
+        this.since = since;
+        this.maxBucketsPerRead = maxBucketsPerRead;
+        this.maxFutureMillis = maxFutureMillis;
+        this.clock = clock;
+
+        for (Granularity granularity : Granularity.granularities()) {
+            long millis = granularity.milliseconds() * (long) slotsPerBucket;
+            add(CassandraModel.getBasicColumnFamilyName(granularity), millis);
+            add(CassandraModel.getPreaggregatedColumnFamilyName(granularity), millis);
+        }
+    }
+
+    private void add(String columnFamily, long millis) {
+        String bucketed = CassandraModel.getTimeBucketedColumnFamilyName(columnFamily);
+        bucketMillis.put(columnFamily, millis);
+        insertStatements.put(columnFamily, session.prepare(String.format(INSERT_FORMAT, bucketed))
+                .setConsistencyLevel(ConsistencyLevel.LOCAL_ONE));
+        selectStatements.put(columnFamily, session.prepare(String.format(SELECT_FOR_KEY_BUCKET_RANGE_FORMAT, bucketed))
+                .setIdempotent(true));
+    }
+
+    /**
+     * @return the collection time from which values are in buckets
+     */
+    public long getSince() {
+        return since;
+    }
+
+    /**
+     * @return true if a value with this collection time is written to a bucket
+     */
+    public boolean isBucketed(long collectionTime) {
+        return collectionTime >= since;
+    }
+
+    /**
+     * @return the start of the bucket of the Column Family the timestamp is in
+     */
+    public long getBucketStart(String columnFamily, long timestamp) {
+        long millis = getBucketMillis(columnFamily);
+        return timestamp - timestamp % millis;
+    }
+
+    /**
+     * Binds the insert of a value to the bucketed version of the Column Family
+     * that the given statement inserts into.
+     */
+    public BoundStatement bindInsert(PreparedStatement unbucketedInsert, Locator locator, long collectionTime,
+                                     ByteBuffer value, int ttl) {
+        String columnFamily = unbucketedInsert.getVariables().getTable(0);
+        PreparedStatement statement = insertStatements.get(columnFamily);
+        if (statement == null) {
+            throw new IllegalArgumentException("No time buckets for " + columnFamily);
+        }
+        return statement.bind(locator.toString(), getBucketStart(columnFamily, collectionTime), collectionTime, value, ttl);
+    }
+
+    /**
+     * Asynchronously select the values of the part of the range from
+     * {@link #getSince()} on, up to the latest collection time that is
+     * accepted, from all of its buckets in parallel. Of a range that spans
+     * more than the maximum number of buckets, only the newest ones are read.
+     *
+     * @return a future for every bucket, oldest first
+     */
+    public List<ResultSetFuture> selectForLocatorAndRange(String columnFamily, Locator locator, Range range) {
+        PreparedStatement statement = selectStatements.get(columnFamily);
+        if (statement == null) {
+            throw new IllegalArgumentException("No time buckets for " + columnFamily);
+        }
+        List<ResultSetFuture> futures = new ArrayList<ResultSetFuture>();
+        long start = Math.max(range.getStart(), since);
+        long stop = Math.min(range.getStop(), clock.now().getMillis() + maxFutureMillis);
+        if (stop < start) {
+            return futures;
+        }
+        long millis = getBucketMillis(columnFamily);
+        long firstBucket = getBucketStart(columnFamily, start);
+        long lastBucket = getBucketStart(columnFamily, stop);
+        if ((lastBucket - firstBucket) / millis >= maxBucketsPerRead) {
+            readsTruncated.mark();
+            firstBucket = lastBucket - (maxBucketsPerRead - 1) * millis;
+            start = firstBucket;
+            log.debug("Reading only the newest {} buckets of {} for {} from {} to {}",
+                    maxBucketsPerRead, columnFamily, locator, range.getStart(), range.getStop());
+        }
+        for (long bucket = firstBucket; bucket <= lastBucket; bucket += millis) {
+            futures.add(session.executeAsync(statement.bind(locator.toString(), bucket, start, stop)));
+        }
+        return futures;
+    }
+
+    private long getBucketMillis(String columnFamily) {
+        Long millis = bucketMillis.get(columnFamily);
+        if (millis == null) {
+            throw new IllegalArgumentException("No time buckets for " + columnFamily);
+        }
+        return millis;
+    }
+}
@@ -80,8 +80,8 @@ public class DTimerIO extends DAbstractMetricIO {
             );
         }
         PreparedStatement statement = metricsCFPreparedStatements.preaggrGranToInsertStatement.get(granularity);
-        return statement.bind(
-                metric.getLocator().toString(),
+        return bindInsert(statement,
+                metric.getLocator(),
                 metric.getCollectionTime(),
                 serDes.serialize( (BluefloodTimerRollup) metricValue ),
                 metric.getTtlInSeconds() );
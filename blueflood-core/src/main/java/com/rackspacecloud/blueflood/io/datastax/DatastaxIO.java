@@ -18,8 +18,11 @@ package com.rackspacecloud.blueflood.io.datastax;
 import com.codahale.metrics.*;
 import com.datastax.driver.core.*;
 import com.datastax.driver.core.exceptions.NoHostAvailableException;
+import com.datastax.driver.core.policies.ConstantSpeculativeExecutionPolicy;
 import com.datastax.driver.core.policies.DCAwareRoundRobinPolicy;
 
+import com.datastax.driver.core.policies.LatencyAwarePolicy;
+import com.datastax.driver.core.policies.LoadBalancingPolicy;
 import com.datastax.driver.core.policies.TokenAwarePolicy;
 import com.rackspacecloud.blueflood.io.CassandraModel;
 import com.rackspacecloud.blueflood.io.IOConfig;
@@ -28,6 +31,7 @@ import org.slf4j.LoggerFactory;
 
 import java.net.InetSocketAddress;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
 /**
  * This class is a singleton that holds the necessary code that uses datastax
@@ -60,14 +64,22 @@ public class DatastaxIO {
 
         CodecRegistry codecRegistry = new CodecRegistry();
 
-        cluster = Cluster.builder()
-                .withLoadBalancingPolicy(new TokenAwarePolicy(DCAwareRoundRobinPolicy.builder().withLocalDc(ioconfig.getDatacenterName()).build(), false))
+        Cluster.Builder builder = Cluster.builder()
+                .withLoadBalancingPolicy(new TokenAwarePolicy(getHostSelectionPolicy(), false))
                 .withPoolingOptions(getPoolingOptions())
                 .withRetryPolicy(new RetryNTimes(readTimeoutMaxRetries, writeTimeoutMaxRetries, unavailableMaxRetries))
                 .withCodecRegistry(codecRegistry)
                 .withSocketOptions(getSocketOptions())
-                .addContactPointsWithPorts(dbHosts)
-                .build();
+                .addContactPointsWithPorts(dbHosts);
+
+        // only statements marked as idempotent, which are our reads, are ever executed speculatively
+        long speculativeExecutionDelay = ioconfig.getSpeculativeExecutionDelayMillis();
+        if ( speculativeExecutionDelay > 0 ) {
+            builder.withSpeculativeExecutionPolicy(new ConstantSpeculativeExecutionPolicy(
+                    speculativeExecutionDelay, ioconfig.getSpeculativeExecutionMax()));
+        }
+
+        cluster = builder.build();
 
         QueryLogger queryLogger = QueryLogger.builder()
                 .withConstantThreshold(5000)
@@ -100,6 +112,23 @@ public class DatastaxIO {
         }
     }
 
+    /**
+     * @return the policy that orders the hosts of the local datacenter, for the
+     * replicas of a partition to be picked among
+     */
+    private static LoadBalancingPolicy getHostSelectionPolicy() {
+        LoadBalancingPolicy policy = DCAwareRoundRobinPolicy.builder().withLocalDc(ioconfig.getDatacenterName()).build();
+        if ( !ioconfig.isLatencyAwareEnabled() ) {
+            return policy;
+        }
+        return LatencyAwarePolicy.builder(policy)
+                .withExclusionThreshold(ioconfig.getLatencyAwareExclusionThreshold())
+                .withScale(ioconfig.getLatencyAwareScaleMillis(), TimeUnit.MILLISECONDS)
+                .withRetryPeriod(ioconfig.getLatencyAwareRetryPeriodSeconds(), TimeUnit.SECONDS)
+                .withMininumMeasurements(ioconfig.getLatencyAwareMinMeasurements())
+                .build();
+    }
+
     private static SocketOptions getSocketOptions() {
         final SocketOptions socketOptions = new SocketOptions();
         socketOptions.setConnectTimeoutMillis(ioconfig.getRequestTimeout())
@@ -113,7 +142,8 @@ public class DatastaxIO {
         poolingOptions
                 .setCoreConnectionsPerHost(HostDistance.LOCAL, ioconfig.getDatastaxCoreConnectionsPerHost())
                 .setMaxConnectionsPerHost(HostDistance.LOCAL, ioconfig.getDatastaxMaxConnectionsPerHost())
-                .setMaxRequestsPerConnection(HostDistance.LOCAL, ioconfig.getDatastaxMaxRequestsPerConnection());
+                .setMaxRequestsPerConnection(HostDistance.LOCAL, ioconfig.getDatastaxMaxRequestsPerConnection())
+                .setMaxQueueSize(ioconfig.getDatastaxMaxQueueSize());
         return poolingOptions;
     }
 
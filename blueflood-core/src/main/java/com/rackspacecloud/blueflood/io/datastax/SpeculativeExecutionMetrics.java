@@ -0,0 +1,62 @@
+/*
+ * Copyright 2017 Rackspace
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.rackspacecloud.blueflood.io.datastax;
+
+import com.codahale.metrics.Meter;
+import com.datastax.driver.core.ExecutionInfo;
+import com.datastax.driver.core.ResultSet;
+import com.rackspacecloud.blueflood.utils.Metrics;
+
+/**
+ * Counts how often the reads that were executed speculatively, because the first
+ * host didn't answer within DATASTAX_SPECULATIVE_EXECUTION_DELAY_MILLIS, were
+ * answered by one of the extra executions rather than by the first one.
+ * <p>
+ *
+ * Many speculated reads that are won by the first execution mean the delay is too
+ * short and the extra load is wasted. Few speculated reads while the p99 of reads
+ * stays high mean it is too long.
+ */
+public class SpeculativeExecutionMetrics {
+
+    private static final Meter readsSpeculated = Metrics.meter(SpeculativeExecutionMetrics.class, "Reads Speculated");
+    private static final Meter speculativeExecutionsWon = Metrics.meter(SpeculativeExecutionMetrics.class, "Speculative Executions Won");
+    private static final Meter speculativeExecutionsLost = Metrics.meter(SpeculativeExecutionMetrics.class, "Speculative Executions Lost");
+
+    private SpeculativeExecutionMetrics() {
+    }
+
+    /**
+     * Records which execution answered a read.
+     *
+     * @param resultSet the result of the read
+     * @return the result, for chaining
+     */
+    public static ResultSet record(ResultSet resultSet) {
+        ExecutionInfo info = resultSet == null ? null : resultSet.getExecutionInfo();
+        if ( info == null || info.getSpeculativeExecutions() == 0 ) {
+            return resultSet;
+        }
+        readsSpeculated.mark();
+        if ( info.getSuccessfulExecutionIndex() > 0 ) {
+            speculativeExecutionsWon.mark();
+        } else {
+            speculativeExecutionsLost.mark();
+        }
+        return resultSet;
+    }
+}
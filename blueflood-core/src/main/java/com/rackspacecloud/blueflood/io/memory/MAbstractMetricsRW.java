@@ -0,0 +1,203 @@
+/*
+ * Copyright 2017 Rackspace
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.rackspacecloud.blueflood.io.memory;
+
+import com.codahale.metrics.Timer;
+import com.rackspacecloud.blueflood.cache.LocatorCache;
+import com.rackspacecloud.blueflood.cache.MetadataCache;
+import com.rackspacecloud.blueflood.concurrent.QueryDeadline;
+import com.rackspacecloud.blueflood.io.AbstractMetricsRW;
+import com.rackspacecloud.blueflood.io.DelayedLocatorIO;
+import com.rackspacecloud.blueflood.io.Instrumentation;
+import com.rackspacecloud.blueflood.io.LocatorIO;
+import com.rackspacecloud.blueflood.outputs.formats.MetricData;
+import com.rackspacecloud.blueflood.rollup.Granularity;
+import com.rackspacecloud.blueflood.service.Configuration;
+import com.rackspacecloud.blueflood.service.CoreConfig;
+import com.rackspacecloud.blueflood.service.SingleRollupWriteContext;
+import com.rackspacecloud.blueflood.types.*;
+import com.rackspacecloud.blueflood.utils.Clock;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * This class deals with aspects of reading/writing metrics which are common across all column families
+ * kept in memory
+ */
+public abstract class MAbstractMetricsRW extends AbstractMetricsRW {
+
+    private static final long MAX_AGE_ALLOWED = Configuration.getInstance().getLongProperty(CoreConfig.ROLLUP_DELAY_MILLIS);
+
+    private static final Granularity DELAYED_METRICS_STORAGE_GRANULARITY =
+            Granularity.getRollupGranularity(Configuration.getInstance().getStringProperty(CoreConfig.DELAYED_METRICS_STORAGE_GRANULARITY));
+
+    protected final MemoryStorage storage;
+    protected final LocatorIO locatorIO;
+    protected final DelayedLocatorIO delayedLocatorIO;
+
+    protected MAbstractMetricsRW(MemoryStorage storage, LocatorIO locatorIO, DelayedLocatorIO delayedLocatorIO,
+                                 boolean isRecordingDelayedMetrics, Clock clock) {
+        this.storage = storage;
+        this.locatorIO = locatorIO;
+        this.delayedLocatorIO = delayedLocatorIO;
+        this.isRecordingDelayedMetrics = isRecordingDelayedMetrics;
+        this.clock = clock;
+    }
+
+    /**
+     * This method inserts a collection of {@link com.rackspacecloud.blueflood.service.SingleRollupWriteContext} objects
+     * to the column families they are destined for.
+     *
+     * @param writeContexts
+     */
+    @Override
+    public void insertRollups(List<SingleRollupWriteContext> writeContexts) {
+
+        if (writeContexts.size() == 0) {
+            return;
+        }
+
+        Timer.Context ctx = Instrumentation.getWriteTimerContext( writeContexts.get( 0 ).getDestinationCF().getName() );
+        try {
+            storage.write();
+            for (SingleRollupWriteContext writeContext : writeContexts) {
+                Rollup rollup = writeContext.getRollup();
+                Locator locator = writeContext.getLocator();
+                int ttl = getTtl(locator, rollup.getRollupType(), writeContext.getGranularity());
+
+                storage.getMetrics(writeContext.getDestinationCF().getName())
+                        .put(locator, writeContext.getTimestamp(), rollup, ttl);
+            }
+        } finally {
+            ctx.stop();
+        }
+    }
+
+    @Override
+    public MetricData getDatapointsForRange(final Locator locator, Range range, Granularity granularity) {
+        Map<Locator, MetricData> result = getDatapointsForRange(new ArrayList<Locator>() {{
+            add(locator);
+        }}, range, granularity);
+        return result.get(locator);
+    }
+
+    /**
+     * Fetches {@link com.rackspacecloud.blueflood.outputs.formats.MetricData} objects for the
+     * specified list of {@link com.rackspacecloud.blueflood.types.Locator} and
+     * {@link com.rackspacecloud.blueflood.types.Range} from the specified column family
+     *
+     * @param locators
+     * @param range
+     * @param columnFamily
+     * @return
+     */
+    protected Map<Locator, MetricData> getDatapointsForRange(List<Locator> locators, Range range, String columnFamily) {
+
+        Timer.Context ctx = Instrumentation.getReadTimerContext(columnFamily);
+        try {
+            storage.read();
+
+            MetadataCache metadataCache = MetadataCache.getInstance();
+            QueryDeadline deadline = QueryDeadline.current();
+            MemoryTable<Locator, Long, Object> table = storage.getMetrics(columnFamily);
+
+            Map<Locator, MetricData> locatorMetricDataMap = new HashMap<Locator, MetricData>();
+            for (Locator locator : locators) {
+                // unit lookups may go to the metadata IO, so none are started once the query has run out of time
+                deadline.check();
+
+                Points points = convertToPoints(table.getRange(locator, range.getStart(), range.getStop()));
+                locatorMetricDataMap.put(locator, new MetricData(points, metadataCache.getUnitString(locator)));
+            }
+            return locatorMetricDataMap;
+        } finally {
+            ctx.stop();
+        }
+    }
+
+    /**
+     * Fetches a {@link com.rackspacecloud.blueflood.types.Points} object for a
+     * particular locator and rollupType from the specified column family and
+     * range
+     *
+     * @param locator
+     * @param rollupType
+     * @param range
+     * @param columnFamilyName
+     * @return
+     */
+    @Override
+    public Points getDataToRollup(final Locator locator,
+                                  RollupType rollupType,
+                                  Range range,
+                                  String columnFamilyName) throws IOException {
+        Timer.Context ctx = Instrumentation.getReadTimerContext(columnFamilyName);
+        try {
+            storage.read();
+            return convertToPoints(storage.getMetrics(columnFamilyName).getRange(locator, range.getStart(), range.getStop()));
+        } finally {
+            ctx.stop();
+        }
+    }
+
+    /**
+     * Puts a metric into a column family, along with its locator, if that is not current,
+     * and its delayed locator, if the metric is delayed.
+     *
+     * @param metric
+     * @param columnFamily
+     * @throws IOException
+     */
+    protected void insertMetric(IMetric metric, String columnFamily) throws IOException {
+        Locator locator = metric.getLocator();
+
+        storage.getMetrics(columnFamily).put(locator, metric.getCollectionTime(), metric.getMetricValue(),
+                metric.getTtlInSeconds());
+
+        if ( !LocatorCache.getInstance().isLocatorCurrentInBatchLayer(locator) ) {
+            LocatorCache.getInstance().setLocatorCurrentInBatchLayer(locator);
+            locatorIO.insertLocator(locator);
+        }
+
+        if (isRecordingDelayedMetrics) {
+            insertLocatorIfDelayed(metric);
+        }
+    }
+
+    /**
+     * This method inserts the locator into the metrics_delayed_locator column family, if the metric is delayed.
+     *
+     * @param metric
+     * @throws IOException
+     */
+    protected void insertLocatorIfDelayed(IMetric metric) throws IOException {
+        Locator locator = metric.getLocator();
+        long delay = clock.now().getMillis() - metric.getCollectionTime();
+        if ( delay > MAX_AGE_ALLOWED ) {
+            //track locator for configured granularity level. to re-roll only the delayed locator's for that slot
+            int slot = DELAYED_METRICS_STORAGE_GRANULARITY.slot(metric.getCollectionTime());
+            if (!LocatorCache.getInstance().isDelayedLocatorForASlotCurrent(slot, locator)) {
+                delayedLocatorIO.insertLocator(DELAYED_METRICS_STORAGE_GRANULARITY, slot, locator);
+                LocatorCache.getInstance().setDelayedLocatorForASlotCurrent(slot, locator);
+            }
+        }
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright 2017 Rackspace
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.rackspacecloud.blueflood.io.memory;
+
+import com.codahale.metrics.Timer;
+import com.rackspacecloud.blueflood.io.CassandraModel;
+import com.rackspacecloud.blueflood.io.DelayedLocatorIO;
+import com.rackspacecloud.blueflood.io.Instrumentation;
+import com.rackspacecloud.blueflood.io.LocatorIO;
+import com.rackspacecloud.blueflood.outputs.formats.MetricData;
+import com.rackspacecloud.blueflood.rollup.Granularity;
+import com.rackspacecloud.blueflood.types.IMetric;
+import com.rackspacecloud.blueflood.types.Locator;
+import com.rackspacecloud.blueflood.types.Range;
+import com.rackspacecloud.blueflood.utils.Clock;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * This class deals with reading/writing metrics to the basic metrics_* column families
+ * kept in memory
+ */
+public class MBasicMetricsRW extends MAbstractMetricsRW {
+
+    /**
+     * Constructor
+     * @param isRecordingDelayedMetrics if true, delayed metrics are recorded in metrics_delayed_locator
+     */
+    public MBasicMetricsRW(MemoryStorage storage, LocatorIO locatorIO, DelayedLocatorIO delayedLocatorIO,
+                           boolean isRecordingDelayedMetrics, Clock clock) {
+        super(storage, locatorIO, delayedLocatorIO, isRecordingDelayedMetrics, clock);
+    }
+
+    /**
+     * This method inserts a collection of {@link com.rackspacecloud.blueflood.types.IMetric} objects
+     * to metrics_full. Effectively, this method is only called to write the raw metrics received
+     * during Ingest requests. Another method, insertRollups, is used by the Rollup processes to
+     * write rolled up metrics.
+     *
+     * @param metrics
+     *
+     * @throws IOException
+     */
+    @Override
+    public void insertMetrics(Collection<IMetric> metrics) throws IOException {
+
+        Timer.Context ctx = Instrumentation.getWriteTimerContext( CassandraModel.CF_METRICS_FULL_NAME );
+        try {
+            storage.write();
+            for (IMetric metric : metrics) {
+                insertMetric(metric, CassandraModel.CF_METRICS_FULL_NAME);
+                Instrumentation.markFullResMetricWritten();
+            }
+        } finally {
+            ctx.stop();
+        }
+    }
+
+    @Override
+    public Map<Locator, MetricData> getDatapointsForRange(List<Locator> locators, Range range, Granularity gran) {
+        return getDatapointsForRange(locators, range, CassandraModel.getBasicColumnFamilyName(gran));
+    }
+}
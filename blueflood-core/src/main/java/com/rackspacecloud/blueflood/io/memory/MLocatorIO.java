@@ -0,0 +1,75 @@
+/*
+ * Copyright 2017 Rackspace
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.rackspacecloud.blueflood.io.memory;
+
+import com.codahale.metrics.Timer;
+import com.rackspacecloud.blueflood.cache.TenantTtlProvider;
+import com.rackspacecloud.blueflood.io.CassandraModel;
+import com.rackspacecloud.blueflood.io.Instrumentation;
+import com.rackspacecloud.blueflood.io.LocatorIO;
+import com.rackspacecloud.blueflood.types.Locator;
+import com.rackspacecloud.blueflood.utils.Util;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+
+/**
+ * This class keeps the locators of every shard in memory, like they
+ * would be kept in the metrics_locator Column Family.
+ */
+public class MLocatorIO implements LocatorIO {
+
+    private final MemoryStorage storage;
+
+    public MLocatorIO(MemoryStorage storage) {
+        this.storage = storage;
+    }
+
+    @Override
+    public void insertLocator(Locator locator) throws IOException {
+        Timer.Context ctx = Instrumentation.getWriteTimerContext(CassandraModel.CF_METRICS_LOCATOR_NAME);
+        try {
+            storage.write();
+            long shard = (long) Util.getShard(locator.toString());
+            storage.getLocators().put(shard, locator.toString(), "", TenantTtlProvider.LOCATOR_TTL);
+        } finally {
+            ctx.stop();
+        }
+    }
+
+    @Override
+    public Collection<Locator> getLocators(long shard) throws IOException {
+        Timer.Context ctx = Instrumentation.getReadTimerContext(CassandraModel.CF_METRICS_LOCATOR_NAME);
+        try {
+            storage.read();
+            Collection<Locator> locators = new ArrayList<Locator>();
+            for (String locator : storage.getLocators().getRow(shard).keySet()) {
+                locators.add(Locator.createLocatorFromDbKey(locator));
+            }
+
+            if (locators.size() == 0) {
+                Instrumentation.markNotFound(CassandraModel.CF_METRICS_LOCATOR_NAME);
+                return Collections.emptySet();
+            }
+            return locators;
+        } finally {
+            ctx.stop();
+        }
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright 2017 Rackspace
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.rackspacecloud.blueflood.io.memory;
+
+import com.codahale.metrics.Timer;
+import com.google.common.collect.HashBasedTable;
+import com.google.common.collect.Table;
+import com.rackspacecloud.blueflood.io.CassandraModel;
+import com.rackspacecloud.blueflood.io.Instrumentation;
+import com.rackspacecloud.blueflood.io.MetadataIO;
+import com.rackspacecloud.blueflood.types.Locator;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * This class keeps the metadata of every locator in memory, like it
+ * would be kept in the metrics_metadata Column Family.
+ */
+public class MMetadataIO implements MetadataIO {
+
+    private final MemoryStorage storage;
+
+    public MMetadataIO(MemoryStorage storage) {
+        this.storage = storage;
+    }
+
+    @Override
+    public void put(Locator locator, String key, String value) throws IOException {
+        Timer.Context ctx = Instrumentation.getWriteTimerContext(CassandraModel.CF_METRICS_METADATA_NAME);
+        try {
+            storage.write();
+            storage.getMetadata().put(locator, key, value, 0);
+        } finally {
+            ctx.stop();
+        }
+    }
+
+    @Override
+    public Map<String, String> getAllValues(Locator locator) throws IOException {
+        Timer.Context ctx = Instrumentation.getReadTimerContext(CassandraModel.CF_METRICS_METADATA_NAME);
+        try {
+            storage.read();
+            return new HashMap<String, String>(storage.getMetadata().getRow(locator));
+        } finally {
+            ctx.stop();
+        }
+    }
+
+    @Override
+    public Table<Locator, String, String> getAllValues(Set<Locator> locators) throws IOException {
+        Timer.Context ctx = Instrumentation.getReadTimerContext(CassandraModel.CF_METRICS_METADATA_NAME);
+        try {
+            storage.read();
+            Table<Locator, String, String> metaTable = HashBasedTable.create();
+            for (Locator locator : locators) {
+                for (Map.Entry<String, String> value : storage.getMetadata().getRow(locator).entrySet()) {
+                    metaTable.put(locator, value.getKey(), value.getValue());
+                }
+            }
+            return metaTable;
+        } finally {
+            ctx.stop();
+        }
+    }
+
+    @Override
+    public void getAllValues(Set<Locator> locators, MetadataListener listener) throws IOException {
+        Table<Locator, String, String> metaTable = getAllValues(locators);
+        for (Locator locator : metaTable.rowKeySet()) {
+            listener.onMetadata(locator, metaTable.row(locator));
+        }
+    }
+
+    @Override
+    public void putAll(Table<Locator, String, String> meta) throws IOException {
+        Timer.Context ctx = Instrumentation.getWriteTimerContext(CassandraModel.CF_METRICS_METADATA_NAME);
+        try {
+            storage.write();
+            for (Table.Cell<Locator, String, String> cell : meta.cellSet()) {
+                storage.getMetadata().put(cell.getRowKey(), cell.getColumnKey(), cell.getValue(), 0);
+            }
+        } finally {
+            ctx.stop();
+        }
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright 2017 Rackspace
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.rackspacecloud.blueflood.io.memory;
+
+import com.codahale.metrics.Timer;
+import com.google.common.annotations.VisibleForTesting;
+import com.rackspacecloud.blueflood.exceptions.InvalidDataException;
+import com.rackspacecloud.blueflood.io.CassandraModel;
+import com.rackspacecloud.blueflood.io.DelayedLocatorIO;
+import com.rackspacecloud.blueflood.io.Instrumentation;
+import com.rackspacecloud.blueflood.io.LocatorIO;
+import com.rackspacecloud.blueflood.io.PreaggregatedRW;
+import com.rackspacecloud.blueflood.outputs.formats.MetricData;
+import com.rackspacecloud.blueflood.rollup.Granularity;
+import com.rackspacecloud.blueflood.types.IMetric;
+import com.rackspacecloud.blueflood.types.Locator;
+import com.rackspacecloud.blueflood.types.Range;
+import com.rackspacecloud.blueflood.types.Rollup;
+import com.rackspacecloud.blueflood.utils.Clock;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * This class deals with reading/writing metrics to the metrics_preaggregated_* column families
+ * kept in memory
+ */
+public class MPreaggregatedMetricsRW extends MAbstractMetricsRW implements PreaggregatedRW {
+
+    /**
+     * Constructor
+     * @param isRecordingDelayedMetrics if true, delayed metrics are recorded in metrics_delayed_locator
+     */
+    public MPreaggregatedMetricsRW(MemoryStorage storage, LocatorIO locatorIO, DelayedLocatorIO delayedLocatorIO,
+                                   boolean isRecordingDelayedMetrics, Clock clock) {
+        super(storage, locatorIO, delayedLocatorIO, isRecordingDelayedMetrics, clock);
+    }
+
+    /**
+     * Inserts a collection of metrics to the metrics_preaggregated_full column family
+     *
+     * @param metrics
+     * @throws IOException
+     */
+    @Override
+    public void insertMetrics(Collection<IMetric> metrics) throws IOException {
+        insertMetrics(metrics, Granularity.FULL);
+    }
+
+    /**
+     * Inserts a collection of rolled up metrics to the metrics_preaggregated_{granularity} column family.
+     * Only our tests should call this method. Services should call either insertMetrics(Collection metrics)
+     * or insertRollups()
+     *
+     * @param metrics
+     * @throws IOException
+     */
+    @VisibleForTesting
+    @Override
+    public void insertMetrics(Collection<IMetric> metrics, Granularity granularity) throws IOException {
+
+        String columnFamily = CassandraModel.getPreaggregatedColumnFamilyName(granularity);
+        Timer.Context ctx = Instrumentation.getWriteTimerContext(columnFamily);
+        try {
+            storage.write();
+            for (IMetric metric : metrics) {
+                if (!(metric.getMetricValue() instanceof Rollup)) {
+                    throw new InvalidDataException(
+                            String.format("insertMetrics(locator=%s, granularity=%s): metric value %s is not type Rollup",
+                                    metric.getLocator(), granularity, metric.getMetricValue().getClass().getSimpleName())
+                    );
+                }
+                insertMetric(metric, columnFamily);
+                if (granularity == Granularity.FULL) {
+                    Instrumentation.markFullResPreaggregatedMetricWritten();
+                }
+            }
+        } finally {
+            ctx.stop();
+        }
+    }
+
+    @Override
+    public Map<Locator, MetricData> getDatapointsForRange(List<Locator> locators, Range range, Granularity granularity) {
+        return getDatapointsForRange(locators, range, CassandraModel.getPreaggregatedColumnFamilyName(granularity));
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright 2017 Rackspace
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.rackspacecloud.blueflood.io.memory;
+
+import com.codahale.metrics.Timer;
+import com.rackspacecloud.blueflood.io.CassandraModel;
+import com.rackspacecloud.blueflood.io.Instrumentation;
+import com.rackspacecloud.blueflood.io.ShardStateIO;
+import com.rackspacecloud.blueflood.io.serializers.metrics.SlotStateSerDes;
+import com.rackspacecloud.blueflood.rollup.Granularity;
+import com.rackspacecloud.blueflood.service.SlotState;
+import com.rackspacecloud.blueflood.service.UpdateStamp;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.LinkedList;
+import java.util.Map;
+
+/**
+ * This class keeps the slot states of every shard in memory, like they
+ * would be kept in the metrics_state Column Family.
+ */
+public class MShardStateIO implements ShardStateIO {
+
+    private final SlotStateSerDes serDes = new SlotStateSerDes();
+    private final MemoryStorage storage;
+
+    public MShardStateIO(MemoryStorage storage) {
+        this.storage = storage;
+    }
+
+    @Override
+    public Collection<SlotState> getShardState(int shard) throws IOException {
+        Timer.Context ctx = Instrumentation.getReadTimerContext(CassandraModel.CF_METRICS_STATE_NAME);
+        try {
+            storage.read();
+            Collection<SlotState> slotStates = new LinkedList<SlotState>();
+            for (Map.Entry<String, MemoryTable.Cell<Long>> cell : storage.getShardState().getCells(shard).entrySet()) {
+                SlotState state = serDes.deserialize(cell.getKey());
+                state.withTimestamp(cell.getValue().getValue())
+                     .withLastUpdatedTimestamp(cell.getValue().getWriteTime());
+                slotStates.add(state);
+            }
+            return slotStates;
+        } finally {
+            ctx.stop();
+        }
+    }
+
+    @Override
+    public void putShardState(int shard, Map<Granularity, Map<Integer, UpdateStamp>> slotTimes) throws IOException {
+        Timer.Context ctx = Instrumentation.getWriteTimerContext(CassandraModel.CF_METRICS_STATE_NAME);
+        try {
+            storage.write();
+            for (Map.Entry<Granularity, Map<Integer, UpdateStamp>> granularity : slotTimes.entrySet()) {
+                for (Map.Entry<Integer, UpdateStamp> entry : granularity.getValue().entrySet()) {
+                    String column = serDes.serialize(granularity.getKey(), entry.getKey(), entry.getValue().getState());
+                    storage.getShardState().put(shard, column, entry.getValue().getTimestamp(), 0);
+                }
+            }
+        } finally {
+            ctx.stop();
+        }
+    }
+}
@@ -0,0 +1,168 @@
+/*
+ * Copyright 2017 Rackspace
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.rackspacecloud.blueflood.io.memory;
+
+import com.rackspacecloud.blueflood.types.Locator;
+import com.rackspacecloud.blueflood.utils.Clock;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Holds all the data of the in-memory driver: the column families the IO
+ * classes of the {@link com.rackspacecloud.blueflood.io.IOContainer.DriverType#MEMORY}
+ * driver read and write, which live as long as the process does.
+ * <p>
+ *
+ * To make benchmarks closer to running against a database, every read and
+ * every write can be made to take a fixed time, the way a round trip to
+ * Cassandra would.
+ * <p>
+ *
+ * Expired cells are removed as reads come across them. So that the ones no
+ * read comes across don't pile up, the first write after every sweep interval
+ * removes the expired cells of all the tables.
+ */
+public class MemoryStorage {
+
+    private static final long DEFAULT_EXPIRY_SWEEP_MILLIS = 60000;
+
+    private final Clock clock;
+    private final long readLatencyMillis;
+    private final long writeLatencyMillis;
+    private final long expirySweepMillis;
+    private final AtomicLong lastExpirySweep;
+
+    // metrics_locator: shard -> locator
+    private final MemoryTable<Long, String, String> locators;
+    // metrics_delayed_locator: slot key -> locator
+    private final MemoryTable<String, String, String> delayedLocators;
+    // metrics_metadata: locator -> key -> value
+    private final MemoryTable<Locator, String, String> metadata;
+    // metrics_state: shard -> serialized slot state -> timestamp
+    private final MemoryTable<Integer, String, Long> shardState;
+    // metrics_* and metrics_preaggregated_*: locator -> timestamp -> raw value or rollup
+    private final ConcurrentMap<String, MemoryTable<Locator, Long, Object>> metrics =
+            new ConcurrentHashMap<String, MemoryTable<Locator, Long, Object>>();
+
+    public MemoryStorage(Clock clock) {
+        this(clock, 0, 0, DEFAULT_EXPIRY_SWEEP_MILLIS);
+    }
+
+    /**
+     * @param readLatencyMillis time every read takes, or 0 for none
+     * @param writeLatencyMillis time every write takes, or 0 for none
+     * @param expirySweepMillis time between the removals of all the expired cells
+     */
+    public MemoryStorage(Clock clock, long readLatencyMillis, long writeLatencyMillis, long expirySweepMillis) {
+        this.clock = clock;
+        this.readLatencyMillis = readLatencyMillis;
+        this.writeLatencyMillis = writeLatencyMillis;
+        this.expirySweepMillis = expirySweepMillis;
+        this.lastExpirySweep = new AtomicLong(clock.now().getMillis());
+        this.locators = new MemoryTable<Long, String, String>(clock);
+        this.delayedLocators = new MemoryTable<String, String, String>(clock);
+        this.metadata = new MemoryTable<Locator, String, String>(clock);
+        this.shardState = new MemoryTable<Integer, String, Long>(clock);
+    }
+
+    public MemoryTable<Long, String, String> getLocators() {
+        return locators;
+    }
+
+    public MemoryTable<String, String, String> getDelayedLocators() {
+        return delayedLocators;
+    }
+
+    public MemoryTable<Locator, String, String> getMetadata() {
+        return metadata;
+    }
+
+    public MemoryTable<Integer, String, Long> getShardState() {
+        return shardState;
+    }
+
+    /**
+     * @return the table of a metrics column family, which is created when it is first used
+     */
+    public MemoryTable<Locator, Long, Object> getMetrics(String columnFamily) {
+        MemoryTable<Locator, Long, Object> table = metrics.get(columnFamily);
+        if (table == null) {
+            MemoryTable<Locator, Long, Object> created = new MemoryTable<Locator, Long, Object>(clock);
+            table = metrics.putIfAbsent(columnFamily, created);
+            if (table == null) {
+                table = created;
+            }
+        }
+        return table;
+    }
+
+    /**
+     * Removes the expired cells of every table, which reads otherwise only do
+     * for the cells they come across. Writes call it every sweep interval.
+     */
+    public void removeExpired() {
+        locators.removeExpired();
+        delayedLocators.removeExpired();
+        metadata.removeExpired();
+        shardState.removeExpired();
+        for (MemoryTable<Locator, Long, Object> table : metrics.values()) {
+            table.removeExpired();
+        }
+    }
+
+    public void clear() {
+        locators.clear();
+        delayedLocators.clear();
+        metadata.clear();
+        shardState.clear();
+        metrics.clear();
+    }
+
+    /**
+     * Waits as long as a read is configured to take.
+     */
+    void read() {
+        sleep(readLatencyMillis);
+    }
+
+    /**
+     * Waits as long as a write is configured to take, and removes the expired
+     * cells if the sweep interval has passed since they last were.
+     */
+    void write() {
+        long now = clock.now().getMillis();
+        long last = lastExpirySweep.get();
+        // only one of the writes that find the interval has passed sweeps
+        if (now - last >= expirySweepMillis && lastExpirySweep.compareAndSet(last, now)) {
+            removeExpired();
+        }
+        sleep(writeLatencyMillis);
+    }
+
+    private static void sleep(long millis) {
+        if (millis <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,213 @@
+/*
+ * Copyright 2017 Rackspace
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.rackspacecloud.blueflood.io.memory;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.rackspacecloud.blueflood.utils.Clock;
+
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * An in-memory stand-in for a column family: rows of columns sorted by their
+ * name, where every cell has the time it was written and may expire.
+ * <p>
+ *
+ * Like in Cassandra, writing a cell replaces the cell of the same row and column,
+ * and expired cells are left out of reads. They are removed as reads come across them.
+ *
+ * @param <R> the type of the row keys
+ * @param <C> the type of the column names
+ * @param <V> the type of the values
+ */
+public class MemoryTable<R, C extends Comparable<C>, V> {
+
+    private final ConcurrentMap<R, ConcurrentNavigableMap<C, Cell<V>>> rows =
+            new ConcurrentHashMap<R, ConcurrentNavigableMap<C, Cell<V>>>();
+    private final Clock clock;
+
+    public MemoryTable(Clock clock) {
+        this.clock = clock;
+    }
+
+    /**
+     * @param ttlSeconds how long the cell is kept, or 0 to keep it for good
+     */
+    public void put(R row, C column, V value, int ttlSeconds) {
+        long now = clock.now().getMillis();
+        long expiresAt = ttlSeconds > 0 ? now + ttlSeconds * 1000L : Long.MAX_VALUE;
+        getOrCreateRow(row).put(column, new Cell<V>(value, now, expiresAt));
+    }
+
+    /**
+     * @return the value of the cell, or null if there is none or it has expired
+     */
+    public V get(R row, C column) {
+        Cell<V> cell = getCell(row, column);
+        return cell == null ? null : cell.getValue();
+    }
+
+    public Cell<V> getCell(R row, C column) {
+        ConcurrentNavigableMap<C, Cell<V>> columns = rows.get(row);
+        if (columns == null) {
+            return null;
+        }
+        Cell<V> cell = columns.get(column);
+        if (cell == null || isExpired(columns, column, cell, clock.now().getMillis())) {
+            return null;
+        }
+        return cell;
+    }
+
+    /**
+     * @return the cells of the row, sorted by column
+     */
+    public SortedMap<C, Cell<V>> getCells(R row) {
+        ConcurrentNavigableMap<C, Cell<V>> columns = rows.get(row);
+        if (columns == null) {
+            return new TreeMap<C, Cell<V>>();
+        }
+        return live(columns);
+    }
+
+    /**
+     * @return the values of the row, sorted by column
+     */
+    public SortedMap<C, V> getRow(R row) {
+        return values(getCells(row));
+    }
+
+    /**
+     * @return the values of the row from the column {@code from} to the column {@code to},
+     * both inclusive, sorted by column
+     */
+    public SortedMap<C, V> getRange(R row, C from, C to) {
+        ConcurrentNavigableMap<C, Cell<V>> columns = rows.get(row);
+        if (columns == null || from.compareTo(to) > 0) {
+            return new TreeMap<C, V>();
+        }
+        return values(live(columns.subMap(from, true, to, true)));
+    }
+
+    public void delete(R row, C column) {
+        ConcurrentNavigableMap<C, Cell<V>> columns = rows.get(row);
+        if (columns != null) {
+            columns.remove(column);
+        }
+    }
+
+    /**
+     * Removes the cells that have expired, including those no read has come across.
+     */
+    public void removeExpired() {
+        long now = clock.now().getMillis();
+        for (ConcurrentNavigableMap<C, Cell<V>> columns : rows.values()) {
+            for (Map.Entry<C, Cell<V>> entry : columns.entrySet()) {
+                isExpired(columns, entry.getKey(), entry.getValue(), now);
+            }
+        }
+    }
+
+    public void clear() {
+        rows.clear();
+    }
+
+    /**
+     * @return the number of cells held, including the expired ones not removed yet
+     */
+    @VisibleForTesting
+    int getCellCount() {
+        int count = 0;
+        for (ConcurrentNavigableMap<C, Cell<V>> columns : rows.values()) {
+            count += columns.size();
+        }
+        return count;
+    }
+
+    private ConcurrentNavigableMap<C, Cell<V>> getOrCreateRow(R row) {
+        ConcurrentNavigableMap<C, Cell<V>> columns = rows.get(row);
+        if (columns == null) {
+            ConcurrentNavigableMap<C, Cell<V>> created = new ConcurrentSkipListMap<C, Cell<V>>();
+            columns = rows.putIfAbsent(row, created);
+            if (columns == null) {
+                columns = created;
+            }
+        }
+        return columns;
+    }
+
+    private SortedMap<C, Cell<V>> live(NavigableMap<C, Cell<V>> columns) {
+        long now = clock.now().getMillis();
+        SortedMap<C, Cell<V>> live = new TreeMap<C, Cell<V>>();
+        for (Map.Entry<C, Cell<V>> entry : columns.entrySet()) {
+            if (!isExpired(columns, entry.getKey(), entry.getValue(), now)) {
+                live.put(entry.getKey(), entry.getValue());
+            }
+        }
+        return live;
+    }
+
+    private boolean isExpired(Map<C, Cell<V>> columns, C column, Cell<V> cell, long now) {
+        if (cell.getExpiresAt() > now) {
+            return false;
+        }
+        // only if it hasn't been written again since
+        columns.remove(column, cell);
+        return true;
+    }
+
+    private static <C, V> SortedMap<C, V> values(SortedMap<C, Cell<V>> cells) {
+        SortedMap<C, V> values = new TreeMap<C, V>();
+        for (Map.Entry<C, Cell<V>> entry : cells.entrySet()) {
+            values.put(entry.getKey(), entry.getValue().getValue());
+        }
+        return values;
+    }
+
+    /**
+     * A value, with the time in milliseconds it was written and the time it expires.
+     */
+    public static class Cell<V> {
+        private final V value;
+        private final long writeTime;
+        private final long expiresAt;
+
+        Cell(V value, long writeTime, long expiresAt) {
+            this.value = value;
+            this.writeTime = writeTime;
+            this.expiresAt = expiresAt;
+        }
+
+        public V getValue() {
+            return value;
+        }
+
+        public long getWriteTime() {
+            return writeTime;
+        }
+
+        public long getExpiresAt() {
+            return expiresAt;
+        }
+    }
+}
@@ -32,6 +32,7 @@
  * </ul>
  *
  * Driver specific classes should be placed in individual sub packages
- * for each driver. For example: astyanax.* and datastax.*
+ * for each driver. For example: astyanax.* and datastax.*, or memory.*,
+ * which keeps everything in memory for benchmarks and tests.
  */
 package com.rackspacecloud.blueflood.io;
\ No newline at end of file
@@ -74,6 +74,15 @@ public abstract class AbstractSerDes {
             return in.readRawVarint64();
     }
 
+    // the size of a number put out by putUnversionedDoubleOrLong().
+    protected int sizeOfUnversionedDoubleOrLong(Number number) {
+        if (number instanceof Double) {
+            return sizeOfType() + CodedOutputStream.computeDoubleSizeNoTag(number.doubleValue());
+        } else {
+            return sizeOfType() + CodedOutputStream.computeRawVarint64Size(number.longValue());
+        }
+    }
+
     // put out a number prefaced only by a type.
     protected void putUnversionedDoubleOrLong(Number number, CodedOutputStream out) throws IOException {
         if (number instanceof Double) {
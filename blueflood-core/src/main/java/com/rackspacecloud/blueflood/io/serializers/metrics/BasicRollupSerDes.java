@@ -60,7 +60,7 @@ public class BasicRollupSerDes extends BaseRollupSerDes {
     }
 
     public BasicRollup deserialize(ByteBuffer byteBuffer) {
-        CodedInputStream in = CodedInputStream.newInstance(byteBuffer.array());
+        CodedInputStream in = SerDesBuffers.newInput(byteBuffer);
         try {
             byte version = in.readRawByte();
             if (version != VERSION_1_FULL_RES && version != VERSION_1_ROLLUP && version != VERSION_2_ROLLUP) {
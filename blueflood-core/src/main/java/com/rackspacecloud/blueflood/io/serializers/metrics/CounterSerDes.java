@@ -46,7 +46,7 @@ public class CounterSerDes extends AbstractSerDes {
     }
 
     public BluefloodCounterRollup deserialize(ByteBuffer byteBuffer) {
-        CodedInputStream in = CodedInputStream.newInstance(byteBuffer.array());
+        CodedInputStream in = SerDesBuffers.newInput(byteBuffer);
         try {
             byte version = in.readRawByte();
             if (version != VERSION_1_COUNTER_ROLLUP)
@@ -59,11 +59,7 @@ public class CounterSerDes extends AbstractSerDes {
 
     private int sizeOf(BluefloodCounterRollup counterRollup) {
         int sz = sizeOfSize();
-        sz += sizeOfType();
-        if (counterRollup.getCount() instanceof Long || counterRollup.getCount() instanceof Integer)
-            sz += CodedOutputStream.computeRawVarint64Size(counterRollup.getCount().longValue());
-        else if (counterRollup.getCount() instanceof Double || counterRollup.getCount() instanceof Float)
-            sz += CodedOutputStream.computeDoubleSizeNoTag(counterRollup.getCount().doubleValue());
+        sz += sizeOfUnversionedDoubleOrLong(counterRollup.getCount());
         sz += CodedOutputStream.computeDoubleSizeNoTag(counterRollup.getRate());
         sz += CodedOutputStream.computeRawVarint32Size(counterRollup.getSampleCount());
         return sz;
@@ -0,0 +1,328 @@
+/*
+ * Copyright 2017 Rackspace
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.rackspacecloud.blueflood.io.serializers.metrics;
+
+import com.codahale.metrics.Histogram;
+import com.rackspacecloud.blueflood.exceptions.SerializationException;
+import com.rackspacecloud.blueflood.io.Constants;
+import com.rackspacecloud.blueflood.utils.Metrics;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * This class knows how to serialize/deserialize a block of raw metrics: all the
+ * points of a locator for a span of time, packed into a single column the way
+ * Facebook's Gorilla does it.
+ * <p>
+ *
+ * Points are written as a stream of bits. The timestamp of every point after the
+ * first is stored as the difference between its delta to the point before and the
+ * delta before that, which is 0 for points at a regular interval and takes a
+ * single bit. The value of every point after the first is XOR'ed with the value
+ * before; if they are equal that takes a single bit too, and otherwise only the
+ * bits between the leading and trailing zeros of the XOR are stored.
+ * <pre>
+ * header:     version byte, type byte (the type of all values, as in {@link RawSerDes}),
+ *             32 bit number of points, 64 bit timestamp and 64 bits of the value of the first point
+ * timestamp:  '0' for a delta of delta of 0, or '10' and 7 bits, '110' and 12 bits,
+ *             '1110' and 20 bits, or '1111' and 64 bits of the delta of delta
+ * value:      '0' for the same value, '10' and the meaningful bits if they fit within the
+ *             leading and trailing zeros of the previous XOR, or '11', 6 bits of leading
+ *             zeros, 6 bits of the number of meaningful bits less one, and the meaningful bits
+ * </pre>
+ * All the values of a block have the same type, so that they are read back
+ * exactly as they were written; points with a mix of integers and doubles can't
+ * be put in one block.
+ */
+public class FullResBlockSerDes {
+
+    private static Histogram blockSize = Metrics.histogram(FullResBlockSerDes.class, "Full Resolution Block Size");
+
+    /**
+     * @return true if the values can be serialized together, in one block
+     */
+    public static boolean canSerialize(Iterable<?> values) {
+        try {
+            return typeOf(values) != 0;
+        } catch (SerializationException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Serializes the points of a block.
+     *
+     * @param points timestamp to an Integer, Long, Double or Float value, none of them null
+     */
+    public ByteBuffer serialize(SortedMap<Long, ? extends Number> points) throws SerializationException {
+        if (points.isEmpty()) {
+            throw new SerializationException("Cannot serialize a block without points");
+        }
+        byte type = typeOf(points.values());
+        if (type == 0) {
+            throw new SerializationException("Cannot serialize integer and floating point values in one block");
+        }
+
+        BitOutput out = new BitOutput(16 + points.size());
+        out.write(Constants.VERSION_1_FULL_RES_BLOCK, 8);
+        out.write(type, 8);
+        out.write(points.size(), 32);
+
+        long previousTimestamp = 0;
+        long previousDelta = 0;
+        long previousBits = 0;
+        int previousLeading = -1;
+        int previousTrailing = 0;
+        boolean first = true;
+
+        for (Map.Entry<Long, ? extends Number> point : points.entrySet()) {
+            long timestamp = point.getKey();
+            long bits = toBits(type, point.getValue());
+
+            if (first) {
+                out.write(timestamp, 64);
+                out.write(bits, 64);
+                first = false;
+            } else {
+                long delta = timestamp - previousTimestamp;
+                writeDeltaOfDelta(out, delta - previousDelta);
+                previousDelta = delta;
+
+                long xor = bits ^ previousBits;
+                if (xor == 0) {
+                    out.write(0, 1);
+                } else {
+                    int leading = Long.numberOfLeadingZeros(xor);
+                    int trailing = Long.numberOfTrailingZeros(xor);
+                    if (previousLeading >= 0 && leading >= previousLeading && trailing >= previousTrailing) {
+                        out.write(2, 2);
+                        out.write(xor >>> previousTrailing, 64 - previousLeading - previousTrailing);
+                    } else {
+                        int meaningful = 64 - leading - trailing;
+                        out.write(3, 2);
+                        out.write(leading, 6);
+                        out.write(meaningful - 1, 6);
+                        out.write(xor >>> trailing, meaningful);
+                        previousLeading = leading;
+                        previousTrailing = trailing;
+                    }
+                }
+            }
+            previousTimestamp = timestamp;
+            previousBits = bits;
+        }
+
+        ByteBuffer buffer = out.toByteBuffer();
+        blockSize.update(buffer.remaining());
+        return buffer;
+    }
+
+    /**
+     * @return the points of the block, sorted by timestamp
+     */
+    public SortedMap<Long, Object> deserialize(ByteBuffer byteBuffer) {
+        try {
+            BitInput in = new BitInput(byteBuffer);
+            byte version = (byte) in.read(8);
+            if (version != Constants.VERSION_1_FULL_RES_BLOCK) {
+                throw new SerializationException(String.format("Unexpected serialization version: %d",
+                                                                (int)version));
+            }
+            byte type = (byte) in.read(8);
+            if (type != Constants.B_I32 && type != Constants.B_I64 && type != Constants.B_DOUBLE) {
+                throw new SerializationException(String.format("Unexpected block type=%d", (int)type));
+            }
+            int count = (int) in.read(32);
+
+            SortedMap<Long, Object> points = new TreeMap<Long, Object>();
+            long timestamp = in.read(64);
+            long bits = in.read(64);
+            points.put(timestamp, fromBits(type, bits));
+
+            long delta = 0;
+            int leading = 0;
+            int trailing = 0;
+            for (int i = 1; i < count; i++) {
+                delta += readDeltaOfDelta(in);
+                timestamp += delta;
+
+                if (in.read(1) != 0) {
+                    if (in.read(1) != 0) {
+                        leading = (int) in.read(6);
+                        int meaningful = (int) in.read(6) + 1;
+                        trailing = 64 - leading - meaningful;
+                    }
+                    bits ^= in.read(64 - leading - trailing) << trailing;
+                }
+                points.put(timestamp, fromBits(type, bits));
+            }
+            return points;
+        } catch (Exception e) {
+            throw new RuntimeException("Deserialization Failure", e);
+        }
+    }
+
+    private static byte typeOf(Iterable<?> values) throws SerializationException {
+        boolean integers = false;
+        boolean longs = false;
+        boolean doubles = false;
+        for (Object value : values) {
+            if (value instanceof Integer) {
+                integers = true;
+            } else if (value instanceof Long) {
+                longs = true;
+            } else if (value instanceof Double || value instanceof Float) {
+                doubles = true;
+            } else {
+                throw new SerializationException(String.format("Cannot serialize %s",
+                        value == null ? null : value.getClass().getName()));
+            }
+        }
+        if (doubles) {
+            return integers || longs ? 0 : Constants.B_DOUBLE;
+        }
+        return longs ? Constants.B_I64 : Constants.B_I32;
+    }
+
+    private static long toBits(byte type, Number value) {
+        return type == Constants.B_DOUBLE ? Double.doubleToRawLongBits(value.doubleValue()) : value.longValue();
+    }
+
+    private static Object fromBits(byte type, long bits) {
+        switch (type) {
+            case Constants.B_I32:
+                return (int) bits;
+            case Constants.B_I64:
+                return bits;
+            default:
+                return Double.longBitsToDouble(bits);
+        }
+    }
+
+    private static void writeDeltaOfDelta(BitOutput out, long deltaOfDelta) {
+        if (deltaOfDelta == 0) {
+            out.write(0, 1);
+        } else if (fits(deltaOfDelta, 7)) {
+            out.write(2, 2);
+            out.write(deltaOfDelta, 7);
+        } else if (fits(deltaOfDelta, 12)) {
+            out.write(6, 3);
+            out.write(deltaOfDelta, 12);
+        } else if (fits(deltaOfDelta, 20)) {
+            out.write(14, 4);
+            out.write(deltaOfDelta, 20);
+        } else {
+            out.write(15, 4);
+            out.write(deltaOfDelta, 64);
+        }
+    }
+
+    private static long readDeltaOfDelta(BitInput in) throws SerializationException {
+        if (in.read(1) == 0) {
+            return 0;
+        }
+        if (in.read(1) == 0) {
+            return signed(in.read(7), 7);
+        }
+        if (in.read(1) == 0) {
+            return signed(in.read(12), 12);
+        }
+        if (in.read(1) == 0) {
+            return signed(in.read(20), 20);
+        }
+        return in.read(64);
+    }
+
+    private static boolean fits(long value, int bits) {
+        return signed(value, bits) == value;
+    }
+
+    private static long signed(long value, int bits) {
+        return (value << (64 - bits)) >> (64 - bits);
+    }
+
+    /**
+     * Writes bits, most significant first.
+     */
+    private static class BitOutput {
+        private byte[] bytes;
+        private int bitCount = 0;
+
+        BitOutput(int initialSize) {
+            bytes = new byte[initialSize];
+        }
+
+        /**
+         * Writes the lowest {@code count} bits of the value.
+         */
+        void write(long value, int count) {
+            while (count > 0) {
+                int index = bitCount >>> 3;
+                if (index == bytes.length) {
+                    bytes = Arrays.copyOf(bytes, bytes.length * 2);
+                }
+                int free = 8 - (bitCount & 7);
+                int n = Math.min(free, count);
+                int chunk = (int) (value >>> (count - n)) & ((1 << n) - 1);
+                bytes[index] |= chunk << (free - n);
+                bitCount += n;
+                count -= n;
+            }
+        }
+
+        ByteBuffer toByteBuffer() {
+            return ByteBuffer.wrap(bytes, 0, (bitCount + 7) >>> 3).slice();
+        }
+    }
+
+    /**
+     * Reads the bits written by a {@link BitOutput}, without changing the position of the buffer.
+     */
+    private static class BitInput {
+        private final ByteBuffer buffer;
+        private final int start;
+        private final int end;
+        private int bitCount = 0;
+
+        BitInput(ByteBuffer buffer) {
+            this.buffer = buffer;
+            this.start = buffer.position();
+            this.end = buffer.limit();
+        }
+
+        long read(int count) throws SerializationException {
+            long value = 0;
+            while (count > 0) {
+                int index = start + (bitCount >>> 3);
+                if (index >= end) {
+                    throw new SerializationException("Unexpected end of block");
+                }
+                int available = 8 - (bitCount & 7);
+                int n = Math.min(available, count);
+                int chunk = ((buffer.get(index) & 0xFF) >>> (available - n)) & ((1 << n) - 1);
+                value = (value << n) | chunk;
+                bitCount += n;
+                count -= n;
+            }
+            return value;
+        }
+    }
+}
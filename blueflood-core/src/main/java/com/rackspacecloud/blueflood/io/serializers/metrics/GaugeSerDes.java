@@ -43,7 +43,7 @@ public class GaugeSerDes extends BaseRollupSerDes {
     }
 
     public BluefloodGaugeRollup deserialize(ByteBuffer byteBuffer) {
-        CodedInputStream in = CodedInputStream.newInstance(byteBuffer.array());
+        CodedInputStream in = SerDesBuffers.newInput(byteBuffer);
         try {
             byte version = in.readRawByte();
             if (version != VERSION_1_ROLLUP)
@@ -60,11 +60,7 @@ public class GaugeSerDes extends BaseRollupSerDes {
 
         // here's where it gets different.
         sz += CodedOutputStream.computeRawVarint64Size(gaugeRollup.getTimestamp());
-        sz += 1; // type of latest value.
-        if (gaugeRollup.getLatestNumericValue() instanceof Long || gaugeRollup.getLatestNumericValue() instanceof Integer)
-            sz += CodedOutputStream.computeRawVarint64Size(gaugeRollup.getLatestNumericValue().longValue());
-        else if (gaugeRollup.getLatestNumericValue() instanceof Double || gaugeRollup.getLatestNumericValue() instanceof Float)
-            sz += CodedOutputStream.computeDoubleSizeNoTag(gaugeRollup.getLatestNumericValue().doubleValue());
+        sz += sizeOfUnversionedDoubleOrLong(gaugeRollup.getLatestNumericValue());
         return sz;
     }
 
@@ -50,7 +50,7 @@ public class RawSerDes extends AbstractSerDes {
     }
 
     public Object deserialize(ByteBuffer byteBuffer) {
-        CodedInputStream in = CodedInputStream.newInstance(byteBuffer.array());
+        CodedInputStream in = SerDesBuffers.newInput(byteBuffer);
         try {
             byte version = in.readRawByte();
             if (version != VERSION_1_FULL_RES && version != VERSION_1_ROLLUP) {
@@ -84,7 +84,7 @@ public class RawSerDes extends AbstractSerDes {
     private void serializeFullResMetric(Object obj, byte[] buf) throws IOException {
         CodedOutputStream protobufOut = CodedOutputStream.newInstance(buf);
 
-        fullResSize.update(sizeOf(obj));
+        fullResSize.update(buf.length);
 
         protobufOut.writeRawByte(Constants.VERSION_1_FULL_RES);
 
@@ -0,0 +1,70 @@
+/*
+ * Copyright 2017 Rackspace
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.rackspacecloud.blueflood.io.serializers.metrics;
+
+import com.google.protobuf.CodedInputStream;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Helps the deserializers of this package read the {@link ByteBuffer}s they
+ * are given by the Cassandra drivers.
+ * <p>
+ *
+ * The value of a column is whatever is left between the position and the limit
+ * of its buffer, which may be a view of a larger array. Values are read from
+ * that array in place. Only buffers that don't give access to an array, such
+ * as direct ones, are copied, and into a buffer that every thread reuses.
+ */
+final class SerDesBuffers {
+
+    private static final int INITIAL_SCRATCH_SIZE = 1024;
+
+    // values larger than this are copied into a buffer of their own, so
+    // that threads don't keep holding on to a lot of memory
+    private static final int MAX_SCRATCH_SIZE = 64 * 1024;
+
+    private static final ThreadLocal<byte[]> scratch = new ThreadLocal<byte[]>() {
+        @Override
+        protected byte[] initialValue() {
+            return new byte[INITIAL_SCRATCH_SIZE];
+        }
+    };
+
+    private SerDesBuffers() {}
+
+    /**
+     * @return a stream of the remaining bytes of the buffer, which must be read
+     * completely before this is called again on the same thread. The position of
+     * the buffer is left as it is.
+     */
+    static CodedInputStream newInput(ByteBuffer byteBuffer) {
+        int length = byteBuffer.remaining();
+        if (byteBuffer.hasArray()) {
+            return CodedInputStream.newInstance(byteBuffer.array(), byteBuffer.arrayOffset() + byteBuffer.position(), length);
+        }
+        byte[] bytes = scratch.get();
+        if (bytes.length < length) {
+            bytes = new byte[Math.max(length, bytes.length * 2)];
+            if (bytes.length <= MAX_SCRATCH_SIZE) {
+                scratch.set(bytes);
+            }
+        }
+        byteBuffer.duplicate().get(bytes, 0, length);
+        return CodedInputStream.newInstance(bytes, 0, length);
+    }
+}
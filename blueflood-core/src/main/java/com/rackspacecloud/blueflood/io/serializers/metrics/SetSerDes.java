@@ -49,7 +49,7 @@ public class SetSerDes extends AbstractSerDes {
     }
 
     public BluefloodSetRollup deserialize(ByteBuffer byteBuffer) {
-        CodedInputStream in = CodedInputStream.newInstance(byteBuffer.array());
+        CodedInputStream in = SerDesBuffers.newInput(byteBuffer);
         try {
             byte version = in.readRawByte();
             if (version != VERSION_1_SET_ROLLUP)
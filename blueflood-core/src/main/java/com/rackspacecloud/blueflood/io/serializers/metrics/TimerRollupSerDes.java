@@ -59,7 +59,7 @@ public class TimerRollupSerDes extends AbstractSerDes {
     }
 
     public BluefloodTimerRollup deserialize(ByteBuffer byteBuffer) {
-        CodedInputStream in = CodedInputStream.newInstance(byteBuffer.array());
+        CodedInputStream in = SerDesBuffers.newInput(byteBuffer);
         try {
             byte version = in.readRawByte();
             return deserializeTimer(in, version);
@@ -177,17 +177,7 @@ public class TimerRollupSerDes extends AbstractSerDes {
         sz += CodedOutputStream.computeRawVarint32Size(bluefloodTimerRollup.getPercentiles().size());
         for (Map.Entry<String, BluefloodTimerRollup.Percentile> entry : percentiles.entrySet()) {
             sz += CodedOutputStream.computeStringSizeNoTag(entry.getKey());
-            Number[] pctComponents = new Number[] {
-                    entry.getValue().getMean(),
-            };
-            for (Number num : pctComponents) {
-                sz += sizeOfType();
-                if (num instanceof Long || num instanceof Integer) {
-                    sz += CodedOutputStream.computeRawVarint64Size(num.longValue());
-                } else if (num instanceof Double || num instanceof Float) {
-                    sz += CodedOutputStream.computeDoubleSizeNoTag(num.doubleValue());
-                }
-            }
+            sz += sizeOfUnversionedDoubleOrLong(entry.getValue().getMean());
         }
         return sz;
     }
@@ -0,0 +1,211 @@
+/*
+ * Copyright 2017 Rackspace
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.rackspacecloud.blueflood.outputs.handlers;
+
+import com.codahale.metrics.Meter;
+import com.google.common.base.Optional;
+import com.google.common.cache.Cache;
+import com.rackspacecloud.blueflood.cache.CombinedTtlProvider;
+import com.rackspacecloud.blueflood.cache.TenantTtlProvider;
+import com.google.common.cache.CacheBuilder;
+import com.rackspacecloud.blueflood.concurrent.ThreadPoolBuilder;
+import com.rackspacecloud.blueflood.io.AbstractMetricsRW;
+import com.rackspacecloud.blueflood.io.CassandraModel;
+import com.rackspacecloud.blueflood.io.IOContainer;
+import com.rackspacecloud.blueflood.rollup.Granularity;
+import com.rackspacecloud.blueflood.service.Configuration;
+import com.rackspacecloud.blueflood.service.CoreConfig;
+import com.rackspacecloud.blueflood.service.SingleRollupWriteContext;
+import com.rackspacecloud.blueflood.types.Locator;
+import com.rackspacecloud.blueflood.types.Points;
+import com.rackspacecloud.blueflood.types.Rollup;
+import com.rackspacecloud.blueflood.types.RollupType;
+import com.rackspacecloud.blueflood.utils.Metrics;
+import com.rackspacecloud.blueflood.utils.TimeValue;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Persists rollups that {@link RollupHandler} computed on read because they
+ * were missing from the rollup column families, so that the next query over
+ * the same range reads them instead of computing them again.
+ * <p>
+ *
+ * Writes happen in the background through {@link AbstractMetricsRW#insertRollups(List)},
+ * which applies the same TTLs as the rollup service. Only slots that are
+ * older than {@code ROLLUP_DELAY_MILLIS} are written back, since newer ones
+ * may still receive data and will be rolled up by the rollup service anyway.
+ * Rollups on read are computed from full resolution data, so slots that
+ * start before the full resolution TTL ago are not written back either: their
+ * rollup may be missing the points that have already expired, and would
+ * outlive them with the much longer TTL of its own granularity.
+ * A slot that has recently been handed off for writing is not handed off
+ * again, so concurrent queries over the same range write it only once.
+ */
+public class RepairedRollupWriter {
+    private static final Logger log = LoggerFactory.getLogger(RepairedRollupWriter.class);
+
+    // long enough to cover the queries racing on a slot, and for the write to become visible to readers.
+    private static final long DEDUP_WINDOW_MINUTES = 10;
+
+    private static final Meter rollupsWrittenBack = Metrics.meter(RepairedRollupWriter.class, "Repaired rollups written back");
+    private static final Meter rollupsDeduplicated = Metrics.meter(RepairedRollupWriter.class, "Repaired rollups already written back");
+    private static final Meter writeBacksRejected = Metrics.meter(RepairedRollupWriter.class, "Repaired rollup write backs rejected");
+    private static final Meter rollupsPastSourceTtl = Metrics.meter(RepairedRollupWriter.class, "Repaired rollups past full resolution TTL");
+
+    private final ExecutorService executor;
+    private final AbstractMetricsRW basicMetricsRW;
+    private final AbstractMetricsRW preAggregatedRW;
+    private final TenantTtlProvider ttlProvider;
+    private final long rollupDelayMillis;
+    private final Cache<String, Boolean> recentlyWritten = CacheBuilder.newBuilder()
+            .expireAfterWrite(DEDUP_WINDOW_MINUTES, TimeUnit.MINUTES)
+            .concurrencyLevel(16)
+            .build();
+
+    private static class InstanceHolder {
+        // shared by all query handlers, so that they deduplicate against each other.
+        private static final RepairedRollupWriter INSTANCE = new RepairedRollupWriter();
+    }
+
+    public static RepairedRollupWriter getInstance() {
+        return InstanceHolder.INSTANCE;
+    }
+
+    private RepairedRollupWriter() {
+        this(buildExecutor(),
+                IOContainer.fromConfig().getBasicMetricsRW(),
+                IOContainer.fromConfig().getPreAggregatedMetricsRW(),
+                CombinedTtlProvider.getInstance(),
+                Configuration.getInstance().getLongProperty(CoreConfig.ROLLUP_DELAY_MILLIS));
+    }
+
+    /**
+     * @param ttlProvider the TTLs of the full resolution data rollups on read are computed from
+     */
+    public RepairedRollupWriter(ExecutorService executor, AbstractMetricsRW basicMetricsRW,
+                                AbstractMetricsRW preAggregatedRW, TenantTtlProvider ttlProvider,
+                                long rollupDelayMillis) {
+        this.executor = executor;
+        this.basicMetricsRW = basicMetricsRW;
+        this.preAggregatedRW = preAggregatedRW;
+        this.ttlProvider = ttlProvider;
+        this.rollupDelayMillis = rollupDelayMillis;
+    }
+
+    private static ThreadPoolExecutor buildExecutor() {
+        int threads = Configuration.getInstance().getIntegerProperty(CoreConfig.REPAIR_ROLLUPS_WRITE_BACK_THREADS);
+        return new ThreadPoolBuilder()
+                .withCorePoolSize(threads)
+                .withMaxPoolSize(threads)
+                .withBoundedQueue(Configuration.getInstance().getIntegerProperty(CoreConfig.REPAIR_ROLLUPS_WRITE_BACK_QUEUE_SIZE))
+                .withRejectedHandler(new ThreadPoolExecutor.AbortPolicy())
+                .withName("Repaired Rollups Write Back").build();
+    }
+
+    /**
+     * Hands the repaired points of a locator off to be written to the rollup
+     * column family of the given granularity. Returns without waiting for the write.
+     *
+     * @param locator the metric the points belong to
+     * @param g the granularity the points were rolled up to
+     * @param repairedPoints points whose data is a {@link Rollup}, keyed by slot start
+     */
+    public void writeBack(Locator locator, Granularity g, List<Points.Point> repairedPoints) {
+        if (g == Granularity.FULL || repairedPoints.isEmpty()) {
+            return;
+        }
+
+        long now = System.currentTimeMillis();
+        long settledBefore = now - rollupDelayMillis;
+        final List<SingleRollupWriteContext> basicWrites = new ArrayList<SingleRollupWriteContext>();
+        final List<SingleRollupWriteContext> preAggregatedWrites = new ArrayList<SingleRollupWriteContext>();
+        final List<String> keys = new ArrayList<String>();
+
+        for (Points.Point point : repairedPoints) {
+            if (!(point.getData() instanceof Rollup) || point.getTimestamp() + g.milliseconds() > settledBefore) {
+                continue;
+            }
+            Rollup rollup = (Rollup) point.getData();
+            if (!isSourceComplete(locator, rollup, point.getTimestamp(), now)) {
+                rollupsPastSourceTtl.mark();
+                continue;
+            }
+            String key = keyFor(locator, g, point.getTimestamp());
+            if (recentlyWritten.asMap().putIfAbsent(key, Boolean.TRUE) != null) {
+                rollupsDeduplicated.mark();
+                continue;
+            }
+            keys.add(key);
+
+            SingleRollupWriteContext writeContext = new SingleRollupWriteContext(rollup, locator, g,
+                    CassandraModel.getColumnFamily(rollup.getClass(), g), point.getTimestamp());
+            if (rollup.getRollupType() == RollupType.BF_BASIC) {
+                basicWrites.add(writeContext);
+            } else {
+                preAggregatedWrites.add(writeContext);
+            }
+        }
+
+        if (keys.isEmpty()) {
+            return;
+        }
+
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        if (!basicWrites.isEmpty()) {
+                            basicMetricsRW.insertRollups(basicWrites);
+                        }
+                        if (!preAggregatedWrites.isEmpty()) {
+                            preAggregatedRW.insertRollups(preAggregatedWrites);
+                        }
+                        rollupsWrittenBack.mark(keys.size());
+                    } catch (Exception ex) {
+                        // let a later query try again.
+                        recentlyWritten.invalidateAll(keys);
+                        log.warn("Unable to write back repaired rollups", ex);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException ex) {
+            recentlyWritten.invalidateAll(keys);
+            writeBacksRejected.mark();
+        }
+    }
+
+    /**
+     * @return true if none of the full resolution points of the slot can have expired yet
+     */
+    private boolean isSourceComplete(Locator locator, Rollup rollup, long slotStart, long now) {
+        Optional<TimeValue> ttl = ttlProvider.getTTL(locator.getTenantId(), Granularity.FULL, rollup.getRollupType());
+        return ttl.isPresent() && slotStart >= now - ttl.get().toMillis();
+    }
+
+    private static String keyFor(Locator locator, Granularity g, long slotStart) {
+        return locator.toString() + "," + g.name() + "," + slotStart;
+    }
+}
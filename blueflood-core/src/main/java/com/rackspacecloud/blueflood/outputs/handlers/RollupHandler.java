@@ -19,14 +19,20 @@ package com.rackspacecloud.blueflood.outputs.handlers;
 import com.codahale.metrics.Histogram;
 import com.codahale.metrics.Meter;
 import com.codahale.metrics.Timer;
+import com.google.common.base.Throwables;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.ListeningExecutorService;
 import com.google.common.util.concurrent.MoreExecutors;
+import com.rackspacecloud.blueflood.cache.RollupResultCache;
+import com.rackspacecloud.blueflood.concurrent.QueryDeadline;
+import com.rackspacecloud.blueflood.concurrent.RequestCoalescer;
 import com.rackspacecloud.blueflood.concurrent.ThreadPoolBuilder;
+import com.rackspacecloud.blueflood.exceptions.QueryDeadlineExceededException;
 import com.rackspacecloud.blueflood.io.*;
 import com.rackspacecloud.blueflood.outputs.formats.MetricData;
 import com.rackspacecloud.blueflood.rollup.Granularity;
+import com.rackspacecloud.blueflood.rollup.TieredQueryPlanner;
 import com.rackspacecloud.blueflood.service.Configuration;
 import com.rackspacecloud.blueflood.service.CoreConfig;
 import com.rackspacecloud.blueflood.types.*;
@@ -61,16 +67,28 @@ public class RollupHandler {
     protected final Histogram numRollupPointsReturned = Metrics.histogram(RollupHandler.class, "Rollup points returned");
     private static final Meter exceededQueryTimeout = Metrics.meter(RollupHandler.class, "Batched Metrics Query Duration Exceeded Timeout");
     private static final Histogram queriesSizeHist = Metrics.histogram(RollupHandler.class, "Total queries");
+    private static final Meter tieredQueriesMeter = Metrics.meter(RollupHandler.class, "Queries split across granularities");
 
     private static final Timer timerCassandraReadRollupOnRead = Metrics.timer( RollupHandler.class, "cassandraReadForRollupOnRead" );
     private static final Timer timerRepairRollupsOnRead = Metrics.timer( RollupHandler.class, "repairRollupsOnRead" );
     private static final Timer timerRorCalcUnits = Metrics.timer( RollupHandler.class, "ROR Calc Units" );
 
     private static final boolean ROLLUP_REPAIR = Configuration.getInstance().getBooleanProperty(CoreConfig.REPAIR_ROLLUPS_ON_READ);
+    private static final boolean ROLLUP_REPAIR_WRITE_BACK = Configuration.getInstance().getBooleanProperty(CoreConfig.REPAIR_ROLLUPS_WRITE_BACK);
+    private static final boolean ROLLUP_RESULT_CACHE_ENABLED = Configuration.getInstance().getBooleanProperty(CoreConfig.ROLLUP_RESULT_CACHE_ENABLED);
+    private static final boolean TIERED_QUERY_PLANNER_ENABLED = Configuration.getInstance().getBooleanProperty(CoreConfig.TIERED_QUERY_PLANNER_ENABLED);
+    private static final boolean QUERY_COALESCING_ENABLED = Configuration.getInstance().getBooleanProperty(CoreConfig.QUERY_COALESCING_ENABLED);
+    private static final long QUERY_COALESCING_SNAP_MILLIS = Configuration.getInstance().getLongProperty(CoreConfig.QUERY_COALESCING_SNAP_MILLIS);
+    // shared by all handlers, so that queries to different endpoints are coalesced as well
+    private static final RequestCoalescer<String, Map<Locator, MetricData>> queryCoalescer =
+            new RequestCoalescer<String, Map<Locator, MetricData>>(Metrics.meter(RollupHandler.class, "Queries coalesced"));
     private static final int ROLLUP_ON_READ_REPAIR_SIZE_PER_THREAD = Configuration.getInstance().getIntegerProperty( CoreConfig.ROLLUP_ON_READ_REPAIR_SIZE_PER_THREAD );
     private ExecutorService ESUnitExecutor = null;
     private ListeningExecutorService rollupsOnReadExecutor = null;
     private ListeningExecutorService createRepairPointsExecutor = null;
+    private RepairedRollupWriter repairedRollupWriter = null;
+    private TieredQueryPlanner tieredQueryPlanner = null;
+    private ListeningExecutorService tieredQueryExecutor = null;
     /*
       Timeout for rollups on read applicable only when operations are done async. for sync rollups on read
       it will be the driver operation timeout.
@@ -101,6 +119,20 @@ public class RollupHandler {
                 .withMaxPoolSize( Configuration.getInstance().getIntegerProperty( CoreConfig.ROLLUP_ON_READ_REPAIR_THREADS ) )
                 .withName( "Create Repair Points Rollups on Read Executors" ).build();
         createRepairPointsExecutor = MoreExecutors.listeningDecorator(createRepairrollupsOnReadExecutors);
+
+        if (ROLLUP_REPAIR && ROLLUP_REPAIR_WRITE_BACK) {
+            repairedRollupWriter = RepairedRollupWriter.getInstance();
+        }
+
+        if (TIERED_QUERY_PLANNER_ENABLED) {
+            // segments are read on their own pool, since reading one uses the rollups on read pools.
+            ThreadPoolExecutor tieredQueryExecutors = new ThreadPoolBuilder().withUnboundedQueue()
+                    .withCorePoolSize(Configuration.getInstance().getIntegerProperty(CoreConfig.TIERED_QUERY_THREADS))
+                    .withMaxPoolSize(Configuration.getInstance().getIntegerProperty(CoreConfig.TIERED_QUERY_THREADS))
+                    .withName("Tiered Query Executors").build();
+            tieredQueryExecutor = MoreExecutors.listeningDecorator(tieredQueryExecutors);
+            tieredQueryPlanner = new TieredQueryPlanner();
+        }
     }
 
     private enum plotTimers {
@@ -123,6 +155,120 @@ public class RollupHandler {
         }
     }
 
+    /**
+     * @return the granularity {@link #getRollupByPoints} reads [from, to] at, or null if
+     *         the range is split across several granularities
+     */
+    public Granularity getGranularityForPoints(String tenantId, long from, long to, int points) {
+        if (!TIERED_QUERY_PLANNER_ENABLED) {
+            return Granularity.granularityFromPointsInInterval(tenantId, from, to, points);
+        }
+        List<TieredQueryPlanner.Segment> segments = tieredQueryPlanner.plan(tenantId, from, to, points);
+        return segments.size() == 1 ? segments.get(0).getGranularity() : null;
+    }
+
+    /**
+     * Returns about {@code points} points per metric for the range [from, to].
+     * <p>
+     *
+     * With {@code TIERED_QUERY_PLANNER_ENABLED}, the range is split into segments
+     * by {@link TieredQueryPlanner}, which are read in parallel and stitched into a
+     * single series per metric. Otherwise the whole range is read at the granularity
+     * picked by {@link Granularity#granularityFromPointsInInterval(String, long, long, int)}.
+     */
+    public Map<Locator, MetricData> getRollupByPoints(
+            final String tenantId,
+            final List<String> metrics,
+            final long from,
+            final long to,
+            final int points) {
+
+        if (!TIERED_QUERY_PLANNER_ENABLED) {
+            Granularity g = Granularity.granularityFromPointsInInterval(tenantId, from, to, points);
+            return getRollupByGranularity(tenantId, metrics, from, to, g);
+        }
+
+        List<TieredQueryPlanner.Segment> segments = tieredQueryPlanner.plan(tenantId, from, to, points);
+        TieredQueryPlanner.Segment newest = segments.get(segments.size() - 1);
+        if (segments.size() == 1) {
+            return getRollupByGranularity(tenantId, metrics, from, to, newest.getGranularity());
+        }
+        tieredQueriesMeter.mark();
+
+        QueryDeadline deadline = QueryDeadline.current();
+        List<ListenableFuture<Map<Locator, MetricData>>> futures = new ArrayList<ListenableFuture<Map<Locator, MetricData>>>();
+        for (final TieredQueryPlanner.Segment segment : segments.subList(0, segments.size() - 1)) {
+            futures.add(tieredQueryExecutor.submit(deadline.wrap(new Callable<Map<Locator, MetricData>>() {
+                @Override
+                public Map<Locator, MetricData> call() {
+                    return getRollupByGranularity(tenantId, metrics, segment.getRange().getStart(),
+                            segment.getRange().getStop(), segment.getGranularity());
+                }
+            })));
+        }
+
+        // the newest segment is read on this thread while the older ones are read on the pool
+        ListenableFuture<List<Map<Locator, MetricData>>> allSegments = Futures.allAsList(futures);
+        Map<Locator, MetricData> newestData;
+        try {
+            newestData = getRollupByGranularity(tenantId, metrics,
+                    newest.getRange().getStart(), newest.getRange().getStop(), newest.getGranularity());
+        } catch (RuntimeException e) {
+            allSegments.cancel(true);
+            throw e;
+        }
+
+        List<Map<Locator, MetricData>> segmentData;
+        try {
+            segmentData = new ArrayList<Map<Locator, MetricData>>(deadline.await(allSegments));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while reading query segments", e);
+        } catch (ExecutionException e) {
+            throw Throwables.propagate(e.getCause());
+        }
+        segmentData.add(newestData);
+
+        return mergeSegments(segmentData);
+    }
+
+    /**
+     * Stitches the data read for the segments of a query into one series per
+     * locator. Points keeps its points ordered by timestamp, and the unit is
+     * taken from the newest segment that has the locator.
+     *
+     * @param segmentData the data of every segment, oldest first
+     */
+    @SuppressWarnings("unchecked")
+    private static Map<Locator, MetricData> mergeSegments(List<Map<Locator, MetricData>> segmentData) {
+        Map<Locator, MetricData> merged = new HashMap<Locator, MetricData>();
+        for (Map<Locator, MetricData> data : segmentData) {
+            for (Map.Entry<Locator, MetricData> entry : data.entrySet()) {
+                MetricData metricData = merged.get(entry.getKey());
+                if (metricData == null) {
+                    metricData = new MetricData(new Points(), entry.getValue().getUnit());
+                    merged.put(entry.getKey(), metricData);
+                } else {
+                    metricData.setUnit(entry.getValue().getUnit());
+                }
+                for (Object point : entry.getValue().getData().getPoints().values()) {
+                    metricData.getData().add((Points.Point) point);
+                }
+            }
+        }
+        return merged;
+    }
+
+    /**
+     * Reads the metrics for the range [from, to] at a granularity.
+     * <p>
+     *
+     * With {@code QUERY_COALESCING_ENABLED}, a query that is identical to one that
+     * is running waits for it and shares its read. Ranges are widened to multiples
+     * of {@code QUERY_COALESCING_SNAP_MILLIS}, so that e.g. dashboards that ask for
+     * the last hour a few milliseconds apart share one read; every caller gets its
+     * own copy of the result, with only the points in its own range.
+     */
     public Map<Locator, MetricData> getRollupByGranularity(
             final String tenantId,
             final List<String> metrics,
@@ -130,7 +276,60 @@ public class RollupHandler {
             final long to,
             final Granularity g) {
 
+        if (!QUERY_COALESCING_ENABLED) {
+            return readRollupByGranularity(tenantId, metrics, from, to, g);
+        }
+
+        final long snappedFrom = QUERY_COALESCING_SNAP_MILLIS > 0
+                ? from - (from % QUERY_COALESCING_SNAP_MILLIS) : from;
+        final long snappedTo = QUERY_COALESCING_SNAP_MILLIS > 0 && to % QUERY_COALESCING_SNAP_MILLIS != 0
+                ? to - (to % QUERY_COALESCING_SNAP_MILLIS) + QUERY_COALESCING_SNAP_MILLIS : to;
+        String key = tenantId + "," + g.name() + "," + snappedFrom + "," + snappedTo + "," + metrics;
+
+        Map<Locator, MetricData> shared;
+        try {
+            shared = queryCoalescer.execute(key, new Callable<Map<Locator, MetricData>>() {
+                @Override
+                public Map<Locator, MetricData> call() {
+                    return readRollupByGranularity(tenantId, metrics, snappedFrom, snappedTo, g);
+                }
+            });
+        } catch (QueryDeadlineExceededException e) {
+            // the shared read may have been stopped by the deadline of another query
+            QueryDeadline.current().check();
+            shared = readRollupByGranularity(tenantId, metrics, snappedFrom, snappedTo, g);
+        }
+        // the same range an uncoalesced read of [from, to] would have returned
+        return copyRange(shared, g.snapMillis(from), to);
+    }
+
+    /**
+     * @return a copy of a shared result, with only the points in [from, to]
+     */
+    static Map<Locator, MetricData> copyRange(Map<Locator, MetricData> shared, long from, long to) {
+        Map<Locator, MetricData> copy = new HashMap<Locator, MetricData>();
+        for (Map.Entry<Locator, MetricData> entry : shared.entrySet()) {
+            Points points = new Points();
+            for (Object point : entry.getValue().getData().getPoints().values()) {
+                long timestamp = ((Points.Point) point).getTimestamp();
+                if (timestamp >= from && timestamp <= to) {
+                    points.add((Points.Point) point);
+                }
+            }
+            copy.put(entry.getKey(), new MetricData(points, entry.getValue().getUnit()));
+        }
+        return copy;
+    }
+
+    private Map<Locator, MetricData> readRollupByGranularity(
+            final String tenantId,
+            final List<String> metrics,
+            final long from,
+            final long to,
+            final Granularity g) {
+
         final Timer.Context ctx = metrics.size() == 1 ? plotTimers.SPLOT_TIMER.timer.time() : plotTimers.MPLOT_TIMER.timer.time();
+        final QueryDeadline deadline = QueryDeadline.current();
         Future<List<SearchResult>> unitsFuture = null;
         List<SearchResult> units = null;
         List<Locator> locators = new ArrayList<Locator>();
@@ -144,7 +343,7 @@ public class RollupHandler {
         queriesSizeHist.update(locators.size());
 
         if (Util.shouldUseESForUnits()) {
-             unitsFuture = ESUnitExecutor.submit(new Callable() {
+             unitsFuture = ESUnitExecutor.submit(deadline.wrap(new Callable<List<SearchResult>>() {
 
                  @Override
                  public List<SearchResult> call() throws Exception {
@@ -157,24 +356,34 @@ public class RollupHandler {
                      }
                      return discoveryIO.search(tenantId, metrics);
                  }
-             });
+             }));
         }
 
         MetricsRWDelegator delegator = new MetricsRWDelegator();
-        final Map<Locator,MetricData> metricDataMap = delegator.getDatapointsForRange(
-                locators,
-                new Range(g.snapMillis(from), to),
-                g);
+        final Range range = new Range(g.snapMillis(from), to);
+        final Map<Locator,MetricData> metricDataMap;
+        try {
+            metricDataMap = ROLLUP_RESULT_CACHE_ENABLED
+                    ? RollupResultCache.getInstance().getDatapointsForRange(delegator, locators, range, g)
+                    : delegator.getDatapointsForRange(locators, range, g);
+        } catch (RuntimeException e) {
+            if (unitsFuture != null) {
+                unitsFuture.cancel(true);
+            }
+            throw e;
+        }
 
         if (unitsFuture != null) {
             try {
-                units = unitsFuture.get();
+                units = unitsFuture.get(deadline.remainingMillis(), TimeUnit.MILLISECONDS);
                 for (SearchResult searchResult : units) {
                     Locator locator = Locator.createLocatorFromPathComponents(searchResult.getTenantId(), searchResult.getMetricName());
                     if (metricDataMap.containsKey(locator))
                         metricDataMap.get(locator).setUnit(searchResult.getUnit());
                 }
             } catch (Exception e) {
+                unitsFuture.cancel(true);
+                deadline.check();
                 log.warn("Exception encountered while getting units from ES, unit will be set to unknown in query results", e);
             }
         }
@@ -192,18 +401,20 @@ public class RollupHandler {
             ArrayList<ListenableFuture<Boolean>> futures = new ArrayList<ListenableFuture<Boolean>>();
             for (final Map.Entry<Locator, MetricData> metricData : metricDataMap.entrySet()) {
                 futures.add(
-                        rollupsOnReadExecutor.submit(new Callable<Boolean>() {
+                        rollupsOnReadExecutor.submit(deadline.wrap(new Callable<Boolean>() {
                             @Override
                             public Boolean call() {
                                 return repairMetrics(metricData.getKey(), metricData.getValue(), from, to, g);
                             }
-                        }));
+                        })));
             }
             ListenableFuture<List<Boolean>> aggregateFuture = Futures.allAsList(futures);
             try {
-                aggregateFuture.get(rollupOnReadTimeout.getValue(), rollupOnReadTimeout.getUnit());
+                aggregateFuture.get(deadline.remainingMillis(rollupOnReadTimeout.toMillis()), TimeUnit.MILLISECONDS);
             } catch (Exception e) {
                 aggregateFuture.cancel(true);
+                // incomplete rollups are only worth returning to a query that is still waiting for them
+                deadline.check();
                 exceededQueryTimeout.mark();
                 log.warn("Exception encountered while doing rollups on read, incomplete rollups will be returned.", e);
             }
@@ -311,6 +522,7 @@ public class RollupHandler {
      */
     private List<Points.Point> repairRollupsOnRead(final Locator locator, Granularity g, long from, long to) {
         Timer.Context c = timerRepairRollupsOnRead.time();
+        QueryDeadline deadline = QueryDeadline.current();
 
         List<Points.Point> repairedPoints = new ArrayList<Points.Point>();
         List<ListenableFuture<List<Points.Point>>> futures = new ArrayList<ListenableFuture<List<Points.Point>>>();
@@ -318,30 +530,36 @@ public class RollupHandler {
         for( final Iterable<Range> ranges : divideRangesByGroup( g, from, to ) ) {
             futures.add(
 
-                    createRepairPointsExecutor.submit( new Callable() {
+                    createRepairPointsExecutor.submit( deadline.wrap( new Callable<List<Points.Point>>() {
 
                         @Override
                         public List<Points.Point> call() throws Exception {
                             return createRepairPoints( ranges, locator );
                         }
-                    } ) );
+                    } ) ) );
         }
 
         ListenableFuture<List<List<Points.Point>>> aggregateFuture = Futures.allAsList(futures);
 
         try {
-            for( List<Points.Point> subList : aggregateFuture.get(rollupOnReadTimeout.getValue(), rollupOnReadTimeout.getUnit()) ) {
+            for( List<Points.Point> subList : aggregateFuture.get(deadline.remainingMillis(rollupOnReadTimeout.toMillis()),
+                    TimeUnit.MILLISECONDS) ) {
 
                 repairedPoints.addAll( subList );
             }
         } catch (Exception e) {
             aggregateFuture.cancel(true);
+            deadline.check();
             exceededQueryTimeout.mark();
             log.warn("Exception encountered while doing rollups on read, incomplete rollups will be returned.", e);
         }
 
         c.stop();
 
+        if (repairedRollupWriter != null) {
+            repairedRollupWriter.writeBack(locator, g, repairedPoints);
+        }
+
         return repairedPoints;
     }
 
@@ -381,8 +599,10 @@ public class RollupHandler {
     private List<Points.Point> createRepairPoints( Iterable<Range> ranges, Locator locator ) {
 
         List<Points.Point> repairedPoints = new ArrayList<Points.Point>();
+        QueryDeadline deadline = QueryDeadline.current();
 
         for ( Range r : ranges ) {
+            deadline.check();
             try {
                 Timer.Context cRead = timerCassandraReadRollupOnRead.time();
                 MetricsRWDelegator delegator = new MetricsRWDelegator();
@@ -0,0 +1,167 @@
+/*
+ * Copyright 2017 Rackspace
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.rackspacecloud.blueflood.rollup;
+
+import com.rackspacecloud.blueflood.cache.CombinedTtlProvider;
+import com.rackspacecloud.blueflood.exceptions.GranularityException;
+import com.rackspacecloud.blueflood.service.Configuration;
+import com.rackspacecloud.blueflood.service.CoreConfig;
+import com.rackspacecloud.blueflood.types.Range;
+import com.rackspacecloud.blueflood.utils.Clock;
+import com.rackspacecloud.blueflood.utils.DefaultClockImpl;
+import org.joda.time.Instant;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Splits a get-by-points query into segments of different granularities.
+ * <p>
+ *
+ * {@link Granularity#granularityFromPointsInInterval(String, long, long, int)} picks
+ * one granularity for the whole range, and skips every granularity whose TTL has
+ * expired at the start of the range. A week long graph therefore never shows the
+ * full resolution data of the last day, even when the point budget asks for it.
+ * <p>
+ *
+ * The planner picks the granularity the point budget asks for, and uses it for the
+ * part of the range it still has data for. Older parts of the range fall back to
+ * the next coarser granularity that still has data, which only ever returns fewer
+ * points than asked for. Segment boundaries are aligned to the slots of the older
+ * segment, so that no slot is returned twice.
+ */
+public class TieredQueryPlanner {
+
+    private final String algorithm;
+    private final long assumedIntervalMillis;
+    private final Clock clock;
+
+    public TieredQueryPlanner() {
+        this(Configuration.getInstance().getStringProperty(CoreConfig.GET_BY_POINTS_GRANULARITY_SELECTION),
+             Configuration.getInstance().getIntegerProperty(CoreConfig.GET_BY_POINTS_ASSUME_INTERVAL),
+             new DefaultClockImpl());
+    }
+
+    public TieredQueryPlanner(String algorithm, long assumedIntervalMillis, Clock clock) {
+        this.algorithm = algorithm;
+        this.assumedIntervalMillis = assumedIntervalMillis;
+        this.clock = clock;
+    }
+
+    /**
+     * @return the segments covering [from, to], oldest first
+     */
+    public List<Segment> plan(String tenantId, final long from, long to, int points) {
+        // measuring the TTLs from the start of the range leaves every granularity available,
+        // so this picks the granularity for the point budget alone.
+        Granularity g = Granularity.granularityFromPointsInInterval(tenantId, from, to, points,
+                algorithm, assumedIntervalMillis, new Clock() {
+                    @Override
+                    public Instant now() {
+                        return new Instant(from);
+                    }
+                });
+
+        long now = clock.now().getMillis();
+        List<Segment> segments = new ArrayList<Segment>();
+        long end = to;
+        while (true) {
+            long availableFrom = now - getTTL(tenantId, g);
+            if (availableFrom <= from || g == Granularity.LAST) {
+                segments.add(new Segment(g, new Range(from, end)));
+                break;
+            }
+
+            Granularity older = coarser(g);
+            long boundary = ceil(availableFrom, older.milliseconds());
+            if (boundary - 1 <= from) {
+                segments.add(new Segment(g, new Range(from, end)));
+                break;
+            }
+            if (boundary < end) {
+                segments.add(new Segment(g, new Range(boundary, end)));
+                end = boundary - 1;
+            }
+            g = older;
+        }
+
+        Collections.reverse(segments);
+        return segments;
+    }
+
+    /**
+     * @return how long data of a granularity is kept, in milliseconds
+     */
+    protected long getTTL(String tenantId, Granularity g) {
+        return CombinedTtlProvider.getInstance().getFinalTTL(tenantId, g);
+    }
+
+    private static Granularity coarser(Granularity g) {
+        try {
+            return g.coarser();
+        } catch (GranularityException e) {
+            // not reached, LAST is handled by the caller
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static long ceil(long millis, long unit) {
+        long floor = millis - (millis % unit);
+        return floor == millis ? millis : floor + unit;
+    }
+
+    /**
+     * A part of a query, read at a single granularity.
+     */
+    public static class Segment {
+        private final Granularity granularity;
+        private final Range range;
+
+        public Segment(Granularity granularity, Range range) {
+            this.granularity = granularity;
+            this.range = range;
+        }
+
+        public Granularity getGranularity() {
+            return granularity;
+        }
+
+        public Range getRange() {
+            return range;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Segment)) {
+                return false;
+            }
+            Segment other = (Segment) obj;
+            return granularity.equals(other.granularity) && range.equals(other.range);
+        }
+
+        @Override
+        public int hashCode() {
+            return granularity.hashCode() * 31 + range.hashCode();
+        }
+
+        @Override
+        public String toString() {
+            return granularity.name() + " " + range;
+        }
+    }
+}
@@ -20,6 +20,7 @@ import com.codahale.metrics.MetricRegistry;
 import com.rackspacecloud.blueflood.io.IOContainer;
 import com.rackspacecloud.blueflood.io.ShardStateIO;
 import com.rackspacecloud.blueflood.cache.MetadataCache;
+import com.rackspacecloud.blueflood.cache.RollupResultCache;
 import com.rackspacecloud.blueflood.utils.Metrics;
 import com.rackspacecloud.blueflood.utils.RestartGauge;
 import com.rackspacecloud.blueflood.utils.Util;
@@ -78,9 +79,21 @@ public class BluefloodServiceStarter {
             } catch (NumberFormatException ex) {
                 log.error("Shard services not started. Probably misconfiguration", ex);
             }
+        } else if (config.getBooleanProperty(CoreConfig.QUERY_MODE)
+                && config.getBooleanProperty(CoreConfig.ROLLUP_RESULT_CACHE_ENABLED)) {
+            // the rollup result cache only caches slots that the shard state has as rolled up
+            final Collection<Integer> allShards = Collections.unmodifiableCollection(Util.parseShards("ALL"));
+            final ShardStatePuller shardStatePuller = new ShardStatePuller(allShards,
+                    context.getShardStateManager(),
+                    IOContainer.fromConfig().getShardStateIO());
+            new Thread(shardStatePuller, "Shard state reader").start();
+            log.info("Shard pull service started");
         } else {
             log.info("Shard push and pull services not required");
         }
+        if (config.getBooleanProperty(CoreConfig.ROLLUP_RESULT_CACHE_ENABLED)) {
+            RollupResultCache.getInstance().setScheduleContext(context);
+        }
     }
 
     private static void startIngestServices(ScheduleContext context) {
@@ -36,6 +36,15 @@ public enum CoreConfig implements ConfigDefaults {
 
     CASSANDRA_DRIVER("astyanax"),
 
+    // With CASSANDRA_DRIVER set to "memory", all data is kept in memory instead of
+    // Cassandra, for benchmarks and load tests on a single machine. Every read and
+    // write of it can be made to take a fixed time, like a round trip to Cassandra.
+    // Expired values that no read comes across are removed by the first write after
+    // every MEMORY_DRIVER_EXPIRY_SWEEP_MILLIS.
+    MEMORY_DRIVER_READ_LATENCY_MILLIS("0"),
+    MEMORY_DRIVER_WRITE_LATENCY_MILLIS("0"),
+    MEMORY_DRIVER_EXPIRY_SWEEP_MILLIS("60000"),
+
     // Datastax related connection pool settings
     // http://docs.datastax.com/en/developer/java-driver/3.2/manual/pooling/
     DATASTAX_CORE_CONNECTIONS_PER_HOST("5"),
@@ -44,6 +53,56 @@ public enum CoreConfig implements ConfigDefaults {
     DATASTAX_READ_TIMEOUT_MAX_RETRIES("3"),
     DATASTAX_WRITE_TIMEOUT_MAX_RETRIES("3"),
     DATASTAX_UNAVAILABLE_MAX_RETRIES("1"),
+    // Requests to a host wait in a queue of this size once its connections have
+    // DATASTAX_MAX_REQUESTS_PER_CONNECTION requests in flight, and fail beyond it
+    DATASTAX_MAX_QUEUE_SIZE("256"),
+
+    // Hosts that are more than DATASTAX_LATENCY_AWARE_EXCLUSION_THRESHOLD times slower
+    // than the fastest one are left out of the query plans for a while, so that a
+    // replica that is compacting or in a GC pause doesn't set the tail latency.
+    // http://docs.datastax.com/en/developer/java-driver/3.2/manual/load_balancing/#latency-aware-policy
+    DATASTAX_LATENCY_AWARE_ENABLED("false"),
+    DATASTAX_LATENCY_AWARE_EXCLUSION_THRESHOLD("2.0"),
+    DATASTAX_LATENCY_AWARE_SCALE_MILLIS("100"),
+    DATASTAX_LATENCY_AWARE_RETRY_PERIOD_SECONDS("10"),
+    DATASTAX_LATENCY_AWARE_MIN_MEASUREMENTS("50"),
+
+    // Reads of datapoints, rollup inputs, metadata and locators that haven't completed
+    // after DATASTAX_SPECULATIVE_EXECUTION_DELAY_MILLIS are sent to the next host too,
+    // up to DATASTAX_SPECULATIVE_EXECUTION_MAX more times. 0 disables it. Writes are
+    // never sent twice.
+    // http://docs.datastax.com/en/developer/java-driver/3.2/manual/speculative_execution/
+    DATASTAX_SPECULATIVE_EXECUTION_DELAY_MILLIS("0"),
+    DATASTAX_SPECULATIVE_EXECUTION_MAX("1"),
+
+    // The locators of a shard are kept in one metrics_locator partition, unless
+    // LOCATOR_BUCKETS is more than 1. They are then spread over that many partitions
+    // of the shard by a hash of the locator, and read from all of them in parallel.
+    // Locators written before the change stay readable while LOCATOR_BUCKETS_READ_UNBUCKETED
+    // is true, which can be turned off once they have expired, a week after the change.
+    // Changing LOCATOR_BUCKETS from one number of buckets to another hides the locators
+    // of the old buckets until they are written again.
+    LOCATOR_BUCKETS("1"),
+    LOCATOR_BUCKETS_READ_UNBUCKETED("true"),
+
+    // Full resolution points can be packed into compressed blocks, one column of
+    // metrics_full_blocks per metric and FULL_RES_BLOCK_MINUTES, by the
+    // CompactFullResBlocks tool. Queries through the datastax driver only read the
+    // blocks if FULL_RES_BLOCKS_ENABLED is true. The block size can be raised later,
+    // but lowering it hides the start of the blocks already written from queries.
+    FULL_RES_BLOCKS_ENABLED("false"),
+    FULL_RES_BLOCK_MINUTES("120"),
+
+    // With METRICS_TIME_BUCKETS_SINCE set to a time in epoch milliseconds, the points and
+    // rollups from that time on are written through the datastax driver to the
+    // metrics_*_buckets Column Families, whose partitions are keyed by the locator and a
+    // time bucket of METRICS_TIME_BUCKET_SLOTS slots of their granularity. Older ones are
+    // still read from the Column Families partitioned by locator only. 0 disables it.
+    // The time is better set ahead of the deployment of the setting, and never changed.
+    METRICS_TIME_BUCKETS_SINCE("0"),
+    METRICS_TIME_BUCKET_SLOTS("288"),
+    // a read of a range that spans more buckets than this only reads the newest ones
+    METRICS_TIME_BUCKETS_MAX_PER_READ("400"),
 
     ROLLUP_KEYSPACE("DATA"),
     CLUSTER_NAME("Test Cluster"),
@@ -78,11 +137,17 @@ public enum CoreConfig implements ConfigDefaults {
     META_CACHE_BATCHED_READS_TIMER_MS("10"),  // how often to read? (batch timer) (read faster than writes)
     META_CACHE_BATCHED_READS_PIPELINE_DEPTH("10"), // how many outstanding batches? (1 thread per batch).
     META_CACHE_BATCHED_READS_QUEUE_SIZE("1000"),
+    // how many metadata reads the datastax driver has outstanding at a time, across the read pipeline
+    META_CACHE_BATCHED_READS_MAX_IN_FLIGHT("64"),
+    // how many locators a metadata read asks for at once, with an IN list. 1 reads every locator on its own.
+    META_CACHE_BATCHED_READS_IN_LIST_SIZE("1"),
 
     META_CACHE_BATCHED_WRITES_THRESHOLD("100"),  // how many meta columns to write at a time? (batch size)
     META_CACHE_BATCHED_WRITES_TIMER_MS("20"),   // how often to write? (batch timer)
     META_CACHE_BATCHED_WRITES_PIPELINE_DEPTH("10"), // how many outstanding batches? (1 thread per batch).
     META_CACHE_BATCHED_WRITES_QUEUE_SIZE("1000"),
+    // how many metadata writes, each of all the columns of one locator, the datastax driver has outstanding at a time
+    META_CACHE_BATCHED_WRITES_MAX_IN_FLIGHT("64"),
 
     // Maximum timeout waiting on exhausted connection pools in milliseconds.
     // Maps directly to Astyanax's ConnectionPoolConfiguration.setMaxTimeoutWhenExhausted
@@ -112,8 +177,38 @@ public enum CoreConfig implements ConfigDefaults {
     SHARD_LOCK_SCAVENGE_INTERVAL_MS("120000"),
     MAX_ZK_LOCKS_TO_ACQUIRE_PER_CYCLE("1"),
 
+    // Setting this to true makes rollup nodes publish their load to zookeeper and
+    // rebalance shard locks so that each node carries a similar amount of work.
+    SHARD_LOCK_LOAD_BALANCING_ENABLED("false"),
+    // how far (as a fraction of the cluster average) a node's load may drift before it sheds or claims shards
+    SHARD_LOCK_LOAD_TOLERANCE("0.2"),
+    // how long a shard being handed off stops scheduling new slots before its lock is released. 1 min
+    SHARD_LOCK_DRAIN_PERIOD_MS("60000"),
+
+    // Setting this to true replaces the per-shard zookeeper locks with ephemeral leases that are
+    // claimed in bulk and picked up by other nodes as soon as their owner's session expires.
+    SHARD_LEASE_MODE_ENABLED("false"),
+    // a dead node's leases are released once its session times out. 15 sec
+    SHARD_LEASE_SESSION_TIMEOUT_MS("15000"),
+    // upper bound of the random delay before claiming orphaned shards, to avoid a thundering herd. 2 sec
+    SHARD_LEASE_CLAIM_JITTER_MS("2000"),
+    SHARD_LEASE_MAX_PER_CLAIM("128"),
+    // a node holding more than its fair share releases the surplus, but only leases it has held this long. 5 min
+    SHARD_LEASE_MIN_HOLD_MS("300000"),
+
     INTERNAL_API_CLUSTER("127.0.0.1:50020,127.0.0.1:50020"),
 
+    // Rollup events are handed to listeners through a bounded ring buffer instead of an unbounded thread pool queue.
+    ROLLUP_EVENT_DISPATCHER_ENABLED("true"),
+    ROLLUP_EVENT_RING_BUFFER_SIZE("65536"),
+    ROLLUP_EVENT_MAX_BATCH_SIZE("100"),
+    // valid options are: BLOCK, DROP_OLDEST, and SAMPLE
+    ROLLUP_EVENT_OVERFLOW_POLICY("DROP_OLDEST"),
+    // with the BLOCK overflow policy, the longest a rollup waits for a slow listener before its event is dropped
+    ROLLUP_EVENT_BLOCK_TIMEOUT_MS("1000"),
+    // with the SAMPLE overflow policy, keep one in this many events while the ring buffer is full
+    ROLLUP_EVENT_SAMPLE_RATE("10"),
+
     RIEMANN_HOST(""), //string: address of riemann server where events should be sent.
     RIEMANN_PORT("5555"),
     RIEMANN_PREFIX(""), //string: prefix metric names with this. useful for telling metrics from backfiller vs normal BF instance. (RIEMANN_LOCALHOST and RIEMANN_TAGS are better though)
@@ -142,17 +237,44 @@ public enum CoreConfig implements ConfigDefaults {
     // Using legacy separators is deprecated as of 2.0 and will be removed in 3.0
     USE_LEGACY_METRIC_SEPARATOR("false"),
 
+    // No longer used: rollup write batches are flushed on ROLLUP_BATCH_MAX_SIZE or ROLLUP_BATCH_MAX_LINGER_MS.
     ROLLUP_BATCH_MIN_SIZE("5"),
     ROLLUP_BATCH_MAX_SIZE("100"),
+    // Longest time a rollup write waits for its batch to fill up before the batch is written anyway.
+    ROLLUP_BATCH_MAX_LINGER_MS("200"),
 
     // Assume, for calculating granularity for GetByPoints queries, that data is sent at this interval.
     GET_BY_POINTS_ASSUME_INTERVAL("30000"),
 
     // Rollups repair on read
     REPAIR_ROLLUPS_ON_READ("true"),
+    // Write rollups repaired on read back to the rollup column families, so later queries don't repair them again
+    REPAIR_ROLLUPS_WRITE_BACK("false"),
+    REPAIR_ROLLUPS_WRITE_BACK_THREADS("5"),
+    REPAIR_ROLLUPS_WRITE_BACK_QUEUE_SIZE("1000"),
+
+    // Cache rollups of time ranges that can no longer change on the query path
+    ROLLUP_RESULT_CACHE_ENABLED("false"),
+    ROLLUP_RESULT_CACHE_MAX_SIZE_MB("256"),
+    // number of slots of a granularity that are cached together
+    ROLLUP_RESULT_CACHE_BLOCK_SLOTS("64"),
 
     // valid options are: GEOMETRIC, LINEAR, and LESSTHANEQUAL
     GET_BY_POINTS_GRANULARITY_SELECTION("GEOMETRIC"),
+    // Read get-by-points queries at the finest granularity that still has data for each part of the range
+    TIERED_QUERY_PLANNER_ENABLED("false"),
+    TIERED_QUERY_THREADS("20"),
+
+    // Let identical queries that run at the same time share one read. With a snap, ranges are widened to
+    // multiples of it, so that queries for almost the same range are shared as well.
+    QUERY_COALESCING_ENABLED("false"),
+    QUERY_COALESCING_SNAP_MILLIS("0"),
+
+    // Keep the latest value of up to LATEST_VALUE_CACHE_MAX_SIZE metrics in memory for "current value" queries.
+    // Ingestion updates it when LATEST_VALUE_CACHE_UPDATE_ON_INGEST is set, otherwise queries fill it on a miss.
+    LATEST_VALUE_CACHE_MAX_SIZE("1000000"),
+    LATEST_VALUE_CACHE_EXPIRE_SECONDS("60"),
+    LATEST_VALUE_CACHE_UPDATE_ON_INGEST("false"),
 
     METADATA_CACHE_PERSISTENCE_ENABLED("false"),
     METADATA_CACHE_PERSISTENCE_PATH("/dev/null"),
@@ -16,76 +16,232 @@
 
 package com.rackspacecloud.blueflood.service;
 
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Meter;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.rackspacecloud.blueflood.io.AbstractMetricsRW;
 import com.rackspacecloud.blueflood.io.IOContainer;
+import com.rackspacecloud.blueflood.types.Locator;
+import com.rackspacecloud.blueflood.types.Rollup;
 import com.rackspacecloud.blueflood.types.RollupType;
+import com.rackspacecloud.blueflood.utils.Metrics;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.NoSuchElementException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
-// Batches rollup writes
+/**
+ * Batches rollup writes.
+ * <p>
+ *
+ * Pending writes are grouped by the metrics RW that will write them and by
+ * their destination column family, so that every batch handed to the write
+ * executor targets a single table. A group is flushed as soon as it holds
+ * {@code ROLLUP_BATCH_MAX_SIZE} writes, or once its oldest pending write has
+ * waited {@code ROLLUP_BATCH_MAX_LINGER_MS}, whichever comes first. Within a
+ * batch, writes to the same partition (locator) are kept next to each other.
+ */
 public class RollupBatchWriter {
     private final Logger LOG = LoggerFactory.getLogger(RollupBatchWriter.class);
+    private static final int ROLLUP_BATCH_MAX_SIZE = Configuration.getInstance().getIntegerProperty(CoreConfig.ROLLUP_BATCH_MAX_SIZE);
+    private static final long ROLLUP_BATCH_MAX_LINGER_MS = Configuration.getInstance().getLongProperty(CoreConfig.ROLLUP_BATCH_MAX_LINGER_MS);
+
+    // batch sizes are recorded by RollupBatchWriteRunnable as "Rollups Per Batch".
+    private static final Histogram batchLinger = Metrics.histogram(RollupService.class, "Rollup Batch Linger ms");
+    private static final Meter flushedOnSize = Metrics.meter(RollupService.class, "Rollup Batches Flushed On Size");
+    private static final Meter flushedOnLinger = Metrics.meter(RollupService.class, "Rollup Batches Flushed On Linger");
+
+    // one timer thread shared by all writers; it only hands batches to the write executors.
+    private static final ScheduledExecutorService lingerTimer = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder().setNameFormat("rollup-batch-linger-%d").setDaemon(true).build());
+
     private final AbstractMetricsRW basicMetricsRW;
     private final AbstractMetricsRW preAggregatedRW;
     private final ThreadPoolExecutor executor;
     private final RollupExecutionContext context;
-    private final ConcurrentLinkedQueue<SingleRollupWriteContext> rollupQueue = new ConcurrentLinkedQueue<SingleRollupWriteContext>();
-    private static final int ROLLUP_BATCH_MIN_SIZE = Configuration.getInstance().getIntegerProperty(CoreConfig.ROLLUP_BATCH_MIN_SIZE);
-    private static final int ROLLUP_BATCH_MAX_SIZE = Configuration.getInstance().getIntegerProperty(CoreConfig.ROLLUP_BATCH_MAX_SIZE);
+    private final int maxBatchSize;
+    private final long maxLingerMillis;
+    private final ConcurrentMap<String, PendingGroup> groups = new ConcurrentHashMap<String, PendingGroup>();
 
     public RollupBatchWriter(ThreadPoolExecutor executor, RollupExecutionContext context) {
+        this(executor, context,
+                IOContainer.fromConfig().getBasicMetricsRW(),
+                IOContainer.fromConfig().getPreAggregatedMetricsRW(),
+                ROLLUP_BATCH_MAX_SIZE, ROLLUP_BATCH_MAX_LINGER_MS);
+    }
+
+    @VisibleForTesting
+    RollupBatchWriter(ThreadPoolExecutor executor, RollupExecutionContext context,
+                      AbstractMetricsRW basicMetricsRW, AbstractMetricsRW preAggregatedRW,
+                      int maxBatchSize, long maxLingerMillis) {
         this.executor = executor;
         this.context = context;
-        this.basicMetricsRW = IOContainer.fromConfig().getBasicMetricsRW();
-        this.preAggregatedRW = IOContainer.fromConfig().getPreAggregatedMetricsRW();
+        this.basicMetricsRW = basicMetricsRW;
+        this.preAggregatedRW = preAggregatedRW;
+        this.maxBatchSize = Math.max(1, maxBatchSize);
+        this.maxLingerMillis = maxLingerMillis;
     }
 
-
     public void enqueueRollupForWrite(SingleRollupWriteContext rollupWriteContext) {
-        rollupQueue.add(rollupWriteContext);
         context.incrementWriteCounter();
-        // enqueue MIN_SIZE batches only if the threadpool is unsaturated.
-        // else, enqueue when we have >= MAX_SIZE pending
-        if (rollupQueue.size() >= ROLLUP_BATCH_MIN_SIZE) {
-            if (executor.getActiveCount() < executor.getPoolSize() ||
-                    rollupQueue.size() >= ROLLUP_BATCH_MAX_SIZE) {
-                drainBatch();
+        PendingGroup group = groupFor(rollupWriteContext);
+        group.queue.add(rollupWriteContext);
+        int pending = group.pending.incrementAndGet();
+
+        if (pending >= maxBatchSize) {
+            flush(group, false);
+        } else if (pending == 1) {
+            // this write starts a new batch for the group; make sure it does not wait longer than the linger time.
+            group.lingerStart = System.currentTimeMillis();
+            scheduleLingerCheck(group, maxLingerMillis);
+        }
+    }
+
+    /**
+     * Hands all pending writes to the write executor, regardless of batch size or linger time.
+     */
+    public void drainBatch() {
+        for (PendingGroup group : groups.values()) {
+            while (flush(group, true) > 0) {
+                // keep going until the group is empty
             }
         }
     }
 
-    public synchronized void drainBatch() {
-        List<SingleRollupWriteContext> writeBasicContexts = new ArrayList<SingleRollupWriteContext>();
-        List<SingleRollupWriteContext> writePreAggrContexts = new ArrayList<SingleRollupWriteContext>();
-        try {
-            for (int i=0; i<=ROLLUP_BATCH_MAX_SIZE; i++) {
-                SingleRollupWriteContext context = rollupQueue.remove();
-                if ( context.getRollup().getRollupType() == RollupType.BF_BASIC ) {
-                    writeBasicContexts.add(context);
-                } else {
-                    writePreAggrContexts.add(context);
-                }
+    @VisibleForTesting
+    int getPendingCount() {
+        int count = 0;
+        for (PendingGroup group : groups.values()) {
+            count += group.pending.get();
+        }
+        return count;
+    }
+
+    private PendingGroup groupFor(SingleRollupWriteContext writeContext) {
+        boolean basic = isBasic(writeContext);
+        String key = (basic ? "basic" : "preaggr") + "," + destinationOf(writeContext);
+        PendingGroup group = groups.get(key);
+        if (group == null) {
+            PendingGroup newGroup = new PendingGroup(basic ? basicMetricsRW : preAggregatedRW);
+            group = groups.putIfAbsent(key, newGroup);
+            if (group == null) {
+                group = newGroup;
             }
-        } catch (NoSuchElementException e) {
-            // pass
         }
-        if (writeBasicContexts.size() > 0) {
-            LOG.debug(
-                    String.format("drainBatch(): kicking off RollupBatchWriteRunnables for %d basic contexts",
-                            writeBasicContexts.size()));
-            executor.execute(new RollupBatchWriteRunnable(writeBasicContexts, context, basicMetricsRW));
+        return group;
+    }
+
+    private static boolean isBasic(SingleRollupWriteContext writeContext) {
+        Rollup rollup = writeContext.getRollup();
+        return rollup == null || rollup.getRollupType() == RollupType.BF_BASIC;
+    }
+
+    private static String destinationOf(SingleRollupWriteContext writeContext) {
+        if (writeContext.getDestinationCF() != null) {
+            return writeContext.getDestinationCF().getName();
         }
-        if (writePreAggrContexts.size() > 0) {
-            LOG.debug(
-                    String.format("drainBatch(): kicking off RollupBatchWriteRunnables for %d preAggr contexts",
-                            writePreAggrContexts.size()));
-            executor.execute(new RollupBatchWriteRunnable(writePreAggrContexts, context, preAggregatedRW));
+        return String.valueOf(writeContext.getGranularity());
+    }
+
+    /**
+     * Claims up to {@link #maxBatchSize} pending writes of the group and submits them as one batch.
+     *
+     * @return the number of writes submitted.
+     */
+    private int flush(PendingGroup group, boolean drain) {
+        int claimed;
+        do {
+            int pending = group.pending.get();
+            if (pending == 0 || (!drain && pending < maxBatchSize && !group.lingerExpired(maxLingerMillis))) {
+                return 0;
+            }
+            claimed = Math.min(pending, maxBatchSize);
+            if (group.pending.compareAndSet(pending, pending - claimed)) {
+                break;
+            }
+        } while (true);
+
+        long linger = System.currentTimeMillis() - group.lingerStart;
+        boolean onSize = claimed == maxBatchSize;
+        if (group.pending.get() > 0) {
+            // what is left over starts a new batch.
+            group.lingerStart = System.currentTimeMillis();
+            scheduleLingerCheck(group, maxLingerMillis);
+        }
+
+        // every claimed write has been added to the queue before the pending count was incremented.
+        Map<Locator, List<SingleRollupWriteContext>> byPartition = new LinkedHashMap<Locator, List<SingleRollupWriteContext>>();
+        for (int i = 0; i < claimed; i++) {
+            SingleRollupWriteContext writeContext = group.queue.poll();
+            List<SingleRollupWriteContext> partition = byPartition.get(writeContext.getLocator());
+            if (partition == null) {
+                partition = new ArrayList<SingleRollupWriteContext>();
+                byPartition.put(writeContext.getLocator(), partition);
+            }
+            partition.add(writeContext);
+        }
+        List<SingleRollupWriteContext> batch = new ArrayList<SingleRollupWriteContext>(claimed);
+        for (List<SingleRollupWriteContext> partition : byPartition.values()) {
+            batch.addAll(partition);
+        }
+
+        batchLinger.update(linger);
+        if (onSize) {
+            flushedOnSize.mark();
+        } else if (!drain) {
+            flushedOnLinger.mark();
+        }
+        LOG.debug(String.format("flush(): kicking off RollupBatchWriteRunnable for %d contexts", claimed));
+        executor.execute(new RollupBatchWriteRunnable(batch, context, group.metricsRW));
+        return claimed;
+    }
+
+    private void scheduleLingerCheck(final PendingGroup group, long delayMillis) {
+        lingerTimer.schedule(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    if (group.pending.get() == 0) {
+                        return;
+                    }
+                    long remaining = maxLingerMillis - (System.currentTimeMillis() - group.lingerStart);
+                    if (remaining > 0) {
+                        scheduleLingerCheck(group, remaining);
+                    } else {
+                        flush(group, false);
+                    }
+                } catch (Exception ex) {
+                    LOG.error("Error flushing lingering rollup writes", ex);
+                }
+            }
+        }, Math.max(0, delayMillis), TimeUnit.MILLISECONDS);
+    }
+
+    private static class PendingGroup {
+        private final AbstractMetricsRW metricsRW;
+        private final ConcurrentLinkedQueue<SingleRollupWriteContext> queue = new ConcurrentLinkedQueue<SingleRollupWriteContext>();
+        // kept next to the queue, since ConcurrentLinkedQueue.size() walks the whole queue.
+        private final AtomicInteger pending = new AtomicInteger(0);
+        private volatile long lingerStart = System.currentTimeMillis();
+
+        PendingGroup(AbstractMetricsRW metricsRW) {
+            this.metricsRW = metricsRW;
+        }
+
+        boolean lingerExpired(long maxLingerMillis) {
+            return System.currentTimeMillis() - lingerStart >= maxLingerMillis;
         }
     }
 }
@@ -106,7 +106,7 @@ import java.util.concurrent.TimeUnit;
  *
  * When synchronizing multiple collections, do it in this order: scheduled -> running.
  */
-public class ScheduleContext implements IngestionContext, ScheduleContextMBean {
+public class ScheduleContext implements IngestionContext, ScheduleContextMBean, ShardLoadProvider {
     private static final Logger log = LoggerFactory.getLogger(ScheduleContext.class);
     private final Timer markSlotDirtyTimer = Metrics.timer(ScheduleContext.class, "Slot Mark Dirty Duration");
 
@@ -156,9 +156,16 @@ public class ScheduleContext implements IngestionContext, ScheduleContextMBean {
     public ScheduleContext(long currentTimeMillis, Collection<Integer> managedShards, String zookeeperCluster) {
         this.scheduleTime = currentTimeMillis;
         this.shardStateManager = new ShardStateManager(managedShards, asMillisecondsSinceEpochTicker());
-        ZKShardLockManager lockManager = new ZKShardLockManager(zookeeperCluster, new HashSet<Integer>(shardStateManager.getManagedShards()));
-        lockManager.init(new TimeValue(5, TimeUnit.SECONDS));
-        this.lockManager = lockManager;
+        if (Configuration.getInstance().getBooleanProperty(CoreConfig.SHARD_LEASE_MODE_ENABLED)) {
+            ZKShardLeaseManager leaseManager = new ZKShardLeaseManager(zookeeperCluster, new HashSet<Integer>(shardStateManager.getManagedShards()));
+            leaseManager.init(new TimeValue(5, TimeUnit.SECONDS));
+            this.lockManager = leaseManager;
+        } else {
+            ZKShardLockManager lockManager = new ZKShardLockManager(zookeeperCluster, new HashSet<Integer>(shardStateManager.getManagedShards()));
+            lockManager.setShardLoadProvider(this);
+            lockManager.init(new TimeValue(5, TimeUnit.SECONDS));
+            this.lockManager = lockManager;
+        }
         this.clock = new DefaultClockImpl();
         registerMBean();
     }
@@ -430,6 +437,30 @@ public class ScheduleContext implements IngestionContext, ScheduleContextMBean {
         }
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Map<Integer, Integer> getShardLoads() {
+        final Map<Integer, Integer> loads = new HashMap<Integer, Integer>();
+        synchronized (scheduledSlots) {
+            synchronized (runningSlots) {
+                for (SlotKey key : scheduledSlots) {
+                    incrementLoad(loads, key.getShard());
+                }
+                for (SlotKey key : runningSlots.keySet()) {
+                    incrementLoad(loads, key.getShard());
+                }
+            }
+        }
+        return loads;
+    }
+
+    private static void incrementLoad(Map<Integer, Integer> loads, int shard) {
+        Integer load = loads.get(shard);
+        loads.put(shard, load == null ? 1 : load + 1);
+    }
+
     public Map<Integer, UpdateStamp> getSlotStamps(Granularity gran, int shard) {
         return shardStateManager.getSlotStateManager(shard, gran).getSlotStamps();
     }
@@ -0,0 +1,33 @@
+/*
+ * Copyright 2013 Rackspace
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.rackspacecloud.blueflood.service;
+
+import java.util.Map;
+
+/**
+ * Reports how much rollup work is pending on each shard of this node. Used by
+ * {@link ZKShardLockManager} to balance shard ownership across rollup nodes.
+ */
+public interface ShardLoadProvider {
+
+    /**
+     * @return a map of shard to the number of slots that are currently
+     * scheduled or running for that shard. Shards without pending work may
+     * be omitted.
+     */
+    public Map<Integer, Integer> getShardLoads();
+}
@@ -0,0 +1,587 @@
+/*
+ * Copyright 2013 Rackspace
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.rackspacecloud.blueflood.service;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.annotations.VisibleForTesting;
+import com.rackspacecloud.blueflood.utils.Metrics;
+import com.rackspacecloud.blueflood.utils.TimeValue;
+import org.apache.curator.RetryPolicy;
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.CuratorFrameworkFactory;
+import org.apache.curator.framework.api.CuratorWatcher;
+import org.apache.curator.framework.api.transaction.CuratorTransaction;
+import org.apache.curator.framework.api.transaction.CuratorTransactionFinal;
+import org.apache.curator.framework.imps.CuratorFrameworkState;
+import org.apache.curator.framework.state.ConnectionState;
+import org.apache.curator.framework.state.ConnectionStateListener;
+import org.apache.curator.retry.ExponentialBackoffRetry;
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.WatchedEvent;
+import org.apache.zookeeper.Watcher;
+import org.apache.zookeeper.data.Stat;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A {@link ShardLockManager} that owns shards through leases instead of one
+ * {@link org.apache.curator.framework.recipes.locks.InterProcessMutex} per shard.
+ * <p>
+ *
+ * A lease is an ephemeral znode under {@code /leases} named after the shard and
+ * holding the id of the owning node. All unclaimed shards this node wants are
+ * created in a single zookeeper transaction, so claiming many shards costs one
+ * round trip. Leases disappear together with the owner's zookeeper session; every
+ * node watches the lease directory, and when leases vanish the orphaned shards are
+ * claimed after a random jitter so that surviving nodes do not all rush at once.
+ * <p>
+ *
+ * Each node claims at most its fair share (managed shards divided by live nodes) of
+ * orphaned shards per cycle. Shards that have stayed unclaimed for a whole claim
+ * interval are claimed regardless, so no shard is left without an owner.
+ * <p>
+ *
+ * A node that holds more than its fair share, e.g. because it was the first one up,
+ * releases the surplus after a random jitter, so that nodes that joined later can
+ * claim it. Only leases held for a minimum time are released, so shards don't
+ * bounce between nodes while members come and go.
+ */
+class ZKShardLeaseManager implements ConnectionStateListener, ShardLockManager, ZKShardLeaseManagerMBean {
+    private static final Logger log = LoggerFactory.getLogger(ZKShardLeaseManager.class);
+    private static final AtomicInteger UNIQUE_IDENTIFIER = new AtomicInteger(0);
+
+    private final Random rand = new Random(System.currentTimeMillis());
+    /** Unique identifier for this object, used to identify the MBean. */
+    private final int id = UNIQUE_IDENTIFIER.getAndIncrement();
+    /** Zookeeper client. */
+    private final CuratorFramework client;
+    private final String ZK_NAMESPACE = "locks/blueflood";
+    private final String LEASE_QUALIFIER = "/leases";
+    private final String MEMBER_QUALIFIER = "/members";
+    private final Charset CHARSET = Charset.forName("UTF-8");
+    private final long ZK_CONN_TIMEOUT_MS = new TimeValue(5L, TimeUnit.SECONDS).toMillis();
+    private final long ZK_RETRY_INTERVAL = new TimeValue(50L, TimeUnit.MILLISECONDS).toMillis();
+    private final int ZK_MAX_RETRIES = 2;
+    /** Identifies this node's leases and membership znode. */
+    private final String nodeId = ManagementFactory.getRuntimeMXBean().getName() + "-" + id;
+
+    private final Set<Integer> managedShards = Collections.newSetFromMap(new ConcurrentHashMap<Integer, Boolean>());
+    private final Set<Integer> heldShards = Collections.newSetFromMap(new ConcurrentHashMap<Integer, Boolean>());
+    /** When this node claimed each of the shards it holds. */
+    private final Map<Integer, Long> heldSince = new ConcurrentHashMap<Integer, Long>();
+    /** Shards that were unclaimed by anyone at the end of the last claim cycle, and since when. */
+    private final Map<Integer, Long> unclaimedSince = new HashMap<Integer, Long>();
+
+    private final TimeValue claimInterval;
+    private final int maxLeasesPerClaim;
+    private volatile long claimJitterMillis;
+    private volatile long minHoldMillis;
+
+    /** true if we're connected to zookeeper. */
+    private volatile boolean connected = false;
+    /** true while a watch-triggered claim is waiting to run. */
+    private final AtomicBoolean claimPending = new AtomicBoolean(false);
+    /** true while a release of the shards above our fair share is waiting to run. */
+    private final AtomicBoolean releasePending = new AtomicBoolean(false);
+
+    private final ScheduledThreadPoolExecutor claimWorker = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "ZK Lease Worker " + id);
+            t.setDaemon(true);
+            return t;
+        }
+    });
+
+    private final com.codahale.metrics.Timer leaseClaimTimer = Metrics.timer(ZKShardLeaseManager.class, "Lease claim timer");
+    private final Meter leaseClaimConflicts = Metrics.meter(ZKShardLeaseManager.class, "Lease claim conflicts");
+    private final Meter leasesClaimed = Metrics.meter(ZKShardLeaseManager.class, "Leases claimed");
+    private final Meter leasesLost = Metrics.meter(ZKShardLeaseManager.class, "Leases lost");
+    private final Meter leasesRebalanced = Metrics.meter(ZKShardLeaseManager.class, "Leases released to rebalance");
+    private final Meter leaseErrors = Metrics.meter(ZKShardLeaseManager.class, "Lease errors");
+
+    /** Claims orphaned shards whenever a lease or a member goes away. */
+    private final CuratorWatcher leaseWatcher = new CuratorWatcher() {
+        @Override
+        public void process(WatchedEvent event) throws Exception {
+            if (event.getType() == Watcher.Event.EventType.NodeChildrenChanged) {
+                scheduleClaim(claimJitterMillis);
+            }
+        }
+    };
+
+    ZKShardLeaseManager(String zookeeperCluster, Set<Integer> managedShards) {
+        try {
+            final MBeanServer mbs = ManagementFactory.getPlatformMBeanServer();
+            final String name = String.format("com.rackspacecloud.blueflood.service:type=%s", getClass().getSimpleName() + (id == 0 ? "" : id));
+            final ObjectName nameObj = new ObjectName(name);
+            mbs.registerMBean(this, nameObj);
+            registerMetrics(Metrics.getRegistry());
+        } catch (Exception exc) {
+            log.error("Unable to register mbean for " + getClass().getSimpleName(), exc);
+        }
+
+        Configuration config = Configuration.getInstance();
+        this.managedShards.addAll(managedShards);
+        this.claimInterval = new TimeValue(config.getLongProperty(CoreConfig.SHARD_LOCK_SCAVENGE_INTERVAL_MS), TimeUnit.MILLISECONDS);
+        this.maxLeasesPerClaim = config.getIntegerProperty(CoreConfig.SHARD_LEASE_MAX_PER_CLAIM);
+        this.claimJitterMillis = config.getLongProperty(CoreConfig.SHARD_LEASE_CLAIM_JITTER_MS);
+        this.minHoldMillis = config.getLongProperty(CoreConfig.SHARD_LEASE_MIN_HOLD_MS);
+
+        RetryPolicy policy = new ExponentialBackoffRetry((int)ZK_RETRY_INTERVAL, ZK_MAX_RETRIES);
+        this.client = CuratorFrameworkFactory.
+                builder().namespace(ZK_NAMESPACE)
+                .connectString(zookeeperCluster)
+                .sessionTimeoutMs(config.getIntegerProperty(CoreConfig.SHARD_LEASE_SESSION_TIMEOUT_MS))
+                .connectionTimeoutMs((int) ZK_CONN_TIMEOUT_MS)
+                .retryPolicy(policy).build();
+        this.client.getConnectionStateListenable().addListener(this);  // register our listener
+        this.client.start();
+    }
+
+    private void registerMetrics(MetricRegistry reg) {
+        reg.register(MetricRegistry.name(ZKShardLeaseManager.class, "Held Shards"),
+                new Gauge<Integer>() {
+                    @Override
+                    public Integer getValue() {
+                        return heldShards.size();
+                    }
+                });
+    }
+
+    /**
+     * Initialize the ZKShardLeaseManager.
+     * @param zkWaitTime Time to wait until zookeeper is up.
+     */
+    public void init(TimeValue zkWaitTime) {
+        waitForZKConnections(zkWaitTime.toSeconds());
+        claimLeases();
+        claimWorker.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                claimLeases();
+            }
+        }, claimInterval.toMillis(), claimInterval.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Waits until the zookeeper connection is available.
+     * @param waitTimeSeconds
+     */
+    @VisibleForTesting boolean waitForZKConnections(long waitTimeSeconds) {
+        for (int i = 0; i < waitTimeSeconds; i++) {
+            if (connected) {
+                return connected;
+            }
+            log.debug("Waiting for connect");
+            try { Thread.sleep(1000); } catch (InterruptedException ex) {}
+        }
+        return connected;
+    }
+
+    /**
+     * Determines whether a given shard can be worked on by this blueflood instance.
+     */
+    public boolean canWork(int shard) {
+        return connected && heldShards.contains(shard);
+    }
+
+    public void addShard(int shard) {
+        if (managedShards.add(shard)) {
+            scheduleClaim(0);
+        }
+    }
+
+    public void removeShard(int shard) {
+        if (managedShards.remove(shard)) {
+            release(shard);
+        }
+    }
+
+    private String getLeaseId(int shard) {
+        return LEASE_QUALIFIER + "/" + shard;
+    }
+
+    private void scheduleClaim(long jitterMillis) {
+        if (!claimPending.compareAndSet(false, true)) {
+            return;
+        }
+        long delay = jitterMillis <= 0 ? 0 : (long) (rand.nextDouble() * jitterMillis);
+        claimWorker.schedule(new Runnable() {
+            @Override
+            public void run() {
+                claimPending.set(false);
+                claimLeases();
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    private void scheduleRelease(long jitterMillis) {
+        if (!releasePending.compareAndSet(false, true)) {
+            return;
+        }
+        long delay = jitterMillis <= 0 ? 0 : (long) (rand.nextDouble() * jitterMillis);
+        claimWorker.schedule(new Runnable() {
+            @Override
+            public void run() {
+                releasePending.set(false);
+                releaseSurplus();
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    private int getFairShare(int members) {
+        return (int) Math.ceil((double) managedShards.size() / Math.max(1, members));
+    }
+
+    /**
+     * Reconciles the leases this node thinks it holds with zookeeper, then claims
+     * unowned shards in one transaction. If this node holds more than its fair
+     * share, the surplus is released after a jitter.
+     */
+    @VisibleForTesting
+    synchronized void claimLeases() {
+        if (!isConnected()) {
+            return;
+        }
+        com.codahale.metrics.Timer.Context ctx = leaseClaimTimer.time();
+        try {
+            ensurePath(LEASE_QUALIFIER);
+            ensureMembership();
+
+            // re-arm the watches; a vanished lease or member triggers the next claim.
+            final int members = client.getChildren().usingWatcher(leaseWatcher).forPath(MEMBER_QUALIFIER).size();
+            final Set<Integer> leased = new HashSet<Integer>();
+            for (String child : client.getChildren().usingWatcher(leaseWatcher).forPath(LEASE_QUALIFIER)) {
+                try {
+                    leased.add(Integer.parseInt(child));
+                } catch (NumberFormatException ex) {
+                    log.warn("Ignoring unexpected lease " + child);
+                }
+            }
+
+            verifyHeldLeases(leased);
+            recoverOwnLeases(leased);
+
+            final List<Integer> unclaimed = new ArrayList<Integer>();
+            for (int shard : managedShards) {
+                if (!leased.contains(shard)) {
+                    unclaimed.add(shard);
+                }
+            }
+            Collections.shuffle(unclaimed);
+
+            final long now = System.currentTimeMillis();
+            final int fairShare = getFairShare(members);
+            final List<Integer> toClaim = new ArrayList<Integer>();
+            final List<Integer> abandonedClaims = new ArrayList<Integer>();
+            for (int shard : unclaimed) {
+                if (toClaim.size() >= maxLeasesPerClaim) {
+                    break;
+                }
+                Long since = unclaimedSince.get(shard);
+                boolean abandoned = since != null && now - since >= claimInterval.toMillis();
+                if (heldShards.size() + toClaim.size() < fairShare) {
+                    toClaim.add(shard);
+                } else if (abandoned) {
+                    toClaim.add(shard);
+                    abandonedClaims.add(shard);
+                }
+            }
+
+            if (!toClaim.isEmpty() && commitLeases(toClaim)) {
+                unclaimed.removeAll(toClaim);
+                // no other node wanted these for a whole interval, so releasing them would only leave them unowned.
+                heldSince.keySet().removeAll(abandonedClaims);
+            }
+            unclaimedSince.keySet().retainAll(unclaimed);
+            for (int shard : unclaimed) {
+                if (!unclaimedSince.containsKey(shard)) {
+                    unclaimedSince.put(shard, now);
+                }
+            }
+
+            if (heldShards.size() > fairShare) {
+                scheduleRelease(claimJitterMillis);
+            }
+        } catch (Exception ex) {
+            log.error("Error while claiming leases", ex);
+            leaseErrors.mark();
+        } finally {
+            ctx.stop();
+        }
+    }
+
+    /**
+     * Releases the leases this node holds above its fair share, of those it has
+     * held for at least the minimum hold time, so that other nodes can claim them.
+     * Shards that were claimed because nobody else did are kept.
+     */
+    @VisibleForTesting
+    synchronized void releaseSurplus() {
+        if (!isConnected()) {
+            return;
+        }
+        try {
+            final int members = client.getChildren().forPath(MEMBER_QUALIFIER).size();
+            final int surplus = Math.min(heldShards.size() - getFairShare(members), maxLeasesPerClaim);
+            if (surplus <= 0) {
+                return;
+            }
+
+            final long now = System.currentTimeMillis();
+            final List<Integer> releasable = new ArrayList<Integer>();
+            for (int shard : heldShards) {
+                Long since = heldSince.get(shard);
+                if (since != null && now - since >= minHoldMillis) {
+                    releasable.add(shard);
+                }
+            }
+            Collections.shuffle(releasable);
+
+            final List<Integer> released = new ArrayList<Integer>();
+            for (int shard : releasable.subList(0, Math.min(surplus, releasable.size()))) {
+                if (release(shard)) {
+                    released.add(shard);
+                }
+            }
+            if (!released.isEmpty()) {
+                leasesRebalanced.mark(released.size());
+                log.info("Released leases for shards {} to rebalance", released);
+            }
+        } catch (Exception ex) {
+            log.error("Error while releasing leases", ex);
+            leaseErrors.mark();
+        }
+    }
+
+    /**
+     * Drops any lease we believe we hold which zookeeper no longer has, e.g. after our
+     * session expired and was replaced.
+     */
+    private void verifyHeldLeases(Set<Integer> leased) throws Exception {
+        for (int shard : new ArrayList<Integer>(heldShards)) {
+            boolean ours = false;
+            if (leased.contains(shard)) {
+                try {
+                    ours = nodeId.equals(new String(client.getData().forPath(getLeaseId(shard)), CHARSET));
+                } catch (KeeperException.NoNodeException ex) {
+                    ours = false;
+                }
+            }
+            if (!ours) {
+                log.warn("Lost lease for shard={}", shard);
+                leasesLost.mark();
+                heldShards.remove(shard);
+                heldSince.remove(shard);
+            }
+        }
+    }
+
+    /**
+     * Takes back the leases zookeeper still has for this node but we no longer count
+     * as held, e.g. after a LOST connection whose session survived. Nobody else can
+     * claim those shards while the znodes exist. Leases left over from an earlier
+     * session of ours are deleted, so the shards can be claimed again right away.
+     */
+    private void recoverOwnLeases(Set<Integer> leased) throws Exception {
+        final long sessionId = client.getZookeeperClient().getZooKeeper().getSessionId();
+        for (int shard : managedShards) {
+            if (!leased.contains(shard) || heldShards.contains(shard)) {
+                continue;
+            }
+            Stat stat = new Stat();
+            byte[] owner;
+            try {
+                owner = client.getData().storingStatIn(stat).forPath(getLeaseId(shard));
+            } catch (KeeperException.NoNodeException ex) {
+                leased.remove(shard);
+                continue;
+            }
+            if (!nodeId.equals(new String(owner, CHARSET))) {
+                continue;
+            }
+            if (stat.getEphemeralOwner() == sessionId) {
+                log.info("Recovered lease for shard={}", shard);
+                heldShards.add(shard);
+                heldSince.put(shard, System.currentTimeMillis());
+            } else {
+                log.info("Deleting lease of an earlier session for shard={}", shard);
+                try {
+                    client.delete().withVersion(stat.getVersion()).forPath(getLeaseId(shard));
+                } catch (KeeperException.NoNodeException ignore) {
+                    // the old session just expired.
+                }
+                leased.remove(shard);
+            }
+        }
+    }
+
+    /**
+     * Creates the lease znodes for all given shards in one transaction.
+     * @return true if every lease was created; on a conflict nothing is created.
+     */
+    private boolean commitLeases(List<Integer> shards) throws Exception {
+        final byte[] owner = nodeId.getBytes(CHARSET);
+        CuratorTransaction tx = client.inTransaction();
+        CuratorTransactionFinal txFinal = null;
+        for (int shard : shards) {
+            txFinal = tx.create().withMode(CreateMode.EPHEMERAL).forPath(getLeaseId(shard), owner).and();
+            tx = txFinal;
+        }
+        try {
+            txFinal.commit();
+        } catch (KeeperException.NodeExistsException ex) {
+            // another node claimed one of the shards first. try again after a jitter.
+            log.debug("Lease conflict while claiming {} shards", shards.size());
+            leaseClaimConflicts.mark();
+            scheduleClaim(claimJitterMillis);
+            return false;
+        }
+        final long now = System.currentTimeMillis();
+        for (int shard : shards) {
+            heldSince.put(shard, now);
+        }
+        heldShards.addAll(shards);
+        leasesClaimed.mark(shards.size());
+        log.info("Claimed leases for shards {}", shards);
+        return true;
+    }
+
+    @VisibleForTesting
+    void ensureMembership() throws Exception {
+        try {
+            client.create().creatingParentsIfNeeded().withMode(CreateMode.EPHEMERAL)
+                    .forPath(MEMBER_QUALIFIER + "/" + nodeId);
+        } catch (KeeperException.NodeExistsException ignore) {
+            // already a member in this session.
+        }
+    }
+
+    private void ensurePath(String path) throws Exception {
+        try {
+            client.create().creatingParentsIfNeeded().forPath(path);
+        } catch (KeeperException.NodeExistsException ignore) {
+            // created by us or another node.
+        }
+    }
+
+    public void stateChanged(CuratorFramework curatorFramework, ConnectionState connectionState) {
+        log.info("Connection to Zookeeper toggled to state " + connectionState.toString());
+        connected = connectionState == ConnectionState.CONNECTED || connectionState == ConnectionState.RECONNECTED;
+        if (connectionState == ConnectionState.LOST) {
+            // the session is gone and our ephemeral leases with it.
+            log.error("Connection to Zookeeper lost, dropping {} leases", heldShards.size());
+            leasesLost.mark(heldShards.size());
+            heldShards.clear();
+            heldSince.clear();
+        } else if (connected) {
+            // leases survive a reconnect within the session timeout; verify and fill in the rest.
+            scheduleClaim(0);
+        }
+    }
+
+    public boolean isConnected() {
+        return connected && isCuratorStarted() && client.getZookeeperClient().isConnected();
+    }
+
+    private boolean isCuratorStarted() {
+        return client.getState() == CuratorFrameworkState.STARTED;
+    }
+
+    @VisibleForTesting
+    void shutdownUnsafe() throws Exception {
+        claimWorker.shutdownNow();
+        client.close();
+        heldShards.clear();
+        heldSince.clear();
+    }
+
+    //
+    // JMX
+    //
+
+    public Collection<Integer> getHeldShards() {
+        SortedSet<Integer> held = new TreeSet<Integer>(heldShards);
+        return held;
+    }
+
+    public synchronized Collection<Integer> getUnclaimedShards() {
+        return new TreeSet<Integer>(unclaimedSince.keySet());
+    }
+
+    public void forceLeaseClaim() {
+        claimLeases();
+    }
+
+    public synchronized String getZkConnectionStatus() {
+        if (!isCuratorStarted())
+            return "not started";
+        else if (client.getZookeeperClient().isConnected())
+            return "connected";
+        else
+            return "not connected";
+    }
+
+    public long getClaimJitterMillis() { return claimJitterMillis; }
+    public void setClaimJitterMillis(long millis) { claimJitterMillis = millis; }
+
+    public long getMinHoldMillis() { return minHoldMillis; }
+    public void setMinHoldMillis(long millis) { minHoldMillis = millis; }
+
+    public synchronized boolean release(int shard) {
+        if (!heldShards.remove(shard)) {
+            return false;
+        }
+        heldSince.remove(shard);
+        try {
+            client.delete().forPath(getLeaseId(shard));
+            return true;
+        } catch (KeeperException.NoNodeException ex) {
+            return false;
+        } catch (Exception ex) {
+            log.error("Release error for shard=" + shard + ": " + ex.getMessage(), ex);
+            leaseErrors.mark();
+            return false;
+        }
+    }
+}
@@ -0,0 +1,35 @@
+/*
+ * Copyright 2013 Rackspace
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.rackspacecloud.blueflood.service;
+
+import java.util.Collection;
+
+public interface ZKShardLeaseManagerMBean {
+    public Collection<Integer> getHeldShards();
+    public Collection<Integer> getUnclaimedShards();
+
+    public long getClaimJitterMillis();
+    public void setClaimJitterMillis(long millis);
+
+    public long getMinHoldMillis();
+    public void setMinHoldMillis(long millis);
+
+    public void forceLeaseClaim();
+    public String getZkConnectionStatus();
+
+    public boolean release(int shard);
+}
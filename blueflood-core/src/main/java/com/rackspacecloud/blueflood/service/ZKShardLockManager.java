@@ -35,16 +35,21 @@ import org.apache.curator.framework.recipes.locks.InterProcessMutex;
 import org.apache.curator.framework.state.ConnectionState;
 import org.apache.curator.framework.state.ConnectionStateListener;
 import org.apache.curator.retry.ExponentialBackoffRetry;
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.KeeperException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.management.MBeanServer;
 import javax.management.ObjectName;
 import java.lang.management.ManagementFactory;
+import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Random;
 import java.util.Set;
 import java.util.SortedSet;
@@ -71,6 +76,8 @@ class ZKShardLockManager implements ConnectionStateListener, ShardLockManager, Z
     private final CuratorFramework client;
     private final String ZK_NAMESPACE = "locks/blueflood";
     private final String LOCK_QUALIFIER = "/shards";
+    private final String LOAD_QUALIFIER = "/load";
+    private final Charset LOAD_CHARSET = Charset.forName("UTF-8");
     private final long ZK_SESSION_TIMEOUT_MS = new TimeValue(120L, TimeUnit.SECONDS).toMillis();
     private final long ZK_CONN_TIMEOUT_MS = new TimeValue(5L, TimeUnit.SECONDS).toMillis();
     private final long ZK_RETRY_INTERVAL = new TimeValue(50L, TimeUnit.MILLISECONDS).toMillis();
@@ -80,10 +87,20 @@ class ZKShardLockManager implements ConnectionStateListener, ShardLockManager, Z
     private final TimeValue shardLockScavengeInterval;
     private final int defaultMaxLocksToAcquirePerCycle;
     private final Ticker ticker = Ticker.systemTicker();
+    /** Identifies this node's load znode among the other rollup nodes. */
+    private final String nodeId = ManagementFactory.getRuntimeMXBean().getName() + "-" + id;
 
     // modifiable properties.
     private TimeValue minLockHoldTime;
     private TimeValue lockDisinterestedTime;
+    private TimeValue drainPeriod;
+    private volatile boolean loadBalancingEnabled;
+    private volatile float loadTolerance;
+
+    /** Source of per-shard rollup load. Only used when load balancing is enabled. */
+    private volatile ShardLoadProvider shardLoadProvider = null;
+    /** Load this node published during the last scavenge. */
+    private volatile long nodeLoad = 0;
 
     /** true if we're connected to zookeeper. */
     private volatile boolean connected = false;
@@ -106,6 +123,7 @@ class ZKShardLockManager implements ConnectionStateListener, ShardLockManager, Z
     private final Meter lockAcquisitionFailure = Metrics.meter(ZKShardLockManager.class, "Lock acquisition failures");
     private final com.codahale.metrics.Timer lockAcquisitionTimer = Metrics.timer(ZKShardLockManager.class, "Lock acquisition timer");
     private final Meter lockErrors = Metrics.meter(ZKShardLockManager.class, "Lock errors");
+    private final Meter lockDrains = Metrics.meter(ZKShardLockManager.class, "Lock drains for rebalancing");
 
     ZKShardLockManager(String zookeeperCluster, Set<Integer> managedShards) {
         try {
@@ -139,6 +157,9 @@ class ZKShardLockManager implements ConnectionStateListener, ShardLockManager, Z
         this.shardLockScavengeInterval = new TimeValue(config.getLongProperty(CoreConfig.SHARD_LOCK_SCAVENGE_INTERVAL_MS),
                 TimeUnit.MILLISECONDS);
         this.defaultMaxLocksToAcquirePerCycle = config.getIntegerProperty(CoreConfig.MAX_ZK_LOCKS_TO_ACQUIRE_PER_CYCLE);
+        this.loadBalancingEnabled = config.getBooleanProperty(CoreConfig.SHARD_LOCK_LOAD_BALANCING_ENABLED);
+        this.loadTolerance = config.getFloatProperty(CoreConfig.SHARD_LOCK_LOAD_TOLERANCE);
+        this.drainPeriod = new TimeValue(config.getLongProperty(CoreConfig.SHARD_LOCK_DRAIN_PERIOD_MS), TimeUnit.MILLISECONDS);
         this.lockWorker = new ThreadPoolBuilder()
                 .withCorePoolSize(1)
                 .withMaxPoolSize(1)
@@ -192,6 +213,15 @@ class ZKShardLockManager implements ConnectionStateListener, ShardLockManager, Z
                         return getErrorShards().size();
                     }
                 });
+        reg.register(MetricRegistry.name(ZKShardLockManager.class, "Draining Shards"),
+                new Gauge<Integer>() {
+                    @Override
+                    public Integer getValue() {
+                        return getDrainingShards().size();
+                    }
+                });
+        reg.register(MetricRegistry.name(ZKShardLockManager.class, "Node Load"),
+                new JmxAttributeGauge(nameObj, "NodeLoad"));
     }
 
     /**
@@ -285,6 +315,14 @@ class ZKShardLockManager implements ConnectionStateListener, ShardLockManager, Z
         return  LOCK_QUALIFIER + "/" + shard;
     }
 
+    private String getLoadId() {
+        return LOAD_QUALIFIER + "/" + nodeId;
+    }
+
+    public void setShardLoadProvider(ShardLoadProvider shardLoadProvider) {
+        this.shardLoadProvider = shardLoadProvider;
+    }
+
     // This is called when connection to zookeeper is lost
     private void handleZookeeperConnectionFailed() {
         // It is okay for us to proceed with the work we already scheduled (either running or in scheduled queue)
@@ -316,11 +354,27 @@ class ZKShardLockManager implements ConnectionStateListener, ShardLockManager, Z
             if (locksHeld <= moreThanHalf()) {
                 maxLocksToAcquirePerCycle = moreThanHalf();
             }
-            // shouldAttempt
+
+            // an underloaded node holds on to what it has, and an overloaded node
+            // stops acquiring and hands one shard off to its peers.
+            boolean shouldRelease = true;
+            if (loadBalancingEnabled) {
+                switch (rebalance()) {
+                    case UNDERLOADED:
+                        maxLocksToAcquirePerCycle = Math.max(maxLocksToAcquirePerCycle, moreThanHalf());
+                        shouldRelease = false;
+                        break;
+                    case OVERLOADED:
+                        maxLocksToAcquirePerCycle = 0;
+                        break;
+                    default:
+                        break;
+                }
+            }
 
             for (int shard : shards) {
                 boolean shouldAttempt = locksAcquiredThisCycle < maxLocksToAcquirePerCycle;
-                boolean isAcquired = locks.get(shard).performMaintenance(shouldAttempt);
+                boolean isAcquired = locks.get(shard).performMaintenance(shouldAttempt, shouldRelease);
                 if (isAcquired) {
                     locksAcquiredThisCycle++;
                 }
@@ -333,6 +387,115 @@ class ZKShardLockManager implements ConnectionStateListener, ShardLockManager, Z
         }
     }
 
+    /**
+     * Publishes the load of this node and compares it to the average load of all
+     * rollup nodes. When this node carries more than its share, the held shard whose
+     * load best matches the excess starts draining: no new slots are scheduled for it,
+     * and its lock is released after {@link #drainPeriod} so that a less loaded node
+     * can pick it up.
+     */
+    private NodeLoadState rebalance() {
+        final Map<Integer, Long> shardWeights = getHeldShardWeights();
+        long load = 0;
+        for (long weight : shardWeights.values()) {
+            load += weight;
+        }
+        nodeLoad = load;
+
+        if (!publishLoad(load)) {
+            return NodeLoadState.BALANCED;
+        }
+        final List<Long> clusterLoads = readClusterLoads();
+        if (clusterLoads.size() < 2) {
+            return NodeLoadState.BALANCED;
+        }
+        long total = 0;
+        for (long clusterLoad : clusterLoads) {
+            total += clusterLoad;
+        }
+        final double average = (double) total / clusterLoads.size();
+        log.debug("Node load is {}, cluster average is {}", load, average);
+
+        if (load < average * (1 - loadTolerance)) {
+            return NodeLoadState.UNDERLOADED;
+        } else if (load <= average * (1 + loadTolerance)) {
+            return NodeLoadState.BALANCED;
+        }
+
+        if (getDrainingShards().isEmpty() && shardWeights.size() > 1) {
+            final double excess = load - average;
+            Integer shardToDrain = null;
+            long drainWeight = 0;
+            for (Map.Entry<Integer, Long> entry : shardWeights.entrySet()) {
+                if (entry.getValue() <= excess && entry.getValue() > drainWeight) {
+                    shardToDrain = entry.getKey();
+                    drainWeight = entry.getValue();
+                }
+            }
+            if (shardToDrain != null) {
+                log.info(String.format("Node load %d exceeds cluster average %.2f, draining shard=%d",
+                        load, average, shardToDrain));
+                locks.get(shardToDrain).drain();
+            }
+        }
+        return NodeLoadState.OVERLOADED;
+    }
+
+    /**
+     * Each held shard weighs one, plus the number of its slots that are scheduled or running.
+     */
+    private Map<Integer, Long> getHeldShardWeights() {
+        final ShardLoadProvider provider = shardLoadProvider;
+        final Map<Integer, Integer> shardLoads = provider == null ? Collections.<Integer, Integer>emptyMap() : provider.getShardLoads();
+        final Map<Integer, Long> weights = new HashMap<Integer, Long>();
+        for (Lock lock : locks.values()) {
+            if (lock.isHeld()) {
+                Integer shardLoad = shardLoads.get(lock.getShard());
+                weights.put(lock.getShard(), 1L + (shardLoad == null ? 0 : shardLoad));
+            }
+        }
+        return weights;
+    }
+
+    private boolean publishLoad(long load) {
+        if (!isConnected()) {
+            return false;
+        }
+        final byte[] data = String.valueOf(load).getBytes(LOAD_CHARSET);
+        try {
+            try {
+                client.setData().forPath(getLoadId(), data);
+            } catch (KeeperException.NoNodeException ex) {
+                // first publish, or our session expired and took the ephemeral node with it.
+                client.create().creatingParentsIfNeeded().withMode(CreateMode.EPHEMERAL).forPath(getLoadId(), data);
+            }
+            return true;
+        } catch (Exception ex) {
+            log.warn("Unable to publish load to zookeeper: " + ex.getMessage());
+            return false;
+        }
+    }
+
+    private List<Long> readClusterLoads() {
+        final List<Long> loads = new ArrayList<Long>();
+        try {
+            for (String node : client.getChildren().forPath(LOAD_QUALIFIER)) {
+                try {
+                    byte[] data = client.getData().forPath(LOAD_QUALIFIER + "/" + node);
+                    loads.add(Long.parseLong(new String(data, LOAD_CHARSET)));
+                } catch (KeeperException.NoNodeException ex) {
+                    // node went away between listing and reading.
+                } catch (NumberFormatException ex) {
+                    log.warn("Ignoring malformed load for node " + node);
+                }
+            }
+        } catch (Exception ex) {
+            log.warn("Unable to read cluster load from zookeeper: " + ex.getMessage());
+            loads.clear();
+        }
+        return loads;
+    }
+
     public void stateChanged(CuratorFramework curatorFramework, ConnectionState connectionState) {
         log.info("Connection to Zookeeper toggled to state " + connectionState.toString());
         connected = connectionState == ConnectionState.CONNECTED || connectionState == ConnectionState.RECONNECTED;
@@ -439,6 +602,16 @@ class ZKShardLockManager implements ConnectionStateListener, ShardLockManager, Z
         return unheld;
     }
 
+    public synchronized Collection<Integer> getDrainingShards() {
+        SortedSet<Integer> draining = new TreeSet<Integer>();
+        for (Lock lock : locks.values()) {
+            if (lock.getLockState() == LockState.DRAINING) {
+                draining.add(lock.getShard());
+            }
+        }
+        return draining;
+    }
+
     public synchronized Collection<Integer> getErrorShards() {
         SortedSet<Integer> errorShards = new TreeSet<Integer>();
         for (Lock lock : locks.values()) {
@@ -497,6 +670,11 @@ class ZKShardLockManager implements ConnectionStateListener, ShardLockManager, Z
     public synchronized long getLockDisinterestedTimeMillis() { return lockDisinterestedTime.toMillis(); }
     public synchronized void setLockDisinterestedTimeMillis(long millis) { lockDisinterestedTime = new TimeValue(millis, TimeUnit.MILLISECONDS); }
     public synchronized long getSecondsSinceLastScavenge() { return ((nowMillis() - lastScavengedAt) / 1000); }
+    public synchronized long getDrainPeriodMillis() { return drainPeriod.toMillis(); }
+    public synchronized void setDrainPeriodMillis(long millis) { drainPeriod = new TimeValue(millis, TimeUnit.MILLISECONDS); }
+    public boolean isLoadBalancingEnabled() { return loadBalancingEnabled; }
+    public void setLoadBalancingEnabled(boolean enabled) { loadBalancingEnabled = enabled; }
+    public long getNodeLoad() { return nodeLoad; }
 
     //
     // Helper classes
@@ -515,7 +693,18 @@ class ZKShardLockManager implements ConnectionStateListener, ShardLockManager, Z
          */
         ERROR,
         /** The lock was voluntarily released. Will not attempt to acquire this lock during this time. */
-        DISINTERESTED
+        DISINTERESTED,
+        /**
+         * The lock is still held, but is being handed off to another instance. No new work is started on
+         * the shard, and the lock is released once the drain period has passed.
+         */
+        DRAINING
+    }
+
+    enum NodeLoadState {
+        UNDERLOADED,
+        BALANCED,
+        OVERLOADED
     }
 
     class Lock {
@@ -542,7 +731,7 @@ class ZKShardLockManager implements ConnectionStateListener, ShardLockManager, Z
         }
 
         int getShard() { return shard; }
-        boolean isHeld() { return connected && mutex != null && state == LockState.ACQUIRED; }
+        boolean isHeld() { return connected && mutex != null && (state == LockState.ACQUIRED || state == LockState.DRAINING); }
         boolean isUnheld() { return connected && mutex != null && state == LockState.ACQUIRE_FAILED; }
 
         /**
@@ -552,20 +741,25 @@ class ZKShardLockManager implements ConnectionStateListener, ShardLockManager, Z
          *     <li>Move the lock state to {@link LockState#UNKNOWN} if necessary.</li>
          *     <li>Attempt to hold the locks in UNKNOWN state.</li>
          *     <li>Attempt to release the locks that were held for too long.</li>
+         *     <li>Release the locks that have finished draining.</li>
          * </ul>
          *
          * @param shouldAttempt <code>true</code> if the lock should be attempted to be acquired.
+         * @param shouldRelease <code>true</code> if the lock may be released because it was held for too long.
          *
          * @return true if the lock was newly acquired during this cycle. otherwise false.
          */
-        boolean performMaintenance(boolean shouldAttempt) {
+        boolean performMaintenance(boolean shouldAttempt, boolean shouldRelease) {
             updateLockState();
 
             long now = nowMillis();
             if (state == LockState.UNKNOWN && shouldAttempt) {
                 acquire();
                 return isHeld();
-            } else if (state == LockState.ACQUIRED && (now - stateChanged) >= minLockHoldTime.toMillis()) {
+            } else if (state == LockState.DRAINING && (now - stateChanged) >= drainPeriod.toMillis()) {
+                log.info("Drained shard={}, releasing lock", shard);
+                release(false);
+            } else if (state == LockState.ACQUIRED && shouldRelease && (now - stateChanged) >= minLockHoldTime.toMillis()) {
                 // Lock was held for too long - maybe release to trigger re-balancing.
                 final float chance;
                 if (now == stateChanged) {
@@ -623,6 +817,16 @@ class ZKShardLockManager implements ConnectionStateListener, ShardLockManager, Z
             return state == LockState.ACQUIRED;
         }
 
+        /**
+         * Stop taking new work on this shard so that it can be handed off to another instance.
+         */
+        synchronized void drain() {
+            if (state == LockState.ACQUIRED) {
+                lockDrains.mark();
+                setState(LockState.DRAINING);
+            }
+        }
+
         /**
          * Triggered during the connection loss. Release the lease, and clear the mutex.
          */
@@ -728,7 +932,7 @@ class ZKShardLockManager implements ConnectionStateListener, ShardLockManager, Z
                         try {
                             checkMutex();
                             if (mutex.isAcquiredInThisProcess()) {
-                                if (state != LockState.ACQUIRED) {
+                                if (state != LockState.ACQUIRED && state != LockState.DRAINING) {
                                     log.error("Held lock not held by this process? shard={}.", shard);
                                 }
                                 mutex.release();
@@ -22,12 +22,20 @@ public interface ZKShardLockManagerMBean {
     public Collection<Integer> getHeldShards();
     public Collection<Integer> getUnheldShards();
     public Collection<Integer> getErrorShards();
+    public Collection<Integer> getDrainingShards();
     
     public long getMinLockHoldTimeMillis();
     public void setMinLockHoldTimeMillis(long millis);
     
     public long getLockDisinterestedTimeMillis();
     public void setLockDisinterestedTimeMillis(long millis);
+
+    public long getDrainPeriodMillis();
+    public void setDrainPeriodMillis(long millis);
+
+    public boolean isLoadBalancingEnabled();
+    public void setLoadBalancingEnabled(boolean enabled);
+    public long getNodeLoad();
     
     public void forceLockScavenge();
     public long getSecondsSinceLastScavenge();
@@ -0,0 +1,104 @@
+/*
+ * Copyright 2017 Rackspace
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+
+package com.rackspacecloud.blueflood.tools.ops;
+
+import com.google.common.util.concurrent.RateLimiter;
+
+/**
+ * Paces the writes of a tool to what the destination cluster keeps up with.
+ * <p>
+ *
+ * Writers take permits before every write and report how long it took. After
+ * every {@code window} writes the average latency is compared to the target:
+ * above it the rate is halved, below it the rate grows by a twentieth of the
+ * maximum rate, the way TCP backs off from congestion. A failed write halves
+ * the rate right away.
+ */
+public class AdaptiveRate {
+    private static final double DECREASE_FACTOR = 0.5;
+    private static final int INCREASE_STEPS = 20;
+
+    private final RateLimiter limiter;
+    private final double minRate;
+    private final double maxRate;
+    private final long targetLatencyMillis;
+    private final int window;
+
+    private long latencySum = 0;
+    private int samples = 0;
+
+    /**
+     * @param initialRate permits per second to start with
+     * @param minRate the rate never goes below this
+     * @param maxRate the rate never goes above this
+     * @param targetLatencyMillis the average write latency to stay under
+     * @param window the number of writes the average is taken over
+     */
+    public AdaptiveRate(double initialRate, double minRate, double maxRate, long targetLatencyMillis, int window) {
+        if (minRate <= 0 || minRate > maxRate) {
+            throw new IllegalArgumentException(String.format("invalid rate bounds %f to %f", minRate, maxRate));
+        }
+        this.minRate = minRate;
+        this.maxRate = maxRate;
+        this.targetLatencyMillis = targetLatencyMillis;
+        this.window = Math.max(1, window);
+        this.limiter = RateLimiter.create(bound(initialRate));
+    }
+
+    /**
+     * Waits until the given number of permits can be taken at the current rate.
+     */
+    public void acquire(int permits) {
+        if (permits > 0) {
+            limiter.acquire(permits);
+        }
+    }
+
+    public synchronized void record(long latencyMillis) {
+        latencySum += latencyMillis;
+        if (++samples < window) {
+            return;
+        }
+        long average = latencySum / samples;
+        latencySum = 0;
+        samples = 0;
+        if (average > targetLatencyMillis) {
+            decrease();
+        } else {
+            limiter.setRate(bound(limiter.getRate() + maxRate / INCREASE_STEPS));
+        }
+    }
+
+    public synchronized void recordFailure() {
+        latencySum = 0;
+        samples = 0;
+        decrease();
+    }
+
+    public double getRate() {
+        return limiter.getRate();
+    }
+
+    private void decrease() {
+        limiter.setRate(bound(limiter.getRate() * DECREASE_FACTOR));
+    }
+
+    private double bound(double rate) {
+        return Math.max(minRate, Math.min(maxRate, rate));
+    }
+}
@@ -0,0 +1,178 @@
+/*
+ * Copyright 2017 Rackspace
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.rackspacecloud.blueflood.tools.ops;
+
+import com.rackspacecloud.blueflood.io.datastax.DFullResBlockIO;
+import com.rackspacecloud.blueflood.io.datastax.DLocatorIO;
+import com.rackspacecloud.blueflood.service.Configuration;
+import com.rackspacecloud.blueflood.service.CoreConfig;
+import com.rackspacecloud.blueflood.rollup.Granularity;
+import com.rackspacecloud.blueflood.types.Locator;
+import com.rackspacecloud.blueflood.types.Range;
+import com.rackspacecloud.blueflood.utils.Util;
+import org.apache.commons.cli.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+
+/**
+ * Packs the full resolution points of every metric of a set of shards into
+ * compressed blocks of metrics_full_blocks, see {@link DFullResBlockIO}. Queries
+ * and rollups only see the packed points through the datastax driver with
+ * FULL_RES_BLOCKS_ENABLED set, so this refuses to run unless both are set; set
+ * them on the query and rollup nodes as well before running it.
+ * <p>
+ *
+ * Only time spans that are done being ingested should be compacted: it is
+ * safe to do so sooner, but points that come in afterwards stay one cell each
+ * until the block is compacted again.
+ */
+public class CompactFullResBlocks {
+    private static final Options cliOptions = new Options();
+    private static final GnuParser parser = new GnuParser();
+    private static final HelpFormatter helpFormatter = new HelpFormatter();
+    private static final String FROM = "from";
+    private static final String TO = "to";
+    private static final String SHARDS = "shards";
+    private static final String THREADS = "threads";
+    private static final String SCAN_THREADS = "scanThreads";
+    private static final String CHECKPOINT = "checkpoint";
+    private static final int LOCATOR_FETCH_SIZE = 1000;
+
+    static {
+        cliOptions.addOption(OptionBuilder.isRequired().hasArg(true)
+                .withDescription("Start timestamp (millis since epoch)").create(FROM));
+        cliOptions.addOption(OptionBuilder.isRequired().hasArg(true)
+                .withDescription("End timestamp (millis since epoch)").create(TO));
+        cliOptions.addOption(OptionBuilder.hasArg(true)
+                .withDescription("[optional] Shards to compact (comma separated, or ALL). Default ALL").create(SHARDS));
+        cliOptions.addOption(OptionBuilder.hasArg(true)
+                .withDescription("[optional] Number of metrics compacted in parallel. Default 16").create(THREADS));
+        cliOptions.addOption(OptionBuilder.hasArg(true)
+                .withDescription("[optional] Number of shards scanned in parallel. Default 4").create(SCAN_THREADS));
+        cliOptions.addOption(OptionBuilder.hasArg(true)
+                .withDescription("[optional] File to record completed shards in, so an interrupted run can be resumed")
+                .create(CHECKPOINT));
+    }
+
+    public static void main(String args[]) {
+        if (!DFullResBlockIO.isReadable()) {
+            System.err.println("Compacted points are only read with FULL_RES_BLOCKS_ENABLED set to true and " +
+                    "CASSANDRA_DRIVER set to datastax, but they are " +
+                    Configuration.getInstance().getStringProperty(CoreConfig.FULL_RES_BLOCKS_ENABLED) + " and " +
+                    Configuration.getInstance().getStringProperty(CoreConfig.CASSANDRA_DRIVER));
+            System.exit(2);
+        }
+
+        Map<String, Object> options = parseOptions(args);
+        Long from = (Long) options.get(FROM);
+        Long to = (Long) options.get(TO);
+
+        if (from >= to) {
+            System.err.println("End time " + to + " has to be greater than start time " + from);
+            System.exit(2);
+        }
+        final Range range = new Range(from, to);
+
+        @SuppressWarnings("unchecked")
+        Collection<Integer> shards = (Collection<Integer>) options.get(SHARDS);
+        int threads = (Integer) options.get(THREADS);
+        int scanThreads = (Integer) options.get(SCAN_THREADS);
+
+        ShardCheckpoint checkpoint = ShardCheckpoint.none();
+        try {
+            if (options.containsKey(CHECKPOINT)) {
+                checkpoint = ShardCheckpoint.open(new File((String) options.get(CHECKPOINT)),
+                        "CompactFullResBlocks from " + range.getStart() + " to " + range.getStop());
+                System.out.println("Resuming with " + checkpoint.getDoneCount() + " shards already compacted");
+            }
+        } catch (IOException ex) {
+            System.err.println("Unable to open checkpoint " + ex.getMessage());
+            System.exit(2);
+        }
+
+        final DLocatorIO locatorIO = new DLocatorIO();
+        final DFullResBlockIO blockIO = new DFullResBlockIO();
+        ParallelRollupRunner runner = new ParallelRollupRunner(
+                new ParallelRollupRunner.LocatorSource() {
+                    @Override
+                    public Iterable<Locator> getLocators(int shard) {
+                        return locatorIO.scanLocators(shard, LOCATOR_FETCH_SIZE);
+                    }
+                },
+                new ParallelRollupRunner.RollupWorkFactory() {
+                    @Override
+                    public Callable<?> create(final Locator locator, Granularity granularity) {
+                        return new Callable<Integer>() {
+                            @Override
+                            public Integer call() throws Exception {
+                                return blockIO.compact(locator, range);
+                            }
+                        };
+                    }
+                },
+                checkpoint, scanThreads, threads, threads * 100);
+
+        int exitCode = 0;
+        try {
+            System.out.println("Compacting full resolution points of " + shards.size() + " shards");
+            if (!runner.run(shards, Granularity.FULL)) {
+                System.err.println("Some metrics could not be compacted, see the log.");
+                exitCode = 1;
+            }
+        } catch (InterruptedException ex) {
+            exitCode = 1;
+        } finally {
+            runner.shutdown();
+            try {
+                checkpoint.close();
+            } catch (IOException ex) {
+                System.err.println("Unable to close checkpoint " + ex.getMessage());
+            }
+        }
+        System.exit(exitCode);
+    }
+
+    private static Map<String, Object> parseOptions(String[] args) {
+        CommandLine line;
+        final Map<String, Object> options = new HashMap<String, Object>();
+
+        try {
+            line = parser.parse(cliOptions, args);
+
+            options.put(FROM, new Long(line.getOptionValue(FROM)));
+            options.put(TO, new Long(line.getOptionValue(TO)));
+            options.put(SHARDS, Util.parseShards(line.hasOption(SHARDS) ? line.getOptionValue(SHARDS) : "ALL"));
+            options.put(THREADS, line.hasOption(THREADS) ? new Integer(line.getOptionValue(THREADS)) : 16);
+            options.put(SCAN_THREADS, line.hasOption(SCAN_THREADS) ? new Integer(line.getOptionValue(SCAN_THREADS)) : 4);
+
+            if (line.hasOption(CHECKPOINT)) {
+                options.put(CHECKPOINT, line.getOptionValue(CHECKPOINT));
+            }
+
+        } catch (ParseException ex) {
+            System.err.println("Parse exception " + ex.getMessage());
+            helpFormatter.printHelp("Compact Full Resolution Blocks", cliOptions);
+            System.exit(2);
+        }
+        return options;
+    }
+}
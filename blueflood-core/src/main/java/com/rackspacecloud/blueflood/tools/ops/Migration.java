@@ -49,6 +49,11 @@ import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 
+/**
+ * Copies a column family from one cluster to another through astyanax. For
+ * large copies, {@link TokenRangeMigration} can be resumed and paces itself
+ * to the destination.
+ */
 public class Migration {
     
     private static final Options cliOptions = new Options();
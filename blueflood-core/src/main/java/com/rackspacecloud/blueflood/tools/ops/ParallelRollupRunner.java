@@ -0,0 +1,213 @@
+/*
+ * Copyright 2017 Rackspace
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.rackspacecloud.blueflood.tools.ops;
+
+import com.codahale.metrics.Meter;
+import com.rackspacecloud.blueflood.concurrent.ThreadPoolBuilder;
+import com.rackspacecloud.blueflood.rollup.Granularity;
+import com.rackspacecloud.blueflood.types.Locator;
+import com.rackspacecloud.blueflood.utils.Metrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Rolls up every locator of a set of shards, for the rollup tools.
+ * <p>
+ *
+ * Shards are scanned in parallel, each by its own scan thread that streams
+ * the shard's locators from a {@link LocatorSource}. Every locator becomes a
+ * unit of rollup work that is handed to a separate pool of rollup threads;
+ * at most {@code maxPendingRollups} units are queued or running at a time,
+ * and a scan thread waits for room before reading further. Once every
+ * locator of a shard has been rolled up without errors, the shard is marked
+ * done in the {@link ShardCheckpoint}, and a later run with the same
+ * checkpoint skips it.
+ */
+public class ParallelRollupRunner {
+    private static final Logger log = LoggerFactory.getLogger(ParallelRollupRunner.class);
+
+    private static final Meter locatorsScanned = Metrics.meter(ParallelRollupRunner.class, "Locators Scanned");
+    private static final Meter rollupsCompleted = Metrics.meter(ParallelRollupRunner.class, "Rollups Completed");
+    private static final Meter rollupsFailed = Metrics.meter(ParallelRollupRunner.class, "Rollups Failed");
+    private static final Meter shardsCompleted = Metrics.meter(ParallelRollupRunner.class, "Shards Completed");
+
+    /**
+     * Where the locators of a shard come from.
+     */
+    public interface LocatorSource {
+        Iterable<Locator> getLocators(int shard) throws IOException;
+    }
+
+    /**
+     * Creates the rollup work for one locator.
+     */
+    public interface RollupWorkFactory {
+        Callable<?> create(Locator locator, Granularity granularity);
+    }
+
+    private final LocatorSource locatorSource;
+    private final RollupWorkFactory workFactory;
+    private final ShardCheckpoint checkpoint;
+    private final ThreadPoolExecutor scanExecutor;
+    private final ThreadPoolExecutor rollupExecutor;
+    private final Semaphore pendingRollups;
+
+    public ParallelRollupRunner(LocatorSource locatorSource, RollupWorkFactory workFactory, ShardCheckpoint checkpoint,
+                                int scanThreads, int rollupThreads, int maxPendingRollups) {
+        this.locatorSource = locatorSource;
+        this.workFactory = workFactory;
+        this.checkpoint = checkpoint;
+        this.scanExecutor = new ThreadPoolBuilder()
+                .withCorePoolSize(scanThreads)
+                .withMaxPoolSize(scanThreads)
+                .withUnboundedQueue()
+                .withName("Rollup Tool Shard Scanners").build();
+        this.rollupExecutor = new ThreadPoolBuilder()
+                .withCorePoolSize(rollupThreads)
+                .withMaxPoolSize(rollupThreads)
+                .withUnboundedQueue()
+                .withName("Rollup Tool Rollups").build();
+        this.pendingRollups = new Semaphore(maxPendingRollups);
+    }
+
+    /**
+     * Rolls up all locators of the given shards to the given granularity, and
+     * waits until that is done. Shards already in the checkpoint are skipped.
+     *
+     * @return true if every shard was rolled up without errors.
+     */
+    public boolean run(Collection<Integer> shards, Granularity granularity) throws InterruptedException {
+        int skipped = 0;
+        for (int shard : shards) {
+            if (checkpoint.isDone(keyFor(granularity, shard))) {
+                skipped++;
+            }
+        }
+        log.info(String.format("Rolling up %d shards to %s, %d already done", shards.size() - skipped, granularity, skipped));
+
+        CountDownLatch shardsLeft = new CountDownLatch(shards.size() - skipped);
+        AtomicBoolean allSucceeded = new AtomicBoolean(true);
+        for (int shard : shards) {
+            if (!checkpoint.isDone(keyFor(granularity, shard))) {
+                scanExecutor.execute(new ShardScan(shard, granularity, shardsLeft, allSucceeded));
+            }
+        }
+        shardsLeft.await();
+        return allSucceeded.get();
+    }
+
+    public void shutdown() {
+        scanExecutor.shutdown();
+        rollupExecutor.shutdown();
+    }
+
+    static String keyFor(Granularity granularity, int shard) {
+        return granularity.name() + "," + shard;
+    }
+
+    private class ShardScan implements Runnable {
+        private final int shard;
+        private final Granularity granularity;
+        private final CountDownLatch shardsLeft;
+        private final AtomicBoolean allSucceeded;
+        // one for every unit of rollup work in flight, plus one for the scan itself.
+        private final AtomicInteger outstanding = new AtomicInteger(1);
+        private final AtomicBoolean failed = new AtomicBoolean(false);
+        private final AtomicInteger locatorCount = new AtomicInteger(0);
+
+        ShardScan(int shard, Granularity granularity, CountDownLatch shardsLeft, AtomicBoolean allSucceeded) {
+            this.shard = shard;
+            this.granularity = granularity;
+            this.shardsLeft = shardsLeft;
+            this.allSucceeded = allSucceeded;
+        }
+
+        @Override
+        public void run() {
+            try {
+                for (Locator locator : locatorSource.getLocators(shard)) {
+                    locatorsScanned.mark();
+                    locatorCount.incrementAndGet();
+                    pendingRollups.acquire();
+                    outstanding.incrementAndGet();
+                    submit(workFactory.create(locator, granularity), locator);
+                }
+            } catch (Throwable t) {
+                log.error(String.format("Error scanning shard %d for %s", shard, granularity), t);
+                failed.set(true);
+            } finally {
+                release();
+            }
+        }
+
+        private void submit(final Callable<?> work, final Locator locator) {
+            try {
+                rollupExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            work.call();
+                            rollupsCompleted.mark();
+                        } catch (Throwable t) {
+                            log.error(String.format("Error rolling up %s to %s", locator, granularity), t);
+                            rollupsFailed.mark();
+                            failed.set(true);
+                        } finally {
+                            pendingRollups.release();
+                            release();
+                        }
+                    }
+                });
+            } catch (RuntimeException ex) {
+                pendingRollups.release();
+                release();
+                throw ex;
+            }
+        }
+
+        private void release() {
+            if (outstanding.decrementAndGet() != 0) {
+                return;
+            }
+            try {
+                if (failed.get()) {
+                    allSucceeded.set(false);
+                    log.warn(String.format("Shard %d was not completely rolled up to %s; it will be retried on the next run",
+                            shard, granularity));
+                } else {
+                    checkpoint.markDone(keyFor(granularity, shard));
+                    shardsCompleted.mark();
+                    log.info(String.format("Rolled up %d locators of shard %d to %s", locatorCount.get(), shard, granularity));
+                }
+            } catch (IOException ex) {
+                allSucceeded.set(false);
+                log.error("Unable to write checkpoint for shard " + shard, ex);
+            } finally {
+                shardsLeft.countDown();
+            }
+        }
+    }
+}
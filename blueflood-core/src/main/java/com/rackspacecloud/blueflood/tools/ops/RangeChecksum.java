@@ -0,0 +1,76 @@
+/*
+ * Copyright 2017 Rackspace
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+
+package com.rackspacecloud.blueflood.tools.ops;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A checksum of the cells of a token range, worked out as they stream by.
+ * <p>
+ *
+ * Every cell is hashed on its own and the hashes are added up, so the checksum
+ * doesn't depend on the order the cells are read in, or on how they are paged
+ * and batched. Along with the number of cells, it lets a range copied by
+ * {@link TokenRangeMigration} be verified by reading only the destination.
+ */
+public class RangeChecksum {
+    private static final HashFunction HASH = Hashing.murmur3_128();
+
+    private long cells = 0;
+    private long sum = 0;
+
+    public void add(ByteBuffer key, long column, ByteBuffer value) {
+        Hasher hasher = HASH.newHasher();
+        putBuffer(hasher, key);
+        hasher.putLong(column);
+        putBuffer(hasher, value);
+        sum += hasher.hash().asLong();
+        cells++;
+    }
+
+    public long getCells() {
+        return cells;
+    }
+
+    /**
+     * @return the number of cells and the checksum, as recorded in the checkpoint
+     */
+    @Override
+    public String toString() {
+        return cells + ":" + Long.toHexString(sum);
+    }
+
+    private static void putBuffer(Hasher hasher, ByteBuffer buffer) {
+        if (buffer == null) {
+            hasher.putInt(-1);
+            return;
+        }
+        hasher.putInt(buffer.remaining());
+        if (buffer.hasArray()) {
+            hasher.putBytes(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+        } else {
+            byte[] bytes = new byte[buffer.remaining()];
+            buffer.duplicate().get(bytes);
+            hasher.putBytes(bytes);
+        }
+    }
+}
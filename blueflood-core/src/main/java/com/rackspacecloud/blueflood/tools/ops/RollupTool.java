@@ -22,17 +22,22 @@ import com.rackspacecloud.blueflood.exceptions.GranularityException;
 import com.rackspacecloud.blueflood.io.AbstractMetricsRW;
 import com.rackspacecloud.blueflood.io.CassandraModel;
 import com.rackspacecloud.blueflood.io.CassandraModel.MetricColumnFamily;
+import com.rackspacecloud.blueflood.io.datastax.DLocatorIO;
 import com.rackspacecloud.blueflood.rollup.Granularity;
 import com.rackspacecloud.blueflood.service.*;
 import com.rackspacecloud.blueflood.types.*;
 import com.rackspacecloud.blueflood.utils.RollupUtils;
 import com.rackspacecloud.blueflood.utils.TimeValue;
+import com.rackspacecloud.blueflood.utils.Util;
 import org.apache.commons.cli.*;
 
+import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.Callable;
 import java.util.concurrent.TimeUnit;
 
 public class RollupTool {
@@ -43,28 +48,39 @@ public class RollupTool {
     private static final String METRIC = "metric";
     private static final String FROM = "from";
     private static final String TO = "to";
+    private static final String SHARDS = "shards";
+    private static final String THREADS = "threads";
+    private static final String SCAN_THREADS = "scanThreads";
+    private static final String CHECKPOINT = "checkpoint";
+    private static final int LOCATOR_FETCH_SIZE = 1000;
     //Number of threads that will be updating the cache simultaneously.
-    //Has been set to 1, for standalone use. If someone wraps these around some threadpool
-    //set this to number of threads that will be using this class.
-    private static final int METADATA_CACHE_CONCURRENCY = 1;
+    //Matches the default number of threads used with -shards.
+    private static final int METADATA_CACHE_CONCURRENCY = 16;
     private static final MetadataCache rollupTypeCache = MetadataCache.createLoadingCacheInstance(
             new TimeValue(48, TimeUnit.HOURS),
             METADATA_CACHE_CONCURRENCY);
 
     static {
-        cliOptions.addOption(OptionBuilder.isRequired().hasArg(true).withDescription("Tenant ID").create(TENANT_ID));
-        cliOptions.addOption(OptionBuilder.isRequired().hasArg(true).withDescription("Metric name").create(METRIC));
+        cliOptions.addOption(OptionBuilder.hasArg(true).withDescription("Tenant ID").create(TENANT_ID));
+        cliOptions.addOption(OptionBuilder.hasArg(true).withDescription("Metric name").create(METRIC));
         cliOptions.addOption(OptionBuilder.isRequired().hasArg(true)
                 .withDescription("Start timestamp (millis since epoch)").create(FROM));
         cliOptions.addOption(OptionBuilder.isRequired().hasArg(true)
                 .withDescription("End timestamp (millis since epoch)").create(TO));
+        cliOptions.addOption(OptionBuilder.hasArg(true)
+                .withDescription("Instead of a single metric, roll up all metrics of these shards (comma separated, or ALL)")
+                .create(SHARDS));
+        cliOptions.addOption(OptionBuilder.hasArg(true)
+                .withDescription("[optional] Number of metrics rolled up in parallel, with -shards. Default 16").create(THREADS));
+        cliOptions.addOption(OptionBuilder.hasArg(true)
+                .withDescription("[optional] Number of shards scanned in parallel, with -shards. Default 4").create(SCAN_THREADS));
+        cliOptions.addOption(OptionBuilder.hasArg(true)
+                .withDescription("[optional] File to record completed shards in, so an interrupted run can be resumed")
+                .create(CHECKPOINT));
     }
 
     public static void main(String args[]) {
         Map<String, Object> options = parseOptions(args);
-        Locator locator = Locator.createLocatorFromPathComponents(
-                (String) options.get(TENANT_ID),
-                (String) options.get(METRIC));
         Long from = (Long) options.get(FROM);
         Long to = (Long) options.get(TO);
 
@@ -73,7 +89,14 @@ public class RollupTool {
             System.exit(2);
         }
 
-        rerollData(locator, new Range(from, to));
+        if (options.containsKey(SHARDS)) {
+            rerollShards(options, new Range(from, to));
+        } else {
+            Locator locator = Locator.createLocatorFromPathComponents(
+                    (String) options.get(TENANT_ID),
+                    (String) options.get(METRIC));
+            rerollData(locator, new Range(from, to));
+        }
     }
 
     private static Map<String, Object> parseOptions(String[] args) {
@@ -99,6 +122,19 @@ public class RollupTool {
                 options.put(TO, new Long(line.getOptionValue(TO)));
             }
 
+            if (line.hasOption(SHARDS)) {
+                options.put(SHARDS, Util.parseShards(line.getOptionValue(SHARDS)));
+            } else if (!line.hasOption(TENANT_ID) || !line.hasOption(METRIC)) {
+                throw new ParseException("Either -" + TENANT_ID + " and -" + METRIC + ", or -" + SHARDS + " is required");
+            }
+
+            options.put(THREADS, line.hasOption(THREADS) ? new Integer(line.getOptionValue(THREADS)) : 16);
+            options.put(SCAN_THREADS, line.hasOption(SCAN_THREADS) ? new Integer(line.getOptionValue(SCAN_THREADS)) : 4);
+
+            if (line.hasOption(CHECKPOINT)) {
+                options.put(CHECKPOINT, line.getOptionValue(CHECKPOINT));
+            }
+
         } catch (ParseException ex) {
             System.err.println("Parse exception " + ex.getMessage());
             helpFormatter.printHelp("ReRoll Data", cliOptions);
@@ -107,12 +143,80 @@ public class RollupTool {
         return options;
     }
 
+    /**
+     * Rolls up all metrics of the given shards, one granularity at a time, since every
+     * granularity is rolled up from the one before it. Within a granularity, shards are
+     * scanned in parallel and their metrics are rolled up by a pool of threads.
+     */
+    private static void rerollShards(Map<String, Object> options, final Range range) {
+        @SuppressWarnings("unchecked")
+        Collection<Integer> shards = (Collection<Integer>) options.get(SHARDS);
+        int threads = (Integer) options.get(THREADS);
+        int scanThreads = (Integer) options.get(SCAN_THREADS);
+
+        ShardCheckpoint checkpoint = ShardCheckpoint.none();
+        try {
+            if (options.containsKey(CHECKPOINT)) {
+                checkpoint = ShardCheckpoint.open(new File((String) options.get(CHECKPOINT)),
+                        "RollupTool from " + range.getStart() + " to " + range.getStop());
+                System.out.println("Resuming with " + checkpoint.getDoneCount() + " shards already rolled up");
+            }
+        } catch (IOException ex) {
+            System.err.println("Unable to open checkpoint " + ex.getMessage());
+            System.exit(2);
+        }
+
+        final DLocatorIO locatorIO = new DLocatorIO();
+        ParallelRollupRunner runner = new ParallelRollupRunner(
+                new ParallelRollupRunner.LocatorSource() {
+                    @Override
+                    public Iterable<Locator> getLocators(int shard) {
+                        return locatorIO.scanLocators(shard, LOCATOR_FETCH_SIZE);
+                    }
+                },
+                new ParallelRollupRunner.RollupWorkFactory() {
+                    @Override
+                    public Callable<?> create(final Locator locator, final Granularity granularity) {
+                        return new Callable<Void>() {
+                            @Override
+                            public Void call() throws Exception {
+                                rerollDataPerGran(locator, granularity, range, getRollupType(locator), false);
+                                return null;
+                            }
+                        };
+                    }
+                },
+                checkpoint, scanThreads, threads, threads * 100);
+
+        int exitCode = 0;
+        try {
+            for (Granularity gran : Granularity.rollupGranularities()) {
+                System.out.println("Calculating rollups for " + gran.name() + " of " + shards.size() + " shards");
+                if (!runner.run(shards, gran)) {
+                    // coarser granularities are rolled up from this one; no point in going on.
+                    System.err.println("Some metrics could not be rolled up to " + gran.name() + ", see the log. Stopping.");
+                    exitCode = 1;
+                    break;
+                }
+            }
+        } catch (InterruptedException ex) {
+            exitCode = 1;
+        } finally {
+            runner.shutdown();
+            try {
+                checkpoint.close();
+            } catch (IOException ex) {
+                System.err.println("Unable to close checkpoint " + ex.getMessage());
+            }
+        }
+        System.exit(exitCode);
+    }
+
     public static void rerollData(Locator loc, Range range) {
         RollupType rollupType = null;
 
         try {
-            rollupType = RollupType.fromString(rollupTypeCache.get(
-                    loc, MetricMetadata.ROLLUP_TYPE.name().toLowerCase()));
+            rollupType = getRollupType(loc);
         } catch (CacheException e) {
             System.err.println("Exception encountered while grabbing metadata for the locator for cache "+e.getMessage());
             System.exit(-1);
@@ -125,17 +229,29 @@ public class RollupTool {
 
         Granularity[] rollupGrans = Granularity.rollupGranularities();
         for (Granularity gran : rollupGrans) {
-            rerollDataPerGran(loc, gran, range, rollupType);
+            try {
+                rerollDataPerGran(loc, gran, range, rollupType, true);
+            } catch (IOException ex) {
+                System.err.println(ex.getMessage());
+                System.exit(-1);
+            }
         }
     }
 
-    private static void rerollDataPerGran(Locator loc, Granularity gran, Range range, RollupType rollupType) {
+    private static RollupType getRollupType(Locator loc) throws CacheException {
+        return RollupType.fromString(rollupTypeCache.get(
+                loc, MetricMetadata.ROLLUP_TYPE.name().toLowerCase()));
+    }
+
+    private static void rerollDataPerGran(Locator loc, Granularity gran, Range range, RollupType rollupType,
+                                          boolean verbose) throws IOException {
         try {
             //Get the source and destination column families
             Class<? extends Rollup> rollupClass = RollupType.classOf(rollupType, gran);
             MetricColumnFamily srcCF = CassandraModel.getColumnFamily(rollupClass, gran.finer());
             MetricColumnFamily dstCF = CassandraModel.getColumnFamily(rollupClass, gran);
-            System.out.println("Calculating rollups for " + gran.name() + ". Reading from: " + srcCF.getName() + ". Writing to: " + dstCF.getName());
+            if (verbose)
+                System.out.println("Calculating rollups for " + gran.name() + ". Reading from: " + srcCF.getName() + ". Writing to: " + dstCF.getName());
             //Get Rollup Computer
             Rollup.Type rollupComputer = RollupRunnable.getRollupComputer(rollupType, gran.finer());
 
@@ -157,8 +273,7 @@ public class RollupTool {
                             loc, rollupType, r, srcCF.getName());
                     rollup = rollupComputer.compute(input);
                 } catch (IOException ex) {
-                    System.err.println("IOException while getting points to roll " + ex.getMessage());
-                    System.exit(-1);
+                    throw new IOException("IOException while getting points to roll " + ex.getMessage(), ex);
                 }
                 writeContexts.add(new SingleRollupWriteContext(rollup, new SingleRollupReadContext(loc, r, gran), dstCF));
                 count++;
@@ -167,10 +282,10 @@ public class RollupTool {
             try {
                 metricsRW.insertRollups(writeContexts);
             } catch (Exception ex) {
-                System.err.println("Connection exception while inserting rollups" + ex.getMessage());
-                System.exit(-1);
+                throw new IOException("Connection exception while inserting rollups" + ex.getMessage(), ex);
             }
-            System.out.println("Rolled up " + count + " ranges of " + gran+"\n");
+            if (verbose)
+                System.out.println("Rolled up " + count + " ranges of " + gran+"\n");
         } catch (GranularityException e) {
             // Since we start rolling from 5m, we should never reach here.
             System.err.println("Unexpected exception encountered " + e.getMessage());
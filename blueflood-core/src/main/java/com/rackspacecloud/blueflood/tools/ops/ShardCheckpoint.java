@@ -0,0 +1,157 @@
+/*
+ * Copyright 2017 Rackspace
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.rackspacecloud.blueflood.tools.ops;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Remembers which units of work of a long running tool have completed, so
+ * that the tool can be restarted without redoing them.
+ * <p>
+ *
+ * The checkpoint is a text file. Its first line describes the run it belongs
+ * to, e.g. the time range being rolled up, and every following line is the
+ * key of a completed unit, optionally followed by a space and a detail of how
+ * it went, such as a checksum. Keys are appended and flushed as they complete,
+ * so a crash loses at most the units that were in flight.
+ */
+public class ShardCheckpoint {
+    private static final String HEADER_PREFIX = "# ";
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final Set<String> done = Collections.synchronizedSet(new HashSet<String>());
+    private final Map<String, String> details = new ConcurrentHashMap<String, String>();
+    private final Writer writer;
+
+    private ShardCheckpoint(Writer writer) {
+        this.writer = writer;
+    }
+
+    /**
+     * A checkpoint that is kept in memory only.
+     */
+    public static ShardCheckpoint none() {
+        return new ShardCheckpoint(null);
+    }
+
+    /**
+     * Opens the checkpoint file, creating it if it does not exist.
+     *
+     * @param file the checkpoint file
+     * @param runDescription describes the run; a file written by a different run is refused.
+     * @throws IOException if the file can not be read or written, or belongs to a different run
+     */
+    public static ShardCheckpoint open(File file, String runDescription) throws IOException {
+        String header = HEADER_PREFIX + runDescription;
+        Set<String> completed = new HashSet<String>();
+        Map<String, String> completedDetails = new HashMap<String, String>();
+        boolean exists = file.exists() && file.length() > 0;
+
+        if (exists) {
+            BufferedReader reader = new BufferedReader(new FileReader(file));
+            try {
+                String line = reader.readLine();
+                if (!header.equals(line)) {
+                    throw new IOException(String.format("checkpoint %s was written for '%s', not '%s'",
+                            file, line, header));
+                }
+                while ((line = reader.readLine()) != null) {
+                    line = line.trim();
+                    if (line.isEmpty()) {
+                        continue;
+                    }
+                    int space = line.indexOf(' ');
+                    if (space < 0) {
+                        completed.add(line);
+                    } else {
+                        completed.add(line.substring(0, space));
+                        completedDetails.put(line.substring(0, space), line.substring(space + 1));
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+        }
+
+        Writer writer = new OutputStreamWriter(new FileOutputStream(file, true), UTF8);
+        if (!exists) {
+            writer.write(header + "\n");
+            writer.flush();
+        }
+        ShardCheckpoint checkpoint = new ShardCheckpoint(writer);
+        checkpoint.done.addAll(completed);
+        checkpoint.details.putAll(completedDetails);
+        return checkpoint;
+    }
+
+    public boolean isDone(String key) {
+        return done.contains(key);
+    }
+
+    public int getDoneCount() {
+        return done.size();
+    }
+
+    /**
+     * @return the detail the unit was marked done with, or null if there is none
+     */
+    public String getDetail(String key) {
+        return details.get(key);
+    }
+
+    public void markDone(String key) throws IOException {
+        markDone(key, null);
+    }
+
+    /**
+     * Marks the unit done along with a detail that {@link #getDetail(String)}
+     * returns, also after the checkpoint is opened again. Keys can not contain
+     * spaces.
+     */
+    public synchronized void markDone(String key, String detail) throws IOException {
+        if (!done.add(key)) {
+            return;
+        }
+        if (detail != null) {
+            details.put(key, detail);
+        }
+        if (writer == null) {
+            return;
+        }
+        writer.write(detail == null ? key + "\n" : key + " " + detail + "\n");
+        writer.flush();
+    }
+
+    public synchronized void close() throws IOException {
+        if (writer != null) {
+            writer.close();
+        }
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright 2017 Rackspace
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+
+package com.rackspacecloud.blueflood.tools.ops;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A range of tokens of the Murmur3 partitioner, from {@code start} exclusive to
+ * {@code end} inclusive, which is a unit of work of {@link TokenRangeMigration}.
+ * <p>
+ *
+ * The ranges come from splitting the whole ring evenly rather than from the
+ * token ownership of the cluster, so that the same number of ranges always
+ * gives the same ranges, and a checkpoint stays valid when nodes are added or
+ * moved between runs.
+ */
+public class TokenRange {
+    private static final BigInteger RING_START = BigInteger.valueOf(Long.MIN_VALUE);
+    // the partitioner never gives out Long.MIN_VALUE, so (MIN, MAX] covers every partition
+    private static final BigInteger RING_SIZE = BigInteger.valueOf(Long.MAX_VALUE).subtract(RING_START);
+
+    private final long start;
+    private final long end;
+
+    public TokenRange(long start, long end) {
+        if (start >= end) {
+            throw new IllegalArgumentException(String.format("token range (%d, %d] is empty", start, end));
+        }
+        this.start = start;
+        this.end = end;
+    }
+
+    /**
+     * Splits the ring into {@code count} contiguous ranges whose sizes differ by at most one token.
+     */
+    public static List<TokenRange> splitRing(int count) {
+        if (count < 1) {
+            throw new IllegalArgumentException("the ring has to be split into at least one range");
+        }
+        List<TokenRange> ranges = new ArrayList<TokenRange>(count);
+        BigInteger n = BigInteger.valueOf(count);
+        long previous = Long.MIN_VALUE;
+        for (int i = 1; i <= count; i++) {
+            long boundary = RING_START.add(RING_SIZE.multiply(BigInteger.valueOf(i)).divide(n)).longValue();
+            ranges.add(new TokenRange(previous, boundary));
+            previous = boundary;
+        }
+        return ranges;
+    }
+
+    public long getStart() {
+        return start;
+    }
+
+    public long getEnd() {
+        return end;
+    }
+
+    /**
+     * @return the key of the range in a {@link ShardCheckpoint}
+     */
+    public String getKey() {
+        return start + ":" + end;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof TokenRange)) {
+            return false;
+        }
+        TokenRange other = (TokenRange) o;
+        return start == other.start && end == other.end;
+    }
+
+    @Override
+    public int hashCode() {
+        return (int) (start ^ (start >>> 32)) * 31 + (int) (end ^ (end >>> 32));
+    }
+
+    @Override
+    public String toString() {
+        return "(" + start + ", " + end + "]";
+    }
+}
@@ -0,0 +1,550 @@
+/*
+ * Copyright 2017 Rackspace
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+
+package com.rackspacecloud.blueflood.tools.ops;
+
+import com.codahale.metrics.Meter;
+import com.datastax.driver.core.BatchStatement;
+import com.datastax.driver.core.Cluster;
+import com.datastax.driver.core.HostDistance;
+import com.datastax.driver.core.PoolingOptions;
+import com.datastax.driver.core.PreparedStatement;
+import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.Row;
+import com.datastax.driver.core.Session;
+import com.datastax.driver.core.Statement;
+import com.datastax.driver.core.policies.DCAwareRoundRobinPolicy;
+import com.datastax.driver.core.policies.TokenAwarePolicy;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.rackspacecloud.blueflood.concurrent.ThreadPoolBuilder;
+import com.rackspacecloud.blueflood.io.CassandraModel;
+import com.rackspacecloud.blueflood.utils.Metrics;
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.GnuParser;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.OptionBuilder;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.xml.bind.DatatypeConverter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Copies a metrics column family from one cluster to another through the
+ * datastax driver. It replaces {@link Migration} for large copies: a failed
+ * run picks up where it stopped, and the copy is paced by the destination.
+ * <p>
+ *
+ * The token ring is split into {@link TokenRange}s. A pool of readers copies
+ * one range each at a time, paging through the source with the next page
+ * fetched while the current one is written. Writes are unlogged batches of
+ * the cells of one partition, sent asynchronously, with at most
+ * {@code maxInFlight} of them outstanding at a time and paced by an
+ * {@link AdaptiveRate} that slows down when the destination's write latency
+ * goes above the target.
+ * <p>
+ *
+ * When every write of a range has succeeded, the range is recorded in the
+ * checkpoint along with the {@link RangeChecksum} of the cells that were read,
+ * and a later run with the same checkpoint skips it. Running with
+ * {@code -verify} instead reads a sample of the completed ranges back from the
+ * destination only, and compares their checksums to the recorded ones; cells
+ * written to the destination by anything else in the same time range show up
+ * as differences.
+ */
+public class TokenRangeMigration {
+    private static final Logger log = LoggerFactory.getLogger(TokenRangeMigration.class);
+
+    private static final Meter cellsRead = Metrics.meter(TokenRangeMigration.class, "Cells Read");
+    private static final Meter cellsWritten = Metrics.meter(TokenRangeMigration.class, "Cells Written");
+    private static final Meter writesFailed = Metrics.meter(TokenRangeMigration.class, "Writes Failed");
+    private static final Meter rangesCompleted = Metrics.meter(TokenRangeMigration.class, "Ranges Completed");
+
+    private static final Options cliOptions = new Options();
+    private static final String SRC = "src";
+    private static final String DST = "dst";
+    private static final String FROM = "from";
+    private static final String TO = "to";
+    private static final String COLUMN_FAMILY = "cf";
+    private static final String TTL = "ttl";
+    private static final String RANGES = "ranges";
+    private static final String READERS = "readers";
+    private static final String MAX_IN_FLIGHT = "inflight";
+    private static final String FETCH_SIZE = "fetchsize";
+    private static final String BATCH_SIZE = "batchsize";
+    private static final String RATE = "rate";
+    private static final String MAX_RATE = "maxrate";
+    private static final String TARGET_LATENCY = "latency";
+    private static final String CHECKPOINT = "checkpoint";
+    private static final String VERIFY = "verify";
+
+    static {
+        cliOptions.addOption(OptionBuilder.isRequired().hasArg(true).withDescription("[required] Source cassandra cluster (host:port:keyspace).").create(SRC));
+        cliOptions.addOption(OptionBuilder.isRequired().hasArg(true).withDescription("[required] Destination cassandra cluster (host:port:keyspace).").create(DST));
+        cliOptions.addOption(OptionBuilder.isRequired().hasArg(true).withDescription("[required] Which column family to migrate").create(COLUMN_FAMILY));
+        cliOptions.addOption(OptionBuilder.hasArg().withDescription("[optional] ISO 6801 datetime (or millis since epoch) of when to start migrating data. defaults to one year ago.").create(FROM));
+        cliOptions.addOption(OptionBuilder.hasArg().withDescription("[optional] ISO 6801 datetime (or millis since epoch) of when to stop migrating data. defaults to right now.").create(TO));
+        cliOptions.addOption(OptionBuilder.hasArg().withDescription("[optional] ttl in seconds for new data. default=5x the default for the column family.").create(TTL));
+        cliOptions.addOption(OptionBuilder.hasArg().withDescription("[optional] number of token ranges to split the ring into. default=4096").create(RANGES));
+        cliOptions.addOption(OptionBuilder.hasArg().withDescription("[optional] number of token ranges read in parallel. default=8").create(READERS));
+        cliOptions.addOption(OptionBuilder.hasArg().withDescription("[optional] maximum number of writes in flight. default=256").create(MAX_IN_FLIGHT));
+        cliOptions.addOption(OptionBuilder.hasArg().withDescription("[optional] number of cells read per page. default=5000").create(FETCH_SIZE));
+        cliOptions.addOption(OptionBuilder.hasArg().withDescription("[optional] maximum number of cells per write. default=100").create(BATCH_SIZE));
+        cliOptions.addOption(OptionBuilder.hasArg().withDescription("[optional] number of cells per second to start with. default=10000").create(RATE));
+        cliOptions.addOption(OptionBuilder.hasArg().withDescription("[optional] maximum number of cells per second. default=200000").create(MAX_RATE));
+        cliOptions.addOption(OptionBuilder.hasArg().withDescription("[optional] average write latency in millis to slow down above. default=50").create(TARGET_LATENCY));
+        cliOptions.addOption(OptionBuilder.hasArg().withDescription("[optional] file to record completed ranges in, so an interrupted run can be resumed").create(CHECKPOINT));
+        cliOptions.addOption(OptionBuilder.hasArg().withDescription("[optional] instead of copying, verify this fraction of the ranges in the checkpoint, e.g. 0.01").create(VERIFY));
+    }
+
+    // reading by token with a clustering restriction is a range slice, which is what the filtering allows
+    private static final String SELECT_FORMAT = "SELECT key, column1, value FROM \"%s\" " +
+            "WHERE token(key) > ? AND token(key) <= ? AND column1 >= ? AND column1 <= ? ALLOW FILTERING";
+    private static final String INSERT_FORMAT = "INSERT INTO \"%s\" (key, column1, value) VALUES (?, ?, ?) USING TTL ?";
+
+    private final Session source;
+    private final Session destination;
+    private final PreparedStatement select;
+    private final PreparedStatement insert;
+    private final PreparedStatement verifySelect;
+    private final long from;
+    private final long to;
+    private final int ttl;
+    private final int fetchSize;
+    private final int batchSize;
+    private final AdaptiveRate rate;
+    private final Semaphore inFlight;
+    private final ShardCheckpoint checkpoint;
+    private final ThreadPoolExecutor readers;
+
+    public TokenRangeMigration(Session source, Session destination, String columnFamily, long from, long to, int ttl,
+                               int readers, int maxInFlight, int fetchSize, int batchSize, AdaptiveRate rate,
+                               ShardCheckpoint checkpoint) {
+        this.source = source;
+        this.destination = destination;
+        this.select = source.prepare(String.format(SELECT_FORMAT, columnFamily)).setIdempotent(true);
+        this.insert = destination.prepare(String.format(INSERT_FORMAT, columnFamily)).setIdempotent(true);
+        this.verifySelect = destination.prepare(String.format(SELECT_FORMAT, columnFamily)).setIdempotent(true);
+        this.from = from;
+        this.to = to;
+        this.ttl = ttl;
+        this.fetchSize = fetchSize;
+        this.batchSize = batchSize;
+        this.rate = rate;
+        this.inFlight = new Semaphore(maxInFlight);
+        this.checkpoint = checkpoint;
+        this.readers = new ThreadPoolBuilder()
+                .withCorePoolSize(readers)
+                .withMaxPoolSize(readers)
+                .withUnboundedQueue()
+                .withName("Migration Range Readers").build();
+    }
+
+    /**
+     * Copies every range that isn't in the checkpoint yet, and waits until that is done.
+     *
+     * @return true if every range was copied without errors
+     */
+    public boolean copy(List<TokenRange> ranges) throws InterruptedException {
+        final List<TokenRange> todo = new ArrayList<TokenRange>();
+        for (TokenRange range : ranges) {
+            if (!checkpoint.isDone(range.getKey())) {
+                todo.add(range);
+            }
+        }
+        log.info(String.format("Copying %d token ranges, %d already done", todo.size(), ranges.size() - todo.size()));
+        return runAll(todo, new RangeWork() {
+            @Override
+            public boolean run(TokenRange range) throws Exception {
+                return copy(range);
+            }
+        });
+    }
+
+    /**
+     * Works out the checksums of a sample of the ranges of the checkpoint on
+     * the destination, and compares them to the ones recorded when they were copied.
+     *
+     * @param fraction the fraction of the completed ranges to verify
+     * @return true if every sampled range matched
+     */
+    public boolean verify(List<TokenRange> ranges, double fraction) throws InterruptedException {
+        List<TokenRange> sample = new ArrayList<TokenRange>();
+        int every = (int) Math.max(1, Math.round(1 / fraction));
+        int completed = 0;
+        for (TokenRange range : ranges) {
+            if (checkpoint.getDetail(range.getKey()) != null && completed++ % every == 0) {
+                sample.add(range);
+            }
+        }
+        log.info(String.format("Verifying %d of %d copied token ranges", sample.size(), completed));
+        return runAll(sample, new RangeWork() {
+            @Override
+            public boolean run(TokenRange range) throws Exception {
+                String expected = checkpoint.getDetail(range.getKey());
+                String actual = checksum(destination, verifySelect, range).toString();
+                if (!expected.equals(actual)) {
+                    log.error(String.format("Range %s has %s on the destination, but %s was copied",
+                            range, actual, expected));
+                    return false;
+                }
+                return true;
+            }
+        });
+    }
+
+    public void shutdown() {
+        readers.shutdown();
+    }
+
+    private interface RangeWork {
+        boolean run(TokenRange range) throws Exception;
+    }
+
+    private boolean runAll(List<TokenRange> ranges, final RangeWork work) throws InterruptedException {
+        final CountDownLatch rangesLeft = new CountDownLatch(ranges.size());
+        final AtomicBoolean allSucceeded = new AtomicBoolean(true);
+        for (final TokenRange range : ranges) {
+            readers.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        if (!work.run(range)) {
+                            allSucceeded.set(false);
+                        }
+                    } catch (Throwable t) {
+                        log.error(String.format("Error processing token range %s", range), t);
+                        allSucceeded.set(false);
+                    } finally {
+                        rangesLeft.countDown();
+                    }
+                }
+            });
+        }
+        rangesLeft.await();
+        return allSucceeded.get();
+    }
+
+    private boolean copy(TokenRange range) throws Exception {
+        RangeChecksum checksum = new RangeChecksum();
+        PendingWrites pending = new PendingWrites();
+        try {
+            ResultSet results = source.execute(bind(select, range));
+            BatchStatement batch = null;
+            ByteBuffer batchKey = null;
+            for (Row row : results) {
+                // fetch the next page while this one is being written
+                if (results.getAvailableWithoutFetching() == fetchSize / 2 && !results.isFullyFetched()) {
+                    results.fetchMoreResults();
+                }
+                if (pending.hasFailed()) {
+                    break;
+                }
+                ByteBuffer key = row.getBytesUnsafe(0);
+                long column = row.getLong(1);
+                ByteBuffer value = row.getBytesUnsafe(2);
+                checksum.add(key, column, value);
+                cellsRead.mark();
+
+                if (batch != null && (batch.size() >= batchSize || !key.equals(batchKey))) {
+                    write(batch, pending);
+                    batch = null;
+                }
+                if (batch == null) {
+                    batch = new BatchStatement(BatchStatement.Type.UNLOGGED);
+                    batchKey = key;
+                }
+                batch.add(insert.bind()
+                        .setBytesUnsafe(0, key)
+                        .setLong(1, column)
+                        .setBytesUnsafe(2, value)
+                        .setInt(3, ttl));
+            }
+            if (batch != null && !pending.hasFailed()) {
+                write(batch, pending);
+            }
+        } finally {
+            pending.await();
+        }
+
+        if (pending.hasFailed()) {
+            log.warn(String.format("Token range %s was not completely copied; it will be retried on the next run", range));
+            return false;
+        }
+        checkpoint.markDone(range.getKey(), checksum.toString());
+        rangesCompleted.mark();
+        log.info(String.format("Copied %d cells of token range %s", checksum.getCells(), range));
+        return true;
+    }
+
+    private void write(final BatchStatement batch, final PendingWrites pending) throws InterruptedException {
+        final int cells = batch.size();
+        rate.acquire(cells);
+        inFlight.acquire();
+        pending.add();
+        final long start = System.nanoTime();
+        try {
+            Futures.addCallback(destination.executeAsync(batch), new FutureCallback<ResultSet>() {
+                @Override
+                public void onSuccess(ResultSet result) {
+                    inFlight.release();
+                    rate.record(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+                    cellsWritten.mark(cells);
+                    pending.done(true);
+                }
+
+                @Override
+                public void onFailure(Throwable t) {
+                    inFlight.release();
+                    rate.recordFailure();
+                    writesFailed.mark();
+                    log.error("Error writing to the destination", t);
+                    pending.done(false);
+                }
+            });
+        } catch (RuntimeException ex) {
+            inFlight.release();
+            pending.done(false);
+            throw ex;
+        }
+    }
+
+    private RangeChecksum checksum(Session session, PreparedStatement statement, TokenRange range) {
+        RangeChecksum checksum = new RangeChecksum();
+        ResultSet results = session.execute(bind(statement, range));
+        for (Row row : results) {
+            if (results.getAvailableWithoutFetching() == fetchSize / 2 && !results.isFullyFetched()) {
+                results.fetchMoreResults();
+            }
+            checksum.add(row.getBytesUnsafe(0), row.getLong(1), row.getBytesUnsafe(2));
+        }
+        return checksum;
+    }
+
+    private Statement bind(PreparedStatement statement, TokenRange range) {
+        return statement.bind(range.getStart(), range.getEnd(), from, to).setFetchSize(fetchSize);
+    }
+
+    /**
+     * The writes of one range that haven't completed yet.
+     */
+    private static class PendingWrites {
+        private int pending = 0;
+        private boolean failed = false;
+
+        synchronized void add() {
+            pending++;
+        }
+
+        synchronized void done(boolean succeeded) {
+            pending--;
+            failed |= !succeeded;
+            notifyAll();
+        }
+
+        synchronized boolean hasFailed() {
+            return failed;
+        }
+
+        synchronized void await() throws InterruptedException {
+            while (pending > 0) {
+                wait();
+            }
+        }
+    }
+
+    public static void main(String args[]) {
+        Map<String, Object> options = parseOptions(args);
+        String columnFamily = (String) options.get(COLUMN_FAMILY);
+        long from = (Long) options.get(FROM);
+        long to = (Long) options.get(TO);
+        int maxInFlight = (Integer) options.get(MAX_IN_FLIGHT);
+        List<TokenRange> ranges = TokenRange.splitRing((Integer) options.get(RANGES));
+
+        ShardCheckpoint checkpoint = ShardCheckpoint.none();
+        try {
+            if (options.containsKey(CHECKPOINT)) {
+                checkpoint = ShardCheckpoint.open(new File((String) options.get(CHECKPOINT)),
+                        String.format("TokenRangeMigration of %s to %s from %d to %d in %d ranges",
+                                columnFamily, options.get(DST), from, to, ranges.size()));
+                System.out.println("Resuming with " + checkpoint.getDoneCount() + " token ranges already copied");
+            }
+        } catch (IOException ex) {
+            System.err.println("Unable to open checkpoint " + ex.getMessage());
+            System.exit(2);
+        }
+        if (options.containsKey(VERIFY) && !options.containsKey(CHECKPOINT)) {
+            System.err.println("Verifying needs the checkpoint of the copy");
+            System.exit(2);
+        }
+
+        Cluster sourceCluster = connect((String) options.get(SRC), maxInFlight);
+        Cluster destinationCluster = connect((String) options.get(DST), maxInFlight);
+        TokenRangeMigration migration = null;
+        int exitCode = 0;
+        try {
+            checkPartitioner(sourceCluster);
+            checkPartitioner(destinationCluster);
+            AdaptiveRate rate = new AdaptiveRate((Integer) options.get(RATE), 1,
+                    (Integer) options.get(MAX_RATE), (Integer) options.get(TARGET_LATENCY), maxInFlight);
+            migration = new TokenRangeMigration(
+                    sourceCluster.connect(keyspace((String) options.get(SRC))),
+                    destinationCluster.connect(keyspace((String) options.get(DST))),
+                    columnFamily, from, to, (Integer) options.get(TTL), (Integer) options.get(READERS),
+                    maxInFlight, (Integer) options.get(FETCH_SIZE), (Integer) options.get(BATCH_SIZE),
+                    rate, checkpoint);
+
+            boolean succeeded;
+            if (options.containsKey(VERIFY)) {
+                succeeded = migration.verify(ranges, (Double) options.get(VERIFY));
+            } else {
+                System.out.println(String.format("Copying %s from %s to %s for dates %s to %s",
+                        columnFamily, options.get(SRC), options.get(DST),
+                        new Date(from), new Date(to)));
+                succeeded = migration.copy(ranges);
+            }
+            if (!succeeded) {
+                System.err.println("Some token ranges failed, see the log.");
+                exitCode = 1;
+            }
+        } catch (Exception ex) {
+            System.err.println("There was an error: " + ex.getMessage());
+            ex.printStackTrace();
+            exitCode = 1;
+        } finally {
+            if (migration != null) {
+                migration.shutdown();
+            }
+            try {
+                checkpoint.close();
+            } catch (IOException ex) {
+                System.err.println("Unable to close checkpoint " + ex.getMessage());
+            }
+            sourceCluster.close();
+            destinationCluster.close();
+        }
+        System.exit(exitCode);
+    }
+
+    private static Cluster connect(String hostPortKeyspace, int maxInFlight) {
+        String[] parts = hostPortKeyspace.split(":", -1);
+        PoolingOptions poolingOptions = new PoolingOptions()
+                .setMaxRequestsPerConnection(HostDistance.LOCAL, Math.max(maxInFlight, 1024));
+        return Cluster.builder()
+                .addContactPoint(parts[0])
+                .withPort(Integer.parseInt(parts[1]))
+                .withLoadBalancingPolicy(new TokenAwarePolicy(DCAwareRoundRobinPolicy.builder().build()))
+                .withPoolingOptions(poolingOptions)
+                .build();
+    }
+
+    private static String keyspace(String hostPortKeyspace) {
+        return "\"" + hostPortKeyspace.split(":", -1)[2] + "\"";
+    }
+
+    private static void checkPartitioner(Cluster cluster) {
+        String partitioner = cluster.getMetadata().getPartitioner();
+        if (partitioner == null || !partitioner.endsWith("Murmur3Partitioner")) {
+            throw new IllegalStateException("Only the Murmur3Partitioner is supported, not " + partitioner);
+        }
+    }
+
+    // construct a well-formed options map, with all defaults populated.
+    private static Map<String, Object> parseOptions(String[] args) {
+        final GnuParser parser = new GnuParser();
+        final Map<String, Object> options = new HashMap<String, Object>();
+        try {
+            final long now = System.currentTimeMillis();
+            CommandLine line = parser.parse(cliOptions, args);
+
+            options.put(SRC, line.getOptionValue(SRC));
+            options.put(DST, line.getOptionValue(DST));
+            for (String hostPortKeyspace : new String[] { line.getOptionValue(SRC), line.getOptionValue(DST) }) {
+                if (hostPortKeyspace.split(":", -1).length != 3) {
+                    throw new ParseException("Clusters are given as host:port:keyspace, not " + hostPortKeyspace);
+                }
+            }
+
+            // default range is one year ago until now.
+            options.put(FROM, line.hasOption(FROM) ? parseDateTime(line.getOptionValue(FROM)) : now-(365L*24L*60L*60L*1000L));
+            options.put(TO, line.hasOption(TO) ? parseDateTime(line.getOptionValue(TO)) : now);
+
+            CassandraModel.MetricColumnFamily columnFamily = null;
+            for (CassandraModel.MetricColumnFamily cf : CassandraModel.getMetricColumnFamilies()) {
+                if (cf.getName().equals(line.getOptionValue(COLUMN_FAMILY))) {
+                    columnFamily = cf;
+                }
+            }
+            if (columnFamily == null) {
+                throw new ParseException("Invalid column family");
+            }
+            options.put(COLUMN_FAMILY, columnFamily.getName());
+            options.put(TTL, line.hasOption(TTL) ? Integer.parseInt(line.getOptionValue(TTL)) : (int)(5 * columnFamily.getDefaultTTL().toSeconds()));
+
+            options.put(RANGES, line.hasOption(RANGES) ? Integer.parseInt(line.getOptionValue(RANGES)) : 4096);
+            options.put(READERS, line.hasOption(READERS) ? Integer.parseInt(line.getOptionValue(READERS)) : 8);
+            options.put(MAX_IN_FLIGHT, line.hasOption(MAX_IN_FLIGHT) ? Integer.parseInt(line.getOptionValue(MAX_IN_FLIGHT)) : 256);
+            options.put(FETCH_SIZE, line.hasOption(FETCH_SIZE) ? Integer.parseInt(line.getOptionValue(FETCH_SIZE)) : 5000);
+            options.put(BATCH_SIZE, line.hasOption(BATCH_SIZE) ? Integer.parseInt(line.getOptionValue(BATCH_SIZE)) : 100);
+            options.put(RATE, line.hasOption(RATE) ? Integer.parseInt(line.getOptionValue(RATE)) : 10000);
+            options.put(MAX_RATE, line.hasOption(MAX_RATE) ? Integer.parseInt(line.getOptionValue(MAX_RATE)) : 200000);
+            options.put(TARGET_LATENCY, line.hasOption(TARGET_LATENCY) ? Integer.parseInt(line.getOptionValue(TARGET_LATENCY)) : 50);
+
+            if (line.hasOption(CHECKPOINT)) {
+                options.put(CHECKPOINT, line.getOptionValue(CHECKPOINT));
+            }
+            if (line.hasOption(VERIFY)) {
+                double fraction = Double.parseDouble(line.getOptionValue(VERIFY));
+                if (fraction <= 0 || fraction > 1) {
+                    throw new ParseException("The fraction of ranges to verify has to be above 0 and at most 1");
+                }
+                options.put(VERIFY, fraction);
+            }
+        } catch (ParseException ex) {
+            System.err.println("Parse exception " + ex.getMessage());
+            HelpFormatter helpFormatter = new HelpFormatter();
+            helpFormatter.printHelp("bf-token-range-migrate", cliOptions);
+            System.exit(2);
+        }
+
+        return options;
+    }
+
+    private static long parseDateTime(String s) {
+        try {
+            return Long.parseLong(s);
+        } catch (NumberFormatException ex) {
+            // convert from a ISO 6801 date String.
+            return DatatypeConverter.parseDateTime(s).getTime().getTime();
+        }
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright 2017 Rackspace
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.rackspacecloud.blueflood.cache;
+
+import com.rackspacecloud.blueflood.types.BluefloodCounterRollup;
+import com.rackspacecloud.blueflood.types.BluefloodGaugeRollup;
+import com.rackspacecloud.blueflood.types.IMetric;
+import com.rackspacecloud.blueflood.types.Locator;
+import com.rackspacecloud.blueflood.types.Metric;
+import com.rackspacecloud.blueflood.types.Points;
+import com.rackspacecloud.blueflood.types.PreaggregatedMetric;
+import com.rackspacecloud.blueflood.types.SimpleNumber;
+import com.rackspacecloud.blueflood.utils.TimeValue;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class LatestValueCacheTest {
+
+    private static final TimeValue TTL = new TimeValue(1, TimeUnit.DAYS);
+
+    private final Locator locator = Locator.createLocatorFromPathComponents("tenant", "metric");
+    private final Locator gaugeLocator = Locator.createLocatorFromPathComponents("tenant", "gauge");
+    private final Locator counterLocator = Locator.createLocatorFromPathComponents("tenant", "counter");
+    private LatestValueCache cache;
+
+    @Before
+    public void setUp() {
+        cache = new LatestValueCache(100, 60);
+    }
+
+    @Test
+    public void testIngestedValuesAreCached() {
+        cache.update(Arrays.<IMetric>asList(
+                new Metric(locator, 5L, 1000, TTL, "ms"),
+                new PreaggregatedMetric(2000, gaugeLocator, TTL, new BluefloodGaugeRollup().withLatest(1500, 7.5)),
+                new PreaggregatedMetric(2000, counterLocator, TTL, new BluefloodCounterRollup().withCount(3))));
+
+        Map<Locator, Points.Point<SimpleNumber>> values = cache.getAll(Arrays.asList(locator, gaugeLocator, counterLocator));
+
+        assertEquals(1000, values.get(locator).getTimestamp());
+        assertEquals(5L, values.get(locator).getData().getValue());
+        assertEquals(1500, values.get(gaugeLocator).getTimestamp());
+        assertEquals(7.5, values.get(gaugeLocator).getData().getValue());
+        // only numbers and gauges are kept
+        assertFalse(values.containsKey(counterLocator));
+    }
+
+    @Test
+    public void testOlderValuesDoNotReplaceNewerOnes() {
+        cache.put(locator, new Points.Point<SimpleNumber>(2000, new SimpleNumber(2L)));
+        cache.put(locator, new Points.Point<SimpleNumber>(1000, new SimpleNumber(1L)));
+        assertEquals(2000, cache.getAll(Arrays.asList(locator)).get(locator).getTimestamp());
+
+        cache.update(Arrays.<IMetric>asList(new Metric(locator, 3L, 3000, TTL, "ms")));
+        assertEquals(3L, cache.getAll(Arrays.asList(locator)).get(locator).getData().getValue());
+    }
+
+    @Test
+    public void testMissingLocatorsAreLeftOut() {
+        cache.put(locator, new Points.Point<SimpleNumber>(1000, new SimpleNumber(1L)));
+
+        Map<Locator, Points.Point<SimpleNumber>> values = cache.getAll(Arrays.asList(locator, gaugeLocator));
+
+        assertEquals(1, values.size());
+        assertTrue(values.containsKey(locator));
+        assertEquals(1, cache.size());
+    }
+}
@@ -0,0 +1,237 @@
+/*
+ * Copyright 2017 Rackspace
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.rackspacecloud.blueflood.cache;
+
+import com.rackspacecloud.blueflood.io.MetricsRWDelegator;
+import com.rackspacecloud.blueflood.outputs.formats.MetricData;
+import com.rackspacecloud.blueflood.rollup.Granularity;
+import com.rackspacecloud.blueflood.service.ScheduleContext;
+import com.rackspacecloud.blueflood.service.UpdateStamp;
+import com.rackspacecloud.blueflood.types.Locator;
+import com.rackspacecloud.blueflood.types.Points;
+import com.rackspacecloud.blueflood.types.Range;
+import com.rackspacecloud.blueflood.types.SimpleNumber;
+import com.rackspacecloud.blueflood.utils.Clock;
+import com.rackspacecloud.blueflood.utils.Util;
+import org.joda.time.Instant;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class RollupResultCacheTest {
+
+    private static final int BLOCK_SLOTS = 4;
+    private static final long SLOT = Granularity.MIN_5.milliseconds();
+    private static final long BLOCK = BLOCK_SLOTS * SLOT;
+    private static final long NOW = 1000 * BLOCK;
+
+    private final Clock clock = new Clock() {
+        @Override
+        public Instant now() {
+            return new Instant(NOW);
+        }
+    };
+
+    private final Locator locator = Locator.createLocatorFromPathComponents("tenant", "metric");
+    private final Locator otherLocator = Locator.createLocatorFromPathComponents("tenant", "other");
+    private RecordingDelegator delegator;
+    // starts in the middle of a block, and ends in the middle of a later one
+    private Range range = new Range(100 * BLOCK + SLOT, 110 * BLOCK + 2 * SLOT);
+
+    private ScheduleContext context;
+
+    @Before
+    public void setUp() {
+        delegator = new RecordingDelegator();
+        context = new ScheduleContext(NOW, Util.parseShards("ALL"), clock);
+        markRolled(100 * BLOCK, 111 * BLOCK);
+    }
+
+    @Test
+    public void testBlocksAreCachedOnTheirSecondMiss() {
+        RollupResultCache cache = cache(Long.MAX_VALUE, BLOCK_SLOTS, 0, clock);
+
+        cache.getDatapointsForRange(delegator, Arrays.asList(locator), range, Granularity.MIN_5);
+        assertEquals(0, cache.getBlockCount());
+        cache.getDatapointsForRange(delegator, Arrays.asList(locator), range, Granularity.MIN_5);
+        assertEquals(9, cache.getBlockCount());
+
+        delegator.reads.clear();
+        Map<Locator, MetricData> result = cache.getDatapointsForRange(delegator, Arrays.asList(locator), range, Granularity.MIN_5);
+
+        assertEquals(Arrays.asList(
+                new Range(range.getStart(), 101 * BLOCK - 1),
+                new Range(110 * BLOCK, range.getStop())), delegator.reads);
+        assertEquals(timestamps(delegator.pointsFor(range)), timestamps(result.get(locator).getData()));
+        assertEquals("unit", result.get(locator).getUnit());
+    }
+
+    @Test
+    public void testBlocksThatAreNotFinalAreNotCached() {
+        long finalizedAfter = NOW - 105 * BLOCK;
+        RollupResultCache cache = cache(Long.MAX_VALUE, BLOCK_SLOTS, finalizedAfter, clock);
+
+        cache.getDatapointsForRange(delegator, Arrays.asList(locator), range, Granularity.MIN_5);
+        cache.getDatapointsForRange(delegator, Arrays.asList(locator), range, Granularity.MIN_5);
+        assertEquals(4, cache.getBlockCount());
+
+        delegator.reads.clear();
+        cache.getDatapointsForRange(delegator, Arrays.asList(locator), range, Granularity.MIN_5);
+        assertEquals(new Range(105 * BLOCK, range.getStop()), delegator.reads.get(1));
+    }
+
+    @Test
+    public void testLocatorsWithMissingBlocksReadTheWholeRange() {
+        RollupResultCache cache = cache(Long.MAX_VALUE, BLOCK_SLOTS, 0, clock);
+        cache.getDatapointsForRange(delegator, Arrays.asList(locator), range, Granularity.MIN_5);
+        cache.getDatapointsForRange(delegator, Arrays.asList(locator), range, Granularity.MIN_5);
+
+        delegator.reads.clear();
+        delegator.locators.clear();
+        Map<Locator, MetricData> result = cache.getDatapointsForRange(delegator,
+                Arrays.asList(locator, otherLocator), range, Granularity.MIN_5);
+
+        assertEquals(range, delegator.reads.get(0));
+        assertEquals(Arrays.asList(otherLocator), delegator.locators.get(0));
+        assertEquals(Arrays.asList(locator), delegator.locators.get(1));
+        assertEquals(2, result.size());
+        assertEquals(timestamps(delegator.pointsFor(range)), timestamps(result.get(otherLocator).getData()));
+        assertEquals(timestamps(delegator.pointsFor(range)), timestamps(result.get(locator).getData()));
+    }
+
+    @Test
+    public void testCacheIsBoundedBySize() {
+        // room for about two blocks of four points
+        RollupResultCache cache = cache(2 * (128 + 100 + 4 * 256), BLOCK_SLOTS, 0, clock);
+
+        cache.getDatapointsForRange(delegator, Arrays.asList(locator), range, Granularity.MIN_5);
+        cache.getDatapointsForRange(delegator, Arrays.asList(locator), range, Granularity.MIN_5);
+
+        assertTrue(cache.getBlockCount() <= 2);
+    }
+
+    @Test
+    public void testFullResolutionIsNotCached() {
+        RollupResultCache cache = cache(Long.MAX_VALUE, BLOCK_SLOTS, 0, clock);
+
+        for (int i = 0; i < 3; i++) {
+            cache.getDatapointsForRange(delegator, Arrays.asList(locator), range, Granularity.FULL);
+        }
+
+        assertEquals(0, cache.getBlockCount());
+        assertEquals(Arrays.asList(range, range, range), delegator.reads);
+    }
+
+    @Test
+    public void testBlocksWithSlotsThatAreNotRolledAreNotCached() {
+        RollupResultCache cache = cache(Long.MAX_VALUE, BLOCK_SLOTS, 0, clock);
+        context.update(103 * BLOCK + SLOT, Util.getShard(locator.toString()));
+
+        cache.getDatapointsForRange(delegator, Arrays.asList(locator), range, Granularity.MIN_5);
+        cache.getDatapointsForRange(delegator, Arrays.asList(locator), range, Granularity.MIN_5);
+        assertEquals(8, cache.getBlockCount());
+
+        // rolled up, but not yet written to the shard state
+        markRolled(103 * BLOCK, 104 * BLOCK);
+        stamp(103 * BLOCK + SLOT).setDirty(true);
+        cache.getDatapointsForRange(delegator, Arrays.asList(locator), range, Granularity.MIN_5);
+        assertEquals(8, cache.getBlockCount());
+
+        stamp(103 * BLOCK + SLOT).setDirty(false);
+        cache.getDatapointsForRange(delegator, Arrays.asList(locator), range, Granularity.MIN_5);
+        assertEquals(9, cache.getBlockCount());
+    }
+
+    @Test
+    public void testNothingIsCachedWithoutAScheduleContext() {
+        RollupResultCache cache = new RollupResultCache(Long.MAX_VALUE, BLOCK_SLOTS, 0, clock);
+
+        for (int i = 0; i < 3; i++) {
+            cache.getDatapointsForRange(delegator, Arrays.asList(locator), range, Granularity.MIN_5);
+        }
+
+        assertEquals(0, cache.getBlockCount());
+    }
+
+    private RollupResultCache cache(long maxBytes, int blockSlots, long finalizedAfterMillis, Clock clock) {
+        RollupResultCache cache = new RollupResultCache(maxBytes, blockSlots, finalizedAfterMillis, clock);
+        cache.setScheduleContext(context);
+        return cache;
+    }
+
+    /**
+     * Marks the 5 minute slots of [start, end) of the locators' shards as rolled up.
+     */
+    private void markRolled(long start, long end) {
+        for (long ts = start; ts < end; ts += SLOT) {
+            for (Locator l : Arrays.asList(locator, otherLocator)) {
+                context.update(ts, Util.getShard(l.toString()));
+                UpdateStamp stamp = context.getSlotStamps(Granularity.MIN_5, Util.getShard(l.toString()))
+                        .get(Granularity.MIN_5.slot(ts));
+                stamp.setState(UpdateStamp.State.Rolled);
+                stamp.setDirty(false);
+            }
+        }
+    }
+
+    private UpdateStamp stamp(long ts) {
+        return context.getSlotStamps(Granularity.MIN_5, Util.getShard(locator.toString())).get(Granularity.MIN_5.slot(ts));
+    }
+
+    private static List<Long> timestamps(Points<?> points) {
+        return new ArrayList<Long>(points.getPoints().keySet());
+    }
+
+    /**
+     * Returns a point for every 5 minute slot of the range that is read.
+     */
+    private static class RecordingDelegator extends MetricsRWDelegator {
+        final List<Range> reads = new ArrayList<Range>();
+        final List<List<Locator>> locators = new ArrayList<List<Locator>>();
+
+        RecordingDelegator() {
+            super(null, null);
+        }
+
+        @Override
+        public Map<Locator, MetricData> getDatapointsForRange(List<Locator> locators, Range range, Granularity gran) {
+            reads.add(range);
+            this.locators.add(new ArrayList<Locator>(locators));
+            Map<Locator, MetricData> result = new HashMap<Locator, MetricData>();
+            for (Locator locator : locators) {
+                result.put(locator, new MetricData(pointsFor(range), "unit"));
+            }
+            return result;
+        }
+
+        Points<SimpleNumber> pointsFor(Range range) {
+            Points<SimpleNumber> points = new Points<SimpleNumber>();
+            long first = range.getStart() + (SLOT - range.getStart() % SLOT) % SLOT;
+            for (long ts = first; ts <= range.getStop(); ts += SLOT) {
+                points.add(new Points.Point<SimpleNumber>(ts, new SimpleNumber(ts)));
+            }
+            return points;
+        }
+    }
+}
@@ -0,0 +1,203 @@
+/*
+ * Copyright 2017 Rackspace
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.rackspacecloud.blueflood.concurrent;
+
+import com.google.common.base.Ticker;
+import com.google.common.util.concurrent.SettableFuture;
+import com.rackspacecloud.blueflood.exceptions.QueryDeadlineExceededException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class QueryDeadlineTest {
+
+    private long nanos = 0;
+    private Ticker ticker;
+    private ExecutorService executor;
+
+    @Before
+    public void setUp() {
+        ticker = new Ticker() {
+            @Override
+            public long read() {
+                return nanos;
+            }
+        };
+        executor = Executors.newSingleThreadExecutor();
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testRemainingTimeRunsOut() {
+        QueryDeadline deadline = new QueryDeadline(1000, ticker);
+        assertEquals(1000, deadline.remainingMillis());
+        assertEquals(200, deadline.remainingMillis(200));
+
+        nanos += TimeUnit.MILLISECONDS.toNanos(999) + 1;
+        // rounded up, so that waiting for the remaining time reaches the deadline
+        assertEquals(1, deadline.remainingMillis());
+        assertFalse(deadline.isExpired());
+
+        nanos += TimeUnit.MILLISECONDS.toNanos(1);
+        assertEquals(0, deadline.remainingMillis());
+        assertTrue(deadline.isExpired());
+    }
+
+    @Test
+    public void testNoLimit() {
+        QueryDeadline deadline = new QueryDeadline(0, ticker);
+        nanos = Long.MAX_VALUE / 2;
+        assertEquals(Long.MAX_VALUE, deadline.remainingMillis());
+        assertEquals(500, deadline.remainingMillis(500));
+        assertFalse(deadline.isExpired());
+        assertSame(QueryDeadline.NONE, QueryDeadline.current());
+    }
+
+    @Test
+    public void testExpiryCancelsRegisteredFutures() {
+        QueryDeadline deadline = new QueryDeadline(1000, ticker);
+        SettableFuture<String> read = deadline.register(SettableFuture.<String>create());
+        deadline.check();
+
+        nanos += TimeUnit.MILLISECONDS.toNanos(1000);
+        try {
+            deadline.check();
+            fail("expected the deadline to have passed");
+        } catch (QueryDeadlineExceededException e) {
+            assertEquals("Query deadline exceeded", e.getMessage());
+        }
+        assertTrue(read.isCancelled());
+    }
+
+    @Test
+    public void testCancel() {
+        QueryDeadline deadline = new QueryDeadline(0, ticker);
+        SettableFuture<String> before = deadline.register(SettableFuture.<String>create());
+
+        deadline.cancel();
+
+        assertTrue(before.isCancelled());
+        assertTrue(deadline.isExpired());
+        assertTrue(deadline.register(SettableFuture.<String>create()).isCancelled());
+
+        QueryDeadline.NONE.cancel();
+        assertFalse(QueryDeadline.NONE.isExpired());
+    }
+
+    @Test
+    public void testCompletedFuturesAreReleased() {
+        QueryDeadline deadline = new QueryDeadline(0, ticker);
+        SettableFuture<String> done = deadline.register(SettableFuture.<String>create());
+        SettableFuture<String> pending = deadline.register(SettableFuture.<String>create());
+        assertEquals(2, deadline.getRegisteredCount());
+
+        done.set("read");
+        assertEquals(1, deadline.getRegisteredCount());
+
+        deadline.register(SettableFuture.<String>create()).set("read");
+        assertEquals(1, deadline.getRegisteredCount());
+
+        deadline.cancel();
+        assertTrue(pending.isCancelled());
+        assertFalse(done.isCancelled());
+    }
+
+    @Test
+    public void testCompletedFuturesThatCannotBeListenedToAreReleased() {
+        QueryDeadline deadline = new QueryDeadline(0, ticker);
+        for (int i = 0; i < 1000; i++) {
+            FutureTask<String> read = new FutureTask<String>(new Callable<String>() {
+                @Override
+                public String call() {
+                    return "read";
+                }
+            });
+            deadline.register(read);
+            read.run();
+        }
+        assertTrue(deadline.getRegisteredCount() <= 32);
+    }
+
+    @Test
+    public void testWrappedCallableRunsWithTheDeadline() throws Exception {
+        final QueryDeadline deadline = new QueryDeadline(1000, ticker);
+        QueryDeadline seen = executor.submit(deadline.wrap(new Callable<QueryDeadline>() {
+            @Override
+            public QueryDeadline call() {
+                return QueryDeadline.current();
+            }
+        })).get(10, TimeUnit.SECONDS);
+        assertSame(deadline, seen);
+
+        // the pool thread doesn't keep it
+        seen = executor.submit(new Callable<QueryDeadline>() {
+            @Override
+            public QueryDeadline call() {
+                return QueryDeadline.current();
+            }
+        }).get(10, TimeUnit.SECONDS);
+        assertSame(QueryDeadline.NONE, seen);
+    }
+
+    @Test(expected = QueryDeadlineExceededException.class)
+    public void testAwaitGivesUpAtTheDeadline() throws Exception {
+        QueryDeadline deadline = QueryDeadline.after(50);
+        SettableFuture<String> never = SettableFuture.create();
+        try {
+            deadline.await(never);
+        } finally {
+            assertTrue(never.isCancelled());
+        }
+    }
+
+    @Test
+    public void testFinishRunsListenersOnce() {
+        QueryDeadline deadline = new QueryDeadline(0, ticker);
+        final AtomicInteger finished = new AtomicInteger();
+        Runnable listener = new Runnable() {
+            @Override
+            public void run() {
+                finished.incrementAndGet();
+            }
+        };
+        deadline.onFinish(listener);
+        assertFalse(deadline.isFinishedLater());
+        assertSame(deadline, deadline.finishLater());
+        assertTrue(deadline.isFinishedLater());
+
+        deadline.finish();
+        deadline.finish();
+        assertEquals(1, finished.get());
+
+        // listeners added afterwards run right away
+        deadline.onFinish(listener);
+        assertEquals(2, finished.get());
+    }
+}
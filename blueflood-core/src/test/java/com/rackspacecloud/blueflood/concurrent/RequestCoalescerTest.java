@@ -0,0 +1,221 @@
+/*
+ * Copyright 2017 Rackspace
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.rackspacecloud.blueflood.concurrent;
+
+import com.codahale.metrics.Meter;
+import com.rackspacecloud.blueflood.exceptions.QueryDeadlineExceededException;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class RequestCoalescerTest {
+
+    private Meter coalesced;
+    private RequestCoalescer<String, String> coalescer;
+    private ExecutorService executor;
+
+    @Before
+    public void setUp() {
+        coalesced = new Meter();
+        coalescer = new RequestCoalescer<String, String>(coalesced);
+        executor = Executors.newCachedThreadPool();
+    }
+
+    @Test
+    public void testConcurrentIdenticalRequestsShareOneExecution() throws Exception {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger executions = new AtomicInteger();
+        final Callable<String> request = new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                executions.incrementAndGet();
+                started.countDown();
+                release.await();
+                return "result";
+            }
+        };
+
+        List<Future<String>> futures = new ArrayList<Future<String>>();
+        futures.add(executor.submit(execute("key", request)));
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+        for (int i = 0; i < 4; i++) {
+            futures.add(executor.submit(execute("key", request)));
+        }
+        waitForCoalesced(4);
+        release.countDown();
+
+        for (Future<String> future : futures) {
+            assertEquals("result", future.get(10, TimeUnit.SECONDS));
+        }
+        assertEquals(1, executions.get());
+        assertEquals(0, coalescer.getInFlightCount());
+    }
+
+    @Test
+    public void testDifferentKeysAreNotCoalesced() {
+        assertEquals("a", coalescer.execute("a", constant("a")));
+        assertEquals("b", coalescer.execute("b", constant("b")));
+        assertEquals(0, coalesced.getCount());
+    }
+
+    @Test
+    public void testFinishedRequestsAreNotCached() {
+        final AtomicInteger executions = new AtomicInteger();
+        Callable<String> request = new Callable<String>() {
+            @Override
+            public String call() {
+                return String.valueOf(executions.incrementAndGet());
+            }
+        };
+
+        assertEquals("1", coalescer.execute("key", request));
+        assertEquals("2", coalescer.execute("key", request));
+    }
+
+    @Test
+    public void testWaitingRequestsGetTheSameException() throws Exception {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final Callable<String> request = new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                started.countDown();
+                release.await();
+                throw new IllegalStateException("read failed");
+            }
+        };
+
+        Future<String> first = executor.submit(execute("key", request));
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+        Future<String> second = executor.submit(execute("key", request));
+        waitForCoalesced(1);
+        release.countDown();
+
+        for (Future<String> future : new Future[] { first, second }) {
+            try {
+                future.get(10, TimeUnit.SECONDS);
+                fail("expected the request to fail");
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof IllegalStateException);
+                assertEquals("read failed", e.getCause().getMessage());
+            }
+        }
+    }
+
+    @Test
+    public void testWaitingRequestGivesUpAtItsDeadline() throws Exception {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final Callable<String> request = new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                started.countDown();
+                release.await();
+                return "result";
+            }
+        };
+
+        Future<String> first = executor.submit(execute("key", request));
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+        Future<String> second = executor.submit(new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                return QueryDeadline.after(50).wrap(execute("key", request)).call();
+            }
+        });
+
+        try {
+            second.get(10, TimeUnit.SECONDS);
+            fail("expected the waiting request to give up");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof QueryDeadlineExceededException);
+        }
+
+        release.countDown();
+        assertEquals("result", first.get(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testWaitingRequestGivesUpWhenItsQueryIsCancelled() throws Exception {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final Callable<String> request = new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                started.countDown();
+                release.await();
+                return "result";
+            }
+        };
+
+        Future<String> first = executor.submit(execute("key", request));
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+        final QueryDeadline deadline = QueryDeadline.after(0);
+        Future<String> second = executor.submit(deadline.wrap(execute("key", request)));
+        waitForCoalesced(1);
+        deadline.cancel();
+
+        try {
+            second.get(10, TimeUnit.SECONDS);
+            fail("expected the waiting request to give up");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof QueryDeadlineExceededException);
+        }
+
+        release.countDown();
+        assertEquals("result", first.get(10, TimeUnit.SECONDS));
+    }
+
+    private Callable<String> execute(final String key, final Callable<String> request) {
+        return new Callable<String>() {
+            @Override
+            public String call() {
+                return coalescer.execute(key, request);
+            }
+        };
+    }
+
+    private static Callable<String> constant(final String value) {
+        return new Callable<String>() {
+            @Override
+            public String call() {
+                return value;
+            }
+        };
+    }
+
+    private void waitForCoalesced(long count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (coalesced.getCount() < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals(count, coalesced.getCount());
+    }
+}
@@ -0,0 +1,264 @@
+/*
+ * Copyright 2017 Rackspace
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.rackspacecloud.blueflood.eventemitter;
+
+import com.google.common.base.Functions;
+import com.rackspacecloud.blueflood.types.Points;
+import com.rackspacecloud.blueflood.types.Rollup;
+import com.rackspacecloud.blueflood.types.SimpleNumber;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.*;
+
+public class RollupEventDispatcherTest {
+
+    private static final String EVENT = RollupEventEmitter.ROLLUP_EVENT_NAME;
+
+    private RollupEventDispatcher dispatcher;
+    private Rollup rollup;
+
+    @Before
+    public void setUp() throws Exception {
+        rollup = Rollup.BasicFromRaw.compute(new Points<SimpleNumber>());
+    }
+
+    @After
+    public void tearDown() {
+        if (dispatcher != null) {
+            dispatcher.shutdown();
+        }
+    }
+
+    @Test
+    public void testCapacityIsRoundedUpToPowerOfTwo() {
+        dispatcher = new RollupEventDispatcher(100, 10, RollupEventDispatcher.OverflowPolicy.BLOCK, 1);
+        assertEquals(128, dispatcher.getCapacity());
+    }
+
+    @Test
+    public void testNothingIsPublishedWithoutListeners() {
+        dispatcher = new RollupEventDispatcher(4, 10, RollupEventDispatcher.OverflowPolicy.BLOCK, 1);
+        assertFalse(dispatcher.publish(EVENT, event(0)));
+    }
+
+    @Test
+    public void testEventsAreDeliveredInOrderAndInBatches() throws Exception {
+        dispatcher = new RollupEventDispatcher(16, 4, RollupEventDispatcher.OverflowPolicy.BLOCK, 1);
+        BlockingListener listener = new BlockingListener();
+        dispatcher.subscribe(EVENT, listener);
+
+        // hold the listener on its first batch so that the rest piles up.
+        assertTrue(dispatcher.publish(EVENT, event(0)));
+        assertTrue(listener.entered.await(5, TimeUnit.SECONDS));
+        for (int i = 1; i < 10; i++) {
+            assertTrue(dispatcher.publish(EVENT, event(i)));
+        }
+        assertEquals(9, dispatcher.getLag(listener));
+        listener.release.countDown();
+
+        listener.awaitEvents(10);
+        for (int i = 0; i < 10; i++) {
+            assertEquals(i, listener.events.get(i).getTimestamp());
+        }
+        for (Integer batchSize : listener.batchSizes) {
+            assertTrue(batchSize <= 4);
+        }
+        assertTrue(listener.batchSizes.size() < 10);
+        assertEquals(0, dispatcher.getLag(listener));
+    }
+
+    @Test
+    public void testOnlyMatchingEventsAreDelivered() throws Exception {
+        dispatcher = new RollupEventDispatcher(16, 4, RollupEventDispatcher.OverflowPolicy.BLOCK, 1);
+        BlockingListener listener = new BlockingListener();
+        listener.release.countDown();
+        dispatcher.subscribe(EVENT, listener);
+
+        dispatcher.publish("other", event(0));
+        dispatcher.publish(EVENT, event(1));
+
+        listener.awaitEvents(1);
+        Thread.sleep(100);
+        assertEquals(1, listener.events.size());
+        assertEquals(1, listener.events.get(0).getTimestamp());
+    }
+
+    @Test
+    public void testDropOldestDoesNotHoldUpPublisherOrOtherListeners() throws Exception {
+        dispatcher = new RollupEventDispatcher(4, 1, RollupEventDispatcher.OverflowPolicy.DROP_OLDEST, 1);
+        BlockingListener slow = new BlockingListener();
+        BlockingListener fast = new BlockingListener();
+        fast.release.countDown();
+        dispatcher.subscribe(EVENT, slow);
+        dispatcher.subscribe(EVENT, fast);
+
+        dispatcher.publish(EVENT, event(0));
+        assertTrue(slow.entered.await(5, TimeUnit.SECONDS));
+        for (int i = 1; i <= 20; i++) {
+            assertTrue(dispatcher.publish(EVENT, event(i)));
+            // the fast listener keeps up while the slow one is stuck.
+            fast.awaitEvents(i + 1);
+        }
+        assertEquals(dispatcher.getCapacity(), dispatcher.getLag(slow));
+
+        slow.release.countDown();
+        // the slow listener only sees its first event and the newest ones that fit in the ring.
+        slow.awaitEvents(5);
+        Thread.sleep(100);
+        assertEquals(5, slow.events.size());
+        assertEquals(0, slow.events.get(0).getTimestamp());
+        assertEquals(17, slow.events.get(1).getTimestamp());
+        assertEquals(20, slow.events.get(4).getTimestamp());
+    }
+
+    @Test
+    public void testSampleKeepsOneInRateWhileFull() throws Exception {
+        dispatcher = new RollupEventDispatcher(4, 1, RollupEventDispatcher.OverflowPolicy.SAMPLE, 3);
+        BlockingListener listener = new BlockingListener();
+        dispatcher.subscribe(EVENT, listener);
+
+        dispatcher.publish(EVENT, event(0));
+        assertTrue(listener.entered.await(5, TimeUnit.SECONDS));
+        for (int i = 1; i <= 4; i++) {
+            assertTrue(dispatcher.publish(EVENT, event(i)));
+        }
+        // the ring is full now.
+        assertFalse(dispatcher.publish(EVENT, event(5)));
+        assertFalse(dispatcher.publish(EVENT, event(6)));
+        assertTrue(dispatcher.publish(EVENT, event(7)));
+        assertEquals(4, dispatcher.getLag(listener));
+    }
+
+    @Test
+    public void testBlockWaitsForSlowestListener() throws Exception {
+        dispatcher = new RollupEventDispatcher(2, 1, RollupEventDispatcher.OverflowPolicy.BLOCK, 1);
+        final BlockingListener listener = new BlockingListener();
+        dispatcher.subscribe(EVENT, listener);
+
+        dispatcher.publish(EVENT, event(0));
+        assertTrue(listener.entered.await(5, TimeUnit.SECONDS));
+        dispatcher.publish(EVENT, event(1));
+        dispatcher.publish(EVENT, event(2));
+
+        final AtomicBoolean published = new AtomicBoolean(false);
+        Thread publisher = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                published.set(dispatcher.publish(EVENT, event(3)));
+            }
+        });
+        publisher.start();
+        Thread.sleep(200);
+        assertFalse(published.get());
+
+        listener.release.countDown();
+        publisher.join(5000);
+        assertTrue(published.get());
+        listener.awaitEvents(4);
+        assertEquals(4, listener.events.size());
+    }
+
+    @Test
+    public void testBlockDropsEventAfterTimeout() throws Exception {
+        dispatcher = new RollupEventDispatcher(2, 1, RollupEventDispatcher.OverflowPolicy.BLOCK, 1, 100,
+                Functions.<RollupEvent[]>identity());
+        BlockingListener listener = new BlockingListener();
+        dispatcher.subscribe(EVENT, listener);
+
+        dispatcher.publish(EVENT, event(0));
+        assertTrue(listener.entered.await(5, TimeUnit.SECONDS));
+        dispatcher.publish(EVENT, event(1));
+        dispatcher.publish(EVENT, event(2));
+
+        long start = System.nanoTime();
+        assertFalse(dispatcher.publish(EVENT, event(3)));
+        long waitedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        assertTrue(waitedMillis >= 100);
+        assertTrue(waitedMillis < 5000);
+
+        listener.release.countDown();
+        listener.awaitEvents(3);
+        assertEquals(3, listener.events.size());
+    }
+
+    @Test
+    public void testUnsubscribedListenerNoLongerHoldsUpPublisher() throws Exception {
+        dispatcher = new RollupEventDispatcher(2, 1, RollupEventDispatcher.OverflowPolicy.BLOCK, 1);
+        BlockingListener listener = new BlockingListener();
+        dispatcher.subscribe(EVENT, listener);
+        dispatcher.unsubscribe(EVENT, listener);
+
+        assertEquals(-1, dispatcher.getLag(listener));
+        assertFalse(dispatcher.publish(EVENT, event(0)));
+    }
+
+    @Test
+    public void testEmitterDeliversThroughDispatcher() throws Exception {
+        dispatcher = new RollupEventDispatcher(16, 4, RollupEventDispatcher.OverflowPolicy.BLOCK, 1);
+        RollupEventEmitter emitter = new RollupEventEmitter(dispatcher);
+        BlockingListener listener = new BlockingListener();
+        listener.release.countDown();
+        emitter.on(EVENT, listener);
+
+        assertNull(emitter.emit(EVENT, event(0)));
+        listener.awaitEvents(1);
+
+        emitter.off(EVENT, listener);
+        assertEquals(-1, dispatcher.getLag(listener));
+    }
+
+    private RollupEvent event(long timestamp) {
+        return new RollupEvent(null, rollup, "unit", "gran", timestamp);
+    }
+
+    private static class BlockingListener implements Emitter.Listener<RollupEvent> {
+        final List<RollupEvent> events = Collections.synchronizedList(new ArrayList<RollupEvent>());
+        final List<Integer> batchSizes = Collections.synchronizedList(new ArrayList<Integer>());
+        final CountDownLatch entered = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+
+        @Override
+        public void call(RollupEvent... args) {
+            events.addAll(Arrays.asList(args));
+            batchSizes.add(args.length);
+            entered.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        void awaitEvents(int count) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + 5000;
+            while (events.size() < count && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertTrue("expected " + count + " events, got " + events.size(), events.size() >= count);
+        }
+    }
+}
@@ -9,6 +9,7 @@ import com.rackspacecloud.blueflood.io.astyanax.AShardStateIO;
 import com.rackspacecloud.blueflood.io.datastax.DatastaxIO;
 import com.rackspacecloud.blueflood.io.datastax.DMetadataIO;
 import com.rackspacecloud.blueflood.io.datastax.DShardStateIO;
+import com.rackspacecloud.blueflood.io.memory.*;
 import com.rackspacecloud.blueflood.service.Configuration;
 import com.rackspacecloud.blueflood.service.CoreConfig;
 import org.junit.Before;
@@ -38,7 +39,8 @@ import static org.junit.Assert.*;
         "com.rackspacecloud.blueflood.io.datastax.DatastaxIO",
         "com.rackspacecloud.blueflood.cache.MetadataCache",
         "com.rackspacecloud.blueflood.io.datastax.DAbstractMetricsRW",
-        "com.rackspacecloud.blueflood.io.datastax.DBasicMetricsRW"} )
+        "com.rackspacecloud.blueflood.io.datastax.DBasicMetricsRW",
+        "com.rackspacecloud.blueflood.io.memory.MAbstractMetricsRW"} )
 @RunWith(PowerMockRunner.class)
 public class IOContainerTest {
 
@@ -65,6 +67,7 @@ public class IOContainerTest {
         when( mockSession.prepare( any( RegularStatement.class ) ) ).thenReturn( mockPreparedStatement );
         when( mockSession.prepare( anyString() ) ).thenReturn(mockPreparedStatement);
         when( mockPreparedStatement.setConsistencyLevel(any(ConsistencyLevel.class)) ).thenReturn( mockPreparedStatement );
+        when( mockPreparedStatement.setIdempotent(anyBoolean()) ).thenReturn( mockPreparedStatement );
     }
 
 
@@ -114,6 +117,24 @@ public class IOContainerTest {
         assertTrue("MetadataIO instance is Datastax", metadataIO instanceof DMetadataIO);
     }
 
+    @Test
+    public void testMemoryDriverConfig() {
+
+        when(mockConfiguration.getStringProperty(eq(CoreConfig.CASSANDRA_DRIVER))).thenReturn("memory");
+
+        IOContainer.resetInstance();
+        IOContainer ioContainer = IOContainer.fromConfig();
+        ShardStateIO shardStateIO = ioContainer.getShardStateIO();
+        assertTrue("ShardStateIO instance is in memory", shardStateIO instanceof MShardStateIO);
+        MetadataIO metadataIO = ioContainer.getMetadataIO();
+        assertTrue("MetadataIO instance is in memory", metadataIO instanceof MMetadataIO);
+        assertTrue("LocatorIO instance is in memory", ioContainer.getLocatorIO() instanceof MLocatorIO);
+        assertTrue("DelayedLocatorIO instance is in memory", ioContainer.getDelayedLocatorIO() instanceof MDelayedLocatorIO);
+        assertTrue("basic MetricsRW instance is in memory", ioContainer.getBasicMetricsRW() instanceof MBasicMetricsRW);
+        assertTrue("preaggregated MetricsRW instance is in memory",
+                ioContainer.getPreAggregatedMetricsRW() instanceof MPreaggregatedMetricsRW);
+    }
+
     /**
      * This class is the test class for {@link com.rackspacecloud.blueflood.io.IOContainer.DriverType}
      */
@@ -142,5 +163,11 @@ public class IOContainerTest {
             IOContainer.DriverType driver = IOContainer.DriverType.getDriverType("datastax");
             assertEquals("datastax driver config", IOContainer.DriverType.DATASTAX, driver);
         }
+
+        @Test
+        public void testMemoryDriver() {
+            IOContainer.DriverType driver = IOContainer.DriverType.getDriverType("memory");
+            assertEquals("memory driver config", IOContainer.DriverType.MEMORY, driver);
+        }
     }
 }
@@ -0,0 +1,75 @@
+/*
+ * Copyright 2017 Rackspace
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.rackspacecloud.blueflood.io;
+
+import com.rackspacecloud.blueflood.types.Locator;
+import com.rackspacecloud.blueflood.utils.Util;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class LocatorPartitionsTest {
+
+    @Test
+    public void testSingleBucketIsTheShard() {
+        LocatorPartitions partitions = new LocatorPartitions(1, true);
+        Locator locator = Locator.createLocatorFromPathComponents("tenant", "a", "b");
+        long shard = Util.getShard(locator.toString());
+
+        assertEquals(shard, partitions.getPartitionKey(locator));
+        assertEquals(Arrays.asList(shard), partitions.getPartitionKeys(shard));
+    }
+
+    @Test
+    public void testLocatorsOfAShardAreSpreadOverItsBuckets() {
+        LocatorPartitions partitions = new LocatorPartitions(4, false);
+        Set<Long> used = new HashSet<Long>();
+        for (int i = 0; i < 2000; i++) {
+            Locator locator = Locator.createLocatorFromPathComponents("tenant", "metric" + i);
+            long shard = Util.getShard(locator.toString());
+            long key = partitions.getPartitionKey(locator);
+
+            assertTrue(partitions.getPartitionKeys(shard).contains(key));
+            // never the partition of a shard, nor of another shard's bucket
+            assertTrue(key >= Constants.NUMBER_OF_SHARDS);
+            assertEquals(shard, key % Constants.NUMBER_OF_SHARDS);
+            if (shard == 5) {
+                used.add(key);
+            }
+        }
+        assertEquals(4, used.size());
+    }
+
+    @Test
+    public void testUnbucketedPartitionIsReadWhileMoving() {
+        List<Long> keys = new LocatorPartitions(3, true).getPartitionKeys(7);
+        assertEquals(Arrays.asList(7L + 128, 7L + 256, 7L + 384, 7L), keys);
+
+        keys = new LocatorPartitions(3, false).getPartitionKeys(7);
+        assertEquals(Arrays.asList(7L + 128, 7L + 256, 7L + 384), keys);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNoBuckets() {
+        new LocatorPartitions(0, true);
+    }
+}
@@ -0,0 +1,160 @@
+/*
+ * Copyright 2017 Rackspace
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.rackspacecloud.blueflood.io.datastax;
+
+import com.datastax.driver.core.*;
+import com.rackspacecloud.blueflood.io.CassandraModel;
+import com.rackspacecloud.blueflood.types.Locator;
+import com.rackspacecloud.blueflood.types.Range;
+import com.rackspacecloud.blueflood.utils.Clock;
+import org.joda.time.Instant;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+public class DTimeBucketIOTest {
+
+    private static final long DAY = TimeUnit.DAYS.toMillis(1);
+    private static final long HOUR = TimeUnit.HOURS.toMillis(1);
+    private static final long NOW = 20 * DAY + HOUR;
+    private static final long MAX_FUTURE = TimeUnit.MINUTES.toMillis(10);
+
+    private final Locator locator = Locator.createLocatorFromPathComponents("123456", "a", "b");
+
+    private Session session;
+    private PreparedStatement prepared;
+    private Clock clock;
+
+    @Before
+    public void setUp() {
+        session = mock(Session.class);
+        prepared = mock(PreparedStatement.class);
+        when(session.prepare(anyString())).thenReturn(prepared);
+        when(prepared.setConsistencyLevel(any(ConsistencyLevel.class))).thenReturn(prepared);
+        when(prepared.setIdempotent(anyBoolean())).thenReturn(prepared);
+        when(session.executeAsync(any(Statement.class))).thenReturn(mock(ResultSetFuture.class));
+        clock = mock(Clock.class);
+        when(clock.now()).thenReturn(new Instant(NOW));
+    }
+
+    private DTimeBucketIO bucketIO(long since) {
+        return new DTimeBucketIO(session, since, 288, 400, MAX_FUTURE, clock);
+    }
+
+    @Test
+    public void testBucketsAreSizedByGranularity() {
+        DTimeBucketIO io = bucketIO(1);
+
+        // 288 slots of 5 minutes
+        assertEquals(DAY, io.getBucketStart(CassandraModel.CF_METRICS_5M_NAME, DAY + HOUR));
+        assertEquals(DAY, io.getBucketStart(CassandraModel.CF_METRICS_PREAGGREGATED_FULL_NAME, DAY + HOUR));
+        // 288 slots of 60 minutes
+        assertEquals(0, io.getBucketStart(CassandraModel.CF_METRICS_60M_NAME, 11 * DAY));
+        assertEquals(12 * DAY, io.getBucketStart(CassandraModel.CF_METRICS_60M_NAME, 13 * DAY));
+    }
+
+    @Test
+    public void testRangeIsReadFromEveryBucketItCovers() {
+        DTimeBucketIO io = bucketIO(1);
+
+        List<ResultSetFuture> futures = io.selectForLocatorAndRange(CassandraModel.CF_METRICS_5M_NAME,
+                locator, new Range(HOUR, 2 * DAY + HOUR));
+
+        assertEquals(3, futures.size());
+        verify(prepared).bind(locator.toString(), 0L, HOUR, 2 * DAY + HOUR);
+        verify(prepared).bind(locator.toString(), DAY, HOUR, 2 * DAY + HOUR);
+        verify(prepared).bind(locator.toString(), 2 * DAY, HOUR, 2 * DAY + HOUR);
+    }
+
+    @Test
+    public void testBucketsBeforeTheyWereEnabledAreNotRead() {
+        DTimeBucketIO io = bucketIO(2 * DAY + 5);
+
+        List<ResultSetFuture> futures = io.selectForLocatorAndRange(CassandraModel.CF_METRICS_5M_NAME,
+                locator, new Range(0, 3 * DAY + HOUR));
+
+        assertEquals(2, futures.size());
+        verify(prepared).bind(locator.toString(), 2 * DAY, 2 * DAY + 5, 3 * DAY + HOUR);
+        verify(prepared).bind(locator.toString(), 3 * DAY, 2 * DAY + 5, 3 * DAY + HOUR);
+    }
+
+    @Test
+    public void testRangeIsNotReadPastTheAcceptedCollectionTimes() {
+        DTimeBucketIO io = bucketIO(1);
+
+        List<ResultSetFuture> futures = io.selectForLocatorAndRange(CassandraModel.CF_METRICS_5M_NAME,
+                locator, new Range(NOW - HOUR, Long.MAX_VALUE));
+
+        assertEquals(1, futures.size());
+        verify(prepared).bind(locator.toString(), 20 * DAY, NOW - HOUR, NOW + MAX_FUTURE);
+    }
+
+    @Test
+    public void testRangeInTheFutureIsNotRead() {
+        DTimeBucketIO io = bucketIO(1);
+
+        List<ResultSetFuture> futures = io.selectForLocatorAndRange(CassandraModel.CF_METRICS_5M_NAME,
+                locator, new Range(NOW + DAY, NOW + 100 * DAY));
+
+        assertTrue(futures.isEmpty());
+        verify(session, never()).executeAsync(any(Statement.class));
+    }
+
+    @Test
+    public void testOnlyTheNewestBucketsOfALongRangeAreRead() {
+        DTimeBucketIO io = new DTimeBucketIO(session, 1, 288, 3, MAX_FUTURE, clock);
+
+        List<ResultSetFuture> futures = io.selectForLocatorAndRange(CassandraModel.CF_METRICS_5M_NAME,
+                locator, new Range(HOUR, NOW));
+
+        assertEquals(3, futures.size());
+        verify(prepared).bind(locator.toString(), 18 * DAY, 18 * DAY, NOW);
+        verify(prepared).bind(locator.toString(), 19 * DAY, 18 * DAY, NOW);
+        verify(prepared).bind(locator.toString(), 20 * DAY, 18 * DAY, NOW);
+        verify(session, times(3)).executeAsync(any(Statement.class));
+    }
+
+    @Test
+    public void testInsertGoesToTheBucketOfItsColumnFamily() {
+        DTimeBucketIO io = bucketIO(DAY);
+        assertFalse(io.isBucketed(DAY - 1));
+        assertTrue(io.isBucketed(DAY));
+
+        PreparedStatement unbucketed = mock(PreparedStatement.class);
+        ColumnDefinitions variables = mock(ColumnDefinitions.class);
+        when(variables.getTable(0)).thenReturn(CassandraModel.CF_METRICS_20M_NAME);
+        when(unbucketed.getVariables()).thenReturn(variables);
+        ByteBuffer value = ByteBuffer.wrap(new byte[] { 1, 2, 3 });
+
+        io.bindInsert(unbucketed, locator, 5 * DAY + HOUR, value, 600);
+
+        // 288 slots of 20 minutes are 4 days
+        verify(prepared).bind(locator.toString(), 4 * DAY, 5 * DAY + HOUR, value, 600);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnknownColumnFamily() {
+        bucketIO(1).selectForLocatorAndRange(CassandraModel.CF_METRICS_LOCATOR_NAME,
+                locator, new Range(0, DAY));
+    }
+}
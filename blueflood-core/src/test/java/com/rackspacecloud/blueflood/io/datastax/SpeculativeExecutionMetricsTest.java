@@ -0,0 +1,88 @@
+/*
+ * Copyright 2017 Rackspace
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.rackspacecloud.blueflood.io.datastax;
+
+import com.codahale.metrics.Meter;
+import com.datastax.driver.core.ExecutionInfo;
+import com.datastax.driver.core.ResultSet;
+import com.rackspacecloud.blueflood.utils.Metrics;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class SpeculativeExecutionMetricsTest {
+
+    private final Meter speculated = Metrics.meter(SpeculativeExecutionMetrics.class, "Reads Speculated");
+    private final Meter won = Metrics.meter(SpeculativeExecutionMetrics.class, "Speculative Executions Won");
+    private final Meter lost = Metrics.meter(SpeculativeExecutionMetrics.class, "Speculative Executions Lost");
+
+    @Test
+    public void testReadWithoutSpeculativeExecutionIsNotCounted() {
+        long before = speculated.getCount();
+        ResultSet resultSet = resultSet(0, 0);
+
+        assertSame(resultSet, SpeculativeExecutionMetrics.record(resultSet));
+        assertEquals(before, speculated.getCount());
+    }
+
+    @Test
+    public void testSpeculativeExecutionWon() {
+        long speculatedBefore = speculated.getCount();
+        long wonBefore = won.getCount();
+        long lostBefore = lost.getCount();
+
+        SpeculativeExecutionMetrics.record(resultSet(2, 1));
+
+        assertEquals(speculatedBefore + 1, speculated.getCount());
+        assertEquals(wonBefore + 1, won.getCount());
+        assertEquals(lostBefore, lost.getCount());
+    }
+
+    @Test
+    public void testSpeculativeExecutionLost() {
+        long speculatedBefore = speculated.getCount();
+        long wonBefore = won.getCount();
+        long lostBefore = lost.getCount();
+
+        SpeculativeExecutionMetrics.record(resultSet(1, 0));
+
+        assertEquals(speculatedBefore + 1, speculated.getCount());
+        assertEquals(wonBefore, won.getCount());
+        assertEquals(lostBefore + 1, lost.getCount());
+    }
+
+    @Test
+    public void testResultSetWithoutExecutionInfo() {
+        long before = speculated.getCount();
+
+        SpeculativeExecutionMetrics.record(mock(ResultSet.class));
+        SpeculativeExecutionMetrics.record(null);
+
+        assertEquals(before, speculated.getCount());
+    }
+
+    private static ResultSet resultSet(int speculativeExecutions, int successfulExecutionIndex) {
+        ExecutionInfo info = mock(ExecutionInfo.class);
+        when(info.getSpeculativeExecutions()).thenReturn(speculativeExecutions);
+        when(info.getSuccessfulExecutionIndex()).thenReturn(successfulExecutionIndex);
+        ResultSet resultSet = mock(ResultSet.class);
+        when(resultSet.getExecutionInfo()).thenReturn(info);
+        return resultSet;
+    }
+}
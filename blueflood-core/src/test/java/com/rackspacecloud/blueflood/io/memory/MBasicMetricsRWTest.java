@@ -0,0 +1,137 @@
+/*
+ * Copyright 2017 Rackspace
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.rackspacecloud.blueflood.io.memory;
+
+import com.rackspacecloud.blueflood.io.CassandraModel;
+import com.rackspacecloud.blueflood.rollup.Granularity;
+import com.rackspacecloud.blueflood.rollup.SlotKey;
+import com.rackspacecloud.blueflood.service.SingleRollupWriteContext;
+import com.rackspacecloud.blueflood.types.*;
+import com.rackspacecloud.blueflood.utils.Clock;
+import com.rackspacecloud.blueflood.utils.TimeValue;
+import com.rackspacecloud.blueflood.utils.Util;
+import org.joda.time.Instant;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class MBasicMetricsRWTest {
+
+    private static final String TENANT = "memoryTenant";
+
+    private long now = 1500000000000L;
+    private Clock clock;
+    private MemoryStorage storage;
+    private MLocatorIO locatorIO;
+    private MDelayedLocatorIO delayedLocatorIO;
+
+    @Before
+    public void setUp() {
+        clock = new Clock() {
+            @Override
+            public Instant now() {
+                return new Instant(now);
+            }
+        };
+        storage = new MemoryStorage(clock);
+        locatorIO = new MLocatorIO(storage);
+        delayedLocatorIO = new MDelayedLocatorIO(storage);
+    }
+
+    @Test
+    public void testRawMetricsAreReadBackWithTheirLocator() throws Exception {
+        MBasicMetricsRW rw = new MBasicMetricsRW(storage, locatorIO, delayedLocatorIO, false, clock);
+        Locator locator = Locator.createLocatorFromPathComponents(TENANT, "raw", String.valueOf(System.nanoTime()));
+
+        List<IMetric> metrics = new ArrayList<IMetric>();
+        for (int i = 0; i < 5; i++) {
+            metrics.add(new Metric(locator, i * 10, now - i * 30000, new TimeValue(1, TimeUnit.DAYS), "ms"));
+        }
+        rw.insertMetrics(metrics);
+
+        Points<SimpleNumber> points = rw.getDataToRollup(locator, RollupType.BF_BASIC,
+                new Range(now - 60000, now), CassandraModel.CF_METRICS_FULL_NAME);
+        assertEquals(3, points.getPoints().size());
+        assertEquals(10, points.getPoints().get(now - 30000).getData().getValue().intValue());
+
+        assertTrue(locatorIO.getLocators(Util.getShard(locator.toString())).contains(locator));
+
+        // raw metrics live as long as their TTL
+        now += TimeUnit.DAYS.toMillis(1) + 30000;
+        points = rw.getDataToRollup(locator, RollupType.BF_BASIC,
+                new Range(now - TimeUnit.DAYS.toMillis(2), now), CassandraModel.CF_METRICS_FULL_NAME);
+        assertTrue(points.getPoints().isEmpty());
+    }
+
+    @Test
+    public void testRollupsAreWrittenToTheirColumnFamily() throws Exception {
+        MBasicMetricsRW rw = new MBasicMetricsRW(storage, locatorIO, delayedLocatorIO, false, clock);
+        Locator locator = Locator.createLocatorFromPathComponents(TENANT, "rollup", String.valueOf(System.nanoTime()));
+
+        Points<SimpleNumber> input = new Points<SimpleNumber>();
+        input.add(new Points.Point<SimpleNumber>(now, new SimpleNumber(4)));
+        input.add(new Points.Point<SimpleNumber>(now + 1000, new SimpleNumber(6)));
+        BasicRollup rollup = BasicRollup.buildRollupFromRawSamples(input);
+
+        long slotStart = Granularity.MIN_5.snapMillis(now);
+        rw.insertRollups(Arrays.asList(new SingleRollupWriteContext(rollup, locator, Granularity.MIN_5,
+                CassandraModel.getColumnFamily(BasicRollup.class, Granularity.MIN_5), slotStart)));
+
+        Points<BasicRollup> points = rw.getDataToRollup(locator, RollupType.BF_BASIC,
+                new Range(slotStart, slotStart + 300000), CassandraModel.CF_METRICS_5M_NAME);
+        Map<Long, Points.Point<BasicRollup>> read = points.getPoints();
+        assertEquals(1, read.size());
+        assertEquals(rollup, read.get(slotStart).getData());
+
+        assertTrue(rw.getDataToRollup(locator, RollupType.BF_BASIC,
+                new Range(slotStart, slotStart + 300000), CassandraModel.CF_METRICS_20M_NAME).getPoints().isEmpty());
+    }
+
+    @Test
+    public void testDelayedMetricsRecordTheirLocator() throws Exception {
+        MBasicMetricsRW rw = new MBasicMetricsRW(storage, locatorIO, delayedLocatorIO, true, clock);
+        Locator locator = Locator.createLocatorFromPathComponents(TENANT, "delayed", String.valueOf(System.nanoTime()));
+
+        long collectionTime = now - TimeUnit.HOURS.toMillis(6);
+        rw.insertMetrics(Arrays.<IMetric>asList(new Metric(locator, 1, collectionTime,
+                new TimeValue(1, TimeUnit.DAYS), "ms")));
+
+        Granularity delayedGranularity = Granularity.MIN_20;
+        SlotKey slotKey = SlotKey.of(delayedGranularity, delayedGranularity.slot(collectionTime),
+                Util.getShard(locator.toString()));
+        assertTrue(delayedLocatorIO.getLocators(slotKey).contains(locator));
+    }
+
+    @Test
+    public void testLatencyIsAddedToReads() throws Exception {
+        storage = new MemoryStorage(clock, 50, 0, 60000);
+        MBasicMetricsRW rw = new MBasicMetricsRW(storage, new MLocatorIO(storage), new MDelayedLocatorIO(storage),
+                false, clock);
+        Locator locator = Locator.createLocatorFromPathComponents(TENANT, "slow");
+
+        long start = System.nanoTime();
+        rw.getDataToRollup(locator, RollupType.BF_BASIC, new Range(0, now), CassandraModel.CF_METRICS_FULL_NAME);
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) >= 50);
+    }
+}
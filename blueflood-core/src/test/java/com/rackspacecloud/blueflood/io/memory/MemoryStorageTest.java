@@ -0,0 +1,82 @@
+/*
+ * Copyright 2017 Rackspace
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+
+package com.rackspacecloud.blueflood.io.memory;
+
+import com.rackspacecloud.blueflood.types.Locator;
+import com.rackspacecloud.blueflood.utils.Clock;
+import org.joda.time.Instant;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class MemoryStorageTest {
+
+    private static final String CF = "metrics_full";
+
+    private final Locator locator = Locator.createLocatorFromPathComponents("123456", "a", "b");
+
+    private long now = 1000000L;
+    private MemoryStorage storage;
+
+    @Before
+    public void setUp() {
+        storage = new MemoryStorage(new Clock() {
+            @Override
+            public Instant now() {
+                return new Instant(now);
+            }
+        }, 0, 0, 60000);
+    }
+
+    @Test
+    public void testWriteRemovesExpiredCellsNoReadCameAcross() {
+        storage.getMetrics(CF).put(locator, 1L, "short", 10);
+        storage.getMetrics(CF).put(locator, 2L, "long", 600);
+        storage.getLocators().put(1L, locator.toString(), "", 10);
+        storage.getShardState().put(1, "state", 1L, 0);
+
+        now += 10000;
+        storage.write();
+        // the sweep interval hasn't passed yet
+        assertEquals(2, storage.getMetrics(CF).getCellCount());
+        assertEquals(1, storage.getLocators().getCellCount());
+
+        now += 50000;
+        storage.write();
+        assertEquals(1, storage.getMetrics(CF).getCellCount());
+        assertEquals("long", storage.getMetrics(CF).get(locator, 2L));
+        assertEquals(0, storage.getLocators().getCellCount());
+        assertEquals(1, storage.getShardState().getCellCount());
+    }
+
+    @Test
+    public void testSweepsAreAnIntervalApart() {
+        now += 60000;
+        storage.write();
+        storage.getMetrics(CF).put(locator, 1L, "short", 10);
+
+        now += 30000;
+        storage.write();
+        assertEquals(1, storage.getMetrics(CF).getCellCount());
+
+        now += 30000;
+        storage.write();
+        assertEquals(0, storage.getMetrics(CF).getCellCount());
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright 2017 Rackspace
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.rackspacecloud.blueflood.io.memory;
+
+import com.rackspacecloud.blueflood.utils.Clock;
+import org.joda.time.Instant;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.SortedMap;
+
+import static org.junit.Assert.*;
+
+public class MemoryTableTest {
+
+    private long now = 1000000L;
+    private MemoryTable<String, Long, String> table;
+
+    @Before
+    public void setUp() {
+        table = new MemoryTable<String, Long, String>(new Clock() {
+            @Override
+            public Instant now() {
+                return new Instant(now);
+            }
+        });
+    }
+
+    @Test
+    public void testRangeIsInclusiveAndSorted() {
+        table.put("row", 30L, "c", 0);
+        table.put("row", 10L, "a", 0);
+        table.put("row", 20L, "b", 0);
+        table.put("row", 40L, "d", 0);
+        table.put("other", 20L, "x", 0);
+
+        SortedMap<Long, String> range = table.getRange("row", 10L, 30L);
+        assertArrayEquals(new Object[] { 10L, 20L, 30L }, range.keySet().toArray());
+        assertArrayEquals(new Object[] { "a", "b", "c" }, range.values().toArray());
+
+        assertTrue(table.getRange("row", 31L, 39L).isEmpty());
+        assertTrue(table.getRange("row", 30L, 10L).isEmpty());
+        assertTrue(table.getRange("missing", 0L, 100L).isEmpty());
+        assertEquals(4, table.getRow("row").size());
+    }
+
+    @Test
+    public void testWriteReplacesTheCell() {
+        table.put("row", 10L, "a", 0);
+        now += 5000;
+        table.put("row", 10L, "b", 0);
+
+        assertEquals("b", table.get("row", 10L));
+        assertEquals(now, table.getCell("row", 10L).getWriteTime());
+    }
+
+    @Test
+    public void testCellsExpire() {
+        table.put("row", 10L, "short", 60);
+        table.put("row", 20L, "long", 120);
+        table.put("row", 30L, "forever", 0);
+
+        now += 59999;
+        assertEquals(3, table.getRow("row").size());
+
+        now += 1;
+        assertNull(table.get("row", 10L));
+        assertArrayEquals(new Object[] { 20L, 30L }, table.getRow("row").keySet().toArray());
+
+        now += 60000;
+        table.removeExpired();
+        assertArrayEquals(new Object[] { 30L }, table.getRange("row", 0L, 100L).keySet().toArray());
+    }
+
+    @Test
+    public void testWriteAfterExpiryIsKept() {
+        table.put("row", 10L, "old", 1);
+        now += 1000;
+        table.put("row", 10L, "new", 1);
+
+        assertEquals("new", table.get("row", 10L));
+    }
+
+    @Test
+    public void testDelete() {
+        table.put("row", 10L, "a", 0);
+        table.delete("row", 10L);
+        table.delete("missing", 10L);
+
+        assertNull(table.get("row", 10L));
+    }
+}
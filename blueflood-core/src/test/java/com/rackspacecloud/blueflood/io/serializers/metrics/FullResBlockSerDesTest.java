@@ -0,0 +1,142 @@
+/*
+ * Copyright 2017 Rackspace
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.rackspacecloud.blueflood.io.serializers.metrics;
+
+import com.rackspacecloud.blueflood.exceptions.SerializationException;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import static org.junit.Assert.*;
+
+public class FullResBlockSerDesTest {
+
+    private static final long START = 1500000000000L;
+
+    private final FullResBlockSerDes serDes = new FullResBlockSerDes();
+
+    @Test
+    public void testRegularGaugeTakesAboutTwoBitsAPoint() throws Exception {
+        SortedMap<Long, Double> points = new TreeMap<Long, Double>();
+        for (int i = 0; i < 240; i++) {
+            points.put(START + i * 30000L, 42.5);
+        }
+
+        ByteBuffer block = serDes.serialize(points);
+
+        // 22 bytes of header and first point, 24 bits for the first interval, then
+        // a bit for the value and for every next point one for each
+        assertEquals(22 + (24 + 1 + 238 * 2 + 7) / 8, block.remaining());
+        assertEquals(points, serDes.deserialize(block));
+    }
+
+    @Test
+    public void testIrregularTimestampsAndDoublesRoundTrip() throws Exception {
+        Random random = new Random(17);
+        SortedMap<Long, Double> points = new TreeMap<Long, Double>();
+        long timestamp = START;
+        double value = 100;
+        for (int i = 0; i < 500; i++) {
+            // jitter of a few milliseconds, and now and then a gap of minutes or days
+            timestamp += 30000 + random.nextInt(200) - 100;
+            if (i % 50 == 0) {
+                timestamp += random.nextInt(1000) * 60000L;
+            }
+            if (i % 100 == 0) {
+                timestamp += 3 * 86400000L;
+            }
+            value += random.nextGaussian();
+            points.put(timestamp, i % 7 == 0 ? value : Math.rint(value));
+        }
+        points.put(timestamp + 1, Double.NaN);
+        points.put(timestamp + 2, Double.NEGATIVE_INFINITY);
+        points.put(timestamp + 3, -0.0);
+        points.put(timestamp + 4, Double.MIN_VALUE);
+
+        SortedMap<Long, Object> read = serDes.deserialize(serDes.serialize(points));
+
+        assertEquals(points.keySet(), read.keySet());
+        for (Long ts : points.keySet()) {
+            assertEquals(Double.doubleToRawLongBits(points.get(ts)), Double.doubleToRawLongBits((Double) read.get(ts)));
+        }
+    }
+
+    @Test
+    public void testIntegersKeepTheirType() throws Exception {
+        SortedMap<Long, Integer> integers = new TreeMap<Long, Integer>();
+        integers.put(START, 5);
+        integers.put(START + 1000, -5);
+        integers.put(START + 2000, Integer.MAX_VALUE);
+        integers.put(START + 3000, Integer.MIN_VALUE);
+        assertEquals(integers, serDes.deserialize(serDes.serialize(integers)));
+
+        SortedMap<Long, Number> longs = new TreeMap<Long, Number>();
+        longs.put(-START, Long.MIN_VALUE);
+        longs.put(0L, 7);
+        longs.put(START, Long.MAX_VALUE);
+        SortedMap<Long, Object> read = serDes.deserialize(serDes.serialize(longs));
+        assertEquals(Arrays.<Object>asList(Long.MIN_VALUE, 7L, Long.MAX_VALUE), Arrays.asList(read.values().toArray()));
+    }
+
+    @Test
+    public void testSinglePointAtAnOffset() throws Exception {
+        SortedMap<Long, Float> points = new TreeMap<Long, Float>();
+        points.put(START, 1.5f);
+        ByteBuffer block = serDes.serialize(points);
+
+        ByteBuffer offset = ByteBuffer.allocate(block.remaining() + 3);
+        offset.position(3);
+        offset.put(block);
+        offset.position(3);
+
+        SortedMap<Long, Object> read = serDes.deserialize(offset);
+        assertEquals(1, read.size());
+        assertEquals(1.5, read.get(START));
+        assertEquals(3, offset.position());
+    }
+
+    @Test
+    public void testMixedIntegersAndDoublesCannotBeSerialized() {
+        SortedMap<Long, Number> points = new TreeMap<Long, Number>();
+        points.put(START, 1L);
+        points.put(START + 1, 1.0);
+
+        assertFalse(FullResBlockSerDes.canSerialize(points.values()));
+        assertTrue(FullResBlockSerDes.canSerialize(Arrays.asList(1, 2L)));
+        try {
+            serDes.serialize(points);
+            fail("expected a SerializationException");
+        } catch (SerializationException e) {
+            // expected
+        }
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void testTruncatedBlockFails() throws Exception {
+        SortedMap<Long, Long> points = new TreeMap<Long, Long>();
+        for (int i = 0; i < 10; i++) {
+            points.put(START + i * 1000L, (long) i * i);
+        }
+        ByteBuffer block = serDes.serialize(points);
+        block.limit(block.limit() - 2);
+        serDes.deserialize(block);
+    }
+}
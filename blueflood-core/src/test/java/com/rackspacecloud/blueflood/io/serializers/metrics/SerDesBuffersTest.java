@@ -0,0 +1,121 @@
+/*
+ * Copyright 2017 Rackspace
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.rackspacecloud.blueflood.io.serializers.metrics;
+
+import com.rackspacecloud.blueflood.types.*;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * The drivers hand the deserializers buffers that are views of larger arrays,
+ * or buffers without an array at all.
+ */
+public class SerDesBuffersTest {
+
+    @Test
+    public void testRawValuesAreReadFromViewsAndDirectBuffers() {
+        RawSerDes serDes = new RawSerDes();
+        for (Object value : Arrays.<Object>asList(42, 1234567890123L, 3.25)) {
+            ByteBuffer serialized = serDes.serialize(value);
+            assertEquals(value, serDes.deserialize(view(serialized)));
+            assertEquals(value, serDes.deserialize(direct(serialized)));
+        }
+    }
+
+    @Test
+    public void testRollupsAreReadFromViewsAndDirectBuffers() throws Exception {
+        Points<SimpleNumber> input = new Points<SimpleNumber>();
+        for (int i = 0; i < 10; i++) {
+            input.add(new Points.Point<SimpleNumber>(1000L * i, new SimpleNumber(i * 1.5)));
+        }
+
+        BasicRollupSerDes basicSerDes = new BasicRollupSerDes();
+        BasicRollup basic = BasicRollup.buildRollupFromRawSamples(input);
+        assertEquals(basic, basicSerDes.deserialize(view(basicSerDes.serialize(basic))));
+        assertEquals(basic, basicSerDes.deserialize(direct(basicSerDes.serialize(basic))));
+
+        CounterSerDes counterSerDes = new CounterSerDes();
+        BluefloodCounterRollup counter = BluefloodCounterRollup.buildRollupFromRawSamples(input);
+        assertEquals(counter, counterSerDes.deserialize(view(counterSerDes.serialize(counter))));
+        assertEquals(counter, counterSerDes.deserialize(direct(counterSerDes.serialize(counter))));
+
+        GaugeSerDes gaugeSerDes = new GaugeSerDes();
+        BluefloodGaugeRollup gauge = BluefloodGaugeRollup.buildFromRawSamples(input);
+        assertEquals(gauge, gaugeSerDes.deserialize(view(gaugeSerDes.serialize(gauge))));
+        assertEquals(gauge, gaugeSerDes.deserialize(direct(gaugeSerDes.serialize(gauge))));
+
+        SetSerDes setSerDes = new SetSerDes();
+        BluefloodSetRollup set = new BluefloodSetRollup().withObject(1).withObject(2).withObject(3);
+        assertEquals(set, setSerDes.deserialize(view(setSerDes.serialize(set))));
+        assertEquals(set, setSerDes.deserialize(direct(setSerDes.serialize(set))));
+
+        TimerRollupSerDes timerSerDes = new TimerRollupSerDes();
+        BluefloodTimerRollup timer = new BluefloodTimerRollup()
+                .withSum(100.5).withCount(10).withCountPS(0.5).withSampleCount(10)
+                .withAverage(10.05).withMaxValue(20).withMinValue(1).withVariance(2.5);
+        timer.setPercentile("99", 19.5);
+        assertEquals(timer, timerSerDes.deserialize(view(timerSerDes.serialize(timer))));
+        assertEquals(timer, timerSerDes.deserialize(direct(timerSerDes.serialize(timer))));
+    }
+
+    @Test
+    public void testPositionIsLeftAsItIs() {
+        StringMetadataSerDes serDes = new StringMetadataSerDes();
+        ByteBuffer buffer = view(serDes.serialize("milliseconds"));
+        int position = buffer.position();
+
+        assertEquals("milliseconds", serDes.deserialize(buffer));
+        assertEquals(position, buffer.position());
+        assertEquals("milliseconds", serDes.deserialize(buffer));
+    }
+
+    @Test
+    public void testLargeValuesFromDirectBuffers() {
+        StringMetadataSerDes serDes = new StringMetadataSerDes();
+        char[] chars = new char[100000];
+        Arrays.fill(chars, 'x');
+        String large = new String(chars);
+
+        assertEquals(large, serDes.deserialize(direct(serDes.serialize(large))));
+        assertEquals("small", serDes.deserialize(direct(serDes.serialize("small"))));
+    }
+
+    /**
+     * @return the bytes of the buffer, in the middle of a larger array
+     */
+    private static ByteBuffer view(ByteBuffer serialized) {
+        byte[] bytes = new byte[serialized.remaining() + 10];
+        Arrays.fill(bytes, (byte) 0x7F);
+        ByteBuffer larger = ByteBuffer.wrap(bytes);
+        larger.position(3);
+        larger.put(serialized.duplicate());
+        larger.position(3);
+        larger.limit(3 + serialized.remaining());
+        return larger.slice();
+    }
+
+    private static ByteBuffer direct(ByteBuffer serialized) {
+        ByteBuffer direct = ByteBuffer.allocateDirect(serialized.remaining());
+        direct.put(serialized.duplicate());
+        direct.flip();
+        return direct;
+    }
+}
@@ -0,0 +1,179 @@
+/*
+ * Copyright 2017 Rackspace
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.rackspacecloud.blueflood.outputs.handlers;
+
+import com.google.common.base.Optional;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.rackspacecloud.blueflood.cache.TenantTtlProvider;
+import com.rackspacecloud.blueflood.io.AbstractMetricsRW;
+import com.rackspacecloud.blueflood.io.CassandraModel;
+import com.rackspacecloud.blueflood.rollup.Granularity;
+import com.rackspacecloud.blueflood.service.SingleRollupWriteContext;
+import com.rackspacecloud.blueflood.types.BluefloodCounterRollup;
+import com.rackspacecloud.blueflood.types.RollupType;
+import com.rackspacecloud.blueflood.types.Locator;
+import com.rackspacecloud.blueflood.types.Points;
+import com.rackspacecloud.blueflood.types.Rollup;
+import com.rackspacecloud.blueflood.types.SimpleNumber;
+import com.rackspacecloud.blueflood.utils.TimeValue;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Mockito.*;
+
+public class RepairedRollupWriterTest {
+
+    private static final long ROLLUP_DELAY = 300000;
+    private static final long FULL_TTL = TimeUnit.DAYS.toMillis(1);
+
+    private AbstractMetricsRW basicRW;
+    private AbstractMetricsRW preAggrRW;
+    private TenantTtlProvider ttlProvider;
+    private RepairedRollupWriter writer;
+    private Locator locator = Locator.createLocatorFromPathComponents("tenant", "metric");
+    private Rollup basicRollup;
+    private long oldSlot;
+
+    @Before
+    public void setUp() throws Exception {
+        basicRW = mock(AbstractMetricsRW.class);
+        preAggrRW = mock(AbstractMetricsRW.class);
+        ttlProvider = mock(TenantTtlProvider.class);
+        when(ttlProvider.getTTL(anyString(), eq(Granularity.FULL), any(RollupType.class)))
+                .thenReturn(Optional.of(new TimeValue(FULL_TTL, TimeUnit.MILLISECONDS)));
+        writer = new RepairedRollupWriter(MoreExecutors.sameThreadExecutor(), basicRW, preAggrRW, ttlProvider,
+                ROLLUP_DELAY);
+
+        Points<SimpleNumber> points = new Points<SimpleNumber>();
+        points.add(new Points.Point<SimpleNumber>(0, new SimpleNumber(1)));
+        basicRollup = Rollup.BasicFromRaw.compute(points);
+        oldSlot = Granularity.MIN_5.snapMillis(System.currentTimeMillis() - 10 * ROLLUP_DELAY);
+    }
+
+    @Test
+    public void testSettledSlotsAreWrittenToTheRollupColumnFamily() throws Exception {
+        writer.writeBack(locator, Granularity.MIN_5, points(new Points.Point(oldSlot, basicRollup)));
+
+        List<SingleRollupWriteContext> writes = capturedWrites(basicRW);
+        assertEquals(1, writes.size());
+        assertEquals(locator, writes.get(0).getLocator());
+        assertEquals(Granularity.MIN_5, writes.get(0).getGranularity());
+        assertEquals(CassandraModel.CF_METRICS_5M, writes.get(0).getDestinationCF());
+        assertEquals(oldSlot, (long) writes.get(0).getTimestamp());
+        verifyZeroInteractions(preAggrRW);
+    }
+
+    @Test
+    public void testPreAggregatedRollupsGoThroughPreAggregatedRW() throws Exception {
+        Rollup counter = new BluefloodCounterRollup().withCount(3).withRate(1.0).withSampleCount(1);
+        writer.writeBack(locator, Granularity.MIN_20, points(new Points.Point(Granularity.MIN_20.snapMillis(oldSlot), counter)));
+
+        List<SingleRollupWriteContext> writes = capturedWrites(preAggrRW);
+        assertEquals(1, writes.size());
+        assertEquals(CassandraModel.CF_METRICS_PREAGGREGATED_20M, writes.get(0).getDestinationCF());
+        verifyZeroInteractions(basicRW);
+    }
+
+    @Test
+    public void testRecentSlotsAreNotWritten() throws Exception {
+        long recentSlot = Granularity.MIN_5.snapMillis(System.currentTimeMillis());
+        writer.writeBack(locator, Granularity.MIN_5, points(new Points.Point(recentSlot, basicRollup)));
+
+        verifyZeroInteractions(basicRW);
+    }
+
+    @Test
+    public void testSlotsPastTheFullResolutionTtlAreNotWritten() throws Exception {
+        long expiredSlot = Granularity.MIN_5.snapMillis(System.currentTimeMillis() - FULL_TTL - ROLLUP_DELAY);
+        writer.writeBack(locator, Granularity.MIN_5, points(
+                new Points.Point(expiredSlot, basicRollup),
+                new Points.Point(oldSlot, basicRollup)));
+
+        List<SingleRollupWriteContext> writes = capturedWrites(basicRW);
+        assertEquals(1, writes.size());
+        assertEquals(oldSlot, (long) writes.get(0).getTimestamp());
+    }
+
+    @Test
+    public void testSlotsWithoutAFullResolutionTtlAreNotWritten() throws Exception {
+        when(ttlProvider.getTTL(anyString(), eq(Granularity.FULL), any(RollupType.class)))
+                .thenReturn(Optional.<TimeValue>absent());
+        writer.writeBack(locator, Granularity.MIN_5, points(new Points.Point(oldSlot, basicRollup)));
+
+        verifyZeroInteractions(basicRW);
+    }
+
+    @Test
+    public void testSameSlotIsWrittenOnlyOnce() throws Exception {
+        writer.writeBack(locator, Granularity.MIN_5, points(new Points.Point(oldSlot, basicRollup)));
+        writer.writeBack(locator, Granularity.MIN_5, points(
+                new Points.Point(oldSlot, basicRollup),
+                new Points.Point(oldSlot + Granularity.MIN_5.milliseconds(), basicRollup)));
+
+        ArgumentCaptor<List> captor = ArgumentCaptor.forClass(List.class);
+        verify(basicRW, times(2)).insertRollups(captor.capture());
+        assertEquals(1, captor.getAllValues().get(0).size());
+        assertEquals(1, captor.getAllValues().get(1).size());
+        assertEquals(oldSlot + Granularity.MIN_5.milliseconds(),
+                (long) ((SingleRollupWriteContext) captor.getAllValues().get(1).get(0)).getTimestamp());
+    }
+
+    @Test
+    public void testFailedWriteCanBeRetried() throws Exception {
+        doThrow(new IOException("boom")).doNothing().when(basicRW).insertRollups(anyListOf(SingleRollupWriteContext.class));
+
+        writer.writeBack(locator, Granularity.MIN_5, points(new Points.Point(oldSlot, basicRollup)));
+        writer.writeBack(locator, Granularity.MIN_5, points(new Points.Point(oldSlot, basicRollup)));
+
+        verify(basicRW, times(2)).insertRollups(anyListOf(SingleRollupWriteContext.class));
+    }
+
+    @Test
+    public void testRejectedWriteCanBeRetried() throws Exception {
+        ExecutorService rejecting = mock(ExecutorService.class);
+        doThrow(new RejectedExecutionException()).when(rejecting).execute(any(Runnable.class));
+        RepairedRollupWriter overloaded = new RepairedRollupWriter(rejecting, basicRW, preAggrRW, ttlProvider,
+                ROLLUP_DELAY);
+
+        overloaded.writeBack(locator, Granularity.MIN_5, points(new Points.Point(oldSlot, basicRollup)));
+        overloaded.writeBack(locator, Granularity.MIN_5, points(new Points.Point(oldSlot, basicRollup)));
+
+        verify(rejecting, times(2)).execute(any(Runnable.class));
+    }
+
+    private static List<Points.Point> points(Points.Point... points) {
+        return new ArrayList<Points.Point>(Arrays.asList(points));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<SingleRollupWriteContext> capturedWrites(AbstractMetricsRW rw) throws Exception {
+        ArgumentCaptor<List> captor = ArgumentCaptor.forClass(List.class);
+        verify(rw).insertRollups(captor.capture());
+        return captor.getValue();
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright 2017 Rackspace
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+
+package com.rackspacecloud.blueflood.outputs.handlers;
+
+import com.rackspacecloud.blueflood.outputs.formats.MetricData;
+import com.rackspacecloud.blueflood.types.Locator;
+import com.rackspacecloud.blueflood.types.Points;
+import com.rackspacecloud.blueflood.types.SimpleNumber;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class RollupHandlerTest {
+
+    private final Locator locator = Locator.createLocatorFromPathComponents("tenant", "metric");
+
+    @Test
+    public void testCopyRangeKeepsOnlyTheCallersPoints() {
+        Map<Locator, MetricData> shared = sharedResult(0, 1000, 2000, 3000);
+
+        Map<Locator, MetricData> copy = RollupHandler.copyRange(shared, 1000, 2000);
+
+        assertEquals(Arrays.asList(1000L, 2000L), Arrays.asList(copy.get(locator).getData().getPoints().keySet().toArray()));
+        assertEquals("ms", copy.get(locator).getUnit());
+        assertEquals(4, shared.get(locator).getData().getPoints().size());
+    }
+
+    @Test
+    public void testCopyRangeDoesNotShareTheResult() {
+        Map<Locator, MetricData> shared = sharedResult(0, 1000);
+
+        Map<Locator, MetricData> first = RollupHandler.copyRange(shared, 0, 1000);
+        Map<Locator, MetricData> second = RollupHandler.copyRange(shared, 0, 1000);
+        first.get(locator).setUnit("s");
+        first.get(locator).getData().getPoints().clear();
+
+        assertEquals("ms", second.get(locator).getUnit());
+        assertEquals(2, second.get(locator).getData().getPoints().size());
+        assertEquals("ms", shared.get(locator).getUnit());
+        assertEquals(2, shared.get(locator).getData().getPoints().size());
+    }
+
+    private Map<Locator, MetricData> sharedResult(long... timestamps) {
+        Points<SimpleNumber> points = new Points<SimpleNumber>();
+        for (long timestamp : timestamps) {
+            points.add(new Points.Point<SimpleNumber>(timestamp, new SimpleNumber(timestamp)));
+        }
+        Map<Locator, MetricData> shared = new HashMap<Locator, MetricData>();
+        shared.put(locator, new MetricData(points, "ms"));
+        return shared;
+    }
+}
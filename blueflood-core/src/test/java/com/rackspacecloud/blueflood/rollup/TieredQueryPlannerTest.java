@@ -0,0 +1,117 @@
+/*
+ * Copyright 2017 Rackspace
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.rackspacecloud.blueflood.rollup;
+
+import com.rackspacecloud.blueflood.types.Range;
+import com.rackspacecloud.blueflood.utils.Clock;
+import org.joda.time.Instant;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+
+public class TieredQueryPlannerTest {
+
+    private static final long MINUTE = 60 * 1000L;
+    private static final long DAY = 24 * 60 * MINUTE;
+    private static final long NOW = 1000 * DAY;
+    private static final long ASSUMED_INTERVAL = 30000;
+
+    private static final Map<Granularity, Long> TTLS = new HashMap<Granularity, Long>();
+    static {
+        TTLS.put(Granularity.FULL, 1 * DAY);
+        TTLS.put(Granularity.MIN_5, 10 * DAY);
+        TTLS.put(Granularity.MIN_20, 30 * DAY);
+        TTLS.put(Granularity.MIN_60, 60 * DAY);
+        TTLS.put(Granularity.MIN_240, 180 * DAY);
+        TTLS.put(Granularity.MIN_1440, 365 * DAY);
+    }
+
+    private static TieredQueryPlanner plannerAt(final long now) {
+        return new TieredQueryPlanner("GEOMETRIC", ASSUMED_INTERVAL, new Clock() {
+            @Override
+            public Instant now() {
+                return new Instant(now);
+            }
+        }) {
+            @Override
+            protected long getTTL(String tenantId, Granularity g) {
+                return TTLS.get(g);
+            }
+        };
+    }
+
+    @Test
+    public void testRangeWithinTTLIsReadAtOneGranularity() {
+        List<TieredQueryPlanner.Segment> plan = plannerAt(NOW).plan("tenant", NOW - 5 * DAY, NOW, 1440);
+
+        assertEquals(Arrays.asList(
+                new TieredQueryPlanner.Segment(Granularity.MIN_5, new Range(NOW - 5 * DAY, NOW))), plan);
+    }
+
+    @Test
+    public void testRecentDetailIsKeptWhereItExists() {
+        // a week at the assumed interval is 20160 points, so the budget asks for full resolution
+        List<TieredQueryPlanner.Segment> plan = plannerAt(NOW).plan("tenant", NOW - 7 * DAY, NOW, 20000);
+
+        assertEquals(Arrays.asList(
+                new TieredQueryPlanner.Segment(Granularity.MIN_5, new Range(NOW - 7 * DAY, NOW - DAY - 1)),
+                new TieredQueryPlanner.Segment(Granularity.FULL, new Range(NOW - DAY, NOW))), plan);
+    }
+
+    @Test
+    public void testOlderPartsFallBackToCoarserGranularities() {
+        List<TieredQueryPlanner.Segment> plan = plannerAt(NOW).plan("tenant", NOW - 50 * DAY, NOW, 14400);
+
+        assertEquals(Arrays.asList(
+                new TieredQueryPlanner.Segment(Granularity.MIN_60, new Range(NOW - 50 * DAY, NOW - 30 * DAY - 1)),
+                new TieredQueryPlanner.Segment(Granularity.MIN_20, new Range(NOW - 30 * DAY, NOW - 10 * DAY - 1)),
+                new TieredQueryPlanner.Segment(Granularity.MIN_5, new Range(NOW - 10 * DAY, NOW))), plan);
+    }
+
+    @Test
+    public void testExpiredGranularitiesAreSkipped() {
+        List<TieredQueryPlanner.Segment> plan = plannerAt(NOW).plan("tenant", NOW - 40 * DAY, NOW - 35 * DAY, 1440);
+
+        assertEquals(Arrays.asList(
+                new TieredQueryPlanner.Segment(Granularity.MIN_60, new Range(NOW - 40 * DAY, NOW - 35 * DAY))), plan);
+    }
+
+    @Test
+    public void testBoundariesAreAlignedToTheOlderGranularity() {
+        long now = NOW + 7 * MINUTE;
+        List<TieredQueryPlanner.Segment> plan = plannerAt(now).plan("tenant", now - 7 * DAY, now, 20000);
+
+        // full resolution data starts 7 minutes into a 5 minute slot, which is read from the 5m rollups
+        long boundary = NOW - DAY + 10 * MINUTE;
+        assertEquals(Arrays.asList(
+                new TieredQueryPlanner.Segment(Granularity.MIN_5, new Range(now - 7 * DAY, boundary - 1)),
+                new TieredQueryPlanner.Segment(Granularity.FULL, new Range(boundary, now))), plan);
+    }
+
+    @Test
+    public void testRangeOlderThanEveryTTLIsReadAtTheCoarsestGranularity() {
+        List<TieredQueryPlanner.Segment> plan = plannerAt(NOW).plan("tenant", NOW - 500 * DAY, NOW - 400 * DAY, 100);
+
+        assertEquals(Arrays.asList(
+                new TieredQueryPlanner.Segment(Granularity.LAST, new Range(NOW - 500 * DAY, NOW - 400 * DAY))), plan);
+    }
+}
@@ -1,192 +1,164 @@
 package com.rackspacecloud.blueflood.service;
 
+import com.rackspacecloud.blueflood.io.AbstractMetricsRW;
+import com.rackspacecloud.blueflood.io.CassandraModel;
+import com.rackspacecloud.blueflood.rollup.Granularity;
+import com.rackspacecloud.blueflood.types.BluefloodCounterRollup;
+import com.rackspacecloud.blueflood.types.Locator;
 import com.rackspacecloud.blueflood.types.Points;
 import com.rackspacecloud.blueflood.types.Rollup;
-import com.rackspacecloud.blueflood.types.RollupType;
 import com.rackspacecloud.blueflood.types.SimpleNumber;
 import org.junit.Before;
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Matchers;
+import org.mockito.internal.util.reflection.Whitebox;
 
-import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.ThreadPoolExecutor;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
 import static org.mockito.Mockito.*;
 
 public class RollupBatchWriterTest {
 
+    private static final int MAX_SIZE = 5;
+    private static final long LONG_LINGER = 60000;
+
     ThreadPoolExecutor executor;
     RollupExecutionContext ctx;
+    AbstractMetricsRW basicRW;
+    AbstractMetricsRW preAggrRW;
 
     RollupBatchWriter rbw;
 
+    Rollup basicRollup;
+    Locator locatorA = Locator.createLocatorFromPathComponents("tenant", "a");
+    Locator locatorB = Locator.createLocatorFromPathComponents("tenant", "b");
+
     @Before
-    public void setUp() {
+    public void setUp() throws Exception {
 
         executor = mock(ThreadPoolExecutor.class);
         ctx = mock(RollupExecutionContext.class);
-        rbw = new RollupBatchWriter(executor, ctx);
+        basicRW = mock(AbstractMetricsRW.class);
+        preAggrRW = mock(AbstractMetricsRW.class);
+        rbw = new RollupBatchWriter(executor, ctx, basicRW, preAggrRW, MAX_SIZE, LONG_LINGER);
+
+        basicRollup = Rollup.BasicFromRaw.compute(new Points<SimpleNumber>());
     }
 
     @Test
     public void enqueueIncrementsWriterCounter() {
 
-        // given
-        SingleRollupWriteContext srwc = mock(SingleRollupWriteContext.class);
-
         // when
-        rbw.enqueueRollupForWrite(srwc);
+        rbw.enqueueRollupForWrite(basicWrite(locatorA, CassandraModel.CF_METRICS_5M));
 
         // then
         verify(ctx).incrementWriteCounter();
         verifyNoMoreInteractions(ctx);
-
-        verifyZeroInteractions(srwc);
+        assertEquals(1, rbw.getPendingCount());
     }
 
     @Test
-    public void enqueuingLessThanMinSizeDoesNotTriggerBatching() {
-
-        // given
-        SingleRollupWriteContext srwc1 = mock(SingleRollupWriteContext.class);
-        SingleRollupWriteContext srwc2 = mock(SingleRollupWriteContext.class);
-        SingleRollupWriteContext srwc3 = mock(SingleRollupWriteContext.class);
-        SingleRollupWriteContext srwc4 = mock(SingleRollupWriteContext.class);
-        // ROLLUP_BATCH_MIN_SIZE default value is 5
+    public void enqueuingLessThanMaxSizeDoesNotTriggerBatching() {
 
         // when
-        rbw.enqueueRollupForWrite(srwc1);
-        rbw.enqueueRollupForWrite(srwc2);
-        rbw.enqueueRollupForWrite(srwc3);
-        rbw.enqueueRollupForWrite(srwc4);
+        for (int i = 0; i < MAX_SIZE - 1; i++) {
+            rbw.enqueueRollupForWrite(basicWrite(locatorA, CassandraModel.CF_METRICS_5M));
+        }
 
         // then
-        verify(ctx, times(4)).incrementWriteCounter();
+        verify(ctx, times(MAX_SIZE - 1)).incrementWriteCounter();
         verifyNoMoreInteractions(ctx);
+        verifyZeroInteractions(executor);
+        assertEquals(MAX_SIZE - 1, rbw.getPendingCount());
+    }
 
-        verifyZeroInteractions(srwc1);
-        verifyZeroInteractions(srwc2);
-        verifyZeroInteractions(srwc3);
-        verifyZeroInteractions(srwc4);
+    @Test
+    public void enqueuingMaxSizeTriggersBatching() {
 
-        verifyZeroInteractions(executor);
+        // when
+        for (int i = 0; i < MAX_SIZE; i++) {
+            rbw.enqueueRollupForWrite(basicWrite(locatorA, CassandraModel.CF_METRICS_5M));
+        }
+
+        // then
+        List<SingleRollupWriteContext> batch = executedBatches(1).get(0);
+        assertEquals(MAX_SIZE, batch.size());
+        assertEquals(0, rbw.getPendingCount());
     }
 
     @Test
-    public void enqueuingMinSizeTriggersCheckOnExecutor() {
+    public void writesAreGroupedByDestination() {
 
         // given
+        Rollup counterRollup = new BluefloodCounterRollup().withCount(1);
 
-        // if active count == pool size, the RollupBatchWriter will think the
-        // thread pool is saturated, and not drain
-        doReturn(1).when(executor).getActiveCount();
-        doReturn(1).when(executor).getPoolSize();
+        // when
+        for (int i = 0; i < MAX_SIZE - 1; i++) {
+            rbw.enqueueRollupForWrite(basicWrite(locatorA, CassandraModel.CF_METRICS_5M));
+            rbw.enqueueRollupForWrite(basicWrite(locatorA, CassandraModel.CF_METRICS_20M));
+            rbw.enqueueRollupForWrite(new SingleRollupWriteContext(counterRollup, locatorA, Granularity.MIN_5,
+                    CassandraModel.CF_METRICS_PREAGGREGATED_5M, 0L));
+        }
 
-        SingleRollupWriteContext srwc1 = mock(SingleRollupWriteContext.class);
-        SingleRollupWriteContext srwc2 = mock(SingleRollupWriteContext.class);
-        SingleRollupWriteContext srwc3 = mock(SingleRollupWriteContext.class);
-        SingleRollupWriteContext srwc4 = mock(SingleRollupWriteContext.class);
-        SingleRollupWriteContext srwc5 = mock(SingleRollupWriteContext.class);
-        // ROLLUP_BATCH_MIN_SIZE default value is 5
+        // then none of the groups is full yet
+        verifyZeroInteractions(executor);
 
         // when
-        rbw.enqueueRollupForWrite(srwc1);
-        rbw.enqueueRollupForWrite(srwc2);
-        rbw.enqueueRollupForWrite(srwc3);
-        rbw.enqueueRollupForWrite(srwc4);
-        rbw.enqueueRollupForWrite(srwc5);
+        rbw.drainBatch();
 
         // then
-        verify(ctx, times(5)).incrementWriteCounter();
-        verifyNoMoreInteractions(ctx);
-
-        verifyZeroInteractions(srwc1);
-        verifyZeroInteractions(srwc2);
-        verifyZeroInteractions(srwc3);
-        verifyZeroInteractions(srwc4);
-        verifyZeroInteractions(srwc5);
-
-        // if the queue size >= min size, then the executor will be queried
-        verify(executor).getActiveCount();
-        verify(executor).getPoolSize();
-        verifyNoMoreInteractions(executor);
+        ArgumentCaptor<Runnable> captor = ArgumentCaptor.forClass(Runnable.class);
+        verify(executor, times(3)).execute(captor.capture());
+        int preAggrBatches = 0;
+        for (Runnable runnable : captor.getAllValues()) {
+            List<SingleRollupWriteContext> batch = batchOf(runnable);
+            assertEquals(MAX_SIZE - 1, batch.size());
+            for (SingleRollupWriteContext write : batch) {
+                assertSame(batch.get(0).getDestinationCF(), write.getDestinationCF());
+            }
+            if (Whitebox.getInternalState(runnable, "metricsRW") == preAggrRW) {
+                preAggrBatches++;
+            }
+        }
+        assertEquals(1, preAggrBatches);
     }
 
     @Test
-    public void enqueuingMinSizeAndThreadPoolNotSaturatedTriggersBatching() throws Exception {
-
-        // given
-        // if active count < pool size, the RollupBatchWriter will think the
-        // thread pool is NOT saturated, and start batching
-        doReturn(0).when(executor).getActiveCount();
-        doReturn(1).when(executor).getPoolSize();
-
-        SingleRollupWriteContext srwc1 = mock(SingleRollupWriteContext.class);
-        SingleRollupWriteContext srwc2 = mock(SingleRollupWriteContext.class);
-        SingleRollupWriteContext srwc3 = mock(SingleRollupWriteContext.class);
-        SingleRollupWriteContext srwc4 = mock(SingleRollupWriteContext.class);
-        SingleRollupWriteContext srwc5 = mock(SingleRollupWriteContext.class);
-        // ROLLUP_BATCH_MIN_SIZE default value is 5
-
-        Points<SimpleNumber> points = new Points<SimpleNumber>();
-        Rollup rollup = Rollup.BasicFromRaw.compute(points);
-        doReturn(rollup).when(srwc1).getRollup();
-        doReturn(rollup).when(srwc2).getRollup();
-        doReturn(rollup).when(srwc3).getRollup();
-        doReturn(rollup).when(srwc4).getRollup();
-        doReturn(rollup).when(srwc5).getRollup();
+    public void writesToTheSamePartitionAreKeptTogether() {
 
         // when
-        rbw.enqueueRollupForWrite(srwc1);
-        rbw.enqueueRollupForWrite(srwc2);
-        rbw.enqueueRollupForWrite(srwc3);
-        rbw.enqueueRollupForWrite(srwc4);
-        rbw.enqueueRollupForWrite(srwc5);
+        rbw.enqueueRollupForWrite(basicWrite(locatorA, CassandraModel.CF_METRICS_5M));
+        rbw.enqueueRollupForWrite(basicWrite(locatorB, CassandraModel.CF_METRICS_5M));
+        rbw.enqueueRollupForWrite(basicWrite(locatorA, CassandraModel.CF_METRICS_5M));
+        rbw.enqueueRollupForWrite(basicWrite(locatorB, CassandraModel.CF_METRICS_5M));
+        rbw.enqueueRollupForWrite(basicWrite(locatorA, CassandraModel.CF_METRICS_5M));
 
         // then
-        verify(ctx, times(5)).incrementWriteCounter();
-        verifyNoMoreInteractions(ctx);
-
-        // if the queue size >= min size, then the executor will be queried
-        verify(executor).getActiveCount();
-        verify(executor).getPoolSize();
-        verify(executor).execute(Matchers.<Runnable>any());
-        verifyNoMoreInteractions(executor);
+        List<SingleRollupWriteContext> batch = executedBatches(1).get(0);
+        assertEquals(locatorA, batch.get(0).getLocator());
+        assertEquals(locatorA, batch.get(1).getLocator());
+        assertEquals(locatorA, batch.get(2).getLocator());
+        assertEquals(locatorB, batch.get(3).getLocator());
+        assertEquals(locatorB, batch.get(4).getLocator());
     }
 
     @Test
-    public void enqueuingMaxSizeTriggersBatching() throws Exception {
+    public void lingeringWritesAreFlushedWithoutDrain() {
 
         // given
-        // if active count == pool size, the RollupBatchWriter will think the
-        // thread pool is saturated, and not drain
-        doReturn(1).when(executor).getActiveCount();
-        doReturn(1).when(executor).getPoolSize();
-
-        SingleRollupWriteContext[] srwcs = new SingleRollupWriteContext[100];
-        int i;
-        for (i = 0; i < 100; i++) {
-            srwcs[i] = mock(SingleRollupWriteContext.class);
-            Points<SimpleNumber> points = new Points<SimpleNumber>();
-            Rollup rollup = Rollup.BasicFromRaw.compute(points);
-            doReturn(rollup).when(srwcs[i]).getRollup();
-        }
-        // ROLLUP_BATCH_MAX_SIZE default value is 100
+        rbw = new RollupBatchWriter(executor, ctx, basicRW, preAggrRW, MAX_SIZE, 50);
 
         // when
-        for (i = 0; i < 100; i++) {
-            rbw.enqueueRollupForWrite(srwcs[i]);
-        }
+        rbw.enqueueRollupForWrite(basicWrite(locatorA, CassandraModel.CF_METRICS_5M));
 
         // then
-        verify(ctx, times(100)).incrementWriteCounter();
-        verifyNoMoreInteractions(ctx);
-
-        // if the queue size >= min size, then the executor will be queried
-        verify(executor, times(96)).getActiveCount();   // ROLLUP_BATCH_MAX_SIZE - ROLLUP_BATCH_MIN_SIZE + 1
-        verify(executor, times(96)).getPoolSize();
-        verify(executor).execute(Matchers.<Runnable>any());
-        verifyNoMoreInteractions(executor);
+        verify(executor, timeout(5000)).execute(Matchers.<Runnable>any());
+        assertEquals(0, rbw.getPendingCount());
     }
 
     @Test
@@ -205,11 +177,7 @@ public class RollupBatchWriterTest {
     public void drainBatchWithSingleItemTriggersBatching() throws Exception {
 
         // given
-        SingleRollupWriteContext srwc = mock(SingleRollupWriteContext.class);
-        Points<SimpleNumber> points = new Points<SimpleNumber>();
-        Rollup rollup = Rollup.BasicFromRaw.compute(points);
-        doReturn(rollup).when(srwc).getRollup();
-        rbw.enqueueRollupForWrite(srwc);
+        rbw.enqueueRollupForWrite(basicWrite(locatorA, CassandraModel.CF_METRICS_5M));
 
         // when
         rbw.drainBatch();
@@ -221,4 +189,41 @@ public class RollupBatchWriterTest {
         verify(executor).execute(Matchers.<Runnable>any());
         verifyNoMoreInteractions(executor);
     }
+
+    @Test
+    public void drainBatchSplitsAtMaxSize() {
+
+        // given
+        for (int i = 0; i < MAX_SIZE + 3; i++) {
+            rbw.enqueueRollupForWrite(basicWrite(locatorA, CassandraModel.CF_METRICS_5M));
+        }
+
+        // when
+        rbw.drainBatch();
+
+        // then
+        List<List<SingleRollupWriteContext>> batches = executedBatches(2);
+        assertEquals(MAX_SIZE, batches.get(0).size());
+        assertEquals(3, batches.get(1).size());
+        assertEquals(0, rbw.getPendingCount());
+    }
+
+    private SingleRollupWriteContext basicWrite(Locator locator, CassandraModel.MetricColumnFamily destination) {
+        return new SingleRollupWriteContext(basicRollup, locator, Granularity.MIN_5, destination, 0L);
+    }
+
+    private List<List<SingleRollupWriteContext>> executedBatches(int count) {
+        ArgumentCaptor<Runnable> captor = ArgumentCaptor.forClass(Runnable.class);
+        verify(executor, times(count)).execute(captor.capture());
+        List<List<SingleRollupWriteContext>> batches = new ArrayList<List<SingleRollupWriteContext>>();
+        for (Runnable runnable : captor.getAllValues()) {
+            batches.add(batchOf(runnable));
+        }
+        return batches;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<SingleRollupWriteContext> batchOf(Runnable runnable) {
+        return (List<SingleRollupWriteContext>) Whitebox.getInternalState(runnable, "writeContexts");
+    }
 }
@@ -0,0 +1,193 @@
+/*
+ * Copyright 2013 Rackspace
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.rackspacecloud.blueflood.service;
+
+import com.rackspacecloud.blueflood.utils.ZookeeperTestServer;
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.state.ConnectionState;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.internal.util.reflection.Whitebox;
+
+import java.util.HashSet;
+import java.util.Set;
+
+public class ZKShardLeaseManagerIntegrationTest {
+    private Set<Integer> manageShards = null;
+    private ZKShardLeaseManager leaseManager;
+    private ZookeeperTestServer zkTestServer;
+
+    @Before
+    public void setUp() throws Exception {
+        zkTestServer = new ZookeeperTestServer();
+        zkTestServer.connect();
+        manageShards = new HashSet<Integer>();
+        for (int shard = 0; shard < 8; shard++) {
+            manageShards.add(shard);
+        }
+        leaseManager = new ZKShardLeaseManager(zkTestServer.getZkConnect(), manageShards);
+        Assert.assertTrue("Zookeeper connection is needed.", leaseManager.waitForZKConnections(10));
+        leaseManager.setClaimJitterMillis(0);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        leaseManager.shutdownUnsafe();
+        zkTestServer.shutdown();
+    }
+
+    @Test
+    public void testClaimsAllShardsInOneCycle() {
+        leaseManager.claimLeases();
+
+        Assert.assertEquals(manageShards, new HashSet<Integer>(leaseManager.getHeldShards()));
+        for (int shard : manageShards) {
+            Assert.assertTrue(leaseManager.canWork(shard));
+        }
+        Assert.assertTrue(leaseManager.getUnclaimedShards().isEmpty());
+    }
+
+    @Test
+    public void testReleaseAndRemoveShard() {
+        leaseManager.claimLeases();
+        Assert.assertTrue(leaseManager.canWork(3));
+
+        Assert.assertTrue(leaseManager.release(3));
+        Assert.assertFalse(leaseManager.canWork(3));
+        Assert.assertFalse(leaseManager.release(3));
+
+        leaseManager.removeShard(4);
+        Assert.assertFalse(leaseManager.canWork(4));
+
+        // the released shard is claimed again, the removed one is not.
+        leaseManager.claimLeases();
+        Assert.assertTrue(leaseManager.canWork(3));
+        Assert.assertFalse(leaseManager.canWork(4));
+    }
+
+    @Test
+    public void testConnectionLossDropsLeases() {
+        leaseManager.claimLeases();
+        Assert.assertFalse(leaseManager.getHeldShards().isEmpty());
+
+        leaseManager.stateChanged((CuratorFramework) Whitebox.getInternalState(leaseManager, "client"), ConnectionState.LOST);
+
+        Assert.assertTrue(leaseManager.getHeldShards().isEmpty());
+        for (int shard : manageShards) {
+            Assert.assertFalse(leaseManager.canWork(shard));
+        }
+    }
+
+    @Test
+    public void testReconnectWithTheSameSessionRecoversLeases() {
+        leaseManager.claimLeases();
+        CuratorFramework client = (CuratorFramework) Whitebox.getInternalState(leaseManager, "client");
+
+        // the connection drops long enough to be reported lost, but the session and its leases survive.
+        leaseManager.stateChanged(client, ConnectionState.LOST);
+        Assert.assertTrue(leaseManager.getHeldShards().isEmpty());
+        leaseManager.stateChanged(client, ConnectionState.RECONNECTED);
+        leaseManager.claimLeases();
+
+        Assert.assertEquals(manageShards, new HashSet<Integer>(leaseManager.getHeldShards()));
+        for (int shard : manageShards) {
+            Assert.assertTrue(leaseManager.canWork(shard));
+        }
+    }
+
+    @Test
+    public void testFirstManagerReleasesSurplusToALaterOne() throws Exception {
+        leaseManager.setMinHoldMillis(0);
+        leaseManager.claimLeases();
+        Assert.assertEquals(manageShards, new HashSet<Integer>(leaseManager.getHeldShards()));
+
+        ZKShardLeaseManager otherManager = new ZKShardLeaseManager(zkTestServer.getZkConnect(), manageShards);
+        try {
+            Assert.assertTrue("Zookeeper connection is needed.", otherManager.waitForZKConnections(10));
+            otherManager.setClaimJitterMillis(0);
+
+            // everything is taken when the other manager joins.
+            otherManager.claimLeases();
+            Assert.assertTrue(otherManager.getHeldShards().isEmpty());
+
+            // the first manager sees it is above its fair share, and the other one picks up what it releases.
+            leaseManager.claimLeases();
+            long deadline = System.currentTimeMillis() + 10000;
+            while (otherManager.getHeldShards().size() < manageShards.size() / 2
+                    && System.currentTimeMillis() < deadline) {
+                Thread.sleep(100);
+            }
+            Assert.assertEquals(manageShards.size() / 2, leaseManager.getHeldShards().size());
+            Assert.assertEquals(manageShards.size() / 2, otherManager.getHeldShards().size());
+
+            Set<Integer> overlap = new HashSet<Integer>(leaseManager.getHeldShards());
+            overlap.retainAll(otherManager.getHeldShards());
+            Assert.assertTrue(overlap.isEmpty());
+        } finally {
+            otherManager.shutdownUnsafe();
+        }
+    }
+
+    @Test
+    public void testSurplusIsKeptForTheMinimumHoldTime() throws Exception {
+        leaseManager.setMinHoldMillis(60000);
+        leaseManager.claimLeases();
+
+        ZKShardLeaseManager otherManager = new ZKShardLeaseManager(zkTestServer.getZkConnect(), manageShards);
+        try {
+            Assert.assertTrue("Zookeeper connection is needed.", otherManager.waitForZKConnections(10));
+            otherManager.ensureMembership();
+
+            leaseManager.releaseSurplus();
+            Assert.assertEquals(manageShards, new HashSet<Integer>(leaseManager.getHeldShards()));
+        } finally {
+            otherManager.shutdownUnsafe();
+        }
+    }
+
+    @Test
+    public void testSecondManagerTakesFairShareThenFailsOver() throws Exception {
+        ZKShardLeaseManager otherManager = new ZKShardLeaseManager(zkTestServer.getZkConnect(), manageShards);
+        try {
+            Assert.assertTrue("Zookeeper connection is needed.", otherManager.waitForZKConnections(10));
+            otherManager.setClaimJitterMillis(0);
+
+            // both managers are members before anything is claimed, so each takes half.
+            leaseManager.ensureMembership();
+            otherManager.forceLeaseClaim();
+            Assert.assertEquals(manageShards.size() / 2, otherManager.getHeldShards().size());
+            leaseManager.claimLeases();
+            Assert.assertEquals(manageShards.size() / 2, leaseManager.getHeldShards().size());
+
+            Set<Integer> overlap = new HashSet<Integer>(leaseManager.getHeldShards());
+            overlap.retainAll(otherManager.getHeldShards());
+            Assert.assertTrue(overlap.isEmpty());
+
+            // the other manager dies; its ephemeral leases vanish and the watch picks them up.
+            otherManager.shutdownUnsafe();
+            long deadline = System.currentTimeMillis() + 10000;
+            while (leaseManager.getHeldShards().size() < manageShards.size() && System.currentTimeMillis() < deadline) {
+                Thread.sleep(100);
+            }
+            Assert.assertEquals(manageShards, new HashSet<Integer>(leaseManager.getHeldShards()));
+        } finally {
+            otherManager.shutdownUnsafe();
+        }
+    }
+}
@@ -219,4 +219,67 @@ public class ZKShardLockManagerIntegrationTest {
             Assert.assertTrue(lockManager.holdsLockUnsafe(shard));
         }
     }
+
+    @Test
+    public void testOverloadedManagerDrainsShard() throws Exception {
+        Set<Integer> shards = new HashSet<Integer>();
+        shards.add(2);
+        shards.add(3);
+        ZKShardLockManager busyManager = new ZKShardLockManager(zkTestServer.getZkConnect(), shards);
+        ZKShardLockManager idleManager = new ZKShardLockManager(zkTestServer.getZkConnect(), shards);
+        try {
+            Assert.assertTrue("Zookeeper connection is needed.", busyManager.waitForZKConnections(10));
+            Assert.assertTrue("Zookeeper connection is needed.", idleManager.waitForZKConnections(10));
+            busyManager.prefetchLocks();
+            busyManager.waitForQuiesceUnsafe();
+            Assert.assertEquals(2, busyManager.getHeldShards().size());
+
+            // the idle manager publishes its (empty) load.
+            idleManager.setLoadBalancingEnabled(true);
+            idleManager.forceLockScavenge();
+            idleManager.waitForQuiesceUnsafe();
+            Assert.assertTrue(idleManager.getHeldShards().isEmpty());
+
+            // the busy manager carries all the load, so it hands one shard off.
+            busyManager.setLoadBalancingEnabled(true);
+            busyManager.setDrainPeriodMillis(0);
+            busyManager.setLockDisinterestedTimeMillis(300000);
+            busyManager.forceLockScavenge();
+            busyManager.waitForQuiesceUnsafe();
+            Assert.assertEquals(2, busyManager.getNodeLoad());
+            Assert.assertEquals(1, busyManager.getHeldShards().size());
+            Assert.assertTrue(busyManager.getDrainingShards().isEmpty());
+
+            // the idle manager picks the released shard up.
+            idleManager.setLockDisinterestedTimeMillis(0);
+            idleManager.forceLockScavenge();
+            idleManager.waitForQuiesceUnsafe();
+            Assert.assertEquals(1, idleManager.getHeldShards().size());
+            Assert.assertFalse(idleManager.getHeldShards().containsAll(busyManager.getHeldShards()));
+        } finally {
+            busyManager.shutdownUnsafe();
+            idleManager.shutdownUnsafe();
+        }
+    }
+
+    @Test
+    public void testDrainingShardCannotBeWorked() throws Exception {
+        final int shard = 1;
+        Assert.assertTrue(lockManager.canWork(shard));
+
+        // a draining lock is still held, but no new work should start on it.
+        lockManager.setDrainPeriodMillis(300000);
+        lockManager.getLockUnsafe(shard).drain();
+        Assert.assertTrue(lockManager.holdsLockUnsafe(shard));
+        Assert.assertFalse(lockManager.canWork(shard));
+        Assert.assertTrue(lockManager.getDrainingShards().contains(shard));
+
+        // once the drain period is over, the lock is released.
+        lockManager.setDrainPeriodMillis(0);
+        lockManager.setLockDisinterestedTimeMillis(300000);
+        lockManager.forceLockScavenge();
+        lockManager.waitForQuiesceUnsafe();
+        Assert.assertFalse(lockManager.holdsLockUnsafe(shard));
+        Assert.assertEquals(ZKShardLockManager.LockState.DISINTERESTED, lockManager.getLockUnsafe(shard).getLockState());
+    }
 }
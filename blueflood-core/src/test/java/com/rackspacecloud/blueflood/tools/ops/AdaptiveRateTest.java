@@ -0,0 +1,58 @@
+/*
+ * Copyright 2017 Rackspace
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+
+package com.rackspacecloud.blueflood.tools.ops;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class AdaptiveRateTest {
+
+    @Test
+    public void testSlowWritesHalveTheRate() {
+        AdaptiveRate rate = new AdaptiveRate(1000, 10, 2000, 50, 4);
+        for (int i = 0; i < 3; i++) {
+            rate.record(100);
+        }
+        // not a full window yet
+        assertEquals(1000, rate.getRate(), 0.001);
+        rate.record(100);
+        assertEquals(500, rate.getRate(), 0.001);
+    }
+
+    @Test
+    public void testFastWritesRaiseTheRateUpToTheMaximum() {
+        AdaptiveRate rate = new AdaptiveRate(1000, 10, 1150, 50, 2);
+        rate.record(10);
+        rate.record(20);
+        assertEquals(1000 + 1150 / 20.0, rate.getRate(), 0.001);
+        for (int i = 0; i < 10; i++) {
+            rate.record(10);
+        }
+        assertEquals(1150, rate.getRate(), 0.001);
+    }
+
+    @Test
+    public void testFailuresBackOffDownToTheMinimum() {
+        AdaptiveRate rate = new AdaptiveRate(100, 30, 1000, 50, 100);
+        rate.recordFailure();
+        assertEquals(50, rate.getRate(), 0.001);
+        rate.recordFailure();
+        assertEquals(30, rate.getRate(), 0.001);
+    }
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright 2017 Rackspace
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.rackspacecloud.blueflood.tools.ops;
+
+import com.rackspacecloud.blueflood.rollup.Granularity;
+import com.rackspacecloud.blueflood.types.Locator;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class ParallelRollupRunnerTest {
+
+    private static final int LOCATORS_PER_SHARD = 50;
+
+    private final Set<String> rolledUp = Collections.synchronizedSet(new HashSet<String>());
+    private final AtomicInteger running = new AtomicInteger(0);
+    private final AtomicInteger maxRunning = new AtomicInteger(0);
+    private final Set<Integer> scannedShards = Collections.synchronizedSet(new HashSet<Integer>());
+    private volatile String failingLocator = null;
+
+    private File checkpointFile;
+    private ParallelRollupRunner runner;
+
+    @Before
+    public void setUp() throws IOException {
+        checkpointFile = File.createTempFile("rollup-checkpoint", ".txt");
+        checkpointFile.delete();
+    }
+
+    @After
+    public void tearDown() {
+        if (runner != null) {
+            runner.shutdown();
+        }
+        checkpointFile.delete();
+    }
+
+    @Test
+    public void testAllLocatorsOfAllShardsAreRolledUp() throws Exception {
+        runner = createRunner(ShardCheckpoint.none(), 10);
+
+        assertTrue(runner.run(Arrays.asList(1, 2, 3), Granularity.MIN_5));
+
+        assertEquals(3 * LOCATORS_PER_SHARD, rolledUp.size());
+        assertTrue(rolledUp.contains("2.metric7," + Granularity.MIN_5.name()));
+        assertEquals(new HashSet<Integer>(Arrays.asList(1, 2, 3)), scannedShards);
+    }
+
+    @Test
+    public void testPendingRollupsAreBounded() throws Exception {
+        runner = createRunner(ShardCheckpoint.none(), 3);
+
+        assertTrue(runner.run(Arrays.asList(1, 2, 3, 4), Granularity.MIN_5));
+
+        assertEquals(4 * LOCATORS_PER_SHARD, rolledUp.size());
+        assertTrue("at most 3 rollups may be pending, saw " + maxRunning.get(), maxRunning.get() <= 3);
+    }
+
+    @Test
+    public void testCompletedShardsAreSkippedOnResume() throws Exception {
+        ShardCheckpoint checkpoint = ShardCheckpoint.open(checkpointFile, "test run");
+        runner = createRunner(checkpoint, 10);
+        assertTrue(runner.run(Arrays.asList(1, 2), Granularity.MIN_5));
+        checkpoint.close();
+        runner.shutdown();
+
+        scannedShards.clear();
+        rolledUp.clear();
+        checkpoint = ShardCheckpoint.open(checkpointFile, "test run");
+        runner = createRunner(checkpoint, 10);
+        assertTrue(runner.run(Arrays.asList(1, 2, 3), Granularity.MIN_5));
+        assertTrue(runner.run(Arrays.asList(1), Granularity.MIN_20));
+        checkpoint.close();
+
+        assertEquals(new HashSet<Integer>(Arrays.asList(3, 1)), scannedShards);
+        assertEquals(2 * LOCATORS_PER_SHARD, rolledUp.size());
+    }
+
+    @Test
+    public void testShardWithFailureIsNotCheckpointed() throws Exception {
+        failingLocator = "2.metric13";
+        ShardCheckpoint checkpoint = ShardCheckpoint.open(checkpointFile, "test run");
+        runner = createRunner(checkpoint, 10);
+
+        assertFalse(runner.run(Arrays.asList(1, 2), Granularity.MIN_5));
+
+        assertTrue(checkpoint.isDone(ParallelRollupRunner.keyFor(Granularity.MIN_5, 1)));
+        assertFalse(checkpoint.isDone(ParallelRollupRunner.keyFor(Granularity.MIN_5, 2)));
+        checkpoint.close();
+    }
+
+    @Test(expected = IOException.class)
+    public void testCheckpointOfDifferentRunIsRefused() throws Exception {
+        ShardCheckpoint.open(checkpointFile, "first run").close();
+        ShardCheckpoint.open(checkpointFile, "second run");
+    }
+
+    private ParallelRollupRunner createRunner(ShardCheckpoint checkpoint, int maxPending) {
+        return new ParallelRollupRunner(
+                new ParallelRollupRunner.LocatorSource() {
+                    @Override
+                    public Iterable<Locator> getLocators(int shard) {
+                        scannedShards.add(shard);
+                        List<Locator> locators = new ArrayList<Locator>();
+                        for (int i = 0; i < LOCATORS_PER_SHARD; i++) {
+                            locators.add(Locator.createLocatorFromPathComponents(String.valueOf(shard), "metric" + i));
+                        }
+                        return locators;
+                    }
+                },
+                new ParallelRollupRunner.RollupWorkFactory() {
+                    @Override
+                    public Callable<?> create(final Locator locator, final Granularity granularity) {
+                        return new Callable<Void>() {
+                            @Override
+                            public Void call() throws Exception {
+                                int now = running.incrementAndGet();
+                                synchronized (maxRunning) {
+                                    maxRunning.set(Math.max(maxRunning.get(), now));
+                                }
+                                try {
+                                    Thread.sleep(1);
+                                    if (locator.toString().equals(failingLocator)) {
+                                        throw new IOException("boom");
+                                    }
+                                    rolledUp.add(locator.toString() + "," + granularity.name());
+                                    return null;
+                                } finally {
+                                    running.decrementAndGet();
+                                }
+                            }
+                        };
+                    }
+                },
+                checkpoint, 2, 8, maxPending);
+    }
+}
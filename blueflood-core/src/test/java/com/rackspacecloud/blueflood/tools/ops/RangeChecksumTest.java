@@ -0,0 +1,77 @@
+/*
+ * Copyright 2017 Rackspace
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+
+package com.rackspacecloud.blueflood.tools.ops;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+public class RangeChecksumTest {
+
+    @Test
+    public void testOrderDoesNotMatter() {
+        RangeChecksum one = new RangeChecksum();
+        one.add(bytes("a"), 1L, bytes("x"));
+        one.add(bytes("b"), 2L, bytes("y"));
+        RangeChecksum other = new RangeChecksum();
+        other.add(bytes("b"), 2L, bytes("y"));
+        other.add(bytes("a"), 1L, bytes("x"));
+
+        assertEquals(one.toString(), other.toString());
+        assertEquals(2, one.getCells());
+    }
+
+    @Test
+    public void testDifferentCellsDiffer() {
+        RangeChecksum one = new RangeChecksum();
+        one.add(bytes("a"), 1L, bytes("x"));
+        RangeChecksum value = new RangeChecksum();
+        value.add(bytes("a"), 1L, bytes("z"));
+        RangeChecksum column = new RangeChecksum();
+        column.add(bytes("a"), 2L, bytes("x"));
+        // the boundary between key and value is part of the hash
+        RangeChecksum shifted = new RangeChecksum();
+        shifted.add(bytes("ax"), 1L, bytes(""));
+
+        assertFalse(one.toString().equals(value.toString()));
+        assertFalse(one.toString().equals(column.toString()));
+        assertFalse(one.toString().equals(shifted.toString()));
+    }
+
+    @Test
+    public void testOnlyTheRemainingBytesAreHashed() {
+        ByteBuffer slice = ByteBuffer.wrap("__a__".getBytes());
+        slice.position(2).limit(3);
+        ByteBuffer direct = ByteBuffer.allocateDirect(1);
+        direct.put((byte) 'x').flip();
+
+        RangeChecksum one = new RangeChecksum();
+        one.add(slice.slice(), 1L, direct);
+        RangeChecksum other = new RangeChecksum();
+        other.add(bytes("a"), 1L, bytes("x"));
+
+        assertEquals(other.toString(), one.toString());
+        assertEquals(0, direct.position());
+    }
+
+    private static ByteBuffer bytes(String s) {
+        return ByteBuffer.wrap(s.getBytes());
+    }
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright 2017 Rackspace
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+
+package com.rackspacecloud.blueflood.tools.ops;
+
+import org.junit.Test;
+
+import java.math.BigInteger;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class TokenRangeTest {
+
+    @Test
+    public void testSplitRingCoversTheRingContiguously() {
+        List<TokenRange> ranges = TokenRange.splitRing(7);
+        assertEquals(7, ranges.size());
+        assertEquals(Long.MIN_VALUE, ranges.get(0).getStart());
+        assertEquals(Long.MAX_VALUE, ranges.get(6).getEnd());
+
+        BigInteger smallest = null;
+        BigInteger largest = null;
+        for (int i = 0; i < ranges.size(); i++) {
+            if (i > 0) {
+                assertEquals(ranges.get(i - 1).getEnd(), ranges.get(i).getStart());
+            }
+            BigInteger size = BigInteger.valueOf(ranges.get(i).getEnd()).subtract(BigInteger.valueOf(ranges.get(i).getStart()));
+            smallest = smallest == null ? size : smallest.min(size);
+            largest = largest == null ? size : largest.max(size);
+        }
+        assertTrue(largest.subtract(smallest).compareTo(BigInteger.ONE) <= 0);
+    }
+
+    @Test
+    public void testSplitRingIsTheSameEveryTime() {
+        assertEquals(TokenRange.splitRing(4096), TokenRange.splitRing(4096));
+        assertEquals("-9223372036854775808:9223372036854775807", TokenRange.splitRing(1).get(0).getKey());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testSplitRingIntoNothingThrows() {
+        TokenRange.splitRing(0);
+    }
+}
@@ -10,6 +10,7 @@ import com.rackspacecloud.blueflood.io.MetadataIO;
 import com.rackspacecloud.blueflood.types.Locator;
 
 import java.io.IOException;
+import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
 
@@ -48,6 +49,16 @@ public class InMemoryMetadataIO implements MetadataIO, CassandraUtilsIO {
         return results;
     }
 
+    @Override
+    public void getAllValues(Set<Locator> locators, MetadataListener listener) throws IOException {
+        for (Locator locator : locators) {
+            Map<String, String> metaForLoc = backingTable.row(locator);
+            if (!metaForLoc.isEmpty()) {
+                listener.onMetadata(locator, new HashMap<String, String>(metaForLoc));
+            }
+        }
+    }
+
     @Override
     public void putAll(Table<Locator, String, String> meta) throws IOException {
         backingTable.putAll(meta);
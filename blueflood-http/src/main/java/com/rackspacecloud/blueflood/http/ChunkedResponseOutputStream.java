@@ -0,0 +1,103 @@
+/*
+ * Copyright 2017 Rackspace
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.rackspacecloud.blueflood.http;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelHandlerContext;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sends what is written to it as chunks of an HTTP response started with
+ * {@link HttpResponder#startChunkedResponse}, one chunk per {@link #flush()}.
+ * <p>
+ *
+ * When the channel can't take more data, because the client reads slower
+ * than we write, {@link #flush()} blocks until the chunk has been written
+ * out, so that a response is never buffered in memory as a whole. Writing
+ * fails once the channel is closed, so that the writer can stop early.
+ */
+public class ChunkedResponseOutputStream extends OutputStream {
+
+    private final ChannelHandlerContext ctx;
+    private final long writeTimeoutMillis;
+    private ByteBuf buffer;
+
+    public ChunkedResponseOutputStream(ChannelHandlerContext ctx, long writeTimeoutMillis) {
+        this.ctx = ctx;
+        this.writeTimeoutMillis = writeTimeoutMillis;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        buffer().writeByte(b);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        buffer().writeBytes(b, off, len);
+    }
+
+    @Override
+    public void flush() throws IOException {
+        if (buffer == null || !buffer.isReadable()) {
+            return;
+        }
+        ChannelFuture future = HttpResponder.getInstance().writeChunk(ctx, buffer);
+        buffer = null;
+
+        // the event loop writes the chunk out, so it must never wait for it.
+        if (!ctx.channel().isWritable() && !ctx.channel().eventLoop().inEventLoop()) {
+            if (!future.awaitUninterruptibly(writeTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                throw new IOException("Timed out writing response to " + ctx.channel());
+            }
+        }
+        if (future.isDone() && !future.isSuccess()) {
+            throw new IOException("Unable to write response to " + ctx.channel(), future.cause());
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        flush();
+    }
+
+    /**
+     * Drops what has been written since the last flush.
+     */
+    public void discard() {
+        if (buffer != null) {
+            buffer.release();
+            buffer = null;
+        }
+    }
+
+    private ByteBuf buffer() throws IOException {
+        if (!ctx.channel().isActive()) {
+            discard();
+            throw new IOException("Channel closed: " + ctx.channel());
+        }
+        if (buffer == null) {
+            buffer = PooledByteBufAllocator.DEFAULT.buffer();
+        }
+        return buffer;
+    }
+}
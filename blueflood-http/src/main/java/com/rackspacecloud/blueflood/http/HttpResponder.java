@@ -20,7 +20,9 @@ import com.google.common.annotations.VisibleForTesting;
 import com.rackspacecloud.blueflood.service.Configuration;
 import com.rackspacecloud.blueflood.service.CoreConfig;
 import com.rackspacecloud.blueflood.service.HttpConfig;
+import io.netty.buffer.ByteBuf;
 import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelFuture;
 import io.netty.channel.ChannelFutureListener;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.handler.codec.http.*;
@@ -62,15 +64,64 @@ public class HttpResponder {
 
     public void respond(ChannelHandlerContext ctx, FullHttpRequest req, FullHttpResponse res) {
 
-        // set response headers
-        if (CORS_ENABLED) {
-            res.headers().add("Access-Control-Allow-Origin", CORS_ALLOWED_ORIGINS);
-        }
-
         if (res.content() != null) {
             setContentLength(res, res.content().readableBytes());
         }
 
+        boolean isKeepAlive = setResponseHeaders(req, res);
+
+        // Send the response and close the connection if necessary.
+        ctx.channel().write(res);
+        if (req == null || !isKeepAlive) {
+            log.debug("Closing channel. isKeepAlive:" + isKeepAlive + " on channel: " + ctx.channel().toString());
+            ctx.writeAndFlush(Unpooled.EMPTY_BUFFER).addListener(ChannelFutureListener.CLOSE);
+        }
+    }
+
+    /**
+     * Sends the status and headers of a response whose content is sent in
+     * chunks afterwards, with {@link #writeChunk(ChannelHandlerContext, ByteBuf)}.
+     * The response is completed with {@link #finishChunkedResponse(ChannelHandlerContext, FullHttpRequest)}.
+     */
+    public ChannelFuture startChunkedResponse(ChannelHandlerContext ctx, FullHttpRequest req, HttpResponseStatus status) {
+        return startChunkedResponse(ctx, req, status, null);
+    }
+
+    /**
+     * Like {@link #startChunkedResponse(ChannelHandlerContext, FullHttpRequest, HttpResponseStatus)},
+     * with the Content-Type of the chunks, if it is not null.
+     */
+    public ChannelFuture startChunkedResponse(ChannelHandlerContext ctx, FullHttpRequest req, HttpResponseStatus status,
+                                              String contentType) {
+        HttpResponse res = new DefaultHttpResponse(HTTP_1_1, status);
+        HttpHeaders.setTransferEncodingChunked(res);
+        if (contentType != null) {
+            res.headers().set(HttpHeaders.Names.CONTENT_TYPE, contentType);
+        }
+        setResponseHeaders(req, res);
+        return ctx.channel().writeAndFlush(res);
+    }
+
+    public ChannelFuture writeChunk(ChannelHandlerContext ctx, ByteBuf content) {
+        return ctx.channel().writeAndFlush(new DefaultHttpContent(content));
+    }
+
+    public void finishChunkedResponse(ChannelHandlerContext ctx, FullHttpRequest req) {
+        ChannelFuture future = ctx.channel().writeAndFlush(LastHttpContent.EMPTY_LAST_CONTENT);
+        if (req == null || !isKeepAlive(req)) {
+            log.debug("Closing channel after chunked response on channel: " + ctx.channel().toString());
+            future.addListener(ChannelFutureListener.CLOSE);
+        }
+    }
+
+    /**
+     * @return whether the connection is kept alive after the response
+     */
+    private boolean setResponseHeaders(FullHttpRequest req, HttpResponse res) {
+        if (CORS_ENABLED) {
+            res.headers().add("Access-Control-Allow-Origin", CORS_ALLOWED_ORIGINS);
+        }
+
         boolean isKeepAlive = isKeepAlive(req);
         if (isKeepAlive) {
             res.headers().add(CONNECTION, KEEP_ALIVE);
@@ -82,12 +133,6 @@ public class HttpResponder {
                 res.headers().add(KEEP_ALIVE, KEEP_ALIVE_TIMEOUT_STR + httpConnIdleTimeout);
             }
         }
-
-        // Send the response and close the connection if necessary.
-        ctx.channel().write(res);
-        if (req == null || !isKeepAlive) {
-            log.debug("Closing channel. isKeepAlive:" + isKeepAlive + " on channel: " + ctx.channel().toString());
-            ctx.writeAndFlush(Unpooled.EMPTY_BUFFER).addListener(ChannelFutureListener.CLOSE);
-        }
+        return isKeepAlive;
     }
 }
\ No newline at end of file
@@ -1,6 +1,7 @@
 package com.rackspacecloud.blueflood.http;
 
 import com.google.common.base.Strings;
+import com.rackspacecloud.blueflood.outputs.serializers.BinaryRollupsOutputSerializer;
 import io.netty.handler.codec.http.*;
 
 /**
@@ -11,6 +12,7 @@ public class MediaTypeChecker {
 
     private static final String MEDIA_TYPE_APPLICATION_JSON = "application/json";
     private static final String ACCEPT_ALL = "*/*";
+    private static final String MEDIA_TYPE_BINARY_ROLLUPS = BinaryRollupsOutputSerializer.MEDIA_TYPE;
 
     /**
      * Checks the Content-Type header to see if clients specify the right
@@ -38,9 +40,23 @@ public class MediaTypeChecker {
         String accept = headers.get(HttpHeaders.Names.ACCEPT);
 
         // if we get no Accept (which means */*), or */*,
-        // or application/json, then it's valid
+        // or application/json, or our binary rollups, then it's valid
         return ( Strings.isNullOrEmpty(accept) ||
                 accept.contains(ACCEPT_ALL) ||
-                accept.toLowerCase().contains(MEDIA_TYPE_APPLICATION_JSON));
+                accept.toLowerCase().contains(MEDIA_TYPE_APPLICATION_JSON) ||
+                accept.toLowerCase().contains(MEDIA_TYPE_BINARY_ROLLUPS));
+    }
+
+    /**
+     * Checks the Accept header to see if clients ask for query responses
+     * in the binary rollups format instead of JSON
+     * @param headers
+     * @return
+     */
+    public boolean acceptsBinaryRollups(HttpHeaders headers) {
+        String accept = headers.get(HttpHeaders.Names.ACCEPT);
+
+        return ( !Strings.isNullOrEmpty(accept) &&
+                accept.toLowerCase().contains(MEDIA_TYPE_BINARY_ROLLUPS));
     }
 }
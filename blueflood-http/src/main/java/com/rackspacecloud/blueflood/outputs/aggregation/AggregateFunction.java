@@ -0,0 +1,65 @@
+/*
+ * Copyright 2017 Rackspace
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.rackspacecloud.blueflood.outputs.aggregation;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * How the values of many series at the same point in time are combined into one.
+ */
+public enum AggregateFunction {
+    // sum of the average of every series
+    SUM("sum"),
+    // average of the average of every series
+    AVG("avg"),
+    // smallest minimum of all series
+    MIN("min"),
+    // largest maximum of all series
+    MAX("max"),
+    // number of series with data
+    COUNT("count"),
+    // percentile of the averages of all series
+    PERCENTILE("percentile"),
+    // sum of the per second rate of every series
+    RATE("rate");
+
+    private static final Map<String, AggregateFunction> stringToEnum = new HashMap<String, AggregateFunction>();
+    static {
+        for (AggregateFunction function : values()) {
+            stringToEnum.put(function.toString(), function);
+        }
+    }
+
+    private final String stringRep;
+
+    private AggregateFunction(String s) {
+        this.stringRep = s;
+    }
+
+    /**
+     * @return the function, or null if there is none by that name
+     */
+    public static AggregateFunction fromString(String s) {
+        return stringToEnum.get(s.toLowerCase());
+    }
+
+    @Override
+    public String toString() {
+        return stringRep;
+    }
+}
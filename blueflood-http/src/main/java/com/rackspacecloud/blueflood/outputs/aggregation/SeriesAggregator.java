@@ -0,0 +1,300 @@
+/*
+ * Copyright 2017 Rackspace
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.rackspacecloud.blueflood.outputs.aggregation;
+
+import com.rackspacecloud.blueflood.outputs.formats.MetricData;
+import com.rackspacecloud.blueflood.rollup.Granularity;
+import com.rackspacecloud.blueflood.types.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Combines many series into one with an {@link AggregateFunction}.
+ * <p>
+ *
+ * Points are aligned on the slots of the granularity they were read at, so that
+ * points of different series at about the same time end up in the same slot.
+ * Several points of a series in the same slot, as in full resolution data, are
+ * combined into one before they are aggregated with the other series.
+ * <p>
+ *
+ * An aggregator is not thread safe. To aggregate in parallel, every thread
+ * adds its series to its own aggregator, and the aggregators are merged.
+ */
+public class SeriesAggregator {
+
+    private final AggregateFunction function;
+    private final double percentile;
+    private final long slotMillis;
+    private final TreeMap<Long, Slot> slots = new TreeMap<Long, Slot>();
+    private int seriesCount = 0;
+    private String unit = null;
+    private boolean mixedUnits = false;
+
+    /**
+     * @param percentile only used by {@link AggregateFunction#PERCENTILE}, between 0 and 100
+     * @param granularity the granularity the series were read at
+     */
+    public SeriesAggregator(AggregateFunction function, double percentile, Granularity granularity) {
+        this.function = function;
+        this.percentile = percentile;
+        this.slotMillis = granularity.milliseconds();
+    }
+
+    public void add(MetricData metricData) {
+        TreeMap<Long, Sample> samples = align(metricData.getData());
+        if (samples.isEmpty()) {
+            return;
+        }
+        seriesCount++;
+        addUnit(metricData.getUnit());
+
+        if (function == AggregateFunction.RATE) {
+            addRates(samples);
+            return;
+        }
+        for (Map.Entry<Long, Sample> entry : samples.entrySet()) {
+            Sample sample = entry.getValue();
+            double value = function == AggregateFunction.MIN ? sample.min
+                    : function == AggregateFunction.MAX ? sample.max
+                    : sample.sum / sample.count;
+            slot(entry.getKey()).add(value);
+        }
+    }
+
+    public void merge(SeriesAggregator other) {
+        for (Map.Entry<Long, Slot> entry : other.slots.entrySet()) {
+            slot(entry.getKey()).merge(entry.getValue());
+        }
+        seriesCount += other.seriesCount;
+        if (other.mixedUnits) {
+            mixedUnits = true;
+        }
+        if (other.unit != null) {
+            addUnit(other.unit);
+        }
+    }
+
+    /**
+     * @return the aggregated value of every slot that any series has data for
+     */
+    public Points<SimpleNumber> getAggregatedPoints() {
+        Points<SimpleNumber> points = new Points<SimpleNumber>();
+        for (Map.Entry<Long, Slot> entry : slots.entrySet()) {
+            points.add(new Points.Point<SimpleNumber>(entry.getKey(), new SimpleNumber(entry.getValue().result())));
+        }
+        return points;
+    }
+
+    public int getSeriesCount() {
+        return seriesCount;
+    }
+
+    /**
+     * @return the unit all series share, or null if they don't
+     */
+    public String getUnit() {
+        return mixedUnits ? null : unit;
+    }
+
+    public AggregateFunction getFunction() {
+        return function;
+    }
+
+    public double getPercentile() {
+        return percentile;
+    }
+
+    private void addUnit(String seriesUnit) {
+        if (unit == null) {
+            unit = seriesUnit;
+        } else if (!unit.equals(seriesUnit)) {
+            mixedUnits = true;
+        }
+    }
+
+    /**
+     * Adds the per second rate of a series. Counters and timers know their rate,
+     * for everything else it is the change from the previous slot with data.
+     * Negative changes are taken for counter resets, and left out.
+     */
+    private void addRates(TreeMap<Long, Sample> samples) {
+        Long previousSlot = null;
+        double previousValue = 0;
+        for (Map.Entry<Long, Sample> entry : samples.entrySet()) {
+            Sample sample = entry.getValue();
+            double value = sample.sum / sample.count;
+            if (sample.hasRate) {
+                slot(entry.getKey()).add(sample.rate);
+            } else if (previousSlot != null && value >= previousValue) {
+                slot(entry.getKey()).add((value - previousValue) * 1000 / (entry.getKey() - previousSlot));
+            }
+            previousSlot = entry.getKey();
+            previousValue = value;
+        }
+    }
+
+    private TreeMap<Long, Sample> align(Points<?> points) {
+        TreeMap<Long, Sample> samples = new TreeMap<Long, Sample>();
+        for (Points.Point<?> point : points.getPoints().values()) {
+            long slot = point.getTimestamp() - (point.getTimestamp() % slotMillis);
+            Sample sample = samples.get(slot);
+            if (sample == null) {
+                sample = new Sample();
+            }
+            if (sample.add(point.getData())) {
+                samples.put(slot, sample);
+            }
+        }
+        return samples;
+    }
+
+    private Slot slot(long timestamp) {
+        Slot slot = slots.get(timestamp);
+        if (slot == null) {
+            slot = new Slot(function == AggregateFunction.PERCENTILE);
+            slots.put(timestamp, slot);
+        }
+        return slot;
+    }
+
+    /**
+     * The points of one series in one slot.
+     */
+    private static class Sample {
+        double sum = 0;
+        int count = 0;
+        double min = Double.POSITIVE_INFINITY;
+        double max = Double.NEGATIVE_INFINITY;
+        double rate = 0;
+        boolean hasRate = false;
+
+        /**
+         * @return false if the point has no value to aggregate
+         */
+        boolean add(Object data) {
+            double average;
+            double pointMin;
+            double pointMax;
+
+            // gauges are base rollups as well, so they need to come first.
+            if (data instanceof BluefloodGaugeRollup) {
+                average = pointMin = pointMax = ((BluefloodGaugeRollup) data).getLatestNumericValue().doubleValue();
+            } else if (data instanceof IBaseRollup) {
+                IBaseRollup rollup = (IBaseRollup) data;
+                if (rollup.getCount() == 0) {
+                    return false;
+                }
+                average = valueOf(rollup.getAverage());
+                pointMin = valueOf(rollup.getMinValue());
+                pointMax = valueOf(rollup.getMaxValue());
+            } else if (data instanceof SimpleNumber) {
+                average = pointMin = pointMax = ((SimpleNumber) data).getValue().doubleValue();
+            } else if (data instanceof BluefloodCounterRollup) {
+                average = pointMin = pointMax = ((BluefloodCounterRollup) data).getCount().doubleValue();
+            } else if (data instanceof BluefloodSetRollup) {
+                average = pointMin = pointMax = ((BluefloodSetRollup) data).getCount();
+            } else {
+                return false;
+            }
+
+            if (data instanceof BluefloodTimerRollup) {
+                addRate(((BluefloodTimerRollup) data).getRate());
+            } else if (data instanceof BluefloodCounterRollup) {
+                addRate(((BluefloodCounterRollup) data).getRate());
+            }
+
+            sum += average;
+            count++;
+            min = Math.min(min, pointMin);
+            max = Math.max(max, pointMax);
+            return true;
+        }
+
+        private static double valueOf(AbstractRollupStat stat) {
+            return stat.isFloatingPoint() ? stat.toDouble() : stat.toLong();
+        }
+
+        private void addRate(double pointRate) {
+            // the rate of a slot is the average rate of its points
+            rate = (rate * count + pointRate) / (count + 1);
+            hasRate = true;
+        }
+    }
+
+    /**
+     * The values of all series in one slot.
+     */
+    private class Slot {
+        double sum = 0;
+        int count = 0;
+        double min = Double.POSITIVE_INFINITY;
+        double max = Double.NEGATIVE_INFINITY;
+        final List<Double> values;
+
+        Slot(boolean keepValues) {
+            values = keepValues ? new ArrayList<Double>() : null;
+        }
+
+        void add(double value) {
+            sum += value;
+            count++;
+            min = Math.min(min, value);
+            max = Math.max(max, value);
+            if (values != null) {
+                values.add(value);
+            }
+        }
+
+        void merge(Slot other) {
+            sum += other.sum;
+            count += other.count;
+            min = Math.min(min, other.min);
+            max = Math.max(max, other.max);
+            if (values != null) {
+                values.addAll(other.values);
+            }
+        }
+
+        double result() {
+            switch (function) {
+                case SUM:
+                case RATE:
+                    return sum;
+                case AVG:
+                    return sum / count;
+                case MIN:
+                    return min;
+                case MAX:
+                    return max;
+                case COUNT:
+                    return count;
+                case PERCENTILE:
+                    // nearest rank
+                    Collections.sort(values);
+                    int rank = (int) Math.ceil(percentile / 100 * values.size());
+                    return values.get(Math.max(rank, 1) - 1);
+                default:
+                    throw new IllegalStateException("Unknown aggregate function " + function);
+            }
+        }
+    }
+}
@@ -0,0 +1,261 @@
+/*
+ * Copyright 2017 Rackspace
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.rackspacecloud.blueflood.outputs.handlers;
+
+import com.codahale.metrics.Timer;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.rackspacecloud.blueflood.concurrent.QueryDeadline;
+import com.rackspacecloud.blueflood.concurrent.ThreadPoolBuilder;
+import com.rackspacecloud.blueflood.exceptions.InvalidRequestException;
+import com.rackspacecloud.blueflood.exceptions.QueryDeadlineExceededException;
+import com.rackspacecloud.blueflood.http.DefaultHandler;
+import com.rackspacecloud.blueflood.http.HttpRequestHandler;
+import com.rackspacecloud.blueflood.http.HttpRequestWithDecodedQueryParams;
+import com.rackspacecloud.blueflood.http.HttpResponder;
+import com.rackspacecloud.blueflood.io.Constants;
+import com.rackspacecloud.blueflood.outputs.aggregation.AggregateFunction;
+import com.rackspacecloud.blueflood.outputs.aggregation.SeriesAggregator;
+import com.rackspacecloud.blueflood.outputs.formats.MetricData;
+import com.rackspacecloud.blueflood.outputs.serializers.JSONAggregatedSeriesOutputSerializer;
+import com.rackspacecloud.blueflood.outputs.utils.PlotRequestParser;
+import com.rackspacecloud.blueflood.outputs.utils.RollupsQueryParams;
+import com.rackspacecloud.blueflood.rollup.Granularity;
+import com.rackspacecloud.blueflood.service.Configuration;
+import com.rackspacecloud.blueflood.service.HttpConfig;
+import com.rackspacecloud.blueflood.tracker.Tracker;
+import com.rackspacecloud.blueflood.types.Locator;
+import com.rackspacecloud.blueflood.utils.Metrics;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufOutputStream;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.http.*;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+
+/**
+ * Combines many metrics into one series on the query node, so that clients that
+ * only want e.g. the sum over all their hosts don't have to fetch every metric.
+ * Takes the same query parameters and body as a batch query, plus
+ * {@code aggregate=sum|avg|min|max|count|percentile|rate}, and
+ * {@code percentile=<0-100>} for percentiles.
+ * <p>
+ *
+ * The metrics are read and aggregated in parallel, {@code METRICS_PER_AGGREGATION_READ}
+ * at a time, and the partial aggregates are merged at the end.
+ */
+public class HttpAggregatedRollupsQueryHandler extends RollupHandler implements HttpRequestHandler {
+    private static final Logger log = LoggerFactory.getLogger(HttpAggregatedRollupsQueryHandler.class);
+    private final JSONAggregatedSeriesOutputSerializer serializer;
+    private final Gson gson;           // thread-safe
+    private final boolean prettyPrint;
+    private final Timer httpAggregatedMetricsFetchTimer = Metrics.timer(HttpAggregatedRollupsQueryHandler.class,
+            "Handle HTTP aggregation request for metrics");
+    private final ThreadPoolExecutor executor;
+    private final int maxMetricsPerRequest;
+    private final int metricsPerRead;
+
+    HttpAggregatedRollupsQueryHandler() {
+        this(new JSONAggregatedSeriesOutputSerializer());
+    }
+
+    @VisibleForTesting
+    public HttpAggregatedRollupsQueryHandler(JSONAggregatedSeriesOutputSerializer serializer) {
+        Configuration config = Configuration.getInstance();
+        int maxThreadsToUse = config.getIntegerProperty(HttpConfig.MAX_READ_WORKER_THREADS);
+        this.maxMetricsPerRequest = config.getIntegerProperty(HttpConfig.MAX_METRICS_PER_AGGREGATION_QUERY);
+        this.metricsPerRead = config.getIntegerProperty(HttpConfig.METRICS_PER_AGGREGATION_READ);
+        this.serializer = serializer;
+        this.gson = new Gson();
+        this.prettyPrint = config.getBooleanProperty(HttpConfig.PRETTY_PRINT_ROLLUP_QUERY_RESPONSES);
+        // a single request queues many reads, so the queue can't be bounded by requests like the batch pool.
+        this.executor = new ThreadPoolBuilder().withCorePoolSize(maxThreadsToUse).withMaxPoolSize(maxThreadsToUse)
+                .withName("HTTP-AggregatedMetricsFetch").withUnboundedQueue().build();
+    }
+
+    @Override
+    public void handle(ChannelHandlerContext ctx, FullHttpRequest request) {
+
+        Tracker.getInstance().track(request);
+
+        final String tenantId = request.headers().get("tenantId");
+
+        if (!(request instanceof HttpRequestWithDecodedQueryParams)) {
+            DefaultHandler.sendErrorResponse(ctx, request, "Missing query params: from, to, points, aggregate",
+                    HttpResponseStatus.BAD_REQUEST);
+            return;
+        }
+
+        final String body = request.content().toString(Constants.DEFAULT_CHARSET);
+
+        if (body == null || body.isEmpty()) {
+            DefaultHandler.sendErrorResponse(ctx, request, "Invalid body. Expected JSON array of metrics.",
+                    HttpResponseStatus.BAD_REQUEST);
+            return;
+        }
+
+        List<String> metrics;
+        try {
+            // metrics asked for twice are only counted once
+            metrics = new ArrayList<String>(new LinkedHashSet<String>(getMetricsFromJSONBody(body)));
+        } catch (Exception ex) {
+            log.debug(ex.getMessage(), ex);
+            DefaultHandler.sendErrorResponse(ctx, request, "Invalid body. Expected JSON array of metrics.",
+                    HttpResponseStatus.BAD_REQUEST);
+            return;
+        }
+
+        if (metrics.size() > maxMetricsPerRequest) {
+            DefaultHandler.sendErrorResponse(ctx, request, "Too many metrics fetch in a single call. Max limit is " + maxMetricsPerRequest
+                    + ".", HttpResponseStatus.BAD_REQUEST);
+            return;
+        }
+
+        HttpRequestWithDecodedQueryParams requestWithParams = (HttpRequestWithDecodedQueryParams) request;
+        final Timer.Context httpAggregatedMetricsFetchTimerContext = httpAggregatedMetricsFetchTimer.time();
+        try {
+            Map<String, List<String>> queryParams = requestWithParams.getQueryParams();
+            RollupsQueryParams params = PlotRequestParser.parseParams(queryParams);
+            AggregateFunction function = parseFunction(queryParams);
+            double percentile = function == AggregateFunction.PERCENTILE ? parsePercentile(queryParams) : 0;
+
+            SeriesAggregator aggregator = aggregate(tenantId, metrics, params, function, percentile);
+
+            final ByteBuf content = PooledByteBufAllocator.DEFAULT.buffer();
+            try {
+                serializer.writeAggregatedData(aggregator, new ByteBufOutputStream(content), prettyPrint);
+            } catch (Exception e) {
+                content.release();
+                throw e;
+            }
+            sendResponse(ctx, request, content, HttpResponseStatus.OK);
+        } catch (InvalidRequestException e) {
+            log.debug(e.getMessage());
+            DefaultHandler.sendErrorResponse(ctx, request, e.getMessage(), HttpResponseStatus.BAD_REQUEST);
+        } catch (QueryDeadlineExceededException e) {
+            log.debug(e.getMessage());
+            DefaultHandler.sendErrorResponse(ctx, request, e.getMessage(), HttpResponseStatus.SERVICE_UNAVAILABLE);
+        } catch (Exception e) {
+            log.error(e.getMessage(), e);
+            DefaultHandler.sendErrorResponse(ctx, request, e.getMessage(), HttpResponseStatus.INTERNAL_SERVER_ERROR);
+        } finally {
+            httpAggregatedMetricsFetchTimerContext.stop();
+        }
+    }
+
+    private SeriesAggregator aggregate(final String tenantId, List<String> metrics, final RollupsQueryParams params,
+                                       final AggregateFunction function, final double percentile) throws Exception {
+        // every series has to be read at the same granularity to be aligned on its slots
+        final Granularity granularity = params.getGranularity(tenantId);
+        QueryDeadline deadline = QueryDeadline.current();
+
+        List<Future<SeriesAggregator>> futures = new ArrayList<Future<SeriesAggregator>>();
+        for (int i = 0; i < metrics.size(); i += metricsPerRead) {
+            final List<String> batch = metrics.subList(i, Math.min(i + metricsPerRead, metrics.size()));
+            futures.add(executor.submit(deadline.wrap(new Callable<SeriesAggregator>() {
+                @Override
+                public SeriesAggregator call() {
+                    SeriesAggregator partial = new SeriesAggregator(function, percentile, granularity);
+                    Map<Locator, MetricData> results = getRollupByGranularity(tenantId, batch,
+                            params.getRange().getStart(), params.getRange().getStop(), granularity);
+                    for (MetricData metricData : results.values()) {
+                        partial.add(metricData);
+                    }
+                    return partial;
+                }
+            })));
+        }
+
+        SeriesAggregator aggregator = new SeriesAggregator(function, percentile, granularity);
+        try {
+            for (Future<SeriesAggregator> future : futures) {
+                aggregator.merge(deadline.await(future));
+            }
+        } catch (ExecutionException e) {
+            for (Future<SeriesAggregator> future : futures) {
+                future.cancel(true);
+            }
+            throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+        } catch (QueryDeadlineExceededException e) {
+            for (Future<SeriesAggregator> future : futures) {
+                future.cancel(true);
+            }
+            throw e;
+        }
+        return aggregator;
+    }
+
+    private static AggregateFunction parseFunction(Map<String, List<String>> queryParams) throws InvalidRequestException {
+        List<String> aggregate = queryParams.get("aggregate");
+        if (aggregate == null || aggregate.size() != 1) {
+            throw new InvalidRequestException("Invalid parameter: aggregate=" + aggregate);
+        }
+        AggregateFunction function = AggregateFunction.fromString(aggregate.get(0));
+        if (function == null) {
+            throw new InvalidRequestException("parameter 'aggregate' is not valid. Allowed values " +
+                    "['sum', 'avg', 'min', 'max', 'count', 'percentile', 'rate']");
+        }
+        return function;
+    }
+
+    private static double parsePercentile(Map<String, List<String>> queryParams) throws InvalidRequestException {
+        List<String> percentile = queryParams.get("percentile");
+        if (percentile == null || percentile.size() != 1) {
+            throw new InvalidRequestException("Invalid parameter: percentile=" + percentile);
+        }
+        double value;
+        try {
+            value = Double.parseDouble(percentile.get(0));
+        } catch (NumberFormatException e) {
+            throw new InvalidRequestException("parameter 'percentile' must be a valid number");
+        }
+        if (!(value > 0 && value <= 100)) {
+            throw new InvalidRequestException("parameter 'percentile' must be greater than 0 and at most 100");
+        }
+        return value;
+    }
+
+    private List<String> getMetricsFromJSONBody(String body) {
+        JsonArray array = gson.fromJson(body, JsonElement.class).getAsJsonArray();
+        List<String> metrics = new ArrayList<String>();
+        for (JsonElement element : array) {
+            metrics.add(element.getAsString());
+        }
+        return metrics;
+    }
+
+    private void sendResponse(ChannelHandlerContext channel, FullHttpRequest request, ByteBuf content,
+                              HttpResponseStatus status) {
+
+        FullHttpResponse response = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, status, content);
+
+        HttpResponder.getInstance().respond(channel, request, response);
+        Tracker.getInstance().trackResponse(request, response);
+    }
+}
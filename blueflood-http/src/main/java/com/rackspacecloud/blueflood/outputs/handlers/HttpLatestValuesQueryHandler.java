@@ -0,0 +1,222 @@
+/*
+ * Copyright 2017 Rackspace
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.rackspacecloud.blueflood.outputs.handlers;
+
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.Timer;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.rackspacecloud.blueflood.cache.LatestValueCache;
+import com.rackspacecloud.blueflood.exceptions.QueryDeadlineExceededException;
+import com.rackspacecloud.blueflood.http.DefaultHandler;
+import com.rackspacecloud.blueflood.http.HttpRequestHandler;
+import com.rackspacecloud.blueflood.http.HttpResponder;
+import com.rackspacecloud.blueflood.io.Constants;
+import com.rackspacecloud.blueflood.outputs.formats.MetricData;
+import com.rackspacecloud.blueflood.outputs.serializers.JSONLatestValuesOutputSerializer;
+import com.rackspacecloud.blueflood.rollup.Granularity;
+import com.rackspacecloud.blueflood.service.Configuration;
+import com.rackspacecloud.blueflood.service.HttpConfig;
+import com.rackspacecloud.blueflood.tracker.Tracker;
+import com.rackspacecloud.blueflood.types.BluefloodGaugeRollup;
+import com.rackspacecloud.blueflood.types.Locator;
+import com.rackspacecloud.blueflood.types.Points;
+import com.rackspacecloud.blueflood.types.SimpleNumber;
+import com.rackspacecloud.blueflood.utils.Metrics;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufOutputStream;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.http.*;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Answers "current value" queries: takes a JSON array of metric names, and returns
+ * the latest point of each.
+ * <p>
+ *
+ * Values come from the {@link LatestValueCache}. The metrics it doesn't have are
+ * read at full resolution for the last {@code LATEST_VALUE_LOOKBACK_MILLIS} in one
+ * batch, and their latest points are cached for the next query.
+ */
+public class HttpLatestValuesQueryHandler extends RollupHandler implements HttpRequestHandler {
+    private static final Logger log = LoggerFactory.getLogger(HttpLatestValuesQueryHandler.class);
+    private final JSONLatestValuesOutputSerializer serializer;
+    private final LatestValueCache cache;
+    private final Gson gson;           // thread-safe
+    private final boolean prettyPrint;
+    private final int maxMetricsPerRequest;
+    private final long lookbackMillis;
+    private final Timer httpLatestValuesFetchTimer = Metrics.timer(HttpLatestValuesQueryHandler.class,
+            "Handle HTTP request for latest values");
+    private final Meter valuesFromCache = Metrics.meter(HttpLatestValuesQueryHandler.class, "Values Served From Cache");
+    private final Meter valuesRead = Metrics.meter(HttpLatestValuesQueryHandler.class, "Values Read From Cassandra");
+
+    HttpLatestValuesQueryHandler() {
+        this(new JSONLatestValuesOutputSerializer(), LatestValueCache.getInstance());
+    }
+
+    @VisibleForTesting
+    public HttpLatestValuesQueryHandler(JSONLatestValuesOutputSerializer serializer, LatestValueCache cache) {
+        Configuration config = Configuration.getInstance();
+        this.serializer = serializer;
+        this.cache = cache;
+        this.gson = new Gson();
+        this.prettyPrint = config.getBooleanProperty(HttpConfig.PRETTY_PRINT_ROLLUP_QUERY_RESPONSES);
+        this.maxMetricsPerRequest = config.getIntegerProperty(HttpConfig.MAX_METRICS_PER_LATEST_VALUE_QUERY);
+        this.lookbackMillis = config.getLongProperty(HttpConfig.LATEST_VALUE_LOOKBACK_MILLIS);
+    }
+
+    @Override
+    public void handle(ChannelHandlerContext ctx, FullHttpRequest request) {
+
+        Tracker.getInstance().track(request);
+
+        final String tenantId = request.headers().get("tenantId");
+        final String body = request.content().toString(Constants.DEFAULT_CHARSET);
+
+        if (body == null || body.isEmpty()) {
+            DefaultHandler.sendErrorResponse(ctx, request, "Invalid body. Expected JSON array of metrics.",
+                    HttpResponseStatus.BAD_REQUEST);
+            return;
+        }
+
+        List<String> metrics;
+        try {
+            metrics = new ArrayList<String>(new LinkedHashSet<String>(getMetricsFromJSONBody(body)));
+        } catch (Exception ex) {
+            log.debug(ex.getMessage(), ex);
+            DefaultHandler.sendErrorResponse(ctx, request, "Invalid body. Expected JSON array of metrics.",
+                    HttpResponseStatus.BAD_REQUEST);
+            return;
+        }
+
+        if (metrics.size() > maxMetricsPerRequest) {
+            DefaultHandler.sendErrorResponse(ctx, request, "Too many metrics fetch in a single call. Max limit is " + maxMetricsPerRequest
+                    + ".", HttpResponseStatus.BAD_REQUEST);
+            return;
+        }
+
+        final Timer.Context httpLatestValuesFetchTimerContext = httpLatestValuesFetchTimer.time();
+        try {
+            Map<String, Points.Point<SimpleNumber>> values = getLatestValues(tenantId, metrics);
+
+            final ByteBuf content = PooledByteBufAllocator.DEFAULT.buffer();
+            try {
+                serializer.writeLatestValues(metrics, values, new ByteBufOutputStream(content), prettyPrint);
+            } catch (Exception e) {
+                content.release();
+                throw e;
+            }
+            sendResponse(ctx, request, content, HttpResponseStatus.OK);
+        } catch (QueryDeadlineExceededException e) {
+            log.debug(e.getMessage());
+            DefaultHandler.sendErrorResponse(ctx, request, e.getMessage(), HttpResponseStatus.SERVICE_UNAVAILABLE);
+        } catch (Exception e) {
+            log.error(e.getMessage(), e);
+            DefaultHandler.sendErrorResponse(ctx, request, e.getMessage(), HttpResponseStatus.INTERNAL_SERVER_ERROR);
+        } finally {
+            httpLatestValuesFetchTimerContext.stop();
+        }
+    }
+
+    /**
+     * @return the latest point of every metric that has one, by metric name
+     */
+    private Map<String, Points.Point<SimpleNumber>> getLatestValues(String tenantId, List<String> metrics) {
+        Map<Locator, String> names = new HashMap<Locator, String>();
+        for (String metric : metrics) {
+            names.put(Locator.createLocatorFromPathComponents(tenantId, metric), metric);
+        }
+
+        Map<String, Points.Point<SimpleNumber>> values = new HashMap<String, Points.Point<SimpleNumber>>();
+        for (Map.Entry<Locator, Points.Point<SimpleNumber>> entry : cache.getAll(names.keySet()).entrySet()) {
+            values.put(names.get(entry.getKey()), entry.getValue());
+        }
+        valuesFromCache.mark(values.size());
+
+        List<String> missed = new ArrayList<String>();
+        for (String metric : metrics) {
+            if (!values.containsKey(metric)) {
+                missed.add(metric);
+            }
+        }
+        if (missed.isEmpty()) {
+            return values;
+        }
+
+        long now = System.currentTimeMillis();
+        Map<Locator, MetricData> read = getRollupByGranularity(tenantId, missed, now - lookbackMillis, now,
+                Granularity.FULL);
+        for (Map.Entry<Locator, MetricData> entry : read.entrySet()) {
+            Points.Point<SimpleNumber> latest = getLatestPoint(entry.getValue().getData());
+            if (latest != null) {
+                cache.put(entry.getKey(), latest);
+                values.put(names.get(entry.getKey()), latest);
+                valuesRead.mark();
+            }
+        }
+        return values;
+    }
+
+    /**
+     * @return the newest point that holds a number, or null if there is none
+     */
+    private static Points.Point<SimpleNumber> getLatestPoint(Points<?> points) {
+        Points.Point<SimpleNumber> latest = null;
+        for (Points.Point<?> point : points.getPoints().values()) {
+            if (latest != null && point.getTimestamp() <= latest.getTimestamp()) {
+                continue;
+            }
+            Object data = point.getData();
+            if (data instanceof SimpleNumber) {
+                latest = new Points.Point<SimpleNumber>(point.getTimestamp(), (SimpleNumber) data);
+            } else if (data instanceof BluefloodGaugeRollup && ((BluefloodGaugeRollup) data).getLatestValue() != null) {
+                BluefloodGaugeRollup gauge = (BluefloodGaugeRollup) data;
+                latest = new Points.Point<SimpleNumber>(gauge.getTimestamp(), gauge.getLatestValue());
+            }
+        }
+        return latest;
+    }
+
+    private List<String> getMetricsFromJSONBody(String body) {
+        JsonArray array = gson.fromJson(body, JsonElement.class).getAsJsonArray();
+        List<String> metrics = new ArrayList<String>();
+        for (JsonElement element : array) {
+            metrics.add(element.getAsString());
+        }
+        return metrics;
+    }
+
+    private void sendResponse(ChannelHandlerContext channel, FullHttpRequest request, ByteBuf content,
+                              HttpResponseStatus status) {
+
+        FullHttpResponse response = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, status, content);
+
+        HttpResponder.getInstance().respond(channel, request, response);
+        Tracker.getInstance().trackResponse(request, response);
+    }
+}
@@ -20,6 +20,7 @@ import com.google.common.annotations.VisibleForTesting;
 import com.rackspacecloud.blueflood.http.*;
 import com.rackspacecloud.blueflood.inputs.handlers.UserDefinedEventHandler;
 import com.rackspacecloud.blueflood.io.EventsIO;
+import com.rackspacecloud.blueflood.outputs.utils.TenantQueryLimiter;
 import com.rackspacecloud.blueflood.service.Configuration;
 import com.rackspacecloud.blueflood.service.CoreConfig;
 import com.rackspacecloud.blueflood.service.HttpConfig;
@@ -67,20 +68,35 @@ public class HttpMetricDataQueryServer {
     public void startServer() throws InterruptedException {
 
         RouteMatcher router = new RouteMatcher();
-        router.get("/v1.0", new DefaultHandler());
-        router.get("/v1.0/:tenantId/experimental/views/metric_data/:metricName", new HttpRollupsQueryHandler());
+        // shared by the metric data endpoints, so that a tenant's queries count against one limit
+        TenantQueryLimiter queryLimiter = new TenantQueryLimiter(
+                Configuration.getInstance().getIntegerProperty(HttpConfig.MAX_CONCURRENT_QUERIES_PER_TENANT));
+        long queryDeadlineMillis = Configuration.getInstance().getLongProperty(HttpConfig.QUERY_DEADLINE_MILLIS);
 
-        router.post("/v1.0/:tenantId/experimental/views/metric_data", new HttpMultiRollupsQueryHandler());
-        router.post("/v2.0/:tenantId/views", new HttpMultiRollupsQueryHandler());
+        router.get("/v1.0", new DefaultHandler());
+        router.get("/v1.0/:tenantId/experimental/views/metric_data/:metricName", new QueryLimitingHandler(new HttpRollupsQueryHandler(),
+                queryLimiter, queryDeadlineMillis));
+
+        router.post("/v1.0/:tenantId/experimental/views/metric_data", new QueryLimitingHandler(new HttpMultiRollupsQueryHandler(),
+                queryLimiter, queryDeadlineMillis));
+        router.post("/v2.0/:tenantId/views", new QueryLimitingHandler(new HttpMultiRollupsQueryHandler(),
+                queryLimiter, queryDeadlineMillis));
+        router.post("/v2.0/:tenantId/aggregate", new QueryLimitingHandler(new HttpAggregatedRollupsQueryHandler(),
+                queryLimiter, queryDeadlineMillis));
+        router.post("/v2.0/:tenantId/latest", new QueryLimitingHandler(new HttpLatestValuesQueryHandler(),
+                queryLimiter, queryDeadlineMillis));
 
         router.get("/v2.0", new DefaultHandler());
-        router.get("/v2.0/:tenantId/views/:metricName", new HttpRollupsQueryHandler());
+        router.get("/v2.0/:tenantId/views/:metricName", new QueryLimitingHandler(new HttpRollupsQueryHandler(),
+                queryLimiter, queryDeadlineMillis));
         router.get("/v2.0/:tenantId/metrics/search", new HttpMetricsIndexHandler());
         router.get("/v2.0/:tenantId/metric_name/search", new HttpMetricNamesHandler());
         router.get("/v2.0/:tenantId/events/getEvents", new HttpEventsQueryHandler(getEventsIO()));
 
         router.options("/v2.0/:tenantId/views/:metricName", new HttpOptionsHandler());
         router.options("/v2.0/:tenantId/views", new HttpOptionsHandler());
+        router.options("/v2.0/:tenantId/aggregate", new HttpOptionsHandler());
+        router.options("/v2.0/:tenantId/latest", new HttpOptionsHandler());
         router.options("/v2.0/:tenantId/metrics/search", new HttpOptionsHandler());
         router.options("/v2.0/:tenantId/metric_name/search", new HttpOptionsHandler());
         router.options("/v2.0/:tenantId/events/getEvents", new HttpOptionsHandler());
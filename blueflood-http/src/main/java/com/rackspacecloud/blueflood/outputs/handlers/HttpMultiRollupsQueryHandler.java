@@ -16,20 +16,25 @@
 
 package com.rackspacecloud.blueflood.outputs.handlers;
 
+import com.codahale.metrics.Meter;
 import com.codahale.metrics.Timer;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.gson.*;
+import com.rackspacecloud.blueflood.concurrent.QueryDeadline;
 import com.rackspacecloud.blueflood.concurrent.ThreadPoolBuilder;
 import com.rackspacecloud.blueflood.exceptions.InvalidRequestException;
+import com.rackspacecloud.blueflood.exceptions.QueryDeadlineExceededException;
 import com.rackspacecloud.blueflood.exceptions.SerializationException;
+import com.rackspacecloud.blueflood.http.ChunkedResponseOutputStream;
 import com.rackspacecloud.blueflood.http.DefaultHandler;
 import com.rackspacecloud.blueflood.http.HttpRequestHandler;
 import com.rackspacecloud.blueflood.http.HttpRequestWithDecodedQueryParams;
 import com.rackspacecloud.blueflood.http.HttpResponder;
+import com.rackspacecloud.blueflood.http.MediaTypeChecker;
 import com.rackspacecloud.blueflood.io.Constants;
 import com.rackspacecloud.blueflood.outputs.formats.MetricData;
 import com.rackspacecloud.blueflood.outputs.serializers.BatchedMetricsJSONOutputSerializer;
-import com.rackspacecloud.blueflood.outputs.serializers.BatchedMetricsOutputSerializer;
+import com.rackspacecloud.blueflood.outputs.serializers.BinaryRollupsOutputSerializer;
 import com.rackspacecloud.blueflood.outputs.utils.PlotRequestParser;
 import com.rackspacecloud.blueflood.outputs.utils.RollupsQueryParams;
 import com.rackspacecloud.blueflood.service.Configuration;
@@ -37,44 +42,72 @@ import com.rackspacecloud.blueflood.service.HttpConfig;
 import com.rackspacecloud.blueflood.tracker.Tracker;
 import com.rackspacecloud.blueflood.types.Locator;
 import com.rackspacecloud.blueflood.utils.Metrics;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufOutputStream;
+import io.netty.buffer.PooledByteBufAllocator;
 import io.netty.buffer.Unpooled;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.handler.codec.http.*;
-import org.json.simple.JSONObject;
+import org.codehaus.jackson.JsonGenerator;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ThreadPoolExecutor;
 
 public class HttpMultiRollupsQueryHandler extends RollupHandler implements HttpRequestHandler {
     private static final Logger log = LoggerFactory.getLogger(HttpMultiRollupsQueryHandler.class);
-    private final BatchedMetricsOutputSerializer<JSONObject> serializer;
+    private final BatchedMetricsJSONOutputSerializer serializer;
+    private final BinaryRollupsOutputSerializer binarySerializer = new BinaryRollupsOutputSerializer();
+    private final MediaTypeChecker mediaTypeChecker = new MediaTypeChecker();
     private final Gson gson;           // thread-safe
-    private final JsonParser parser;   // thread-safe
+    private final boolean prettyPrint;
     private final Timer httpBatchMetricsFetchTimer = Metrics.timer(HttpMultiRollupsQueryHandler.class,
             "Handle HTTP batch request for metrics");
+    private final Timer httpStreamedBatchMetricsFetchTimer = Metrics.timer(HttpMultiRollupsQueryHandler.class,
+            "Stream HTTP batch response for metrics");
+    private static final Meter streamedResponsesAborted = Metrics.meter(HttpMultiRollupsQueryHandler.class,
+            "Streamed batch responses aborted");
+    private static final Meter binaryResponsesMeter = Metrics.meter(HttpMultiRollupsQueryHandler.class,
+            "Binary batch responses");
+    private static final Meter streamedResponsesRejected = Metrics.meter(HttpMultiRollupsQueryHandler.class,
+            "Streamed batch responses rejected");
     private final ThreadPoolExecutor executor;
     private final int maxMetricsPerRequest;
+    private final boolean streamResponses;
+    private final int metricsPerStreamedRead;
+    private final long streamedWriteTimeoutMillis;
 
     HttpMultiRollupsQueryHandler() {
         this(new BatchedMetricsJSONOutputSerializer());
     }
 
     @VisibleForTesting
-    public HttpMultiRollupsQueryHandler(BatchedMetricsOutputSerializer<JSONObject> serializer) {
+    public HttpMultiRollupsQueryHandler(BatchedMetricsJSONOutputSerializer serializer) {
         Configuration config = Configuration.getInstance();
         int maxThreadsToUse = config.getIntegerProperty(HttpConfig.MAX_READ_WORKER_THREADS);
         int maxQueueSize = config.getIntegerProperty(HttpConfig.MAX_BATCH_READ_REQUESTS_TO_QUEUE);
-        this.maxMetricsPerRequest = config.getIntegerProperty(HttpConfig.MAX_METRICS_PER_BATCH_QUERY);
+        this.streamResponses = config.getBooleanProperty(HttpConfig.STREAM_BATCH_QUERY_RESPONSES);
+        this.maxMetricsPerRequest = streamResponses
+                ? config.getIntegerProperty(HttpConfig.MAX_METRICS_PER_STREAMED_BATCH_QUERY)
+                : config.getIntegerProperty(HttpConfig.MAX_METRICS_PER_BATCH_QUERY);
+        this.metricsPerStreamedRead = config.getIntegerProperty(HttpConfig.METRICS_PER_STREAMED_BATCH_READ);
+        this.streamedWriteTimeoutMillis = config.getLongProperty(HttpConfig.STREAMED_RESPONSE_WRITE_TIMEOUT_MS);
         this.serializer = serializer;
-        this.gson = new GsonBuilder().setPrettyPrinting().serializeNulls().create();
-        this.parser = new JsonParser();
+        this.gson = new Gson();
+        this.prettyPrint = config.getBooleanProperty(HttpConfig.PRETTY_PRINT_ROLLUP_QUERY_RESPONSES);
+        // a full queue must not run a streamer on the caller's thread, which is the event loop of the connection
         this.executor = new ThreadPoolBuilder().withCorePoolSize(maxThreadsToUse).withMaxPoolSize(maxThreadsToUse)
-                .withName("HTTP-BatchMetricsFetch").withBoundedQueue(maxQueueSize).build();
+                .withName("HTTP-BatchMetricsFetch").withBoundedQueue(maxQueueSize)
+                .withRejectedHandler(new ThreadPoolExecutor.AbortPolicy()).build();
     }
 
     @Override
@@ -114,20 +147,39 @@ public class HttpMultiRollupsQueryHandler extends RollupHandler implements HttpR
         }
 
         HttpRequestWithDecodedQueryParams requestWithParams = (HttpRequestWithDecodedQueryParams) request;
+        if (streamResponses) {
+            streamResponse(ctx, requestWithParams, tenantId, locators);
+            return;
+        }
+
         final Timer.Context httpBatchMetricsFetchTimerContext = httpBatchMetricsFetchTimer.time();
         try {
             RollupsQueryParams params = PlotRequestParser.parseParams(requestWithParams.getQueryParams());
-            Map<Locator, MetricData> results = getRollupByGranularity(tenantId, locators, params.getRange().getStart(), params.getRange().getStop(), params.getGranularity(tenantId));
-            JSONObject metrics = serializer.transformRollupData(results, params.getStats());
-            final JsonElement element = parser.parse(metrics.toString());
-            final String jsonStringRep = gson.toJson(element);
-            sendResponse(ctx, request, jsonStringRep, HttpResponseStatus.OK);
+            Map<Locator, MetricData> results = getRollups(tenantId, locators, params);
+            final boolean binary = mediaTypeChecker.acceptsBinaryRollups(request.headers());
+            final ByteBuf content = PooledByteBufAllocator.DEFAULT.buffer();
+            try {
+                if (binary) {
+                    binaryResponsesMeter.mark();
+                    binarySerializer.writeRollupData(results, params.getStats(), new ByteBufOutputStream(content));
+                } else {
+                    serializer.writeRollupData(results, params.getStats(), new ByteBufOutputStream(content), prettyPrint);
+                }
+            } catch (Exception e) {
+                content.release();
+                throw e;
+            }
+            sendResponse(ctx, request, content, HttpResponseStatus.OK,
+                    binary ? BinaryRollupsOutputSerializer.MEDIA_TYPE : null);
         } catch (InvalidRequestException e) {
             log.debug(e.getMessage());
             DefaultHandler.sendErrorResponse(ctx, request, e.getMessage(), HttpResponseStatus.BAD_REQUEST);
         } catch (SerializationException e) {
             log.debug(e.getMessage(), e);
             DefaultHandler.sendErrorResponse(ctx, request, e.getMessage(), HttpResponseStatus.INTERNAL_SERVER_ERROR);
+        } catch (QueryDeadlineExceededException e) {
+            log.debug(e.getMessage());
+            DefaultHandler.sendErrorResponse(ctx, request, e.getMessage(), HttpResponseStatus.SERVICE_UNAVAILABLE);
         } catch (Exception e) {
             log.error(e.getMessage(), e);
             DefaultHandler.sendErrorResponse(ctx, request, e.getMessage(), HttpResponseStatus.INTERNAL_SERVER_ERROR);
@@ -136,6 +188,177 @@ public class HttpMultiRollupsQueryHandler extends RollupHandler implements HttpR
         }
     }
 
+    private Map<Locator, MetricData> getRollups(String tenantId, List<String> metrics, RollupsQueryParams params) {
+        if (params.isGetByPoints()) {
+            return getRollupByPoints(tenantId, metrics, params.getRange().getStart(), params.getRange().getStop(),
+                    params.getPoints());
+        }
+        return getRollupByGranularity(tenantId, metrics, params.getRange().getStart(), params.getRange().getStop(),
+                params.getGranularity(tenantId));
+    }
+
+    private void streamResponse(ChannelHandlerContext ctx, HttpRequestWithDecodedQueryParams request,
+                                String tenantId, List<String> locators) {
+        final RollupsQueryParams params;
+        try {
+            params = PlotRequestParser.parseParams(request.getQueryParams());
+        } catch (InvalidRequestException e) {
+            log.debug(e.getMessage());
+            DefaultHandler.sendErrorResponse(ctx, request, e.getMessage(), HttpResponseStatus.BAD_REQUEST);
+            return;
+        } catch (Exception e) {
+            log.error(e.getMessage(), e);
+            DefaultHandler.sendErrorResponse(ctx, request, e.getMessage(), HttpResponseStatus.INTERNAL_SERVER_ERROR);
+            return;
+        }
+
+        // metrics asked for twice are only returned once, like in a response that isn't streamed.
+        // The query goes on after this returns, and is finished by the streamer.
+        QueryDeadline deadline = QueryDeadline.current().finishLater();
+        try {
+            executor.execute(deadline.wrap(new ResponseStreamer(ctx, request, tenantId,
+                    new ArrayList<String>(new LinkedHashSet<String>(locators)), params)));
+        } catch (RejectedExecutionException e) {
+            streamedResponsesRejected.mark();
+            deadline.finish();
+            DefaultHandler.sendErrorResponse(ctx, request, "Too many batch queries are being streamed, try again later.",
+                    HttpResponseStatus.SERVICE_UNAVAILABLE);
+        }
+    }
+
+    /**
+     * Writes the response of a batch query as a chunked HTTP response. The
+     * metrics are read a few at a time, and every metric is sent as soon as
+     * it has been read, so that neither the read nor the serialized data of
+     * the whole response has to be held in memory.
+     */
+    private class ResponseStreamer implements Runnable {
+        private final ChannelHandlerContext ctx;
+        private final FullHttpRequest request;
+        private final String tenantId;
+        private final List<String> metrics;
+        private final RollupsQueryParams params;
+
+        ResponseStreamer(ChannelHandlerContext ctx, FullHttpRequest request, String tenantId, List<String> metrics,
+                         RollupsQueryParams params) {
+            this.ctx = ctx;
+            this.request = request;
+            this.tenantId = tenantId;
+            this.metrics = metrics;
+            this.params = params;
+        }
+
+        @Override
+        public void run() {
+            final Timer.Context timerContext = httpStreamedBatchMetricsFetchTimer.time();
+            final ChunkedResponseOutputStream out = new ChunkedResponseOutputStream(ctx, streamedWriteTimeoutMillis);
+            final boolean binary = mediaTypeChecker.acceptsBinaryRollups(request.headers());
+            final String contentType = binary ? BinaryRollupsOutputSerializer.MEDIA_TYPE : null;
+            if (binary) {
+                binaryResponsesMeter.mark();
+            }
+            try {
+                HttpResponder.getInstance().startChunkedResponse(ctx, request, HttpResponseStatus.OK, contentType);
+                trackResponse(contentType);
+                StreamedRollupsWriter writer = binary ? new BinaryStreamedRollupsWriter(out, params)
+                        : new JSONStreamedRollupsWriter(out, params);
+
+                for (int i = 0; i < metrics.size(); i += metricsPerStreamedRead) {
+                    List<String> batch = metrics.subList(i, Math.min(i + metricsPerStreamedRead, metrics.size()));
+                    Map<Locator, MetricData> results = getRollups(tenantId, batch, params);
+
+                    for (String metric : batch) {
+                        Locator locator = Locator.createLocatorFromPathComponents(tenantId, metric);
+                        MetricData metricData = results.get(locator);
+                        if (metricData != null) {
+                            writer.write(locator, metricData);
+                        }
+                    }
+                }
+
+                writer.end();
+                HttpResponder.getInstance().finishChunkedResponse(ctx, request);
+            } catch (Exception e) {
+                abort(out, e);
+            } finally {
+                timerContext.stop();
+                QueryDeadline.current().finish();
+            }
+        }
+
+        /**
+         * Tracks the status and headers of the streamed response; its content is
+         * sent a chunk at a time and isn't held anywhere to be logged.
+         */
+        private void trackResponse(String contentType) {
+            FullHttpResponse response = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK);
+            HttpHeaders.setTransferEncodingChunked(response);
+            if (contentType != null) {
+                response.headers().set(HttpHeaders.Names.CONTENT_TYPE, contentType);
+            }
+            Tracker.getInstance().trackResponse(request, response);
+        }
+
+        private void abort(ChunkedResponseOutputStream out, Exception e) {
+            // the status has been sent already, all that is left is to cut the response short.
+            log.warn(String.format("Aborting streamed response for tenant %s: %s", tenantId, e.getMessage()), e);
+            streamedResponsesAborted.mark();
+            out.discard();
+            ctx.channel().close();
+        }
+    }
+
+    /**
+     * Serializes the metrics of a streamed response one at a time, and sends
+     * each one on as soon as it has been written.
+     */
+    private interface StreamedRollupsWriter {
+        void write(Locator locator, MetricData metricData) throws Exception;
+        void end() throws Exception;
+    }
+
+    private class JSONStreamedRollupsWriter implements StreamedRollupsWriter {
+        private final JsonGenerator json;
+        private final RollupsQueryParams params;
+
+        JSONStreamedRollupsWriter(OutputStream out, RollupsQueryParams params) throws IOException {
+            this.json = serializer.startRollupData(out, prettyPrint);
+            this.params = params;
+        }
+
+        @Override
+        public void write(Locator locator, MetricData metricData) throws Exception {
+            serializer.writeRollupData(json, locator, metricData, params.getStats());
+            json.flush();
+        }
+
+        @Override
+        public void end() throws Exception {
+            serializer.endRollupData(json);
+        }
+    }
+
+    private class BinaryStreamedRollupsWriter implements StreamedRollupsWriter {
+        private final DataOutputStream data;
+        private final RollupsQueryParams params;
+
+        BinaryStreamedRollupsWriter(OutputStream out, RollupsQueryParams params) throws IOException {
+            this.data = binarySerializer.startRollupData(out);
+            this.params = params;
+        }
+
+        @Override
+        public void write(Locator locator, MetricData metricData) throws Exception {
+            binarySerializer.writeRollupData(data, locator, metricData, params.getStats());
+            data.flush();
+        }
+
+        @Override
+        public void end() throws Exception {
+            binarySerializer.endRollupData(data);
+        }
+    }
+
     private List<String> getLocatorsFromJSONBody(String tenantId, String body) {
         JsonElement element = gson.fromJson(body, JsonElement.class);
         JsonArray metrics = element.getAsJsonArray();
@@ -152,11 +375,21 @@ public class HttpMultiRollupsQueryHandler extends RollupHandler implements HttpR
 
     private void sendResponse(ChannelHandlerContext channel, FullHttpRequest request, String messageBody,
                               HttpResponseStatus status) {
+        sendResponse(channel, request, messageBody == null ? Unpooled.buffer(0)
+                : Unpooled.copiedBuffer(messageBody, Constants.DEFAULT_CHARSET), status);
+    }
+
+    private void sendResponse(ChannelHandlerContext channel, FullHttpRequest request, ByteBuf content,
+                              HttpResponseStatus status) {
+        sendResponse(channel, request, content, status, null);
+    }
 
-        FullHttpResponse response = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, status);
+    private void sendResponse(ChannelHandlerContext channel, FullHttpRequest request, ByteBuf content,
+                              HttpResponseStatus status, String contentType) {
 
-        if (messageBody != null && !messageBody.isEmpty()) {
-            response.content().writeBytes(Unpooled.copiedBuffer(messageBody, Constants.DEFAULT_CHARSET));
+        FullHttpResponse response = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, status, content);
+        if (contentType != null) {
+            response.headers().set(HttpHeaders.Names.CONTENT_TYPE, contentType);
         }
 
         HttpResponder.getInstance().respond(channel, request, response);
@@ -17,30 +17,31 @@
 package com.rackspacecloud.blueflood.outputs.handlers;
 
 import com.google.common.annotations.VisibleForTesting;
-import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
-import com.google.gson.JsonElement;
-import com.google.gson.JsonParser;
 import com.rackspacecloud.blueflood.exceptions.InvalidRequestException;
+import com.rackspacecloud.blueflood.exceptions.QueryDeadlineExceededException;
 import com.rackspacecloud.blueflood.exceptions.SerializationException;
 import com.rackspacecloud.blueflood.http.*;
-import com.rackspacecloud.blueflood.io.Constants;
 import com.rackspacecloud.blueflood.outputs.formats.MetricData;
-import com.rackspacecloud.blueflood.outputs.serializers.BasicRollupsOutputSerializer;
+import com.rackspacecloud.blueflood.outputs.serializers.BinaryRollupsOutputSerializer;
 import com.rackspacecloud.blueflood.outputs.serializers.JSONBasicRollupsOutputSerializer;
-import com.rackspacecloud.blueflood.outputs.serializers.BasicRollupsOutputSerializer.MetricStat;
 import com.rackspacecloud.blueflood.outputs.utils.PlotRequestParser;
+import com.rackspacecloud.blueflood.outputs.utils.SeriesStateCache;
 import com.rackspacecloud.blueflood.rollup.Granularity;
+import com.rackspacecloud.blueflood.service.Configuration;
+import com.rackspacecloud.blueflood.service.HttpConfig;
 import com.rackspacecloud.blueflood.tracker.Tracker;
 import com.rackspacecloud.blueflood.types.Locator;
 import com.rackspacecloud.blueflood.types.Resolution;
 import com.rackspacecloud.blueflood.outputs.utils.RollupsQueryParams;
+import com.rackspacecloud.blueflood.utils.DefaultClockImpl;
 import com.rackspacecloud.blueflood.utils.Metrics;
+import com.codahale.metrics.Meter;
 import com.codahale.metrics.Timer;
-import io.netty.buffer.Unpooled;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufOutputStream;
+import io.netty.buffer.PooledByteBufAllocator;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.handler.codec.http.*;
-import org.json.simple.JSONObject;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -49,12 +50,27 @@ import java.util.*;
 public class HttpRollupsQueryHandler extends RollupHandler
             implements MetricDataQueryInterface<MetricData>, HttpRequestHandler {
     private static final Logger log = LoggerFactory.getLogger(HttpRollupsQueryHandler.class);
-    
-    private final BasicRollupsOutputSerializer<JSONObject> serializer;
-    private final Gson gson;           // thread-safe
-    private final JsonParser parser;   // thread-safe
+
+    public static final String WATERMARK_HEADER = "X-Blueflood-Watermark";
+    public static final String PARTIAL_HEADER = "X-Blueflood-Partial";
+
+    private static final boolean TAIL_QUERIES_ENABLED = Configuration.getInstance().getBooleanProperty(HttpConfig.TAIL_QUERIES_ENABLED);
+    // shared by the handlers of all versions of the endpoint
+    private static final SeriesStateCache seriesStates = new SeriesStateCache(
+            Configuration.getInstance().getLongProperty(HttpConfig.TAIL_QUERY_MAX_SIZE_MB) * 1024 * 1024,
+            Configuration.getInstance().getLongProperty(HttpConfig.TAIL_QUERY_REREAD_MILLIS),
+            new DefaultClockImpl());
+
+    private final JSONBasicRollupsOutputSerializer serializer;
+    private final BinaryRollupsOutputSerializer binarySerializer = new BinaryRollupsOutputSerializer();
+    private final MediaTypeChecker mediaTypeChecker = new MediaTypeChecker();
+    private final boolean prettyPrint;
+    private final boolean tailQueriesEnabled;
+    private final SeriesStateCache states;
     private final Timer httpMetricsFetchTimer = Metrics.timer(HttpRollupsQueryHandler.class,
             "Handle HTTP request for metrics");
+    private final Meter tailQueriesMeter = Metrics.meter(HttpRollupsQueryHandler.class, "Tail queries");
+    private final Meter binaryResponsesMeter = Metrics.meter(HttpRollupsQueryHandler.class, "Binary responses");
 
     public HttpRollupsQueryHandler() {
         this(new JSONBasicRollupsOutputSerializer());
@@ -62,28 +78,17 @@ public class HttpRollupsQueryHandler extends RollupHandler
     }
 
     @VisibleForTesting
-    HttpRollupsQueryHandler(BasicRollupsOutputSerializer<JSONObject> serializer) {
-        this.serializer = serializer;
-        this.gson = new GsonBuilder().setPrettyPrinting().serializeNulls().create();
-        this.parser = new JsonParser();
-    }
-
-    private JSONObject GetDataByPoints(String tenantId,
-                                      String metric,
-                                      long from,
-                                      long to,
-                                      int points,
-                                      Set<MetricStat> stats) throws SerializationException {
-        return serializer.transformRollupData(GetDataByPoints(tenantId, metric, from, to, points), stats);
+    HttpRollupsQueryHandler(JSONBasicRollupsOutputSerializer serializer) {
+        this(serializer, TAIL_QUERIES_ENABLED, seriesStates);
     }
 
-    private JSONObject GetDataByResolution(String tenantId,
-                                      String metric,
-                                      long from,
-                                      long to,
-                                      Resolution resolution,
-                                      Set<MetricStat> stats) throws SerializationException {
-        return serializer.transformRollupData(GetDataByResolution(tenantId, metric, from, to, resolution), stats);
+    @VisibleForTesting
+    HttpRollupsQueryHandler(JSONBasicRollupsOutputSerializer serializer, boolean tailQueriesEnabled,
+                            SeriesStateCache states) {
+        this.serializer = serializer;
+        this.prettyPrint = Configuration.getInstance().getBooleanProperty(HttpConfig.PRETTY_PRINT_ROLLUP_QUERY_RESPONSES);
+        this.tailQueriesEnabled = tailQueriesEnabled;
+        this.states = states;
     }
 
     @Override
@@ -93,8 +98,7 @@ public class HttpRollupsQueryHandler extends RollupHandler
                                       long to,
                                       int points) throws SerializationException {
         rollupsByPointsMeter.mark();
-        Granularity g = Granularity.granularityFromPointsInInterval(tenantId, from, to, points);
-        return getRollupByGranularity(tenantId, Arrays.asList(metric), from, to, g).get(Locator.createLocatorFromPathComponents(tenantId, metric));
+        return getRollupByPoints(tenantId, Arrays.asList(metric), from, to, points).get(Locator.createLocatorFromPathComponents(tenantId, metric));
     }
 
     @Override
@@ -131,20 +135,59 @@ public class HttpRollupsQueryHandler extends RollupHandler
         try {
             RollupsQueryParams params = PlotRequestParser.parseParams(requestWithParams.getQueryParams());
 
-            JSONObject metricData;
-            if (params.isGetByPoints()) {
-                metricData = GetDataByPoints(tenantId, metricName, params.getRange().getStart(),
-                        params.getRange().getStop(), params.getPoints(), params.getStats());
-            } else if (params.isGetByResolution()) {
-                metricData = GetDataByResolution(tenantId, metricName, params.getRange().getStart(),
-                        params.getRange().getStop(), params.getResolution(), params.getStats());
+            SeriesStateCache.Tail tail = null;
+            MetricData metricData;
+            // the state of a series is kept per granularity, so only queries read at a single one are tailed
+            Granularity g = tailQueriesEnabled ? getReadGranularity(tenantId, params) : null;
+            if (g != null) {
+                List<String> since = requestWithParams.getQueryParams().get("since");
+                String key = tenantId + "," + metricName + "," + g.name();
+                long from = params.getRange().getStart();
+                long to = params.getRange().getStop();
+
+                SeriesStateCache.Watermark watermark = SeriesStateCache.Watermark.parse(since == null ? null : since.get(0));
+                long readFrom = from;
+                if (states.canTail(key, watermark, from, to, g)) {
+                    tailQueriesMeter.mark();
+                    readFrom = states.getReadFrom(watermark, from);
+                } else {
+                    watermark = null;
+                }
+                metricData = GetDataByGranularity(tenantId, metricName, readFrom, to, g);
+
+                if (metricData != null) {
+                    // the data read may be shared with other queries, so it is copied rather than filtered
+                    tail = states.update(key, metricData.getData(), readFrom, to, g, watermark);
+                    metricData = new MetricData(tail.getPoints(), metricData.getUnit());
+                }
             } else {
-                throw new InvalidRequestException("Invalid rollups query. Neither points nor resolution specified.");
+                metricData = GetData(tenantId, metricName, params);
             }
 
-            final JsonElement element = parser.parse(metricData.toString());
-            final String jsonStringRep = gson.toJson(element);
-            sendResponse(ctx, request, jsonStringRep, HttpResponseStatus.OK);
+            final boolean binary = mediaTypeChecker.acceptsBinaryRollups(request.headers());
+            final ByteBuf content = PooledByteBufAllocator.DEFAULT.buffer();
+            try {
+                if (binary) {
+                    binarySerializer.writeRollupData(metricData, params.getStats(), new ByteBufOutputStream(content));
+                } else {
+                    serializer.writeRollupData(metricData, params.getStats(), new ByteBufOutputStream(content), prettyPrint);
+                }
+            } catch (Exception e) {
+                content.release();
+                throw e;
+            }
+            FullHttpResponse response = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK, content);
+            if (binary) {
+                binaryResponsesMeter.mark();
+                response.headers().set(HttpHeaders.Names.CONTENT_TYPE, BinaryRollupsOutputSerializer.MEDIA_TYPE);
+            }
+            if (tail != null) {
+                response.headers().add(WATERMARK_HEADER, tail.getWatermark().toString());
+                if (tail.isPartial()) {
+                    response.headers().add(PARTIAL_HEADER, "true");
+                }
+            }
+            sendResponse(ctx, request, response);
         } catch (InvalidRequestException e) {
             // let's not log the full exception, just the message.
             log.debug(e.getMessage());
@@ -152,6 +195,9 @@ public class HttpRollupsQueryHandler extends RollupHandler
         } catch (SerializationException e) {
             log.error(e.getMessage(), e);
             DefaultHandler.sendErrorResponse(ctx, request, e.getMessage(), HttpResponseStatus.INTERNAL_SERVER_ERROR);
+        } catch (QueryDeadlineExceededException e) {
+            log.debug(e.getMessage());
+            DefaultHandler.sendErrorResponse(ctx, request, e.getMessage(), HttpResponseStatus.SERVICE_UNAVAILABLE);
         } catch (Exception e) {
             log.error(e.getMessage(), e);
             DefaultHandler.sendErrorResponse(ctx, request, e.getMessage(), HttpResponseStatus.INTERNAL_SERVER_ERROR);
@@ -160,14 +206,36 @@ public class HttpRollupsQueryHandler extends RollupHandler
         }
     }
 
-    private void sendResponse(ChannelHandlerContext channel, FullHttpRequest request, String messageBody,
-                             HttpResponseStatus status) {
-
-        FullHttpResponse response = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, status);
+    private MetricData GetData(String tenantId, String metricName, RollupsQueryParams params)
+            throws InvalidRequestException, SerializationException {
+        if (params.isGetByPoints()) {
+            return GetDataByPoints(tenantId, metricName, params.getRange().getStart(),
+                    params.getRange().getStop(), params.getPoints());
+        } else if (params.isGetByResolution()) {
+            return GetDataByResolution(tenantId, metricName, params.getRange().getStart(),
+                    params.getRange().getStop(), params.getResolution());
+        } else {
+            throw new InvalidRequestException("Invalid rollups query. Neither points nor resolution specified.");
+        }
+    }
 
-        if (messageBody != null && !messageBody.isEmpty()) {
-            response.content().writeBytes(Unpooled.copiedBuffer(messageBody, Constants.DEFAULT_CHARSET));
+    /**
+     * @return the granularity the query is read at, or null if it is read at several
+     */
+    private Granularity getReadGranularity(String tenantId, RollupsQueryParams params) {
+        if (params.isGetByPoints()) {
+            return getGranularityForPoints(tenantId, params.getRange().getStart(), params.getRange().getStop(),
+                    params.getPoints());
         }
+        return params.getGranularity(tenantId);
+    }
+
+    private MetricData GetDataByGranularity(String tenantId, String metricName, long from, long to, Granularity g) {
+        rollupsByGranularityMeter.mark();
+        return getRollupByGranularity(tenantId, Arrays.asList(metricName), from, to, g).get(Locator.createLocatorFromPathComponents(tenantId, metricName));
+    }
+
+    private void sendResponse(ChannelHandlerContext channel, FullHttpRequest request, FullHttpResponse response) {
 
         HttpResponder.getInstance().respond(channel, request, response);
         Tracker.getInstance().trackResponse(request, response);
@@ -0,0 +1,98 @@
+/*
+ * Copyright 2017 Rackspace
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.rackspacecloud.blueflood.outputs.handlers;
+
+import com.codahale.metrics.Meter;
+import com.rackspacecloud.blueflood.concurrent.QueryDeadline;
+import com.rackspacecloud.blueflood.http.DefaultHandler;
+import com.rackspacecloud.blueflood.http.HttpRequestHandler;
+import com.rackspacecloud.blueflood.outputs.utils.TenantQueryLimiter;
+import com.rackspacecloud.blueflood.utils.Metrics;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.HttpResponseStatus;
+
+/**
+ * Runs the queries of a handler within the budget of their tenant.
+ * <p>
+ *
+ * A tenant that already runs as many queries as the {@link TenantQueryLimiter}
+ * allows gets a 429. Otherwise the query gets a {@link QueryDeadline}, which is
+ * cancelled if the client disconnects, so that the work of abandoned queries
+ * stops. The tenant's slot is given back when the query is finished, which for
+ * streamed responses is after the handler returns.
+ */
+public class QueryLimitingHandler implements HttpRequestHandler {
+
+    private static final Meter rejectedQueries = Metrics.meter(QueryLimitingHandler.class,
+            "Queries over the tenant limit");
+
+    private final HttpRequestHandler handler;
+    private final TenantQueryLimiter limiter;
+    private final long deadlineMillis;
+
+    /**
+     * @param deadlineMillis how long a query may run, or 0 for no limit
+     */
+    public QueryLimitingHandler(HttpRequestHandler handler, TenantQueryLimiter limiter, long deadlineMillis) {
+        this.handler = handler;
+        this.limiter = limiter;
+        this.deadlineMillis = deadlineMillis;
+    }
+
+    @Override
+    public void handle(final ChannelHandlerContext ctx, FullHttpRequest request) {
+        final String tenantId = request.headers().get("tenantId");
+
+        if (!limiter.tryAcquire(tenantId)) {
+            rejectedQueries.mark();
+            DefaultHandler.sendErrorResponse(ctx, request, "Too many concurrent queries. Max limit is "
+                    + limiter.getMaxQueriesPerTenant() + ".", HttpResponseStatus.TOO_MANY_REQUESTS);
+            return;
+        }
+
+        final QueryDeadline deadline = QueryDeadline.after(deadlineMillis);
+        final ChannelFutureListener cancelOnClose = new ChannelFutureListener() {
+            @Override
+            public void operationComplete(ChannelFuture future) {
+                deadline.cancel();
+            }
+        };
+        ctx.channel().closeFuture().addListener(cancelOnClose);
+        deadline.onFinish(new Runnable() {
+            @Override
+            public void run() {
+                ctx.channel().closeFuture().removeListener(cancelOnClose);
+                limiter.release(tenantId);
+            }
+        });
+
+        boolean handled = false;
+        QueryDeadline previous = deadline.attach();
+        try {
+            handler.handle(ctx, request);
+            handled = true;
+        } finally {
+            QueryDeadline.restore(previous);
+            if (!handled || !deadline.isFinishedLater()) {
+                deadline.finish();
+            }
+        }
+    }
+}
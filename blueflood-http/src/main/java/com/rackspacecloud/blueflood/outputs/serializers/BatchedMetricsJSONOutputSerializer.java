@@ -21,9 +21,12 @@ import com.rackspacecloud.blueflood.exceptions.SerializationException;
 import com.rackspacecloud.blueflood.outputs.formats.MetricData;
 import com.rackspacecloud.blueflood.types.Locator;
 import com.rackspacecloud.blueflood.utils.Util;
+import org.codehaus.jackson.JsonGenerator;
 import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
 
+import java.io.IOException;
+import java.io.OutputStream;
 import java.util.Map;
 import java.util.Set;
 
@@ -51,5 +54,48 @@ public class BatchedMetricsJSONOutputSerializer extends JSONBasicRollupsOutputSe
         globalJSON.put("metrics", metricsArray);
         return globalJSON;
     }
+
+    /**
+     * Writes the same document as {@link #transformRollupData(Map, Set)} to {@code out},
+     * one point at a time, without building it in memory first.
+     */
+    public void writeRollupData(Map<Locator, MetricData> metricData, Set<MetricStat> filterStats, OutputStream out,
+                                boolean prettyPrint) throws IOException {
+        final JsonGenerator json = startRollupData(out, prettyPrint);
+        for (Map.Entry<Locator, MetricData> one : metricData.entrySet()) {
+            writeRollupData(json, one.getKey(), one.getValue(), filterStats);
+        }
+        endRollupData(json);
+    }
+
+    /**
+     * Starts a document that metrics are then added to one by one with
+     * {@link #writeRollupData(JsonGenerator, Locator, MetricData, Set)}, and
+     * that is completed by {@link #endRollupData(JsonGenerator)}.
+     */
+    public JsonGenerator startRollupData(OutputStream out, boolean prettyPrint) throws IOException {
+        final JsonGenerator json = createGenerator(out, prettyPrint);
+        json.writeStartObject();
+        json.writeArrayFieldStart("metrics");
+        return json;
+    }
+
+    public void writeRollupData(JsonGenerator json, Locator locator, MetricData metricData, Set<MetricStat> filterStats)
+            throws IOException {
+        json.writeStartObject();
+        json.writeStringField("metric", locator.getMetricName());
+        json.writeStringField("unit", metricData.getUnit() == null ? Util.UNKNOWN : metricData.getUnit());
+        json.writeStringField("type", metricData.getType());
+        json.writeArrayFieldStart("data");
+        writeDataPoints(json, metricData, fixFilterStats(metricData, filterStats));
+        json.writeEndArray();
+        json.writeEndObject();
+    }
+
+    public void endRollupData(JsonGenerator json) throws IOException {
+        json.writeEndArray();
+        json.writeEndObject();
+        json.close();
+    }
 }
 
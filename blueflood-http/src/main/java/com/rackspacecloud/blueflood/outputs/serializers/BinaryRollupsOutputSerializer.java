@@ -0,0 +1,230 @@
+/*
+ * Copyright 2017 Rackspace
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.rackspacecloud.blueflood.outputs.serializers;
+
+import com.rackspacecloud.blueflood.exceptions.SerializationException;
+import com.rackspacecloud.blueflood.outputs.formats.MetricData;
+import com.rackspacecloud.blueflood.types.AbstractRollupStat;
+import com.rackspacecloud.blueflood.types.Locator;
+import com.rackspacecloud.blueflood.types.Points;
+import com.rackspacecloud.blueflood.utils.Util;
+import org.json.simple.JSONObject;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Writes rollup query responses in a compact columnar format, for clients that
+ * send {@code Accept: application/vnd.blueflood.rollups}. It has the same stats
+ * as the JSON responses, but every series is written as columns: the timestamps
+ * first, delta encoded, then all the values of every stat.
+ * <p>
+ *
+ * All numbers are big endian. A varint is a base 128 varint like in protocol buffers,
+ * and signed ones are zigzag encoded first. A string is its varint length in bytes,
+ * followed by its UTF-8 bytes.
+ * <pre>
+ * document:  "BFR" 0x01, then a 0x01 byte before every series, and a 0x00 byte at the end
+ * series:    metric name (empty for single metric queries), unit, type,
+ *            varint number of points, varint number of stats, and the name of every stat
+ *            signed varint timestamp of the first point, then the signed varint difference
+ *            of every next timestamp to the one before
+ *            for every stat, the value of every point, in the order of the timestamps
+ * value:     0x00 if the point has no value for the stat, 0x01 and an 8 byte double,
+ *            0x02 and a signed varint integer, 0x03 and a string, 0x04 false or 0x05 true
+ * </pre>
+ * Unlike JSON, the doubles keep NaN and infinities.
+ */
+public class BinaryRollupsOutputSerializer implements BatchedMetricsOutputSerializer<byte[]> {
+
+    public static final String MEDIA_TYPE = "application/vnd.blueflood.rollups";
+
+    private static final byte[] MAGIC = { 'B', 'F', 'R', 1 };
+    private static final byte SERIES = 1;
+    private static final byte END = 0;
+
+    private static final byte NULL = 0;
+    private static final byte DOUBLE = 1;
+    private static final byte INTEGER = 2;
+    private static final byte STRING = 3;
+    private static final byte FALSE = 4;
+    private static final byte TRUE = 5;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    // works out the stats of every point the same way as for JSON responses
+    private final JSONBasicRollupsOutputSerializer stats = new JSONBasicRollupsOutputSerializer();
+
+    @Override
+    public byte[] transformRollupData(MetricData metricData, Set<MetricStat> filterStats)
+            throws SerializationException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            writeRollupData(metricData, filterStats, out);
+        } catch (IOException e) {
+            throw new SerializationException(e.getMessage());
+        }
+        return out.toByteArray();
+    }
+
+    @Override
+    public byte[] transformRollupData(Map<Locator, MetricData> metricData, Set<MetricStat> filterStats)
+            throws SerializationException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            writeRollupData(metricData, filterStats, out);
+        } catch (IOException e) {
+            throw new SerializationException(e.getMessage());
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Writes the response of a single metric query, as a document with one series.
+     */
+    public void writeRollupData(MetricData metricData, Set<MetricStat> filterStats, OutputStream out)
+            throws IOException, SerializationException {
+        DataOutputStream data = startRollupData(out);
+        writeSeries(data, "", metricData, filterStats);
+        endRollupData(data);
+    }
+
+    public void writeRollupData(Map<Locator, MetricData> metricData, Set<MetricStat> filterStats, OutputStream out)
+            throws IOException, SerializationException {
+        DataOutputStream data = startRollupData(out);
+        for (Map.Entry<Locator, MetricData> one : metricData.entrySet()) {
+            writeSeries(data, one.getKey().getMetricName(), one.getValue(), filterStats);
+        }
+        endRollupData(data);
+    }
+
+    /**
+     * Starts a document that series are then added to one by one with
+     * {@link #writeRollupData(DataOutputStream, Locator, MetricData, Set)}, and
+     * that is completed by {@link #endRollupData(DataOutputStream)}.
+     */
+    public DataOutputStream startRollupData(OutputStream out) throws IOException {
+        DataOutputStream data = new DataOutputStream(out);
+        data.write(MAGIC);
+        return data;
+    }
+
+    public void writeRollupData(DataOutputStream data, Locator locator, MetricData metricData,
+                                Set<MetricStat> filterStats) throws IOException, SerializationException {
+        writeSeries(data, locator.getMetricName(), metricData, filterStats);
+    }
+
+    public void endRollupData(DataOutputStream data) throws IOException {
+        data.writeByte(END);
+        data.flush();
+    }
+
+    private void writeSeries(DataOutputStream data, String metricName, MetricData metricData,
+                             Set<MetricStat> filterStats) throws IOException, SerializationException {
+        Set<MetricStat> seriesStats = stats.fixFilterStats(metricData, filterStats);
+
+        List<Long> timestamps = new ArrayList<Long>();
+        List<JSONObject> values = new ArrayList<JSONObject>();
+        // stats like percentiles depend on the points, so the columns are those of any point
+        Set<String> columns = new LinkedHashSet<String>();
+        final Set<Map.Entry<Long, Points.Point>> dataPoints = metricData.getData().getPoints().entrySet();
+        for (Map.Entry<Long, Points.Point> point : dataPoints) {
+            JSONObject object = stats.toJSON(point.getKey(), point.getValue(), metricData.getUnit(), seriesStats);
+            object.remove("timestamp");
+            timestamps.add(point.getKey());
+            values.add(object);
+            columns.addAll(object.keySet());
+        }
+
+        data.writeByte(SERIES);
+        writeString(data, metricName);
+        writeString(data, metricData.getUnit() == null ? Util.UNKNOWN : metricData.getUnit());
+        writeString(data, metricData.getType());
+        writeVarLong(data, timestamps.size());
+        writeVarLong(data, columns.size());
+        for (String column : columns) {
+            writeString(data, column);
+        }
+
+        long previous = 0;
+        for (long timestamp : timestamps) {
+            writeVarLong(data, zigZag(timestamp - previous));
+            previous = timestamp;
+        }
+
+        for (String column : columns) {
+            for (JSONObject object : values) {
+                writeValue(data, object.get(column));
+            }
+        }
+    }
+
+    private static void writeValue(DataOutputStream data, Object value) throws IOException {
+        if (value == null) {
+            data.writeByte(NULL);
+        } else if (value instanceof Boolean) {
+            data.writeByte((Boolean) value ? TRUE : FALSE);
+        } else if (value instanceof Double || value instanceof Float) {
+            data.writeByte(DOUBLE);
+            data.writeDouble(((Number) value).doubleValue());
+        } else if (value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte) {
+            data.writeByte(INTEGER);
+            writeVarLong(data, zigZag(((Number) value).longValue()));
+        } else if (value instanceof AbstractRollupStat) {
+            AbstractRollupStat stat = (AbstractRollupStat) value;
+            if (stat.isFloatingPoint()) {
+                data.writeByte(DOUBLE);
+                data.writeDouble(stat.toDouble());
+            } else {
+                data.writeByte(INTEGER);
+                writeVarLong(data, zigZag(stat.toLong()));
+            }
+        } else if (value instanceof Number) {
+            data.writeByte(DOUBLE);
+            data.writeDouble(((Number) value).doubleValue());
+        } else {
+            data.writeByte(STRING);
+            writeString(data, value.toString());
+        }
+    }
+
+    private static void writeString(DataOutputStream data, String value) throws IOException {
+        byte[] bytes = value == null ? new byte[0] : value.getBytes(UTF8);
+        writeVarLong(data, bytes.length);
+        data.write(bytes);
+    }
+
+    private static long zigZag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static void writeVarLong(DataOutputStream data, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            data.writeByte((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        data.writeByte((int) value);
+    }
+}
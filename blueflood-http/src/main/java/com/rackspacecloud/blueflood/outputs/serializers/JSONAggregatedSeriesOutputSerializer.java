@@ -0,0 +1,77 @@
+/*
+ * Copyright 2017 Rackspace
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.rackspacecloud.blueflood.outputs.serializers;
+
+import com.rackspacecloud.blueflood.outputs.aggregation.AggregateFunction;
+import com.rackspacecloud.blueflood.outputs.aggregation.SeriesAggregator;
+import com.rackspacecloud.blueflood.types.Points;
+import com.rackspacecloud.blueflood.types.SimpleNumber;
+import com.rackspacecloud.blueflood.utils.Util;
+import org.codehaus.jackson.JsonEncoding;
+import org.codehaus.jackson.JsonFactory;
+import org.codehaus.jackson.JsonGenerator;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Writes the series of an aggregation query, in the shape of a single metric query:
+ * <pre>
+ * {"unit": "ms", "aggregate": "sum", "values": [{"timestamp": 1, "sum": 2.0}, ...],
+ *  "metadata": {"count": 1, "series": 500}}
+ * </pre>
+ */
+public class JSONAggregatedSeriesOutputSerializer {
+    private static final JsonFactory jsonFactory = new JsonFactory()
+            .configure(JsonGenerator.Feature.AUTO_CLOSE_TARGET, false);
+
+    public void writeAggregatedData(SeriesAggregator aggregator, OutputStream out, boolean prettyPrint)
+            throws IOException {
+        final JsonGenerator json = jsonFactory.createJsonGenerator(out, JsonEncoding.UTF8);
+        if (prettyPrint) {
+            json.useDefaultPrettyPrinter();
+        }
+        final String valueField = aggregator.getFunction().toString();
+        final Points<SimpleNumber> points = aggregator.getAggregatedPoints();
+
+        json.writeStartObject();
+        json.writeStringField("unit", aggregator.getUnit() == null ? Util.UNKNOWN : aggregator.getUnit());
+        json.writeStringField("aggregate", valueField);
+        if (aggregator.getFunction() == AggregateFunction.PERCENTILE) {
+            json.writeNumberField("percentile", aggregator.getPercentile());
+        }
+        json.writeArrayFieldStart("values");
+        for (Points.Point<SimpleNumber> point : points.getPoints().values()) {
+            double value = point.getData().getValue().doubleValue();
+            json.writeStartObject();
+            json.writeNumberField("timestamp", point.getTimestamp());
+            if (Double.isNaN(value) || Double.isInfinite(value)) {
+                json.writeNullField(valueField);
+            } else {
+                json.writeNumberField(valueField, value);
+            }
+            json.writeEndObject();
+        }
+        json.writeEndArray();
+        json.writeObjectFieldStart("metadata");
+        json.writeNumberField("count", points.getPoints().size());
+        json.writeNumberField("series", aggregator.getSeriesCount());
+        json.writeEndObject();
+        json.writeEndObject();
+        json.close();
+    }
+}
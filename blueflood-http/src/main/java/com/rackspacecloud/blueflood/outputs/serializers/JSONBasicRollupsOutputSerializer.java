@@ -21,16 +21,23 @@ import com.rackspacecloud.blueflood.outputs.formats.MetricData;
 import com.rackspacecloud.blueflood.outputs.utils.PlotRequestParser;
 import com.rackspacecloud.blueflood.types.*;
 import com.rackspacecloud.blueflood.utils.Util;
+import org.codehaus.jackson.JsonEncoding;
+import org.codehaus.jackson.JsonFactory;
+import org.codehaus.jackson.JsonGenerator;
 import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
+import java.io.OutputStream;
 import java.util.Map;
 import java.util.Set;
 
 public class JSONBasicRollupsOutputSerializer implements BasicRollupsOutputSerializer<JSONObject> {
     private static final Logger log = LoggerFactory.getLogger(JSONBasicRollupsOutputSerializer.class);
+    private static final JsonFactory jsonFactory = new JsonFactory()
+            .configure(JsonGenerator.Feature.AUTO_CLOSE_TARGET, false);
 
     protected Set<MetricStat> fixFilterStats(MetricData metricData, Set<MetricStat> filterStats) {
         // if no stats were entered, figure out what type we are dealing with and select out default stats. 
@@ -72,6 +79,77 @@ public class JSONBasicRollupsOutputSerializer implements BasicRollupsOutputSeria
         return globalJSON;
     }
 
+    /**
+     * Writes the same document as {@link #transformRollupData(MetricData, Set)} to {@code out},
+     * one point at a time, without building it in memory first.
+     */
+    public void writeRollupData(MetricData metricData, Set<MetricStat> filterStats, OutputStream out,
+                                boolean prettyPrint) throws IOException {
+        final JsonGenerator json = createGenerator(out, prettyPrint);
+        filterStats = fixFilterStats(metricData, filterStats);
+
+        json.writeStartObject();
+        json.writeStringField("unit", metricData.getUnit() == null ? Util.UNKNOWN : metricData.getUnit());
+        json.writeArrayFieldStart("values");
+        writeDataPoints(json, metricData, filterStats);
+        json.writeEndArray();
+        json.writeObjectFieldStart("metadata");
+        json.writeNumberField("count", metricData.getData().getPoints().size());
+        json.writeNullField("limit");
+        json.writeNullField("marker");
+        json.writeNullField("next_href");
+        json.writeEndObject();
+        json.writeEndObject();
+        json.close();
+    }
+
+    protected JsonGenerator createGenerator(OutputStream out, boolean prettyPrint) throws IOException {
+        JsonGenerator json = jsonFactory.createJsonGenerator(out, JsonEncoding.UTF8);
+        if (prettyPrint) {
+            json.useDefaultPrettyPrinter();
+        }
+        return json;
+    }
+
+    protected void writeDataPoints(JsonGenerator json, MetricData metricData, Set<MetricStat> filterStats)
+            throws IOException {
+        final Set<Map.Entry<Long, Points.Point>> dataPoints = metricData.getData().getPoints().entrySet();
+        for (Map.Entry<Long, Points.Point> point : dataPoints) {
+            final JSONObject object = toJSON(point.getKey(), point.getValue(), metricData.getUnit(), filterStats);
+            final Set<Map.Entry<String, Object>> fields = object.entrySet();
+            json.writeStartObject();
+            for (Map.Entry<String, Object> field : fields) {
+                json.writeFieldName(field.getKey());
+                writeValue(json, field.getValue());
+            }
+            json.writeEndObject();
+        }
+    }
+
+    // writes values the way json-simple does: non-finite numbers become null, stats are written as numbers.
+    private static void writeValue(JsonGenerator json, Object value) throws IOException {
+        if (value == null) {
+            json.writeNull();
+        } else if (value instanceof Boolean) {
+            json.writeBoolean((Boolean) value);
+        } else if (value instanceof Double || value instanceof Float) {
+            double d = ((Number) value).doubleValue();
+            if (Double.isNaN(d) || Double.isInfinite(d)) {
+                json.writeNull();
+            } else if (value instanceof Float) {
+                json.writeNumber((Float) value);
+            } else {
+                json.writeNumber(d);
+            }
+        } else if (value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte) {
+            json.writeNumber(((Number) value).longValue());
+        } else if (value instanceof Number || value instanceof AbstractRollupStat) {
+            json.writeNumber(value.toString());
+        } else {
+            json.writeString(value.toString());
+        }
+    }
+
     protected JSONArray transformDataToJSONArray(MetricData metricData, Set<MetricStat> filterStats)
             throws SerializationException {
         Points points = metricData.getData();
@@ -84,7 +162,7 @@ public class JSONBasicRollupsOutputSerializer implements BasicRollupsOutputSeria
         return data;
     }
 
-    private JSONObject toJSON(long timestamp, Points.Point point, String unit, Set<MetricStat> filterStats)
+    JSONObject toJSON(long timestamp, Points.Point point, String unit, Set<MetricStat> filterStats)
             throws SerializationException {
         final JSONObject  object = new JSONObject();
         object.put("timestamp", timestamp);
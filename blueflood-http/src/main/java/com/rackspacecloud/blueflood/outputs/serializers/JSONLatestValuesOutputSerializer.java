@@ -0,0 +1,85 @@
+/*
+ * Copyright 2017 Rackspace
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.rackspacecloud.blueflood.outputs.serializers;
+
+import com.rackspacecloud.blueflood.types.Points;
+import com.rackspacecloud.blueflood.types.SimpleNumber;
+import org.codehaus.jackson.JsonEncoding;
+import org.codehaus.jackson.JsonFactory;
+import org.codehaus.jackson.JsonGenerator;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes the latest values of metrics, in the order they were asked for:
+ * <pre>
+ * {"metrics": [{"metric": "a.b", "timestamp": 1, "value": 2}, ...], "missing": ["c.d"]}
+ * </pre>
+ * Metrics without a value are listed in {@code missing}.
+ */
+public class JSONLatestValuesOutputSerializer {
+    private static final JsonFactory jsonFactory = new JsonFactory()
+            .configure(JsonGenerator.Feature.AUTO_CLOSE_TARGET, false);
+
+    public void writeLatestValues(List<String> metrics, Map<String, Points.Point<SimpleNumber>> values,
+                                  OutputStream out, boolean prettyPrint) throws IOException {
+        final JsonGenerator json = jsonFactory.createJsonGenerator(out, JsonEncoding.UTF8);
+        if (prettyPrint) {
+            json.useDefaultPrettyPrinter();
+        }
+
+        json.writeStartObject();
+        json.writeArrayFieldStart("metrics");
+        for (String metric : metrics) {
+            Points.Point<SimpleNumber> point = values.get(metric);
+            if (point == null) {
+                continue;
+            }
+            json.writeStartObject();
+            json.writeStringField("metric", metric);
+            json.writeNumberField("timestamp", point.getTimestamp());
+            writeValue(json, point.getData().getValue());
+            json.writeEndObject();
+        }
+        json.writeEndArray();
+        json.writeArrayFieldStart("missing");
+        for (String metric : metrics) {
+            if (!values.containsKey(metric)) {
+                json.writeString(metric);
+            }
+        }
+        json.writeEndArray();
+        json.writeEndObject();
+        json.close();
+    }
+
+    private static void writeValue(JsonGenerator json, Number value) throws IOException {
+        if (value instanceof Double || value instanceof Float) {
+            double d = value.doubleValue();
+            if (Double.isNaN(d) || Double.isInfinite(d)) {
+                json.writeNullField("value");
+            } else {
+                json.writeNumberField("value", d);
+            }
+        } else {
+            json.writeNumberField("value", value.longValue());
+        }
+    }
+}
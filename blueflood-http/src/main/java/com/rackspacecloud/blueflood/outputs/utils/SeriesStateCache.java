@@ -0,0 +1,295 @@
+/*
+ * Copyright 2017 Rackspace
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.rackspacecloud.blueflood.outputs.utils;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.Weigher;
+import com.rackspacecloud.blueflood.exceptions.InvalidRequestException;
+import com.rackspacecloud.blueflood.rollup.Granularity;
+import com.rackspacecloud.blueflood.types.Points;
+import com.rackspacecloud.blueflood.utils.Clock;
+
+import java.util.TreeMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Remembers the last points served for a series, so that "tail" queries of live
+ * dashboards only get what changed since their last response.
+ * <p>
+ *
+ * Every response of a series comes with a {@link Watermark}: when the response
+ * was made, the end of its range, its granularity and the state it was made from. A query that sends it
+ * back only reads the last {@code rereadMillis} before the watermark, and gets
+ * the points after the end of the previous range, plus the points before it
+ * that were re-rolled since. Points re-rolled more than {@code rereadMillis}
+ * after they were last served are not noticed, so clients should still re-read
+ * the whole range now and then.
+ * <p>
+ *
+ * A point counts as changed when it differs from the last time this node
+ * served it. The time of that change is when it was noticed, after the read,
+ * so a change is reported again rather than missed if reads overlap. Nodes
+ * keep their own state; a client that moves to another node, or whose series
+ * was forgotten, gets the whole re-read window once.
+ * <p>
+ *
+ * The cache is bounded by the estimated size of the points it remembers, rather
+ * than by the number of series, so that series with many points take their share.
+ */
+public class SeriesStateCache {
+
+    // series that are not asked for within this time are forgotten
+    private static final long EXPIRE_AFTER_ACCESS_MINUTES = 30;
+
+    // rough size of a remembered point, with its rollup, and of a series on the heap
+    private static final int BYTES_PER_POINT = 320;
+    private static final int BYTES_PER_SERIES = 256;
+
+    private final Cache<String, SeriesState> states;
+    private final long rereadMillis;
+    private final Clock clock;
+
+    /**
+     * @param maxBytes estimated size of all remembered series
+     * @param rereadMillis how far before a watermark points are read again to look for re-rolls
+     * @param clock provides the current time
+     */
+    public SeriesStateCache(long maxBytes, long rereadMillis, Clock clock) {
+        this.rereadMillis = rereadMillis;
+        this.clock = clock;
+        this.states = CacheBuilder.newBuilder()
+                .maximumWeight(maxBytes)
+                .weigher(new Weigher<String, SeriesState>() {
+                    @Override
+                    public int weigh(String key, SeriesState state) {
+                        return BYTES_PER_SERIES + 2 * key.length() + BYTES_PER_POINT * state.weighedPoints;
+                    }
+                })
+                .expireAfterAccess(EXPIRE_AFTER_ACCESS_MINUTES, TimeUnit.MINUTES)
+                .concurrencyLevel(16)
+                .build();
+    }
+
+    public long now() {
+        return clock.now().getMillis();
+    }
+
+    /**
+     * @return whether a query of a series for [from, to] at a granularity can be answered
+     *         with only what changed since the watermark
+     */
+    public boolean canTail(String key, Watermark since, long from, long to, Granularity granularity) {
+        if (since == null || since.getGranularity() != granularity || since.getTo() < from || since.getTo() >= to) {
+            return false;
+        }
+        // a watermark of another node, or of a state we forgot, tells nothing about what the client missed
+        SeriesState state = states.getIfPresent(key);
+        return state != null && state.epoch == since.getEpoch();
+    }
+
+    /**
+     * @return where a tail query for a range starting at {@code from} has to start reading
+     */
+    public long getReadFrom(Watermark since, long from) {
+        long readFrom = Math.min(since.getTo(), since.getServedAt() - rereadMillis);
+        long slotMillis = since.getGranularity().milliseconds();
+        return Math.max(from, readFrom - (readFrom % slotMillis));
+    }
+
+    /**
+     * Remembers the points read for a series, and returns those a client with the
+     * watermark does not have yet.
+     *
+     * @param readFrom the start of the range that was read. What is remembered before it is dropped.
+     * @param to the end of the range that was read
+     * @param since the watermark of the client's last response if {@link #canTail} allowed it, or null
+     *              to return all points
+     */
+    public <T> Tail<T> update(String key, Points<T> points, long readFrom, long to, Granularity granularity,
+                              Watermark since) {
+        SeriesState state = states.getIfPresent(key);
+        if (state == null) {
+            state = new SeriesState(ThreadLocalRandom.current().nextInt() & Integer.MAX_VALUE);
+            SeriesState existing = states.asMap().putIfAbsent(key, state);
+            if (existing != null) {
+                state = existing;
+            }
+        }
+
+        // the state may have been forgotten since canTail, then everything read is new to the client
+        boolean returnAll = since == null || since.getEpoch() != state.epoch;
+        Points<T> changed = new Points<T>();
+        Tail<T> tail;
+        boolean reweigh;
+        synchronized (state) {
+            // taken under the lock, so that an update that finishes later always notices changes later
+            long noticedAt = now();
+            state.prune(readFrom);
+            for (Points.Point<T> point : points.getPoints().values()) {
+                long changedAt = state.observe(point.getTimestamp(), point.getData(), noticedAt);
+                if (returnAll || point.getTimestamp() > since.getTo() || changedAt > since.getServedAt()) {
+                    changed.add(point);
+                }
+            }
+            tail = new Tail<T>(changed, since != null, new Watermark(noticedAt, to, granularity, state.epoch));
+            reweigh = state.points.size() != state.weighedPoints;
+            state.weighedPoints = state.points.size();
+        }
+        if (reweigh) {
+            // the cache only weighs a state when it is put, and only if it wasn't forgotten meanwhile
+            states.asMap().replace(key, state, state);
+        }
+        return tail;
+    }
+
+    @VisibleForTesting
+    long getSeriesCount() {
+        return states.size();
+    }
+
+    /**
+     * What a client knows about a series: when its last response was made, the end
+     * of its range, the granularity it was read at, and the state it was made from.
+     */
+    public static class Watermark {
+        private final long servedAt;
+        private final long to;
+        private final Granularity granularity;
+        private final int epoch;
+
+        public Watermark(long servedAt, long to, Granularity granularity, int epoch) {
+            this.servedAt = servedAt;
+            this.to = to;
+            this.granularity = granularity;
+            this.epoch = epoch;
+        }
+
+        /**
+         * @return the watermark, or null if there is none
+         */
+        public static Watermark parse(String watermark) throws InvalidRequestException {
+            if (watermark == null) {
+                return null;
+            }
+            String[] parts = watermark.split("\\.");
+            Granularity granularity = parts.length == 4 ? Granularity.fromString(parts[2]) : null;
+            if (granularity == null) {
+                throw new InvalidRequestException("parameter 'since' must be a watermark returned by a previous query");
+            }
+            try {
+                return new Watermark(Long.parseLong(parts[0]), Long.parseLong(parts[1]), granularity,
+                        Integer.parseInt(parts[3]));
+            } catch (NumberFormatException e) {
+                throw new InvalidRequestException("parameter 'since' must be a watermark returned by a previous query");
+            }
+        }
+
+        public long getServedAt() {
+            return servedAt;
+        }
+
+        public long getTo() {
+            return to;
+        }
+
+        public Granularity getGranularity() {
+            return granularity;
+        }
+
+        public int getEpoch() {
+            return epoch;
+        }
+
+        @Override
+        public String toString() {
+            return servedAt + "." + to + "." + granularity.shortName() + "." + epoch;
+        }
+    }
+
+    /**
+     * The points of a series to send, and the watermark to send with them.
+     */
+    public static class Tail<T> {
+        private final Points<T> points;
+        private final boolean partial;
+        private final Watermark watermark;
+
+        Tail(Points<T> points, boolean partial, Watermark watermark) {
+            this.points = points;
+            this.partial = partial;
+            this.watermark = watermark;
+        }
+
+        public Points<T> getPoints() {
+            return points;
+        }
+
+        /**
+         * @return whether the points are only what changed, to be merged into the client's
+         *         last response, rather than the whole range
+         */
+        public boolean isPartial() {
+            return partial;
+        }
+
+        public Watermark getWatermark() {
+            return watermark;
+        }
+    }
+
+    private static class SeriesState {
+        // tells states apart, so that a watermark is only used with the state that made it
+        final int epoch;
+        final TreeMap<Long, PointState> points = new TreeMap<Long, PointState>();
+        // the number of points the cache last weighed the state with. guarded by this
+        int weighedPoints = 0;
+
+        SeriesState(int epoch) {
+            this.epoch = epoch;
+        }
+
+        void prune(long before) {
+            points.headMap(before).clear();
+        }
+
+        /**
+         * @return when the value of the point was first noticed
+         */
+        long observe(long timestamp, Object value, long noticedAt) {
+            PointState previous = points.get(timestamp);
+            // rollups compare by value, but don't all hash by it, so the value itself is kept
+            if (previous == null || !previous.value.equals(value)) {
+                points.put(timestamp, new PointState(value, noticedAt));
+                return noticedAt;
+            }
+            return previous.changedAt;
+        }
+    }
+
+    private static class PointState {
+        final Object value;
+        final long changedAt;
+
+        PointState(Object value, long changedAt) {
+            this.value = value;
+            this.changedAt = changedAt;
+        }
+    }
+}
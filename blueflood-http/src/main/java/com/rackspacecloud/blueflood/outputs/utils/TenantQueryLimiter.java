@@ -0,0 +1,83 @@
+/*
+ * Copyright 2017 Rackspace
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.rackspacecloud.blueflood.outputs.utils;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Counts the queries every tenant is running, so that a single tenant can't
+ * take up all the threads and connections used to answer queries.
+ * <p>
+ *
+ * Only tenants with running queries are kept track of.
+ */
+public class TenantQueryLimiter {
+
+    private final int maxQueriesPerTenant;
+    private final Map<String, Integer> running = new HashMap<String, Integer>();   // guarded by this
+
+    /**
+     * @param maxQueriesPerTenant number of queries a tenant may run at a time, or 0 for no limit
+     */
+    public TenantQueryLimiter(int maxQueriesPerTenant) {
+        this.maxQueriesPerTenant = maxQueriesPerTenant;
+    }
+
+    /**
+     * @return whether the tenant may start a query, which it then has to {@link #release}
+     */
+    public synchronized boolean tryAcquire(String tenantId) {
+        if (maxQueriesPerTenant <= 0) {
+            return true;
+        }
+        Integer count = running.get(tenantId);
+        if (count == null) {
+            running.put(tenantId, 1);
+            return true;
+        }
+        if (count >= maxQueriesPerTenant) {
+            return false;
+        }
+        running.put(tenantId, count + 1);
+        return true;
+    }
+
+    public synchronized void release(String tenantId) {
+        if (maxQueriesPerTenant <= 0) {
+            return;
+        }
+        Integer count = running.get(tenantId);
+        if (count == null) {
+            return;
+        }
+        if (count <= 1) {
+            running.remove(tenantId);
+        } else {
+            running.put(tenantId, count - 1);
+        }
+    }
+
+    public synchronized int getRunningCount(String tenantId) {
+        Integer count = running.get(tenantId);
+        return count == null ? 0 : count;
+    }
+
+    public int getMaxQueriesPerTenant() {
+        return maxQueriesPerTenant;
+    }
+}
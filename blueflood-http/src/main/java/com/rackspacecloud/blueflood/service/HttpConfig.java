@@ -62,7 +62,49 @@ public enum HttpConfig implements ConfigDefaults {
     HTTP_MAX_TYPE_UNIT_PROCESSOR_THREADS("10"),
 
     // Idle time allowed on a connection, with no inbound traffic, before closing the connection. Specify 0 to disable.
-    HTTP_CONNECTION_READ_IDLE_TIME_SECONDS("0");
+    HTTP_CONNECTION_READ_IDLE_TIME_SECONDS("0"),
+
+    // Indent the JSON of rollup query responses. Makes large responses noticeably bigger.
+    PRETTY_PRINT_ROLLUP_QUERY_RESPONSES("false"),
+
+    /*
+      Send batch query responses with chunked transfer encoding, each metric as soon as it has been read.
+      Streamed requests may ask for up to MAX_METRICS_PER_STREAMED_BATCH_QUERY metrics, which are read
+      METRICS_PER_STREAMED_BATCH_READ at a time.
+     */
+    STREAM_BATCH_QUERY_RESPONSES("false"),
+    MAX_METRICS_PER_STREAMED_BATCH_QUERY("1000"),
+    METRICS_PER_STREAMED_BATCH_READ("10"),
+
+    // How long a streamed response waits for a slow client to take more data before giving up
+    STREAMED_RESPONSE_WRITE_TIMEOUT_MS("60000"),
+
+    // Aggregation queries combine many metrics into one series, reading METRICS_PER_AGGREGATION_READ metrics per task
+    MAX_METRICS_PER_AGGREGATION_QUERY("1000"),
+    METRICS_PER_AGGREGATION_READ("20"),
+
+    /*
+      Let single metric queries pass back the watermark of their last response in the 'since' parameter, to only
+      get the points after it and the points that were re-rolled within TAIL_QUERY_REREAD_MILLIS before it.
+      What was served is kept, bounded by its estimated size in TAIL_QUERY_MAX_SIZE_MB. Queries by points that are
+      read at more than one granularity are not tailed.
+     */
+    TAIL_QUERIES_ENABLED("false"),
+    TAIL_QUERY_MAX_SIZE_MB("64"),
+    TAIL_QUERY_REREAD_MILLIS("600000"),
+
+    // Latest value queries may ask for up to this many metrics. Values that are not cached are looked for in the
+    // last LATEST_VALUE_LOOKBACK_MILLIS.
+    MAX_METRICS_PER_LATEST_VALUE_QUERY("10000"),
+    LATEST_VALUE_LOOKBACK_MILLIS("3600000"),
+
+    /*
+      Budget of metric data queries. A tenant may run up to MAX_CONCURRENT_QUERIES_PER_TENANT queries at a time, and
+      gets a 429 for more. A query is stopped QUERY_DEADLINE_MILLIS after it started, or when its client disconnects.
+      0 means no limit.
+     */
+    MAX_CONCURRENT_QUERIES_PER_TENANT("0"),
+    QUERY_DEADLINE_MILLIS("0");
 
     static {
         Configuration.getInstance().loadDefaults(HttpConfig.values());
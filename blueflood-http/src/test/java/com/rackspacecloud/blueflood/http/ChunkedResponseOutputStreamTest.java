@@ -0,0 +1,113 @@
+/*
+ * Copyright 2017 Rackspace
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.rackspacecloud.blueflood.http;
+
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.EventLoop;
+import io.netty.handler.codec.http.HttpContent;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Mockito.*;
+
+public class ChunkedResponseOutputStreamTest {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private ChannelHandlerContext ctx;
+    private Channel channel;
+    private ChannelFuture future;
+    private ChunkedResponseOutputStream out;
+
+    @Before
+    public void setUp() {
+        ctx = mock(ChannelHandlerContext.class);
+        channel = mock(Channel.class);
+        future = mock(ChannelFuture.class);
+        EventLoop eventLoop = mock(EventLoop.class);
+
+        when(ctx.channel()).thenReturn(channel);
+        when(channel.isActive()).thenReturn(true);
+        when(channel.isWritable()).thenReturn(true);
+        when(channel.eventLoop()).thenReturn(eventLoop);
+        when(channel.writeAndFlush(any())).thenReturn(future);
+        when(future.isDone()).thenReturn(true);
+        when(future.isSuccess()).thenReturn(true);
+
+        out = new ChunkedResponseOutputStream(ctx, 1000);
+    }
+
+    @Test
+    public void testEveryFlushSendsOneChunk() throws IOException {
+        out.write("{\"a\":".getBytes(UTF8));
+        out.write('1');
+        out.flush();
+        out.write("}".getBytes(UTF8));
+        out.close();
+
+        ArgumentCaptor<Object> chunks = ArgumentCaptor.forClass(Object.class);
+        verify(channel, times(2)).writeAndFlush(chunks.capture());
+        assertEquals("{\"a\":1", ((HttpContent) chunks.getAllValues().get(0)).content().toString(UTF8));
+        assertEquals("}", ((HttpContent) chunks.getAllValues().get(1)).content().toString(UTF8));
+        verify(future, never()).awaitUninterruptibly(anyLong(), any(TimeUnit.class));
+    }
+
+    @Test
+    public void testFlushWithoutDataSendsNothing() throws IOException {
+        out.flush();
+        out.close();
+
+        verify(channel, never()).writeAndFlush(any());
+    }
+
+    @Test
+    public void testFlushWaitsForChunkWhenChannelIsNotWritable() throws IOException {
+        when(channel.isWritable()).thenReturn(false);
+        when(future.awaitUninterruptibly(1000, TimeUnit.MILLISECONDS)).thenReturn(true);
+
+        out.write('x');
+        out.flush();
+
+        verify(future).awaitUninterruptibly(1000, TimeUnit.MILLISECONDS);
+    }
+
+    @Test(expected = IOException.class)
+    public void testFlushFailsWhenSlowClientTimesOut() throws IOException {
+        when(channel.isWritable()).thenReturn(false);
+        when(future.awaitUninterruptibly(1000, TimeUnit.MILLISECONDS)).thenReturn(false);
+
+        out.write('x');
+        out.flush();
+    }
+
+    @Test(expected = IOException.class)
+    public void testWriteFailsOnceChannelIsClosed() throws IOException {
+        when(channel.isActive()).thenReturn(false);
+
+        out.write('x');
+    }
+}
@@ -5,6 +5,7 @@ import io.netty.channel.ChannelFuture;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.handler.codec.http.*;
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
 import static org.junit.Assert.*;
 import static org.mockito.Mockito.*;
 
@@ -66,4 +67,29 @@ public class HttpResponderTest {
         assertEquals("Connection: response header", HttpHeaders.Values.KEEP_ALIVE, responseHeaders.get(HttpHeaders.Names.CONNECTION));
         assertEquals("Keep-Alive: response header", "timeout="+idleTimeout, responseHeaders.get("Keep-Alive"));
     }
+
+    @Test
+    public void testChunkedResponse_RequestKeepAlive_ShouldHaveChunkedKeepAliveResponse() {
+        HttpResponder responder = new HttpResponder();
+
+        ChannelHandlerContext ctx = mock(ChannelHandlerContext.class);
+        FullHttpRequest request = mock(FullHttpRequest.class);
+        HttpHeaders headers = mock(HttpHeaders.class);
+        Channel channel = mock(Channel.class);
+
+        when(ctx.channel()).thenReturn(channel);
+        when(request.headers()).thenReturn(headers);
+        when(headers.get(HttpHeaders.Names.CONNECTION)).thenReturn(HttpHeaders.Values.KEEP_ALIVE);
+        when(request.getProtocolVersion()).thenReturn(HttpVersion.HTTP_1_1);
+
+        responder.startChunkedResponse(ctx, request, HttpResponseStatus.OK);
+
+        ArgumentCaptor<HttpResponse> response = ArgumentCaptor.forClass(HttpResponse.class);
+        verify(channel).writeAndFlush(response.capture());
+        assertEquals("Transfer-Encoding: response header", HttpHeaders.Values.CHUNKED,
+                response.getValue().headers().get(HttpHeaders.Names.TRANSFER_ENCODING));
+        assertEquals("Connection: response header", HttpHeaders.Values.KEEP_ALIVE,
+                response.getValue().headers().get(HttpHeaders.Names.CONNECTION));
+        assertNull("Content-Length: response header", response.getValue().headers().get(HttpHeaders.Names.CONTENT_LENGTH));
+    }
 }
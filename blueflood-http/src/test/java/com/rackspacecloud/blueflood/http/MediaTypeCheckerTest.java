@@ -103,4 +103,32 @@ public class MediaTypeCheckerTest {
         assertFalse("accept text/html,application/xhtml+xml,application/xml;q=0.9 should be invalid", mediaTypeChecker.isAcceptValid(mockHeaders));
     }
 
+    @Test
+    public void acceptBinaryRollupsShouldBeValid() {
+
+        HttpHeaders mockHeaders = mock(HttpHeaders.class);
+        when(mockHeaders.get(HttpHeaders.Names.ACCEPT)).thenReturn("application/vnd.blueflood.rollups");
+
+        assertTrue("accept application/vnd.blueflood.rollups should be valid", mediaTypeChecker.isAcceptValid(mockHeaders));
+        assertTrue("accept application/vnd.blueflood.rollups should ask for binary", mediaTypeChecker.acceptsBinaryRollups(mockHeaders));
+    }
+
+    @Test
+    public void acceptJsonShouldNotAskForBinaryRollups() {
+
+        HttpHeaders mockHeaders = mock(HttpHeaders.class);
+        when(mockHeaders.get(HttpHeaders.Names.ACCEPT)).thenReturn("application/json");
+
+        assertFalse("accept application/json should not ask for binary", mediaTypeChecker.acceptsBinaryRollups(mockHeaders));
+    }
+
+    @Test
+    public void acceptEmptyShouldNotAskForBinaryRollups() {
+
+        HttpHeaders mockHeaders = mock(HttpHeaders.class);
+        when(mockHeaders.get(HttpHeaders.Names.ACCEPT)).thenReturn(null);
+
+        assertFalse("no accept should not ask for binary", mediaTypeChecker.acceptsBinaryRollups(mockHeaders));
+    }
+
 }
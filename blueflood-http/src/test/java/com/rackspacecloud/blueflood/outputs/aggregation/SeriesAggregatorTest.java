@@ -0,0 +1,167 @@
+/*
+ * Copyright 2017 Rackspace
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.rackspacecloud.blueflood.outputs.aggregation;
+
+import com.rackspacecloud.blueflood.outputs.formats.MetricData;
+import com.rackspacecloud.blueflood.rollup.Granularity;
+import com.rackspacecloud.blueflood.types.BasicRollup;
+import com.rackspacecloud.blueflood.types.BluefloodCounterRollup;
+import com.rackspacecloud.blueflood.types.Points;
+import com.rackspacecloud.blueflood.types.SimpleNumber;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class SeriesAggregatorTest {
+
+    private static final long SLOT = Granularity.MIN_5.milliseconds();
+
+    @Test
+    public void testSumAddsTheAverageOfEverySeries() throws IOException {
+        SeriesAggregator aggregator = new SeriesAggregator(AggregateFunction.SUM, 0, Granularity.MIN_5);
+        aggregator.add(rollups(2, 4));
+        aggregator.add(rollups(10, 20));
+
+        assertEquals(Arrays.asList(13.0, 25.0), values(aggregator));
+        assertEquals(2, aggregator.getSeriesCount());
+    }
+
+    @Test
+    public void testMinAndMaxUseTheExtremesOfTheRollups() throws IOException {
+        SeriesAggregator min = new SeriesAggregator(AggregateFunction.MIN, 0, Granularity.MIN_5);
+        SeriesAggregator max = new SeriesAggregator(AggregateFunction.MAX, 0, Granularity.MIN_5);
+        for (SeriesAggregator aggregator : Arrays.asList(min, max)) {
+            aggregator.add(rollups(2, 4));
+            aggregator.add(rollups(10, 20));
+        }
+
+        // every rollup is made of its value and its value + 1
+        assertEquals(Arrays.asList(2.0, 4.0), values(min));
+        assertEquals(Arrays.asList(11.0, 21.0), values(max));
+    }
+
+    @Test
+    public void testFullResolutionPointsAreAlignedOnSlots() {
+        SeriesAggregator aggregator = new SeriesAggregator(AggregateFunction.AVG, 0, Granularity.FULL);
+        Points<SimpleNumber> first = new Points<SimpleNumber>();
+        first.add(new Points.Point<SimpleNumber>(1000, new SimpleNumber(1.0)));
+        first.add(new Points.Point<SimpleNumber>(31000, new SimpleNumber(3.0)));
+        Points<SimpleNumber> second = new Points<SimpleNumber>();
+        second.add(new Points.Point<SimpleNumber>(17000, new SimpleNumber(6.0)));
+        second.add(new Points.Point<SimpleNumber>(SLOT + 17000, new SimpleNumber(8.0)));
+
+        aggregator.add(new MetricData(first, "unit"));
+        aggregator.add(new MetricData(second, "unit"));
+
+        Map<Long, Points.Point<SimpleNumber>> points = aggregator.getAggregatedPoints().getPoints();
+        assertEquals(Arrays.asList(0L, SLOT), new ArrayList<Long>(points.keySet()));
+        // the first series averages to 2 in the first slot
+        assertEquals(4.0, points.get(0L).getData().getValue().doubleValue(), 0.0001);
+        assertEquals(8.0, points.get(SLOT).getData().getValue().doubleValue(), 0.0001);
+    }
+
+    @Test
+    public void testCountAndPercentile() throws IOException {
+        SeriesAggregator count = new SeriesAggregator(AggregateFunction.COUNT, 0, Granularity.MIN_5);
+        SeriesAggregator percentile = new SeriesAggregator(AggregateFunction.PERCENTILE, 90, Granularity.MIN_5);
+        for (SeriesAggregator aggregator : Arrays.asList(count, percentile)) {
+            for (int i = 1; i <= 10; i++) {
+                aggregator.add(rollups(2 * i));
+            }
+        }
+
+        assertEquals(Arrays.asList(10.0), values(count));
+        // averages are 2.5, 4.5, ... 20.5
+        assertEquals(Arrays.asList(18.5), values(percentile));
+    }
+
+    @Test
+    public void testRateOfCountersAndGrowingSeries() {
+        SeriesAggregator aggregator = new SeriesAggregator(AggregateFunction.RATE, 0, Granularity.MIN_5);
+
+        Points<BluefloodCounterRollup> counter = new Points<BluefloodCounterRollup>();
+        counter.add(new Points.Point<BluefloodCounterRollup>(0, new BluefloodCounterRollup().withCount(300).withRate(1.0)));
+        counter.add(new Points.Point<BluefloodCounterRollup>(SLOT, new BluefloodCounterRollup().withCount(600).withRate(2.0)));
+
+        Points<SimpleNumber> growing = new Points<SimpleNumber>();
+        growing.add(new Points.Point<SimpleNumber>(0, new SimpleNumber(100L)));
+        growing.add(new Points.Point<SimpleNumber>(SLOT, new SimpleNumber(400L)));
+        // a counter reset
+        growing.add(new Points.Point<SimpleNumber>(2 * SLOT, new SimpleNumber(50L)));
+
+        aggregator.add(new MetricData(counter, "unit"));
+        aggregator.add(new MetricData(growing, "unit"));
+
+        assertEquals(Arrays.asList(1.0, 3.0), values(aggregator));
+    }
+
+    @Test
+    public void testMergingMatchesAddingToOneAggregator() throws IOException {
+        SeriesAggregator single = new SeriesAggregator(AggregateFunction.PERCENTILE, 50, Granularity.MIN_5);
+        SeriesAggregator merged = new SeriesAggregator(AggregateFunction.PERCENTILE, 50, Granularity.MIN_5);
+        SeriesAggregator partial = new SeriesAggregator(AggregateFunction.PERCENTILE, 50, Granularity.MIN_5);
+        for (int i = 0; i < 5; i++) {
+            single.add(rollups(i, 3 * i));
+            (i % 2 == 0 ? merged : partial).add(rollups(i, 3 * i));
+        }
+        merged.merge(partial);
+
+        assertEquals(values(single), values(merged));
+        assertEquals(5, merged.getSeriesCount());
+    }
+
+    @Test
+    public void testUnitIsOnlyKeptWhenAllSeriesShareIt() throws IOException {
+        SeriesAggregator aggregator = new SeriesAggregator(AggregateFunction.SUM, 0, Granularity.MIN_5);
+        aggregator.add(rollups(1));
+        assertEquals("unit", aggregator.getUnit());
+
+        Points<SimpleNumber> points = new Points<SimpleNumber>();
+        points.add(new Points.Point<SimpleNumber>(0, new SimpleNumber(1L)));
+        aggregator.add(new MetricData(points, "other"));
+        assertNull(aggregator.getUnit());
+    }
+
+    /**
+     * A series with one rollup per slot, each made of the value and the value + 1.
+     */
+    private static MetricData rollups(long... values) throws IOException {
+        Points<BasicRollup> points = new Points<BasicRollup>();
+        for (int i = 0; i < values.length; i++) {
+            Points<SimpleNumber> input = new Points<SimpleNumber>();
+            input.add(new Points.Point<SimpleNumber>(i * SLOT, new SimpleNumber((double) values[i])));
+            input.add(new Points.Point<SimpleNumber>(i * SLOT + 1, new SimpleNumber(values[i] + 1.0)));
+            points.add(new Points.Point<BasicRollup>(i * SLOT, BasicRollup.buildRollupFromRawSamples(input)));
+        }
+        return new MetricData(points, "unit");
+    }
+
+    private static List<Double> values(SeriesAggregator aggregator) {
+        List<Double> values = new ArrayList<Double>();
+        for (Points.Point<SimpleNumber> point : aggregator.getAggregatedPoints().getPoints().values()) {
+            values.add(point.getData().getValue().doubleValue());
+        }
+        return values;
+    }
+}
@@ -0,0 +1,82 @@
+package com.rackspacecloud.blueflood.outputs.handlers;
+
+import com.rackspacecloud.blueflood.outputs.formats.ErrorResponse;
+import com.rackspacecloud.blueflood.outputs.serializers.JSONAggregatedSeriesOutputSerializer;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+
+import static junit.framework.Assert.assertEquals;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class HttpAggregatedRollupsQueryHandlerTest extends HandlerTestsBase {
+
+    private HttpAggregatedRollupsQueryHandler handler;
+
+    private static final String TENANT = "tenant";
+
+    private ChannelHandlerContext context;
+    private Channel channel;
+
+    @Before
+    public void setup() {
+        handler = new HttpAggregatedRollupsQueryHandler(mock(JSONAggregatedSeriesOutputSerializer.class));
+
+        channel = mock(Channel.class);
+        context = mock(ChannelHandlerContext.class);
+        when(context.channel()).thenReturn(channel);
+    }
+
+    @Test
+    public void testWithNoRequestBody() throws IOException {
+        assertBadRequest(createQueryRequest("?points=10&from=1&to=2&aggregate=sum", ""),
+                "Invalid body. Expected JSON array of metrics.");
+    }
+
+    @Test
+    public void testMissingAggregate() throws IOException {
+        assertBadRequest(createQueryRequest("?points=10&from=1&to=2", "['metric0']"),
+                "Invalid parameter: aggregate=null");
+    }
+
+    @Test
+    public void testUnknownAggregate() throws IOException {
+        assertBadRequest(createQueryRequest("?points=10&from=1&to=2&aggregate=median", "['metric0']"),
+                "parameter 'aggregate' is not valid. Allowed values " +
+                        "['sum', 'avg', 'min', 'max', 'count', 'percentile', 'rate']");
+    }
+
+    @Test
+    public void testPercentileOutOfRange() throws IOException {
+        assertBadRequest(createQueryRequest("?points=10&from=1&to=2&aggregate=percentile&percentile=101", "['metric0']"),
+                "parameter 'percentile' must be greater than 0 and at most 100");
+    }
+
+    private void assertBadRequest(FullHttpRequest request, String message) throws IOException {
+        ArgumentCaptor<FullHttpResponse> argument = ArgumentCaptor.forClass(FullHttpResponse.class);
+        handler.handle(context, request);
+        verify(channel).write(argument.capture());
+
+        String errorResponseBody = argument.getValue().content().toString(Charset.defaultCharset());
+        ErrorResponse errorResponse = getErrorResponse(errorResponseBody);
+
+        assertEquals("Number of errors invalid", 1, errorResponse.getErrors().size());
+        assertEquals("Invalid error message", message, errorResponse.getErrors().get(0).getMessage());
+        assertEquals("Invalid tenant", TENANT, errorResponse.getErrors().get(0).getTenantId());
+        assertEquals("Invalid status", HttpResponseStatus.BAD_REQUEST, argument.getValue().getStatus());
+    }
+
+    private FullHttpRequest createQueryRequest(String queryParams, String requestBody) {
+        return super.createPostRequest("/v2.0/" + TENANT + "/aggregate" + queryParams, requestBody);
+    }
+}
@@ -0,0 +1,96 @@
+package com.rackspacecloud.blueflood.outputs.handlers;
+
+import com.rackspacecloud.blueflood.cache.LatestValueCache;
+import com.rackspacecloud.blueflood.outputs.formats.ErrorResponse;
+import com.rackspacecloud.blueflood.outputs.serializers.JSONLatestValuesOutputSerializer;
+import com.rackspacecloud.blueflood.types.Locator;
+import com.rackspacecloud.blueflood.types.Points;
+import com.rackspacecloud.blueflood.types.SimpleNumber;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Map;
+
+import static junit.framework.Assert.assertEquals;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyBoolean;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class HttpLatestValuesQueryHandlerTest extends HandlerTestsBase {
+
+    private HttpLatestValuesQueryHandler handler;
+    private JSONLatestValuesOutputSerializer serializer;
+    private LatestValueCache cache;
+
+    private ChannelHandlerContext context;
+    private Channel channel;
+
+    @Before
+    public void setup() {
+        serializer = mock(JSONLatestValuesOutputSerializer.class);
+        cache = new LatestValueCache(100, 60);
+        handler = new HttpLatestValuesQueryHandler(serializer, cache);
+
+        channel = mock(Channel.class);
+        context = mock(ChannelHandlerContext.class);
+        when(context.channel()).thenReturn(channel);
+    }
+
+    @Test
+    public void testWithNoRequestBody() throws IOException {
+        assertBadRequest(createQueryRequest(""), "Invalid body. Expected JSON array of metrics.");
+    }
+
+    @Test
+    public void testWithInvalidRequestBody() throws IOException {
+        assertBadRequest(createQueryRequest("{'metric': 'metric0'}"), "Invalid body. Expected JSON array of metrics.");
+    }
+
+    @Test
+    public void testCachedValuesAreServedWithoutReading() throws IOException {
+        Points.Point<SimpleNumber> first = new Points.Point<SimpleNumber>(1000, new SimpleNumber(1L));
+        Points.Point<SimpleNumber> second = new Points.Point<SimpleNumber>(2000, new SimpleNumber(2.5));
+        cache.put(Locator.createLocatorFromPathComponents(TENANT, "metric0"), first);
+        cache.put(Locator.createLocatorFromPathComponents(TENANT, "metric1"), second);
+
+        handler.handle(context, createQueryRequest("['metric1', 'metric0', 'metric1']"));
+
+        ArgumentCaptor<Map> values = ArgumentCaptor.forClass(Map.class);
+        verify(serializer).writeLatestValues(eq(Arrays.asList("metric1", "metric0")), values.capture(),
+                any(OutputStream.class), anyBoolean());
+        assertEquals(2, values.getValue().size());
+        assertEquals(first, values.getValue().get("metric0"));
+        assertEquals(second, values.getValue().get("metric1"));
+    }
+
+    private void assertBadRequest(FullHttpRequest request, String message) throws IOException {
+        ArgumentCaptor<FullHttpResponse> argument = ArgumentCaptor.forClass(FullHttpResponse.class);
+        handler.handle(context, request);
+        verify(channel).write(argument.capture());
+
+        String errorResponseBody = argument.getValue().content().toString(Charset.defaultCharset());
+        ErrorResponse errorResponse = getErrorResponse(errorResponseBody);
+
+        assertEquals("Number of errors invalid", 1, errorResponse.getErrors().size());
+        assertEquals("Invalid error message", message, errorResponse.getErrors().get(0).getMessage());
+        assertEquals("Invalid tenant", TENANT, errorResponse.getErrors().get(0).getTenantId());
+        assertEquals("Invalid status", HttpResponseStatus.BAD_REQUEST, argument.getValue().getStatus());
+    }
+
+    private FullHttpRequest createQueryRequest(String requestBody) {
+        return super.createPostRequest("/v2.0/" + TENANT + "/latest", requestBody);
+    }
+}
@@ -18,13 +18,16 @@ import org.junit.Test;
 import org.mockito.ArgumentCaptor;
 
 import java.io.IOException;
+import java.io.OutputStream;
 import java.nio.charset.Charset;
 import java.util.Map;
 
 import static junit.framework.Assert.assertEquals;
 import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyBoolean;
 import static org.mockito.Matchers.anyMap;
 import static org.mockito.Matchers.anySet;
+import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
@@ -126,7 +129,8 @@ public class HttpMultiRollupsQueryHandlerTest extends HandlerTestsBase {
 
         ArgumentCaptor<FullHttpResponse> argument = ArgumentCaptor.forClass(FullHttpResponse.class);
         String message = "mock exception message";
-        when(serializer.transformRollupData(anyMap(), anySet())).thenThrow(new SerializationException(message));
+        doThrow(new SerializationException(message)).when(serializer)
+                .writeRollupData(anyMap(), anySet(), any(OutputStream.class), anyBoolean());
         handler.handle(context, request);
         verify(channel).write(argument.capture());
 
@@ -3,18 +3,18 @@ package com.rackspacecloud.blueflood.outputs.handlers;
 import com.rackspacecloud.blueflood.exceptions.SerializationException;
 import com.rackspacecloud.blueflood.outputs.formats.ErrorResponse;
 import com.rackspacecloud.blueflood.outputs.formats.MetricData;
-import com.rackspacecloud.blueflood.outputs.serializers.BasicRollupsOutputSerializer;
+import com.rackspacecloud.blueflood.outputs.serializers.JSONBasicRollupsOutputSerializer;
 import io.netty.channel.Channel;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.handler.codec.http.FullHttpRequest;
 import io.netty.handler.codec.http.FullHttpResponse;
 import io.netty.handler.codec.http.HttpResponseStatus;
-import org.json.simple.JSONObject;
 import org.junit.Before;
 import org.junit.Test;
 import org.mockito.ArgumentCaptor;
 
 import java.io.IOException;
+import java.io.OutputStream;
 import java.nio.charset.Charset;
 
 import static junit.framework.Assert.assertEquals;
@@ -28,11 +28,11 @@ public class HttpRollupsQueryHandlerTest extends HandlerTestsBase {
 
     private ChannelHandlerContext context;
     private Channel channel;
-    private BasicRollupsOutputSerializer<JSONObject> serializer;
+    private JSONBasicRollupsOutputSerializer serializer;
 
     @Before
     public void setup() {
-        serializer = mock(BasicRollupsOutputSerializer.class);
+        serializer = mock(JSONBasicRollupsOutputSerializer.class);
         handler = new HttpRollupsQueryHandler(serializer);
 
         channel = mock(Channel.class);
@@ -80,7 +80,8 @@ public class HttpRollupsQueryHandlerTest extends HandlerTestsBase {
 
         ArgumentCaptor<FullHttpResponse> argument = ArgumentCaptor.forClass(FullHttpResponse.class);
         String message = "mock exception message";
-        when(serializer.transformRollupData(any(MetricData.class), anySet())).thenThrow(new SerializationException(message));
+        doThrow(new SerializationException(message)).when(serializer)
+                .writeRollupData(any(MetricData.class), anySet(), any(OutputStream.class), anyBoolean());
         handler.handle(context, request);
         verify(channel).write(argument.capture());
 
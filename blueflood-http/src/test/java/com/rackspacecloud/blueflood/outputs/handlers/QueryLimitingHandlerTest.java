@@ -0,0 +1,154 @@
+package com.rackspacecloud.blueflood.outputs.handlers;
+
+import com.rackspacecloud.blueflood.concurrent.QueryDeadline;
+import com.rackspacecloud.blueflood.http.HttpRequestHandler;
+import com.rackspacecloud.blueflood.outputs.utils.TenantQueryLimiter;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class QueryLimitingHandlerTest extends HandlerTestsBase {
+
+    private TenantQueryLimiter limiter;
+    private List<QueryDeadline> deadlines;
+
+    private ChannelHandlerContext context;
+    private Channel channel;
+    private ChannelFuture closeFuture;
+
+    @Before
+    public void setup() {
+        limiter = new TenantQueryLimiter(1);
+        deadlines = new ArrayList<QueryDeadline>();
+
+        channel = mock(Channel.class);
+        closeFuture = mock(ChannelFuture.class);
+        context = mock(ChannelHandlerContext.class);
+        when(context.channel()).thenReturn(channel);
+        when(channel.closeFuture()).thenReturn(closeFuture);
+    }
+
+    @Test
+    public void testQueryRunsWithADeadlineAndGivesBackItsSlot() {
+        HttpRequestHandler handler = new QueryLimitingHandler(new HttpRequestHandler() {
+            @Override
+            public void handle(ChannelHandlerContext ctx, FullHttpRequest request) {
+                deadlines.add(QueryDeadline.current());
+                assertEquals(1, limiter.getRunningCount(TENANT));
+            }
+        }, limiter, 60000);
+
+        handler.handle(context, createQueryRequest());
+
+        assertEquals(1, deadlines.size());
+        assertNotSame(QueryDeadline.NONE, deadlines.get(0));
+        assertFalse(deadlines.get(0).isExpired());
+        assertSame(QueryDeadline.NONE, QueryDeadline.current());
+        assertEquals(0, limiter.getRunningCount(TENANT));
+    }
+
+    @Test
+    public void testQueriesOverTheTenantLimitAreRejected() {
+        HttpRequestHandler handler = new QueryLimitingHandler(recordingHandler(), limiter, 0);
+        assertTrue(limiter.tryAcquire(TENANT));
+
+        ArgumentCaptor<FullHttpResponse> response = ArgumentCaptor.forClass(FullHttpResponse.class);
+        handler.handle(context, createQueryRequest());
+        verify(channel).write(response.capture());
+
+        assertEquals(HttpResponseStatus.TOO_MANY_REQUESTS, response.getValue().getStatus());
+        assertTrue(deadlines.isEmpty());
+        assertEquals(1, limiter.getRunningCount(TENANT));
+
+        // other tenants are not held back
+        assertTrue(limiter.tryAcquire("otherTenant"));
+    }
+
+    @Test
+    public void testQueryIsCancelledWhenTheClientDisconnects() throws Exception {
+        final ArgumentCaptor<ChannelFutureListener> listener = ArgumentCaptor.forClass(ChannelFutureListener.class);
+        HttpRequestHandler handler = new QueryLimitingHandler(new HttpRequestHandler() {
+            @Override
+            public void handle(ChannelHandlerContext ctx, FullHttpRequest request) {
+                deadlines.add(QueryDeadline.current());
+                verify(closeFuture).addListener(listener.capture());
+                try {
+                    listener.getValue().operationComplete(closeFuture);
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        }, limiter, 0);
+
+        handler.handle(context, createQueryRequest());
+
+        assertTrue(deadlines.get(0).isCancelled());
+        verify(closeFuture).removeListener(listener.getValue());
+        assertEquals(0, limiter.getRunningCount(TENANT));
+    }
+
+    @Test
+    public void testQueryFinishedLaterKeepsItsSlot() {
+        HttpRequestHandler handler = new QueryLimitingHandler(new HttpRequestHandler() {
+            @Override
+            public void handle(ChannelHandlerContext ctx, FullHttpRequest request) {
+                deadlines.add(QueryDeadline.current().finishLater());
+            }
+        }, limiter, 0);
+
+        handler.handle(context, createQueryRequest());
+        assertEquals(1, limiter.getRunningCount(TENANT));
+        verify(closeFuture, never()).removeListener(any(ChannelFutureListener.class));
+
+        deadlines.get(0).finish();
+        assertEquals(0, limiter.getRunningCount(TENANT));
+    }
+
+    @Test
+    public void testSlotIsGivenBackWhenTheHandlerFails() {
+        HttpRequestHandler handler = new QueryLimitingHandler(new HttpRequestHandler() {
+            @Override
+            public void handle(ChannelHandlerContext ctx, FullHttpRequest request) {
+                QueryDeadline.current().finishLater();
+                throw new IllegalStateException("executor is full");
+            }
+        }, limiter, 0);
+
+        try {
+            handler.handle(context, createQueryRequest());
+            fail("expected the handler to fail");
+        } catch (IllegalStateException e) {
+            assertEquals(0, limiter.getRunningCount(TENANT));
+        }
+    }
+
+    private HttpRequestHandler recordingHandler() {
+        return new HttpRequestHandler() {
+            @Override
+            public void handle(ChannelHandlerContext ctx, FullHttpRequest request) {
+                deadlines.add(QueryDeadline.current());
+            }
+        };
+    }
+
+    private FullHttpRequest createQueryRequest() {
+        return super.createPostRequest("/v2.0/" + TENANT + "/views", "['metric0']");
+    }
+}
@@ -21,9 +21,11 @@ import com.rackspacecloud.blueflood.outputs.utils.PlotRequestParser;
 import com.rackspacecloud.blueflood.types.Locator;
 import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
 import org.junit.Assert;
 import org.junit.Test;
 
+import java.io.ByteArrayOutputStream;
 import java.util.*;
 
 public class BatchedMetricsJSONOutputSerializerTest {
@@ -65,4 +67,21 @@ public class BatchedMetricsJSONOutputSerializerTest {
             Assert.assertTrue(data != null);
         }
     }
+
+    @Test
+    public void testWriteRollupDataMatchesTransformRollupData() throws Exception {
+        final BatchedMetricsJSONOutputSerializer serializer = new BatchedMetricsJSONOutputSerializer();
+
+        final Map<Locator, MetricData> metrics = new LinkedHashMap<Locator, MetricData>();
+        metrics.put(Locator.createLocatorFromPathComponents(tenantId, "rollups"),
+                new MetricData(FakeMetricDataGenerator.generateFakeRollupPoints(), "unknown"));
+        metrics.put(Locator.createLocatorFromPathComponents(tenantId, "counters"),
+                new MetricData(FakeMetricDataGenerator.generateFakeCounterRollupPoints(), null));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        serializer.writeRollupData(metrics, filterStats, out, false);
+
+        Object expected = new JSONParser().parse(serializer.transformRollupData(metrics, filterStats).toString());
+        Assert.assertEquals(expected, new JSONParser().parse(out.toString("UTF-8")));
+    }
 }
@@ -0,0 +1,244 @@
+/*
+ * Copyright 2017 Rackspace
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.rackspacecloud.blueflood.outputs.serializers;
+
+import com.rackspacecloud.blueflood.outputs.formats.MetricData;
+import com.rackspacecloud.blueflood.outputs.serializers.BasicRollupsOutputSerializer.MetricStat;
+import com.rackspacecloud.blueflood.types.AbstractRollupStat;
+import com.rackspacecloud.blueflood.types.Locator;
+import com.rackspacecloud.blueflood.types.Points;
+import com.rackspacecloud.blueflood.types.SimpleNumber;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class BinaryRollupsOutputSerializerTest {
+    private static final String tenantId = "879890";
+
+    private final BinaryRollupsOutputSerializer serializer = new BinaryRollupsOutputSerializer();
+    private final Set<MetricStat> filterStats = new HashSet<MetricStat>();
+
+    public BinaryRollupsOutputSerializerTest() {
+        filterStats.add(MetricStat.AVERAGE);
+        filterStats.add(MetricStat.MIN);
+        filterStats.add(MetricStat.MAX);
+        filterStats.add(MetricStat.NUM_POINTS);
+    }
+
+    @Test
+    public void testSingleMetricHasTheValuesOfTheJSONResponse() throws Exception {
+        MetricData metricData = new MetricData(FakeMetricDataGenerator.generateFakeRollupPoints(), "bytes");
+
+        DataInputStream in = open(serializer.transformRollupData(metricData, filterStats));
+        assertEquals(1, in.readByte());
+        Series series = readSeries(in);
+        assertEquals(0, in.readByte());
+        assertEquals(-1, in.read());
+
+        assertEquals("", series.name);
+        assertEquals("bytes", series.unit);
+        assertEquals("number", series.type);
+        assertSameAsJSON(new JSONBasicRollupsOutputSerializer().transformRollupData(metricData, filterStats), series);
+    }
+
+    @Test
+    public void testBatchHasEverySeries() throws Exception {
+        Map<Locator, MetricData> metrics = new LinkedHashMap<Locator, MetricData>();
+        metrics.put(Locator.createLocatorFromPathComponents(tenantId, "rollups"),
+                new MetricData(FakeMetricDataGenerator.generateFakeRollupPoints(), "unknown"));
+        metrics.put(Locator.createLocatorFromPathComponents(tenantId, "counters"),
+                new MetricData(FakeMetricDataGenerator.generateFakeCounterRollupPoints(), null));
+        metrics.put(Locator.createLocatorFromPathComponents(tenantId, "empty"),
+                new MetricData(new Points<SimpleNumber>(), "unknown"));
+
+        DataInputStream in = open(serializer.transformRollupData(metrics, filterStats));
+        List<Series> all = new ArrayList<Series>();
+        while (in.readByte() == 1) {
+            all.add(readSeries(in));
+        }
+        assertEquals(-1, in.read());
+
+        assertEquals(3, all.size());
+        assertEquals("rollups", all.get(0).name);
+        assertEquals("counters", all.get(1).name);
+        assertEquals("unknown", all.get(1).unit);
+        assertEquals("empty", all.get(2).name);
+        assertEquals(0, all.get(2).timestamps.length);
+        assertTrue(all.get(2).columns.isEmpty());
+
+        JSONBasicRollupsOutputSerializer json = new JSONBasicRollupsOutputSerializer();
+        assertSameAsJSON(json.transformRollupData(metrics.get(Locator.createLocatorFromPathComponents(tenantId, "rollups")), filterStats), all.get(0));
+        assertSameAsJSON(json.transformRollupData(metrics.get(Locator.createLocatorFromPathComponents(tenantId, "counters")), filterStats), all.get(1));
+    }
+
+    @Test
+    public void testTimestampsAreDeltaEncoded() throws Exception {
+        Points<SimpleNumber> points = new Points<SimpleNumber>();
+        long start = 1500000000000L;
+        for (int i = 0; i < 100; i++) {
+            points.add(new Points.Point<SimpleNumber>(start + i * 30000L, new SimpleNumber(i)));
+        }
+        MetricData metricData = new MetricData(points, "unknown");
+
+        byte[] bytes = serializer.transformRollupData(metricData, filterStats);
+        Series series = readSeries(skipHeader(bytes));
+        for (int i = 0; i < 100; i++) {
+            assertEquals(start + i * 30000L, series.timestamps[i]);
+        }
+
+        // 6 bytes for the first timestamp, then 3 for each difference of 30 seconds
+        byte[] json = new JSONBasicRollupsOutputSerializer().transformRollupData(metricData, filterStats)
+                .toJSONString().getBytes("UTF-8");
+        assertTrue(bytes.length + " bytes is not less than a third of " + json.length, bytes.length * 3 < json.length);
+    }
+
+    @Test
+    public void testNonFiniteDoublesAreKept() throws Exception {
+        Points<SimpleNumber> points = new Points<SimpleNumber>();
+        points.add(new Points.Point<SimpleNumber>(1000L, new SimpleNumber(Double.NaN)));
+        points.add(new Points.Point<SimpleNumber>(2000L, new SimpleNumber(Double.POSITIVE_INFINITY)));
+
+        Series series = readSeries(skipHeader(serializer.transformRollupData(new MetricData(points, "unknown"), filterStats)));
+
+        List<Object> averages = series.columns.get("average");
+        assertTrue(Double.isNaN((Double) averages.get(0)));
+        assertEquals(Double.POSITIVE_INFINITY, averages.get(1));
+    }
+
+    private static void assertSameAsJSON(JSONObject expected, Series series) {
+        JSONArray values = (JSONArray) expected.get("values");
+        assertEquals(values.size(), series.timestamps.length);
+        for (int i = 0; i < values.size(); i++) {
+            JSONObject point = (JSONObject) values.get(i);
+            assertEquals(((Number) point.get("timestamp")).longValue(), series.timestamps[i]);
+            assertEquals(point.size() - 1, series.columns.size());
+            for (Map.Entry<String, List<Object>> column : series.columns.entrySet()) {
+                Object value = point.get(column.getKey());
+                Object decoded = column.getValue().get(i);
+                if (value instanceof AbstractRollupStat) {
+                    AbstractRollupStat stat = (AbstractRollupStat) value;
+                    assertEquals(column.getKey(), stat.isFloatingPoint() ? stat.toDouble() : stat.toLong(),
+                            ((Number) decoded).doubleValue(), 0.0);
+                } else if (value instanceof Number) {
+                    assertEquals(column.getKey(), ((Number) value).doubleValue(), ((Number) decoded).doubleValue(), 0.0);
+                } else if (value == null) {
+                    assertNull(column.getKey(), decoded);
+                } else {
+                    assertEquals(column.getKey(), value.toString(), decoded.toString());
+                }
+            }
+        }
+    }
+
+    private static class Series {
+        String name;
+        String unit;
+        String type;
+        long[] timestamps;
+        Map<String, List<Object>> columns = new LinkedHashMap<String, List<Object>>();
+    }
+
+    private static DataInputStream open(byte[] bytes) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+        assertEquals('B', in.readByte());
+        assertEquals('F', in.readByte());
+        assertEquals('R', in.readByte());
+        assertEquals(1, in.readByte());
+        return in;
+    }
+
+    private static DataInputStream skipHeader(byte[] bytes) throws IOException {
+        DataInputStream in = open(bytes);
+        assertEquals(1, in.readByte());
+        return in;
+    }
+
+    private static Series readSeries(DataInputStream in) throws IOException {
+        Series series = new Series();
+        series.name = readString(in);
+        series.unit = readString(in);
+        series.type = readString(in);
+        int points = (int) readVarLong(in);
+        int columns = (int) readVarLong(in);
+        List<String> names = new ArrayList<String>();
+        for (int i = 0; i < columns; i++) {
+            names.add(readString(in));
+        }
+
+        series.timestamps = new long[points];
+        long previous = 0;
+        for (int i = 0; i < points; i++) {
+            previous += unZigZag(readVarLong(in));
+            series.timestamps[i] = previous;
+        }
+
+        for (String name : names) {
+            List<Object> values = new ArrayList<Object>();
+            for (int i = 0; i < points; i++) {
+                values.add(readValue(in));
+            }
+            series.columns.put(name, values);
+        }
+        return series;
+    }
+
+    private static Object readValue(DataInputStream in) throws IOException {
+        byte tag = in.readByte();
+        switch (tag) {
+            case 0: return null;
+            case 1: return in.readDouble();
+            case 2: return unZigZag(readVarLong(in));
+            case 3: return readString(in);
+            case 4: return false;
+            case 5: return true;
+            default: throw new IOException("unknown value tag " + tag);
+        }
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[(int) readVarLong(in)];
+        in.readFully(bytes);
+        return new String(bytes, "UTF-8");
+    }
+
+    private static long readVarLong(DataInputStream in) throws IOException {
+        long value = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = in.readByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+    }
+
+    private static long unZigZag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+}
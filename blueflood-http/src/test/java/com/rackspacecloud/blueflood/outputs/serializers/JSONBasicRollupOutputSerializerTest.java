@@ -26,9 +26,11 @@ import com.rackspacecloud.blueflood.exceptions.SerializationException;
 import com.rackspacecloud.blueflood.types.SimpleNumber;
 import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
 import org.junit.Assert;
 import org.junit.Test;
 
+import java.io.ByteArrayOutputStream;
 import java.util.HashSet;
 import java.util.Set;
 import java.util.Map;
@@ -207,6 +209,25 @@ public class JSONBasicRollupOutputSerializerTest {
             // bah. I'm too lazy to check equals.
         }
     }
-    
-    
+
+    @Test
+    public void testWriteRollupDataMatchesTransformRollupData() throws Exception {
+        final JSONBasicRollupsOutputSerializer serializer = new JSONBasicRollupsOutputSerializer();
+        final MetricData[] metricDatas = new MetricData[] {
+                new MetricData(FakeMetricDataGenerator.generateFakeFullResPoints(), "unknown"),
+                new MetricData(FakeMetricDataGenerator.generateFakeRollupPoints(), "unknown"),
+                new MetricData(FakeMetricDataGenerator.generateFakeTimerRollups(), null),
+                new MetricData(new Points(), "bytes")
+        };
+
+        for (MetricData metricData : metricDatas) {
+            for (boolean prettyPrint : new boolean[] { false, true }) {
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                serializer.writeRollupData(metricData, PlotRequestParser.DEFAULT_STATS, out, prettyPrint);
+
+                Object expected = new JSONParser().parse(serializer.transformRollupData(metricData, PlotRequestParser.DEFAULT_STATS).toString());
+                Assert.assertEquals(expected, new JSONParser().parse(out.toString("UTF-8")));
+            }
+        }
+    }
 }
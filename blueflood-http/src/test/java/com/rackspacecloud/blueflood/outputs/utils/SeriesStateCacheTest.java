@@ -0,0 +1,183 @@
+/*
+ * Copyright 2017 Rackspace
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.rackspacecloud.blueflood.outputs.utils;
+
+import com.rackspacecloud.blueflood.exceptions.InvalidRequestException;
+import com.rackspacecloud.blueflood.rollup.Granularity;
+import com.rackspacecloud.blueflood.types.Points;
+import com.rackspacecloud.blueflood.types.SimpleNumber;
+import com.rackspacecloud.blueflood.utils.Clock;
+import org.joda.time.Instant;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class SeriesStateCacheTest {
+
+    private static final String KEY = "tenant,metric,metrics_5m";
+    private static final long SLOT = Granularity.MIN_5.milliseconds();
+    private static final long REREAD = 2 * SLOT;
+
+    // just after the last slot of the series in the tests
+    private long now = 993 * SLOT;
+    private SeriesStateCache cache;
+
+    @Before
+    public void setUp() {
+        cache = new SeriesStateCache(1024 * 1024, REREAD, new Clock() {
+            @Override
+            public Instant now() {
+                return new Instant(now);
+            }
+        });
+    }
+
+    @Test
+    public void testFirstResponseHasAllPointsAndAWatermark() {
+        SeriesStateCache.Tail<SimpleNumber> tail = cache.update(KEY, points(990, 1, 2, 3), 990 * SLOT, 993 * SLOT,
+                Granularity.MIN_5, null);
+
+        assertEquals(Arrays.asList(990L, 991L, 992L), slots(tail.getPoints()));
+        assertFalse(tail.isPartial());
+        assertEquals(now, tail.getWatermark().getServedAt());
+        assertEquals(993 * SLOT, tail.getWatermark().getTo());
+        assertEquals(Granularity.MIN_5, tail.getWatermark().getGranularity());
+    }
+
+    @Test
+    public void testTailHasNewAndRerolledPointsOnly() {
+        SeriesStateCache.Watermark since = cache.update(KEY, points(990, 1, 2, 3), 990 * SLOT, 993 * SLOT,
+                Granularity.MIN_5, null).getWatermark();
+
+        now += SLOT;
+        assertTrue(cache.canTail(KEY, since, 991 * SLOT, 994 * SLOT, Granularity.MIN_5));
+        long readFrom = cache.getReadFrom(since, 991 * SLOT);
+        // the re-read window reaches back before the end of the last response
+        assertEquals(991 * SLOT, readFrom);
+
+        // the point at 992 was re-rolled, and 993 is new
+        SeriesStateCache.Tail<SimpleNumber> tail = cache.update(KEY, points(991, 2, 5, 4), readFrom, 994 * SLOT,
+                Granularity.MIN_5, since);
+
+        assertEquals(Arrays.asList(992L, 993L), slots(tail.getPoints()));
+        assertTrue(tail.isPartial());
+        assertEquals(now, tail.getWatermark().getServedAt());
+    }
+
+    @Test
+    public void testChangesSeenByOtherClientsAreStillReported() {
+        SeriesStateCache.Watermark since = cache.update(KEY, points(990, 1, 2, 3), 990 * SLOT, 993 * SLOT,
+                Granularity.MIN_5, null).getWatermark();
+
+        // another client reads the re-rolled point first
+        now += SLOT;
+        cache.update(KEY, points(990, 1, 5, 3), 990 * SLOT, 993 * SLOT, Granularity.MIN_5, null);
+
+        now += SLOT;
+        long readFrom = cache.getReadFrom(since, 990 * SLOT);
+        assertEquals(991 * SLOT, readFrom);
+        SeriesStateCache.Tail<SimpleNumber> tail = cache.update(KEY, points(991, 5, 3), readFrom, 993 * SLOT + 1,
+                Granularity.MIN_5, since);
+
+        assertEquals(Arrays.asList(991L), slots(tail.getPoints()));
+    }
+
+    @Test
+    public void testWatermarksOfOtherStatesAreNotTailed() throws InvalidRequestException {
+        SeriesStateCache.Watermark since = cache.update(KEY, points(990, 1, 2, 3), 990 * SLOT, 993 * SLOT,
+                Granularity.MIN_5, null).getWatermark();
+
+        SeriesStateCache.Watermark otherNode = SeriesStateCache.Watermark.parse(
+                since.getServedAt() + "." + since.getTo() + ".5m." + (since.getEpoch() + 1));
+        assertFalse(cache.canTail(KEY, otherNode, 990 * SLOT, 994 * SLOT, Granularity.MIN_5));
+        assertFalse(cache.canTail("tenant,other,metrics_5m", since, 990 * SLOT, 994 * SLOT, Granularity.MIN_5));
+        assertFalse(cache.canTail(KEY, since, 990 * SLOT, 994 * SLOT, Granularity.MIN_20));
+        // the client's last response is not within the range asked for
+        assertFalse(cache.canTail(KEY, since, 994 * SLOT, 995 * SLOT, Granularity.MIN_5));
+        assertTrue(cache.canTail(KEY, since, 990 * SLOT, 994 * SLOT, Granularity.MIN_5));
+    }
+
+    @Test
+    public void testReadFromCoversTheRereadWindowAndTheEndOfTheLastResponse() {
+        SeriesStateCache.Watermark recent = new SeriesStateCache.Watermark(now, now, Granularity.MIN_5, 1);
+        assertEquals(now - REREAD, cache.getReadFrom(recent, 0));
+        assertEquals(now - SLOT, cache.getReadFrom(recent, now - SLOT));
+
+        // a client that asked for a range ending long ago gets everything after it
+        SeriesStateCache.Watermark old = new SeriesStateCache.Watermark(now, now - 10 * SLOT + 1, Granularity.MIN_5, 1);
+        assertEquals(now - 10 * SLOT, cache.getReadFrom(old, 0));
+    }
+
+    @Test
+    public void testCacheIsBoundedBySize() {
+        // room for a series of about four points in each of the cache's 16 segments
+        SeriesStateCache small = new SeriesStateCache(16 * (256 + 2 * KEY.length() + 4 * 320), REREAD, new Clock() {
+            @Override
+            public Instant now() {
+                return new Instant(now);
+            }
+        });
+
+        small.update(KEY, points(990, 1, 2, 3), 990 * SLOT, 993 * SLOT, Granularity.MIN_5, null);
+        assertEquals(1, small.getSeriesCount());
+
+        // the state grows past the bound as more points are remembered
+        small.update(KEY, points(990, 1, 2, 3, 4, 5, 6, 7, 8), 990 * SLOT, 998 * SLOT, Granularity.MIN_5, null);
+        assertEquals(0, small.getSeriesCount());
+    }
+
+    @Test
+    public void testWatermarkRoundTrip() throws InvalidRequestException {
+        SeriesStateCache.Watermark watermark = new SeriesStateCache.Watermark(12345, 678, Granularity.FULL, 42);
+        SeriesStateCache.Watermark parsed = SeriesStateCache.Watermark.parse(watermark.toString());
+
+        assertEquals(12345, parsed.getServedAt());
+        assertEquals(678, parsed.getTo());
+        assertEquals(Granularity.FULL, parsed.getGranularity());
+        assertEquals(42, parsed.getEpoch());
+        assertNull(SeriesStateCache.Watermark.parse(null));
+    }
+
+    @Test(expected = InvalidRequestException.class)
+    public void testInvalidWatermark() throws InvalidRequestException {
+        SeriesStateCache.Watermark.parse("12345.678.hourly.1");
+    }
+
+    /**
+     * A series with one point per slot, starting at a slot.
+     */
+    private static Points<SimpleNumber> points(long firstSlot, long... values) {
+        Points<SimpleNumber> points = new Points<SimpleNumber>();
+        for (int i = 0; i < values.length; i++) {
+            points.add(new Points.Point<SimpleNumber>((firstSlot + i) * SLOT, new SimpleNumber(values[i])));
+        }
+        return points;
+    }
+
+    private static List<Long> slots(Points<SimpleNumber> points) {
+        List<Long> slots = new ArrayList<Long>();
+        for (Long timestamp : points.getPoints().keySet()) {
+            slots.add(timestamp / SLOT);
+        }
+        return slots;
+    }
+}
@@ -15,42 +15,30 @@
  */
 package com.rackspacecloud.blueflood.ManualRollupTool.io;
 
-import com.codahale.metrics.*;
-import com.codahale.metrics.Timer;
-import com.google.common.base.Function;
-import com.netflix.astyanax.model.Column;
-import com.netflix.astyanax.model.ColumnList;
-import com.netflix.astyanax.model.Row;
-import com.netflix.astyanax.recipes.reader.AllRowsReader;
 import com.rackspacecloud.blueflood.ManualRollupTool.io.handlers.ReRollWork;
 import com.rackspacecloud.blueflood.ManualRollupTool.service.RollupToolConfig;
-import com.rackspacecloud.blueflood.concurrent.ThreadPoolBuilder;
-import com.rackspacecloud.blueflood.io.astyanax.AstyanaxIO;
 import com.rackspacecloud.blueflood.io.CassandraModel;
 import com.rackspacecloud.blueflood.io.CassandraModel.MetricColumnFamily;
+import com.rackspacecloud.blueflood.io.datastax.DLocatorIO;
 import com.rackspacecloud.blueflood.rollup.Granularity;
 import com.rackspacecloud.blueflood.service.*;
+import com.rackspacecloud.blueflood.tools.ops.ParallelRollupRunner;
+import com.rackspacecloud.blueflood.tools.ops.ShardCheckpoint;
 import com.rackspacecloud.blueflood.types.*;
-import com.rackspacecloud.blueflood.utils.Metrics;
 import com.rackspacecloud.blueflood.utils.Util;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.*;
-import java.util.concurrent.*;
+import java.util.concurrent.Callable;
 
-public class ManualRollup extends AstyanaxIO {
+public class ManualRollup {
 
-    private static final Meter nullRows = Metrics.meter(ManualRollup.class, "Null Rows Found");
-    private static final Timer rerollTimerPerShard = Metrics.timer(ManualRollup.class, "Time taken to rollup per shard");
-    private static final Set<MetricColumnFamily> columnFamiliesEnabled = new HashSet<MetricColumnFamily>();
-
-    private final ThreadPoolExecutor rollupExecutors = new ThreadPoolBuilder()
-                    .withUnboundedQueue()
-                    .withCorePoolSize(Configuration.getInstance().getIntegerProperty(RollupToolConfig.MAX_REROLL_THREADS))
-                    .withMaxPoolSize(Configuration.getInstance().getIntegerProperty(RollupToolConfig.MAX_REROLL_THREADS))
-                    .withName("ReRollup ThreadPool")
-                    .build();
+    // finer granularities first, since every granularity is rolled up from the one before it.
+    private static final Set<MetricColumnFamily> columnFamiliesEnabled = new LinkedHashSet<MetricColumnFamily>();
+    private static final int LOCATOR_FETCH_SIZE = 1000;
 
     private static final Logger log = LoggerFactory.getLogger(ManualRollup.class);
     private static final long START_MILLIS = Configuration.getInstance().getLongProperty(RollupToolConfig.START_MILLIS);
@@ -74,98 +62,66 @@ public class ManualRollup extends AstyanaxIO {
         for (MetricColumnFamily columnFamily : columnFamiliesEnabled) {
             log.info("\t~\tWILL manually rollup " + columnFamily.getName());
         }
-        for (MetricColumnFamily columnFamily : columnFamiliesEnabled) {
-            log.info("\t~\t~\tSTARTING to manually rollup " + columnFamily.getName());
-            rollupCf(columnFamily);
-            log.info("\t~\t~\tFinished rolling up " + columnFamily.getName());
+
+        ShardCheckpoint checkpoint = openCheckpoint();
+        ParallelRollupRunner runner = createRunner(checkpoint);
+        try {
+            for (MetricColumnFamily columnFamily : columnFamiliesEnabled) {
+                log.info("\t~\t~\tSTARTING to manually rollup " + columnFamily.getName());
+                if (!runner.run(shardsToManuallyRollup, Granularity.fromString(columnFamily.getName()))) {
+                    throw new RuntimeException("Fatal exception while re-rolling " + columnFamily.getName());
+                }
+                log.info("\t~\t~\tFinished rolling up " + columnFamily.getName());
+            }
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        } finally {
+            runner.shutdown();
+            try {
+                checkpoint.close();
+            } catch (IOException e) {
+                log.warn("Unable to close checkpoint", e);
+            }
         }
         log.info("\t~\tCompleted");
     }
 
-    private void rollupCf(final MetricColumnFamily columnFamily) {
-
-        final Granularity gran = Granularity.fromString(columnFamily.getName());
-        Function<Row<Long, Locator>, Boolean> rowFunction = new Function<Row<Long, Locator>, Boolean>() {
-
-            @Override
-            public Boolean apply(Row<Long, Locator> row) {
-
-                if (!shardsToManuallyRollup.contains(row.getKey().intValue())) {
-                    log.info("\t~\t~\tSkipping shard " + row.getKey());
-                    return true;
-                }
-
-                Timer.Context rerollContext = rerollTimerPerShard.time();
-
-                if (row == null) {
-                    log.warn("Found a null row");
-                    nullRows.mark();
-                    return true;
-                }
-
-                log.info("\t~\t~\tReRolling up for shard " + row.getKey());
-                ColumnList<Locator> columns = row.getColumns();
-                ArrayList<ReRollWork> work = new ArrayList<ReRollWork>();
-
-                for (Column<Locator> column : columns) {
-                    Locator locator = column.getName();
-                    work.add(new ReRollWork(locator, gran, new Range(START_MILLIS, STOP_MILLIS)));
-                }
-
-                List<Future<Boolean>> retList = null;
-                try {
-                    retList = rollupExecutors.invokeAll(work);
-                } catch (InterruptedException e) {}
-
-                boolean notDone = true;
+    private ShardCheckpoint openCheckpoint() {
+        String checkpointFile = Configuration.getInstance().getStringProperty(RollupToolConfig.CHECKPOINT_FILE);
+        if (checkpointFile == null || checkpointFile.trim().isEmpty()) {
+            return ShardCheckpoint.none();
+        }
+        try {
+            ShardCheckpoint checkpoint = ShardCheckpoint.open(new File(checkpointFile),
+                    "ManualRollup from " + START_MILLIS + " to " + STOP_MILLIS);
+            log.info("\t~\tResuming with " + checkpoint.getDoneCount() + " shards already rolled up");
+            return checkpoint;
+        } catch (IOException e) {
+            throw new RuntimeException("Unable to open checkpoint " + checkpointFile, e);
+        }
+    }
 
-                //We need to do this dance, because 1)We need to stop whenever an exception has encountered 2)Just keep on adding tasks to the work queue and blowing the stack. this will essentially block per shard
-                while (notDone) {
-                    int doneCount = 0;
+    private ParallelRollupRunner createRunner(ShardCheckpoint checkpoint) {
+        final DLocatorIO locatorIO = new DLocatorIO();
+        final Range range = new Range(START_MILLIS, STOP_MILLIS);
 
-                    for(Future<Boolean> myFut : retList) {
-                        if(myFut.isDone()) {
-                            doneCount++;
-                        }
+        return new ParallelRollupRunner(
+                new ParallelRollupRunner.LocatorSource() {
+                    @Override
+                    public Iterable<Locator> getLocators(int shard) {
+                        log.info("\t~\t~\tReRolling up for shard " + shard);
+                        return locatorIO.scanLocators(shard, LOCATOR_FETCH_SIZE);
                     }
-
-                    if(doneCount == retList.size())
-                        notDone = false;
-                }
-
-                try {
-
-                    for (Future<Boolean> retFut : retList) {
-                        //Calling get will throw any suppressed exception from ReRoll Work
-                        retFut.get();
+                },
+                new ParallelRollupRunner.RollupWorkFactory() {
+                    @Override
+                    public Callable<?> create(Locator locator, Granularity granularity) {
+                        return new ReRollWork(locator, granularity, range);
                     }
-
-                } catch (Exception e) {
-                    log.error("Fatal exception while re-rolling data", e);
-                    throw new RuntimeException();
-                } finally {
-                    rerollContext.stop();
-                }
-
-                return true;
-            }
-        };
-
-
-        try {
-            //Get all the locators per shard one by one
-            boolean result = new AllRowsReader.Builder<Long, Locator>(getKeyspace(), CassandraModel.CF_METRICS_LOCATOR)
-                                       .withPageSize(1) //Wide rows
-                                       .withConcurrencyLevel(1)
-                                       .forEachRow(rowFunction)
-                                       .withPartitioner(null)
-                                       .build()
-                                       .call();
-        } catch (Exception e) {
-            log.error("Fatal error in AllRowsReader", e);
-            throw new RuntimeException(e);
-        } finally {
-            rollupExecutors.shutdown();
-        }
+                },
+                checkpoint,
+                Configuration.getInstance().getIntegerProperty(RollupToolConfig.SHARD_SCAN_THREADS),
+                Configuration.getInstance().getIntegerProperty(RollupToolConfig.MAX_REROLL_THREADS),
+                Configuration.getInstance().getIntegerProperty(RollupToolConfig.MAX_PENDING_REROLLS));
     }
 }
@@ -67,8 +67,8 @@ public class ReRollWork implements Callable<Boolean> {
                         locator, r, srcCF);
                 Rollup rollup = rollupComputer.compute(input);
                 writeContexts.add(new SingleRollupWriteContext(rollup, new SingleRollupReadContext(locator, r, gran), dstCF));
-                AstyanaxWriter.getInstance().insertRollups(writeContexts);
             }
+            AstyanaxWriter.getInstance().insertRollups(writeContexts);
             log.info("Calculated Rollup for : "+locator+" Granularity: "+gran+" "+" Range: "+range);
 
         } catch (Throwable e) {
@@ -23,6 +23,12 @@ public enum RollupToolConfig implements ConfigDefaults {
     START_MILLIS("1392811200000"), // Human time (GMT): Wed, 19 Feb 2014 12:00:00 GMT
     STOP_MILLIS("1392984000000"),  //                   Fri, 21 Feb 2014 12:00:00 GMT
     MAX_REROLL_THREADS("2"),
+    // shards of metrics_locator that are read in parallel
+    SHARD_SCAN_THREADS("4"),
+    // metrics waiting to be rerolled, beyond which shard scans wait
+    MAX_PENDING_REROLLS("10000"),
+    // file that records finished shards, so that an interrupted run can be resumed. Empty to disable.
+    CHECKPOINT_FILE(""),
 
     METRICS_5M_ENABLED("true"),
     METRICS_20M_ENABLED("false"),
@@ -0,0 +1,32 @@
+#!/bin/bash
+
+#  Copies a column family from one cluster to another through the datastax driver, one token range at a time. Unlike
+#  bf-migrate, an interrupted copy can be resumed, and the copy slows down when the destination can't keep up.
+#
+#  Usage:
+#    bf-token-range-migrate
+#      -src           [required] source cluster specified via host:port:keyspace.
+#      -dst           [required] destination cluster specified via host:port:keyspace.
+#      -cf            [required] which column family to migrate.
+#      -ttl           [optional] time to live (in seconds) for migrated data. defaults to 5x the TTL for the column family.
+#      -from          [optional] millis since epoch (or ISO 6801 datetime) of when to start migrating data. defaults to one year ago.
+#      -to            [optional] millis since epoch (or ISO 6801 datetime) of when to stop migrating data. defaults to right now.
+#      -ranges        [optional] number of token ranges to split the ring into. default=4096
+#      -readers       [optional] number of token ranges read in parallel. default=8
+#      -inflight      [optional] maximum number of writes in flight. default=256
+#      -fetchsize     [optional] number of cells read per page. default=5000
+#      -batchsize     [optional] maximum number of cells per write. default=100
+#      -rate          [optional] number of cells per second to start with. default=10000
+#      -maxrate       [optional] maximum number of cells per second. default=200000
+#      -latency       [optional] average write latency in millis to slow down above. default=50
+#      -checkpoint    [optional] file to record completed ranges and their checksums in.
+#      -verify        [optional] instead of copying, compare the checksums of this fraction of the ranges in the
+#                     checkpoint to the destination, e.g. 0.01.
+#
+#  Rerun with the same options and checkpoint to resume a copy. Verification only reads the destination.
+
+WORKING_DIR="$( cd "$( dirname "${BASH_SOURCE[0]}" )" && pwd )"
+
+CP=${WORKING_DIR}/../blueflood-all/target/blueflood-all-2.0.0-SNAPSHOT-jar-with-dependencies.jar:${WORKING_DIR}/../blueflood-core/target/classes
+
+java -classpath $CP com.rackspacecloud.blueflood.tools.ops.TokenRangeMigration $@